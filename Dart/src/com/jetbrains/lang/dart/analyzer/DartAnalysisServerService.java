@@ -30,6 +30,7 @@ import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.fileEditor.FileEditorManagerListener;
 import com.intellij.openapi.fileEditor.impl.FileOffsetsManager;
 import com.intellij.openapi.fileTypes.FileTypeRegistry;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -71,6 +72,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -84,6 +86,7 @@ public final class DartAnalysisServerService implements Disposable {
   public static final String MIN_WEBDEV_SDK_VERSION = "2.6.0";
 
   private static final long UPDATE_FILES_TIMEOUT = 300;
+  private static final long UPDATE_SUBSCRIPTIONS_TIMEOUT = 150;
 
   private static final long CHECK_CANCELLED_PERIOD = 10;
   private static final long SEND_REQUEST_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
@@ -109,6 +112,8 @@ public final class DartAnalysisServerService implements Disposable {
   private static final long EXECUTION_MAP_URI_TIMEOUT = TimeUnit.SECONDS.toMillis(1);
   private static final long ANALYSIS_IN_TESTS_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
   private static final long TESTS_TIMEOUT_COEFF = 10;
+  private static final int MAX_QUEUED_REQUESTS_IN_FLIGHT = 4;
+  private static final int DEFAULT_WARM_FILES_COUNT = 5;
 
   private static final Logger LOG = Logger.getInstance(DartAnalysisServerService.class);
 
@@ -132,13 +137,21 @@ public final class DartAnalysisServerService implements Disposable {
   private final DartServerRootsHandler myRootsHandler;
   private final Map<String, Long> myFilePathWithOverlaidContentToTimestamp = new HashMap<>();
   private final List<String> myVisibleFiles = new ArrayList<>();
+  // copy of myVisibleFiles for the server response reader thread
+  private volatile Set<String> myVisibleFileSet = Collections.emptySet();
   private final Set<Document> myChangedDocuments = new HashSet<>();
+  private final DartOverlayDeltaTracker myOverlayDeltaTracker = new DartOverlayDeltaTracker();
   private final Alarm myUpdateFilesAlarm;
+  @NotNull private final DartSubscriptionManager mySubscriptionManager =
+    new DartSubscriptionManager(Registry.intValue("dart.server.warm.files.count", DEFAULT_WARM_FILES_COUNT));
+  private final Alarm myUpdateSubscriptionsAlarm;
 
   @NotNull private final Queue<CompletionInfo> myCompletionInfos = new LinkedList<>();
   @NotNull private final Queue<SearchResultsSet> mySearchResultSets = new LinkedList<>();
 
   @NotNull private final DartServerData myServerData;
+  @NotNull private final DartServerRequestQueue myRequestQueue = new DartServerRequestQueue(MAX_QUEUED_REQUESTS_IN_FLIGHT);
+  @NotNull private final DartServerResultCache myResultCache = new DartServerResultCache();
 
   private volatile boolean myAnalysisInProgress;
   private volatile boolean myPubListInProgress;
@@ -189,6 +202,8 @@ public final class DartAnalysisServerService implements Disposable {
 
     @Override
     public void computedErrors(@NotNull final String filePathSD, @NotNull final List<AnalysisError> errors) {
+      myResultCache.errorsComputed(filePathSD);
+
       final String fileName = PathUtil.getFileName(filePathSD);
 
       final ProgressIndicator indicator = myProgressIndicator;
@@ -228,11 +243,13 @@ public final class DartAnalysisServerService implements Disposable {
 
     @Override
     public void computedHighlights(@NotNull final String filePath, @NotNull final List<HighlightRegion> regions) {
+      mySubscriptionManager.notificationReceived(AnalysisService.HIGHLIGHTS, System.currentTimeMillis());
       myServerData.computedHighlights(FileUtil.toSystemIndependentName(filePath), regions);
     }
 
     @Override
     public void computedClosingLabels(@NotNull final String filePath, List<ClosingLabel> labels) {
+      mySubscriptionManager.notificationReceived(AnalysisService.CLOSING_LABELS, System.currentTimeMillis());
       myServerData.computedClosingLabels(FileUtil.toSystemIndependentName(filePath), labels);
     }
 
@@ -240,21 +257,25 @@ public final class DartAnalysisServerService implements Disposable {
     public void computedImplemented(String _filePath,
                                     List<ImplementedClass> implementedClasses,
                                     List<ImplementedMember> implementedMembers) {
+      mySubscriptionManager.notificationReceived(AnalysisService.IMPLEMENTED, System.currentTimeMillis());
       myServerData.computedImplemented(FileUtil.toSystemIndependentName(_filePath), implementedClasses, implementedMembers);
     }
 
     @Override
     public void computedNavigation(@NotNull final String _filePath, @NotNull final List<NavigationRegion> regions) {
+      mySubscriptionManager.notificationReceived(AnalysisService.NAVIGATION, System.currentTimeMillis());
       myServerData.computedNavigation(FileUtil.toSystemIndependentName(_filePath), regions);
     }
 
     @Override
     public void computedOverrides(@NotNull final String _filePath, @NotNull final List<OverrideMember> overrides) {
+      mySubscriptionManager.notificationReceived(AnalysisService.OVERRIDES, System.currentTimeMillis());
       myServerData.computedOverrides(FileUtil.toSystemIndependentName(_filePath), overrides);
     }
 
     @Override
     public void computedOutline(@NotNull final String _filePath, @NotNull final Outline outline) {
+      mySubscriptionManager.notificationReceived(AnalysisService.OUTLINE, System.currentTimeMillis());
       myServerData.computedOutline(FileUtil.toSystemIndependentName(_filePath), outline);
     }
 
@@ -519,6 +540,7 @@ public final class DartAnalysisServerService implements Disposable {
     myRootsHandler = new DartServerRootsHandler(project);
     myServerData = new DartServerData(this);
     myUpdateFilesAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    myUpdateSubscriptionsAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
     myShowServerProgressAlarm = new Alarm(this);
     myServerErrorHandler = new DartAnalysisServerErrorHandler(project);
 
@@ -684,6 +706,8 @@ public final class DartAnalysisServerService implements Disposable {
           // file could be opened in more than one editor, so this check is needed
           if (FileEditorManager.getInstance(myProject).getSelectedEditor(file) == null) {
             myServerData.onFileClosed(file);
+            mySubscriptionManager.fileClosed(FileUtil.toSystemDependentName(file.getPath()));
+            scheduleSubscriptionsUpdate();
           }
 
           updateVisibleFiles();
@@ -715,6 +739,22 @@ public final class DartAnalysisServerService implements Disposable {
         myUpdateFilesAlarm.cancelAllRequests();
         myUpdateFilesAlarm.addRequest(DartAnalysisServerService.this::updateFilesContent, UPDATE_FILES_TIMEOUT);
       }
+
+      @Override
+      public void documentChanged(@NotNull DocumentEvent e) {
+        if (myServer == null) return;
+
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(e.getDocument());
+        if (file == null) return;
+
+        synchronized (myLock) {
+          // edits are interesting only if the server already has the overlaid content they are relative to
+          if (myFilePathWithOverlaidContentToTimestamp.containsKey(file.getPath())) {
+            myOverlayDeltaTracker.documentChanged(file.getPath(), e.getOldTimeStamp(), e.getDocument().getModificationStamp(),
+                                                  e.getOffset(), e.getOldLength(), e.getNewFragment());
+          }
+        }
+      }
     };
 
     EditorFactory.getInstance().getEventMulticaster().addDocumentListener(documentListener, this);
@@ -746,7 +786,7 @@ public final class DartAnalysisServerService implements Disposable {
   }
 
   private void handleClosingLabelPreferenceChanged() {
-    analysis_setSubscriptions();
+    scheduleSubscriptionsUpdate();
   }
 
   @Nullable
@@ -832,14 +872,38 @@ public final class DartAnalysisServerService implements Disposable {
       }
 
       if (!Comparing.haveEqualElements(myVisibleFiles, newVisibleFiles)) {
+        final Set<String> newlyVisibleFiles = new HashSet<>(newVisibleFiles);
+        newlyVisibleFiles.removeAll(myVisibleFiles);
         myVisibleFiles.clear();
         myVisibleFiles.addAll(newVisibleFiles);
-        analysis_setPriorityFiles();
-        analysis_setSubscriptions();
+        myVisibleFileSet = new HashSet<>(newVisibleFiles);
+
+        final RemoteAnalysisServerImpl server = myServer;
+        if (server != null && !newlyVisibleFiles.isEmpty()) {
+          // results computed while the files were hidden haven't been decoded yet
+          ApplicationManager.getApplication().executeOnPooledThread(() -> server.decodeDeferredNotifications(newlyVisibleFiles));
+        }
+
+        mySubscriptionManager.setVisibleFiles(newVisibleFiles);
+        scheduleSubscriptionsUpdate();
       }
     }
   }
 
+  /**
+   * Fast switching between editor tabs changes visible files many times per second, so priority files and subscriptions are
+   * sent to the server when the selection settles down.
+   */
+  private void scheduleSubscriptionsUpdate() {
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      updateSubscriptions();
+      return;
+    }
+
+    myUpdateSubscriptionsAlarm.cancelAllRequests();
+    myUpdateSubscriptionsAlarm.addRequest(this::updateSubscriptions, UPDATE_SUBSCRIPTIONS_TIMEOUT);
+  }
+
   /**
    * Return true if the given file can be analyzed by Dart Analysis Server.
    */
@@ -872,8 +936,6 @@ public final class DartAnalysisServerService implements Disposable {
   }
 
   private void doUpdateFilesContent() {
-    // may be use DocumentListener to collect deltas instead of sending the whole Document.getText() each time?
-
     AnalysisServer server = myServer;
     if (server == null) {
       return;
@@ -901,7 +963,17 @@ public final class DartAnalysisServerService implements Disposable {
 
           final Long oldTimestamp = myFilePathWithOverlaidContentToTimestamp.get(file.getPath());
           if (oldTimestamp == null || document.getModificationStamp() != oldTimestamp) {
-            filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), new AddContentOverlay(document.getText()));
+            final List<SourceEdit> edits = oldTimestamp == null || !Registry.is("dart.server.overlay.deltas", true)
+                                           ? null
+                                           : myOverlayDeltaTracker.getEdits(file.getPath(), oldTimestamp, document.getModificationStamp(),
+                                                                            document.getTextLength());
+            if (edits != null) {
+              filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), new ChangeContentOverlay(edits));
+            }
+            else {
+              filesToUpdate.put(FileUtil.toSystemDependentName(file.getPath()), new AddContentOverlay(document.getText()));
+            }
+            myOverlayDeltaTracker.reset(file.getPath());
             myFilePathWithOverlaidContentToTimestamp.put(file.getPath(), document.getModificationStamp());
           }
         }
@@ -911,6 +983,7 @@ public final class DartAnalysisServerService implements Disposable {
       for (String oldPath : oldTrackedFiles) {
         final Long removed = myFilePathWithOverlaidContentToTimestamp.remove(oldPath);
         LOG.assertTrue(removed != null, oldPath);
+        myOverlayDeltaTracker.reset(oldPath);
         filesToUpdate.put(FileUtil.toSystemDependentName(oldPath), new RemoveContentOverlay());
       }
 
@@ -930,10 +1003,43 @@ public final class DartAnalysisServerService implements Disposable {
     }
 
     if (!filesToUpdate.isEmpty()) {
-      server.analysis_updateContent(filesToUpdate, myServerData::onFilesContentUpdated);
+      final boolean sentDeltas = ContainerUtil.exists(filesToUpdate.values(), overlay -> overlay instanceof ChangeContentOverlay);
+      myResultCache.contentUpdated();
+      server.analysis_updateContent(filesToUpdate, new UpdateContentConsumer() {
+        @Override
+        public void onResponse() {
+          myServerData.onFilesContentUpdated();
+        }
+
+        @Override
+        public void onError(@NotNull RequestError error) {
+          // the whole request is rejected, so none of its overlays is applied; without deltas the retry can't fail the same way
+          if (sentDeltas) {
+            resendFullContent(ContainerUtil.map(filesToUpdate.keySet(), FileUtil::toSystemIndependentName), error);
+          }
+        }
+      });
     }
   }
 
+  /**
+   * The server failed to apply {@link ChangeContentOverlay}, most likely because its overlay is not what we thought it is,
+   * and rejected all other overlay changes of the same request along with it.
+   * Make sure that the whole text of these files is sent next time, or their overlays are removed once more if they are not needed anymore.
+   */
+  private void resendFullContent(@NotNull Collection<String> filePaths, @NotNull RequestError error) {
+    LOG.info("Failed to update content with edits, will send the whole content of " + filePaths + ": " + error.getMessage());
+    synchronized (myLock) {
+      for (String path : filePaths) {
+        // a removed overlay becomes tracked again, so that the next update removes it if the document is still saved
+        myFilePathWithOverlaidContentToTimestamp.put(path, -1L);
+        myOverlayDeltaTracker.reset(path);
+      }
+    }
+    myUpdateFilesAlarm.cancelAllRequests();
+    myUpdateFilesAlarm.addRequest(this::updateFilesContent, 0);
+  }
+
   public void ensureAnalysisRootsUpToDate() {
     myRootsHandler.updateRoots();
   }
@@ -1015,31 +1121,54 @@ public final class DartAnalysisServerService implements Disposable {
       return HoverInformation.EMPTY_LIST;
     }
 
-    final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final List<HoverInformation> result = new ArrayList<>();
+    final CompletableFuture<List<HoverInformation>> future = analysis_getHoverAsync(file, _offset, DartServerRequestQueue.Priority.EDITOR);
+    if (!awaitForFutureCheckingCanceled(server, future, GET_HOVER_TIMEOUT)) {
+      logTookTooLongMessage("analysis_getHover", GET_HOVER_TIMEOUT, FileUtil.toSystemDependentName(file.getPath()));
+    }
+    return getResultOrDefault(future, HoverInformation.EMPTY_LIST);
+  }
 
-    final CountDownLatch latch = new CountDownLatch(1);
-    final int offset = getOriginalOffset(file, _offset);
-    server.analysis_getHover(filePath, offset, new GetHoverConsumer() {
-      @Override
-      public void computedHovers(HoverInformation[] hovers) {
-        Collections.addAll(result, hovers);
-        latch.countDown();
-      }
+  /**
+   * Identical requests for the same version of the file share one server request.
+   * The returned future is completed with an empty list if the server is not running or responds with an error.
+   */
+  @NotNull
+  public CompletableFuture<List<HoverInformation>> analysis_getHoverAsync(@NotNull final VirtualFile file,
+                                                                          final int _offset,
+                                                                          @NotNull final DartServerRequestQueue.Priority priority) {
+    final RemoteAnalysisServerImpl server = myServer;
+    if (server == null) {
+      return CompletableFuture.completedFuture(HoverInformation.EMPTY_LIST);
+    }
 
-      @Override
-      public void onError(RequestError error) {
-        logError("analysis_getHover()", filePath, error);
-        latch.countDown();
-      }
-    });
+    final String filePath = FileUtil.toSystemDependentName(file.getPath());
+    final int offset = getOriginalOffset(file, _offset);
+    final long modificationStamp = getModificationStamp(file);
+    final List<HoverInformation> cached = myResultCache.get(DartServerResultCache.Kind.HOVER, filePath, modificationStamp, offset, 0);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
 
-    awaitForLatchCheckingCanceled(server, latch, GET_HOVER_TIMEOUT);
+    final long cacheGeneration = myResultCache.getGeneration();
+    final Object key = Arrays.asList("analysis.getHover", filePath, modificationStamp, offset);
+    return myRequestQueue.submit(key, priority, result -> {
+      final GetHoverConsumer consumer = new GetHoverConsumer() {
+        @Override
+        public void computedHovers(HoverInformation[] hovers) {
+          final List<HoverInformation> hoverList = Arrays.asList(hovers);
+          myResultCache.put(DartServerResultCache.Kind.HOVER, filePath, modificationStamp, offset, 0, hoverList, cacheGeneration);
+          result.complete(hoverList);
+        }
 
-    if (latch.getCount() > 0) {
-      logTookTooLongMessage("analysis_getHover", GET_HOVER_TIMEOUT, filePath);
-    }
-    return result;
+        @Override
+        public void onError(RequestError error) {
+          logError("analysis_getHover()", filePath, error);
+          result.complete(HoverInformation.EMPTY_LIST);
+        }
+      };
+      server.analysis_getHover(filePath, offset, consumer);
+      return () -> server.cancelRequest(consumer);
+    });
   }
 
   @Nullable
@@ -1051,47 +1180,72 @@ public final class DartAnalysisServerService implements Disposable {
       return null;
     }
 
-    final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final Ref<List<DartServerData.DartNavigationRegion>> resultRef = Ref.create();
+    final CompletableFuture<List<DartServerData.DartNavigationRegion>> future =
+      analysis_getNavigationAsync(file, _offset, length, DartServerRequestQueue.Priority.EDITOR);
+    if (!awaitForFutureCheckingCanceled(server, future, GET_NAVIGATION_TIMEOUT)) {
+      logTookTooLongMessage("analysis_getNavigation", GET_NAVIGATION_TIMEOUT, FileUtil.toSystemDependentName(file.getPath()));
+    }
+    return getResultOrDefault(future, null);
+  }
 
-    final CountDownLatch latch = new CountDownLatch(1);
+  /**
+   * Identical requests for the same version of the file share one server request.
+   * The returned future is completed with {@code null} if the server is not running or responds with an error.
+   */
+  @NotNull
+  public CompletableFuture<List<DartServerData.DartNavigationRegion>> analysis_getNavigationAsync(@NotNull final VirtualFile file,
+                                                                                                  final int _offset,
+                                                                                                  final int length,
+                                                                                                  @NotNull final DartServerRequestQueue.Priority priority) {
+    final RemoteAnalysisServerImpl server = myServer;
+    if (server == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    final String filePath = FileUtil.toSystemDependentName(file.getPath());
     LOG.debug("analysis_getNavigation(" + filePath + ")");
 
     final int offset = getOriginalOffset(file, _offset);
-    server.analysis_getNavigation(filePath, offset, length, new GetNavigationConsumer() {
-      @Override
-      public void computedNavigation(final List<NavigationRegion> regions) {
-        final List<DartServerData.DartNavigationRegion> dartRegions = new ArrayList<>(regions.size());
-        for (NavigationRegion region : regions) {
-          if (region.getLength() > 0) {
-            dartRegions.add(DartServerData.createDartNavigationRegion(DartAnalysisServerService.this, file, region));
+    final long modificationStamp = getModificationStamp(file);
+    final List<DartServerData.DartNavigationRegion> cached =
+      myResultCache.get(DartServerResultCache.Kind.NAVIGATION, filePath, modificationStamp, offset, length);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    final long cacheGeneration = myResultCache.getGeneration();
+    final Object key = Arrays.asList("analysis.getNavigation", filePath, modificationStamp, offset, length);
+    return myRequestQueue.submit(key, priority, result -> {
+      final GetNavigationConsumer consumer = new GetNavigationConsumer() {
+        @Override
+        public void computedNavigation(final List<NavigationRegion> regions) {
+          final List<DartServerData.DartNavigationRegion> dartRegions = new ArrayList<>(regions.size());
+          for (NavigationRegion region : regions) {
+            if (region.getLength() > 0) {
+              dartRegions.add(DartServerData.createDartNavigationRegion(DartAnalysisServerService.this, file, region));
+            }
           }
+
+          myResultCache.put(DartServerResultCache.Kind.NAVIGATION, filePath, modificationStamp, offset, length, dartRegions,
+                            cacheGeneration);
+          result.complete(dartRegions);
         }
 
-        resultRef.set(dartRegions);
-        latch.countDown();
-      }
+        @Override
+        public void onError(final RequestError error) {
+          if (RequestErrorCode.GET_NAVIGATION_INVALID_FILE.equals(error.getCode())) {
+            LOG.info(getShortErrorMessage("analysis_getNavigation()", filePath, error));
+          }
+          else {
+            logError("analysis_getNavigation()", filePath, error);
+          }
 
-      @Override
-      public void onError(final RequestError error) {
-        if (RequestErrorCode.GET_NAVIGATION_INVALID_FILE.equals(error.getCode())) {
-          LOG.info(getShortErrorMessage("analysis_getNavigation()", filePath, error));
+          result.complete(null);
         }
-        else {
-          logError("analysis_getNavigation()", filePath, error);
-        }
-
-        latch.countDown();
-      }
+      };
+      server.analysis_getNavigation(filePath, offset, length, consumer);
+      return () -> server.cancelRequest(consumer);
     });
-
-    awaitForLatchCheckingCanceled(server, latch, GET_NAVIGATION_TIMEOUT);
-
-    if (latch.getCount() > 0) {
-      logTookTooLongMessage("analysis_getNavigation", GET_NAVIGATION_TIMEOUT, filePath);
-    }
-
-    return resultRef.get();
   }
 
   @NotNull
@@ -1101,33 +1255,46 @@ public final class DartAnalysisServerService implements Disposable {
       return Collections.emptyList();
     }
 
+    final CompletableFuture<List<SourceChange>> future = edit_getAssistsAsync(file, _offset, _length, DartServerRequestQueue.Priority.EDITOR);
+    final long timeout = ApplicationManager.getApplication().isDispatchThread() ? GET_ASSISTS_TIMEOUT_EDT : GET_ASSISTS_TIMEOUT;
+    if (!awaitForFutureCheckingCanceled(server, future, timeout)) {
+      logTookTooLongMessage("edit_getAssists", timeout, FileUtil.toSystemDependentName(file.getPath()));
+    }
+    return getResultOrDefault(future, Collections.emptyList());
+  }
+
+  /**
+   * The returned future is completed with an empty list if the server is not running or responds with an error.
+   */
+  @NotNull
+  public CompletableFuture<List<SourceChange>> edit_getAssistsAsync(@NotNull final VirtualFile file,
+                                                                    final int _offset,
+                                                                    final int _length,
+                                                                    @NotNull final DartServerRequestQueue.Priority priority) {
+    final RemoteAnalysisServerImpl server = myServer;
+    if (server == null) {
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final List<SourceChange> results = new ArrayList<>();
-    final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
     final int length = getOriginalOffset(file, _offset + _length) - offset;
-    server.edit_getAssists(filePath, offset, length, new GetAssistsConsumer() {
-      @Override
-      public void computedSourceChanges(List<SourceChange> sourceChanges) {
-        results.addAll(sourceChanges);
-        latch.countDown();
-      }
+    return myRequestQueue.submit(null, priority, result -> {
+      final GetAssistsConsumer consumer = new GetAssistsConsumer() {
+        @Override
+        public void computedSourceChanges(List<SourceChange> sourceChanges) {
+          result.complete(sourceChanges);
+        }
 
-      @Override
-      public void onError(final RequestError error) {
-        logError("edit_getAssists()", filePath, error);
-        latch.countDown();
-      }
+        @Override
+        public void onError(final RequestError error) {
+          logError("edit_getAssists()", filePath, error);
+          result.complete(Collections.emptyList());
+        }
+      };
+      server.edit_getAssists(filePath, offset, length, consumer);
+      return () -> server.cancelRequest(consumer);
     });
-
-    final long timeout = ApplicationManager.getApplication().isDispatchThread() ? GET_ASSISTS_TIMEOUT_EDT : GET_ASSISTS_TIMEOUT;
-
-    awaitForLatchCheckingCanceled(server, latch, timeout);
-
-    if (latch.getCount() > 0) {
-      logTookTooLongMessage("edit_getAssists", timeout, filePath);
-    }
-    return results;
   }
 
   public boolean edit_isPostfixCompletionApplicable(VirtualFile file, int _offset, String key) {
@@ -1282,67 +1449,80 @@ public final class DartAnalysisServerService implements Disposable {
       return;
     }
 
-    final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final CountDownLatch latch = new CountDownLatch(1);
-    final int offset = getOriginalOffset(file, _offset);
-    server.edit_getFixes(filePath, offset, new GetFixesConsumer() {
-      @Override
-      public void computedFixes(final List<AnalysisErrorFixes> fixes) {
+    final CompletableFuture<List<AnalysisErrorFixes>> future = edit_getFixesAsync(file, _offset, DartServerRequestQueue.Priority.EDITOR);
+    final CompletableFuture<Void> consumed = future.thenAccept(fixes -> {
+      if (fixes != null) {
         consumer.consume(fixes);
-        latch.countDown();
-      }
-
-      @Override
-      public void onError(final RequestError error) {
-        logError("edit_getFixes()", filePath, error);
-        latch.countDown();
       }
     });
 
     final long timeout = ApplicationManager.getApplication().isDispatchThread() ? GET_FIXES_TIMEOUT_EDT : GET_FIXES_TIMEOUT;
 
-    awaitForLatchCheckingCanceled(server, latch, timeout);
+    // the request is not cancelled on timeout, the consumer is notified later
+    final CountDownLatch latch = new CountDownLatch(1);
+    consumed.whenComplete((result, throwable) -> latch.countDown());
+    try {
+      awaitForLatchCheckingCanceled(server, latch, timeout);
+    }
+    catch (ProcessCanceledException e) {
+      future.cancel(false);
+      throw e;
+    }
 
     if (latch.getCount() > 0) {
-      logTookTooLongMessage("edit_getFixes", timeout, filePath);
+      logTookTooLongMessage("edit_getFixes", timeout, FileUtil.toSystemDependentName(file.getPath()));
     }
   }
 
-  public void search_findElementReferences(@NotNull final VirtualFile file,
-                                           final int _offset,
-                                           @NotNull final Consumer<? super SearchResult> consumer) {
-    final AnalysisServer server = myServer;
+  /**
+   * The returned future is completed with {@code null} if the server is not running or responds with an error.
+   */
+  @NotNull
+  public CompletableFuture<List<AnalysisErrorFixes>> edit_getFixesAsync(@NotNull final VirtualFile file,
+                                                                        final int _offset,
+                                                                        @NotNull final DartServerRequestQueue.Priority priority) {
+    final RemoteAnalysisServerImpl server = myServer;
     if (server == null) {
-      return;
+      return CompletableFuture.completedFuture(null);
     }
 
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final Ref<String> searchIdRef = new Ref<>();
-
-    final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
-    server.search_findElementReferences(filePath, offset, true, new FindElementReferencesConsumer() {
-      @Override
-      public void computedElementReferences(String searchId, Element element) {
-        searchIdRef.set(searchId);
-        latch.countDown();
-      }
+    return myRequestQueue.submit(null, priority, result -> {
+      final GetFixesConsumer consumer = new GetFixesConsumer() {
+        @Override
+        public void computedFixes(final List<AnalysisErrorFixes> fixes) {
+          result.complete(fixes);
+        }
 
-      @Override
-      public void onError(RequestError error) {
-        LOG.info(getShortErrorMessage("search_findElementReferences()", filePath, error));
-        latch.countDown();
-      }
+        @Override
+        public void onError(final RequestError error) {
+          logError("edit_getFixes()", filePath, error);
+          result.complete(null);
+        }
+      };
+      server.edit_getFixes(filePath, offset, consumer);
+      return () -> server.cancelRequest(consumer);
     });
+  }
 
-    awaitForLatchCheckingCanceled(server, latch, FIND_ELEMENT_REFERENCES_TIMEOUT);
+  public void search_findElementReferences(@NotNull final VirtualFile file,
+                                           final int _offset,
+                                           @NotNull final Consumer<? super SearchResult> consumer) {
+    final AnalysisServer server = myServer;
+    if (server == null) {
+      return;
+    }
 
-    if (latch.getCount() > 0) {
-      logTookTooLongMessage("search_findElementReferences", FIND_ELEMENT_REFERENCES_TIMEOUT, filePath + "@" + offset);
+    final CompletableFuture<String> future = search_findElementReferencesAsync(file, _offset, DartServerRequestQueue.Priority.BACKGROUND);
+    if (!awaitForFutureCheckingCanceled(server, future, FIND_ELEMENT_REFERENCES_TIMEOUT)) {
+      final String filePath = FileUtil.toSystemDependentName(file.getPath());
+      logTookTooLongMessage("search_findElementReferences", FIND_ELEMENT_REFERENCES_TIMEOUT,
+                            filePath + "@" + getOriginalOffset(file, _offset));
       return;
     }
 
-    final String searchId = searchIdRef.get();
+    final String searchId = getResultOrDefault(future, null);
     if (searchId == null) {
       return;
     }
@@ -1370,6 +1550,38 @@ public final class DartAnalysisServerService implements Disposable {
     }
   }
 
+  /**
+   * The returned future is completed with the search id, or with {@code null} if the server is not running or responds with an error.
+   */
+  @NotNull
+  public CompletableFuture<String> search_findElementReferencesAsync(@NotNull final VirtualFile file,
+                                                                     final int _offset,
+                                                                     @NotNull final DartServerRequestQueue.Priority priority) {
+    final RemoteAnalysisServerImpl server = myServer;
+    if (server == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    final String filePath = FileUtil.toSystemDependentName(file.getPath());
+    final int offset = getOriginalOffset(file, _offset);
+    return myRequestQueue.submit(null, priority, result -> {
+      final FindElementReferencesConsumer consumer = new FindElementReferencesConsumer() {
+        @Override
+        public void computedElementReferences(String searchId, Element element) {
+          result.complete(searchId);
+        }
+
+        @Override
+        public void onError(RequestError error) {
+          LOG.info(getShortErrorMessage("search_findElementReferences()", filePath, error));
+          result.complete(null);
+        }
+      };
+      server.search_findElementReferences(filePath, offset, true, consumer);
+      return () -> server.cancelRequest(consumer);
+    });
+  }
+
   @NotNull
   public List<TypeHierarchyItem> search_getTypeHierarchy(@NotNull final VirtualFile file, final int _offset, final boolean superOnly) {
     final List<TypeHierarchyItem> results = new ArrayList<>();
@@ -1379,11 +1591,23 @@ public final class DartAnalysisServerService implements Disposable {
     }
 
     final String filePath = FileUtil.toSystemDependentName(file.getPath());
-    final CountDownLatch latch = new CountDownLatch(1);
     final int offset = getOriginalOffset(file, _offset);
+    final long modificationStamp = getModificationStamp(file);
+    final int superOnlyFlag = superOnly ? 1 : 0;
+    final List<TypeHierarchyItem> cached =
+      myResultCache.get(DartServerResultCache.Kind.TYPE_HIERARCHY, filePath, modificationStamp, offset, superOnlyFlag);
+    if (cached != null) {
+      results.addAll(cached);
+      return results;
+    }
+
+    final long cacheGeneration = myResultCache.getGeneration();
+    final CountDownLatch latch = new CountDownLatch(1);
     server.search_getTypeHierarchy(filePath, offset, superOnly, new GetTypeHierarchyConsumer() {
       @Override
       public void computedHierarchy(List<TypeHierarchyItem> hierarchyItems) {
+        myResultCache.put(DartServerResultCache.Kind.TYPE_HIERARCHY, filePath, modificationStamp, offset, superOnlyFlag,
+                          new ArrayList<>(hierarchyItems), cacheGeneration);
         results.addAll(hierarchyItems);
         latch.countDown();
       }
@@ -1753,43 +1977,56 @@ public final class DartAnalysisServerService implements Disposable {
     ApplicationManager.getApplication().invokeLater(this::clearAllErrors, ModalityState.NON_MODAL, myDisposedCondition);
   }
 
-  private void analysis_setPriorityFiles() {
-    synchronized (myLock) {
-      if (myServer == null) return;
-
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("analysis_setPriorityFiles, files:\n" + StringUtil.join(myVisibleFiles, ",\n"));
-      }
-
-      myServer.analysis_setPriorityFiles(myVisibleFiles);
-    }
-  }
-
-  private void analysis_setSubscriptions() {
+  private void updateSubscriptions() {
     synchronized (myLock) {
-      if (myServer == null) return;
-
-      final Map<String, List<String>> subscriptions = new HashMap<>();
-      subscriptions.put(AnalysisService.HIGHLIGHTS, myVisibleFiles);
-      subscriptions.put(AnalysisService.NAVIGATION, myVisibleFiles);
-      subscriptions.put(AnalysisService.OVERRIDES, myVisibleFiles);
-      subscriptions.put(AnalysisService.OUTLINE, myVisibleFiles);
+      final RemoteAnalysisServerImpl server = myServer;
+      if (server == null) return;
+
+      final List<String> visibleFileServices = new ArrayList<>();
+      visibleFileServices.add(AnalysisService.HIGHLIGHTS);
+      visibleFileServices.add(AnalysisService.NAVIGATION);
+      visibleFileServices.add(AnalysisService.OVERRIDES);
+      visibleFileServices.add(AnalysisService.OUTLINE);
       if (StringUtil.compareVersionNumbers(mySdkVersion, "1.13") >= 0) {
-        subscriptions.put(AnalysisService.IMPLEMENTED, myVisibleFiles);
+        visibleFileServices.add(AnalysisService.IMPLEMENTED);
       }
       if (DartClosingLabelManager.getInstance().getShowClosingLabels()
           && StringUtil.compareVersionNumbers(mySdkVersion, "1.25.0") >= 0) {
-        subscriptions.put(AnalysisService.CLOSING_LABELS, myVisibleFiles);
+        visibleFileServices.add(AnalysisService.CLOSING_LABELS);
       }
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("analysis_setSubscriptions, subscriptions:\n" + subscriptions);
-      }
+      // what is needed to show a file immediately when switching back to it
+      final List<String> warmFileServices =
+        Arrays.asList(AnalysisService.HIGHLIGHTS, AnalysisService.NAVIGATION, AnalysisService.OUTLINE);
+
+      mySubscriptionManager.flush(visibleFileServices, warmFileServices, new DartSubscriptionManager.Sender() {
+        @Override
+        public void setPriorityFiles(@NotNull List<String> files) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("analysis_setPriorityFiles, files:\n" + StringUtil.join(files, ",\n"));
+          }
+          server.analysis_setPriorityFiles(files);
+        }
 
-      myServer.analysis_setSubscriptions(subscriptions);
+        @Override
+        public void setSubscriptions(@NotNull Map<String, List<String>> subscriptions) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("analysis_setSubscriptions, subscriptions:\n" + subscriptions);
+          }
+          server.analysis_setSubscriptions(subscriptions);
+        }
+      });
     }
   }
 
+  /**
+   * @return average number of highlights, navigation, outline, overrides, implemented and closing labels notifications per second
+   * received during the last 10 seconds
+   */
+  public double getSubscriptionNotificationsPerSecond() {
+    return mySubscriptionManager.getNotificationsPerSecond(System.currentTimeMillis());
+  }
+
   @Nullable
   public String execution_createContext(@NotNull final String _filePath) {
     final AnalysisServer server = myServer;
@@ -2003,6 +2240,8 @@ public final class DartAnalysisServerService implements Disposable {
       myServerSocket.setClientVersion(getClientVersion());
 
       final RemoteAnalysisServerImpl startedServer = new RemoteAnalysisServerImpl(myServerSocket);
+      startedServer.setStreamingNotificationDecoding(Registry.is("dart.server.streaming.decoder", true));
+      startedServer.setNotificationDeferralFilter(filePath -> !myVisibleFileSet.contains(filePath));
 
       try {
         startedServer.start();
@@ -2144,12 +2383,24 @@ public final class DartAnalysisServerService implements Disposable {
 
       stopShowingServerProgress();
       myUpdateFilesAlarm.cancelAllRequests();
+      myUpdateSubscriptionsAlarm.cancelAllRequests();
 
+      myRequestQueue.cancelAll();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Result cache: " + myResultCache.getHitCount() + " hits, " + myResultCache.getMissCount() + " misses");
+        LOG.debug("Subscriptions: " + mySubscriptionManager.getSentRequestCount() + " updates sent, " +
+                  mySubscriptionManager.getSkippedRequestCount() + " skipped, notifications received: " +
+                  mySubscriptionManager.getNotificationCounts());
+      }
+      mySubscriptionManager.reset();
+      myResultCache.clear();
       myServerSocket = null;
       myServer = null;
       mySdkHome = null;
       myFilePathWithOverlaidContentToTimestamp.clear();
+      myOverlayDeltaTracker.clear();
       myVisibleFiles.clear();
+      myVisibleFileSet = Collections.emptySet();
       myChangedDocuments.clear();
       myServerData.clearData();
       myRootsHandler.onServerStopped();
@@ -2265,6 +2516,53 @@ public final class DartAnalysisServerService implements Disposable {
     }
   }
 
+  /**
+   * Number of hover, navigation and type hierarchy requests answered from the cache since the project was opened, for diagnostics.
+   */
+  public int getResultCacheHitCount() {
+    return myResultCache.getHitCount();
+  }
+
+  /**
+   * Number of hover, navigation and type hierarchy requests that were not found in the cache since the project was opened, for diagnostics.
+   */
+  public int getResultCacheMissCount() {
+    return myResultCache.getMissCount();
+  }
+
+  /**
+   * Same as {@link #awaitForLatchCheckingCanceled}; the future is cancelled if the wait is canceled by the user.
+   */
+  private static boolean awaitForFutureCheckingCanceled(@NotNull final AnalysisServer server,
+                                                        @NotNull final CompletableFuture<?> future,
+                                                        long timeoutInMillis) {
+    final CountDownLatch latch = new CountDownLatch(1);
+    future.whenComplete((result, throwable) -> latch.countDown());
+    try {
+      if (awaitForLatchCheckingCanceled(server, latch, timeoutInMillis)) {
+        return true;
+      }
+    }
+    catch (ProcessCanceledException e) {
+      future.cancel(false);
+      throw e;
+    }
+
+    // nobody waits for the response anymore
+    future.cancel(false);
+    return false;
+  }
+
+  @Contract("_, !null -> !null")
+  private static <T> T getResultOrDefault(@NotNull final CompletableFuture<T> future, @Nullable final T defaultValue) {
+    return future.isDone() && !future.isCompletedExceptionally() ? future.join() : defaultValue;
+  }
+
+  private static long getModificationStamp(@NotNull final VirtualFile file) {
+    final Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+    return document != null ? document.getModificationStamp() : file.getModificationStamp();
+  }
+
   private void registerPostfixCompletionTemplates() {
     ApplicationManager.getApplication().executeOnPooledThread(() -> DartPostfixTemplateProvider.initializeTemplates(this));
   }
@@ -0,0 +1,78 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Highlight regions of a file; the types are stored as indices into the table of the distinct types used in the file.
+ */
+final class DartHighlightRegions extends DartPackedRegions<DartServerData.DartHighlightRegion> {
+  private final String[] myTypes;
+  private final short[] myTypeIndices;
+
+  private DartHighlightRegions(int[] offsets, int[] lengths, String[] types, short[] typeIndices) {
+    super(offsets, lengths);
+    myTypes = types;
+    myTypeIndices = typeIndices;
+  }
+
+  @Override
+  public DartServerData.DartHighlightRegion get(int index) {
+    return new DartServerData.DartHighlightRegion(myOffsets[index], myLengths[index], myTypes[myTypeIndices[index]]);
+  }
+
+  @NotNull
+  @Override
+  protected DartHighlightRegions retain(int @NotNull [] indices) {
+    short[] typeIndices = new short[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      typeIndices[i] = myTypeIndices[indices[i]];
+    }
+    return new DartHighlightRegions(select(myOffsets, indices), select(myLengths, indices), myTypes, typeIndices);
+  }
+
+  static final class Builder {
+    private final int[] myOffsets;
+    private final int[] myLengths;
+    private final short[] myTypeIndices;
+    private final List<String> myTypes = new ArrayList<>();
+    private final Map<String, Short> myTypeToIndex = new HashMap<>();
+    private int mySize;
+
+    Builder(int capacity) {
+      myOffsets = new int[capacity];
+      myLengths = new int[capacity];
+      myTypeIndices = new short[capacity];
+    }
+
+    void add(int offset, int length, @NotNull String type) {
+      Short typeIndex = myTypeToIndex.get(type);
+      if (typeIndex == null) {
+        typeIndex = (short)myTypes.size();
+        myTypes.add(type.intern());
+        myTypeToIndex.put(type, typeIndex);
+      }
+      myOffsets[mySize] = offset;
+      myLengths[mySize] = length;
+      myTypeIndices[mySize] = typeIndex;
+      mySize++;
+    }
+
+    @NotNull
+    DartHighlightRegions build() {
+      return new DartHighlightRegions(trim(myOffsets, mySize), trim(myLengths, mySize),
+                                      ArrayUtil.toStringArray(myTypes), Arrays.copyOf(myTypeIndices, mySize));
+    }
+
+    private static int[] trim(int[] array, int size) {
+      return array.length == size ? array : ArrayUtil.realloc(array, size);
+    }
+  }
+}
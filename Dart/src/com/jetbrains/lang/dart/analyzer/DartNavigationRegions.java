@@ -0,0 +1,199 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.SmartList;
+import org.dartlang.analysis.server.protocol.NavigationTarget;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Navigation regions of a file. Each distinct navigation target is stored once and referenced by index from the regions;
+ * target file paths and kinds are stored as indices into the tables of the distinct values.
+ */
+final class DartNavigationRegions extends DartPackedRegions<DartServerData.DartNavigationRegion> {
+  /**
+   * Targets of the region {@code i} are {@code myTargetIndices[myTargetStarts[i]..myTargetStarts[i + 1])}.
+   */
+  private final int[] myTargetStarts;
+  private final int[] myTargetIndices;
+  private final Targets myTargets;
+
+  private DartNavigationRegions(int[] offsets, int[] lengths, int[] targetStarts, int[] targetIndices, Targets targets) {
+    super(offsets, lengths);
+    myTargetStarts = targetStarts;
+    myTargetIndices = targetIndices;
+    myTargets = targets;
+  }
+
+  @Override
+  public DartServerData.DartNavigationRegion get(int index) {
+    final SmartList<DartServerData.DartNavigationTarget> targets = new SmartList<>();
+    for (int i = myTargetStarts[index]; i < myTargetStarts[index + 1]; i++) {
+      targets.add(myTargets.get(myTargetIndices[i]));
+    }
+    return new DartServerData.DartNavigationRegion(myOffsets[index], myLengths[index], targets);
+  }
+
+  @NotNull
+  @Override
+  protected DartNavigationRegions retain(int @NotNull [] indices) {
+    int[] targetStarts = new int[indices.length + 1];
+    int targetCount = 0;
+    for (int i = 0; i < indices.length; i++) {
+      targetCount += myTargetStarts[indices[i] + 1] - myTargetStarts[indices[i]];
+    }
+    int[] targetIndices = new int[targetCount];
+    int next = 0;
+    for (int i = 0; i < indices.length; i++) {
+      targetStarts[i] = next;
+      for (int j = myTargetStarts[indices[i]]; j < myTargetStarts[indices[i] + 1]; j++) {
+        targetIndices[next++] = myTargetIndices[j];
+      }
+    }
+    targetStarts[indices.length] = next;
+    return new DartNavigationRegions(select(myOffsets, indices), select(myLengths, indices), targetStarts, targetIndices, myTargets);
+  }
+
+  /**
+   * Targets in the edited file are shifted whether or not the regions referencing them are deleted.
+   */
+  @Override
+  protected void shiftTargets(int eventOffset, int deltaLength) {
+    final int fileIndex = myTargets.myOwnFileIndex;
+    if (fileIndex < 0) return;
+
+    for (int i = 0; i < myTargets.myConvertedOffsets.length; i++) {
+      if (myTargets.myFileIndices[i] == fileIndex && myTargets.myConvertedOffsets[i] >= eventOffset) {
+        myTargets.myConvertedOffsets[i] += deltaLength;
+      }
+    }
+  }
+
+  /**
+   * Distinct targets shared by all versions of the regions of a file. Offsets in target files are converted lazily
+   * and cached in {@link #myConvertedOffsets} by {@link DartServerData.DartNavigationTarget}.
+   */
+  private static final class Targets {
+    private final String[] myFiles;
+    private final String[] myKinds;
+    private final int[] myFileIndices;
+    private final short[] myKindIndices;
+    private final int[] myOriginalOffsets;
+    private final int[] myConvertedOffsets;
+    private final int myOwnFileIndex;
+
+    private Targets(String[] files, String[] kinds, int[] fileIndices, short[] kindIndices, int[] originalOffsets, int ownFileIndex) {
+      myFiles = files;
+      myKinds = kinds;
+      myFileIndices = fileIndices;
+      myKindIndices = kindIndices;
+      myOriginalOffsets = originalOffsets;
+      myConvertedOffsets = new int[originalOffsets.length];
+      Arrays.fill(myConvertedOffsets, -1);
+      myOwnFileIndex = ownFileIndex;
+    }
+
+    private DartServerData.DartNavigationTarget get(int index) {
+      return new DartServerData.DartNavigationTarget(myFiles[myFileIndices[index]], myOriginalOffsets[index],
+                                                     myKinds[myKindIndices[index]], myConvertedOffsets, index);
+    }
+  }
+
+  static final class Builder {
+    private final String myFilePath;
+    private final List<String> myFiles = new ArrayList<>();
+    private final Map<String, Integer> myFileToIndex = new HashMap<>();
+    private final List<String> myKinds = new ArrayList<>();
+    private final Map<String, Short> myKindToIndex = new HashMap<>();
+    private final Map<NavigationTarget, Integer> myTargetToIndex = new IdentityHashMap<>();
+    private int[] myTargetFileIndices = new int[16];
+    private short[] myTargetKindIndices = new short[16];
+    private int[] myTargetOffsets = new int[16];
+
+    private final int[] myOffsets;
+    private final int[] myLengths;
+    private final int[] myTargetStarts;
+    private int[] myTargetIndices;
+    private int mySize;
+    private int myTargetIndexCount;
+
+    /**
+     * @param filePath system-independent path of the file the regions belong to
+     */
+    Builder(@NotNull String filePath, int capacity) {
+      myFilePath = filePath;
+      myOffsets = new int[capacity];
+      myLengths = new int[capacity];
+      myTargetStarts = new int[capacity + 1];
+      myTargetIndices = new int[capacity];
+    }
+
+    void add(int offset, int length, @NotNull List<NavigationTarget> targets) {
+      myOffsets[mySize] = offset;
+      myLengths[mySize] = length;
+      myTargetStarts[mySize] = myTargetIndexCount;
+      for (NavigationTarget target : targets) {
+        if (myTargetIndexCount == myTargetIndices.length) {
+          myTargetIndices = ArrayUtil.realloc(myTargetIndices, myTargetIndexCount * 2 + 1);
+        }
+        myTargetIndices[myTargetIndexCount++] = getTargetIndex(target);
+      }
+      mySize++;
+      myTargetStarts[mySize] = myTargetIndexCount;
+    }
+
+    private int getTargetIndex(@NotNull NavigationTarget target) {
+      Integer index = myTargetToIndex.get(target);
+      if (index != null) return index;
+
+      index = myTargetToIndex.size();
+      if (index == myTargetOffsets.length) {
+        myTargetFileIndices = ArrayUtil.realloc(myTargetFileIndices, index * 2);
+        myTargetOffsets = ArrayUtil.realloc(myTargetOffsets, index * 2);
+        myTargetKindIndices = Arrays.copyOf(myTargetKindIndices, index * 2);
+      }
+      myTargetFileIndices[index] = getFileIndex(target.getFile());
+      myTargetKindIndices[index] = getKindIndex(target.getKind());
+      myTargetOffsets[index] = target.getOffset();
+      myTargetToIndex.put(target, index);
+      return index;
+    }
+
+    private int getFileIndex(@NotNull String file) {
+      final String path = FileUtil.toSystemIndependentName(file.trim());
+      Integer index = myFileToIndex.get(path);
+      if (index == null) {
+        index = myFiles.size();
+        myFiles.add(path.intern());
+        myFileToIndex.put(path, index);
+      }
+      return index;
+    }
+
+    private short getKindIndex(@NotNull String kind) {
+      Short index = myKindToIndex.get(kind);
+      if (index == null) {
+        index = (short)myKinds.size();
+        myKinds.add(kind.intern());
+        myKindToIndex.put(kind, index);
+      }
+      return index;
+    }
+
+    @NotNull
+    DartNavigationRegions build() {
+      final int targetCount = myTargetToIndex.size();
+      final Targets targets = new Targets(ArrayUtil.toStringArray(myFiles), ArrayUtil.toStringArray(myKinds),
+                                          ArrayUtil.realloc(myTargetFileIndices, targetCount),
+                                          Arrays.copyOf(myTargetKindIndices, targetCount),
+                                          ArrayUtil.realloc(myTargetOffsets, targetCount),
+                                          myFiles.indexOf(myFilePath));
+      return new DartNavigationRegions(ArrayUtil.realloc(myOffsets, mySize), ArrayUtil.realloc(myLengths, mySize),
+                                       ArrayUtil.realloc(myTargetStarts, mySize + 1),
+                                       ArrayUtil.realloc(myTargetIndices, myTargetIndexCount), targets);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import org.dartlang.analysis.server.protocol.SourceEdit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects document edits made since the content of a file was last sent to the analysis server, so that the server can be
+ * updated with a {@code ChangeContentOverlay} instead of the whole document text.
+ * <p/>
+ * Adjacent and overlapping edits (such as typing or backspacing) are merged into one {@link SourceEdit}.
+ * The edits are usable only if they form an unbroken chain of modification stamps starting at the content known to the server,
+ * otherwise the caller falls back to {@code AddContentOverlay}.
+ */
+final class DartOverlayDeltaTracker {
+  private static final int MAX_EDITS = 100;
+
+  private final Map<String, FileEdits> myFilePathToEdits = new HashMap<>();
+
+  synchronized void documentChanged(@NotNull String filePath,
+                                    long oldStamp,
+                                    long newStamp,
+                                    int offset,
+                                    int oldLength,
+                                    @NotNull CharSequence newFragment) {
+    FileEdits edits = myFilePathToEdits.computeIfAbsent(filePath, __ -> new FileEdits(oldStamp));
+    if (edits.myBroken) return;
+    if (edits.myLastStamp != oldStamp || edits.myEdits.size() >= MAX_EDITS) {
+      edits.myBroken = true;
+      edits.myEdits.clear();
+      return;
+    }
+    edits.add(offset, oldLength, newFragment.toString());
+    edits.myLastStamp = newStamp;
+  }
+
+  /**
+   * @param serverStamp   modification stamp of the document content the server has as overlay
+   * @param currentStamp  current modification stamp of the document
+   * @param currentLength current document length; a delta bigger than half of it is not worth sending
+   * @return edits that turn the server content into the current document content, or {@code null} if the whole text should be sent
+   */
+  @Nullable
+  synchronized List<SourceEdit> getEdits(@NotNull String filePath, long serverStamp, long currentStamp, int currentLength) {
+    FileEdits edits = myFilePathToEdits.get(filePath);
+    if (edits == null || edits.myBroken || edits.myBaseStamp != serverStamp || edits.myLastStamp != currentStamp) return null;
+
+    int replacementLength = 0;
+    List<SourceEdit> result = new ArrayList<>(edits.myEdits.size());
+    for (Edit edit : edits.myEdits) {
+      replacementLength += edit.myReplacement.length();
+      result.add(new SourceEdit(edit.myOffset, edit.myLength, edit.myReplacement, null));
+    }
+    return replacementLength > currentLength / 2 ? null : result;
+  }
+
+  /**
+   * To be called when the content of the file has been sent to the server, or the overlay is removed.
+   */
+  synchronized void reset(@NotNull String filePath) {
+    myFilePathToEdits.remove(filePath);
+  }
+
+  synchronized void clear() {
+    myFilePathToEdits.clear();
+  }
+
+  private static final class FileEdits {
+    private final long myBaseStamp;
+    private long myLastStamp;
+    private boolean myBroken;
+    private final List<Edit> myEdits = new ArrayList<>();
+
+    private FileEdits(long baseStamp) {
+      myBaseStamp = baseStamp;
+      myLastStamp = baseStamp;
+    }
+
+    /**
+     * Offsets of each edit are relative to the text with all previous edits applied, the same as the server applies them.
+     */
+    private void add(int offset, int length, String replacement) {
+      if (!myEdits.isEmpty()) {
+        Edit last = myEdits.get(myEdits.size() - 1);
+        int lastEnd = last.myOffset + last.myReplacement.length();
+        if (offset <= lastEnd && offset + length >= last.myOffset) {
+          myEdits.set(myEdits.size() - 1, merge(last, offset, length, replacement));
+          return;
+        }
+      }
+      myEdits.add(new Edit(offset, length, replacement));
+    }
+
+    /**
+     * Merges an edit touching or overlapping the replacement of the previous edit. The parts of the new edit outside of
+     * the previous replacement refer to text that the previous edit didn't change, so the result can be expressed
+     * in terms of the text before the previous edit.
+     */
+    private static Edit merge(Edit last, int offset, int length, String replacement) {
+      String lastReplacement = last.myReplacement;
+      int lastEnd = last.myOffset + lastReplacement.length();
+      int start = Math.min(offset, last.myOffset);
+      int end = Math.max(offset + length - lastReplacement.length() + last.myLength, last.myOffset + last.myLength);
+      String prefix = offset > last.myOffset ? lastReplacement.substring(0, offset - last.myOffset) : "";
+      String suffix = offset + length < lastEnd ? lastReplacement.substring(offset + length - last.myOffset) : "";
+      return new Edit(start, end - start, prefix + replacement + suffix);
+    }
+  }
+
+  private static final class Edit {
+    private final int myOffset;
+    private final int myLength;
+    private final String myReplacement;
+
+    private Edit(int offset, int length, String replacement) {
+      myOffset = offset;
+      myLength = length;
+      myReplacement = replacement;
+    }
+  }
+}
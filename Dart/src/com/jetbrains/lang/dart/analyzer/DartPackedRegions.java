@@ -0,0 +1,122 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Regions of one file kept in parallel int arrays instead of one object per region; {@link #get(int)} creates a lightweight
+ * region object on each call.
+ * <p/>
+ * {@link DartServerData} publishes a new instance per file when the server sends new regions. On document change the regions
+ * are shifted in place, which is safe because documents are changed in a write action and the regions are read in read actions.
+ * If some regions have to be deleted, a new instance is created and published instead of this one.
+ */
+abstract class DartPackedRegions<T extends DartServerData.DartRegion> extends AbstractList<T> implements RandomAccess {
+  protected final int[] myOffsets;
+  protected final int[] myLengths;
+
+  protected DartPackedRegions(int[] offsets, int[] lengths) {
+    myOffsets = offsets;
+    myLengths = lengths;
+  }
+
+  @Override
+  public int size() {
+    return myOffsets.length;
+  }
+
+  /**
+   * @return a list with the regions at the given indices, in the same order
+   */
+  @NotNull
+  protected abstract DartPackedRegions<T> retain(int @NotNull [] indices);
+
+  protected void shiftTargets(int eventOffset, int deltaLength) {
+  }
+
+  /**
+   * Mirrors {@link DartServerData#updateRegionsUpdatingTouched} and {@link DartServerData#updateRegionsDeletingTouched}.
+   *
+   * @param deleteTouched whether to delete the regions touched by the change or to resize them when possible
+   * @return this list if the regions have been shifted or resized in place, or a new list without the deleted regions
+   */
+  @NotNull
+  final DartPackedRegions<T> documentChanged(int eventOffset, int deltaLength, boolean deleteTouched) {
+    if (deltaLength == 0) return this;
+
+    shiftTargets(eventOffset, deltaLength);
+
+    int[] kept = null;
+    int keptCount = 0;
+    for (int i = 0; i < myOffsets.length; i++) {
+      if (deleteTouched ? shiftDeletingTouched(i, eventOffset, deltaLength) : shiftUpdatingTouched(i, eventOffset, deltaLength)) {
+        if (kept == null) {
+          kept = new int[myOffsets.length];
+          for (int j = 0; j < i; j++) {
+            kept[j] = j;
+          }
+          keptCount = i;
+        }
+      }
+      else if (kept != null) {
+        kept[keptCount++] = i;
+      }
+    }
+    return kept == null ? this : retain(Arrays.copyOf(kept, keptCount));
+  }
+
+  /**
+   * @return {@code true} if the region should be deleted
+   */
+  private boolean shiftDeletingTouched(int i, int eventOffset, int deltaLength) {
+    final int offset = myOffsets[i];
+    final int eventRightOffset = deltaLength > 0 ? eventOffset : eventOffset - deltaLength;
+    if (eventRightOffset <= offset) {
+      myOffsets[i] += deltaLength;
+      return false;
+    }
+    return eventOffset < offset + myLengths[i];
+  }
+
+  /**
+   * @return {@code true} if the region should be deleted
+   */
+  private boolean shiftUpdatingTouched(int i, int eventOffset, int deltaLength) {
+    final int offset = myOffsets[i];
+    final int length = myLengths[i];
+    if (deltaLength > 0) {
+      if (eventOffset <= offset) {
+        myOffsets[i] += deltaLength;
+      }
+      else if (eventOffset < offset + length) {
+        myLengths[i] += deltaLength;
+      }
+      return false;
+    }
+
+    final int eventRightOffset = eventOffset - deltaLength;
+    final int regionRightOffset = offset + length;
+    if (eventRightOffset <= offset) {
+      myOffsets[i] += deltaLength;
+    }
+    else if (offset <= eventOffset && eventRightOffset <= regionRightOffset && length != -deltaLength) {
+      myLengths[i] += deltaLength;
+    }
+    else {
+      return eventOffset < regionRightOffset;
+    }
+    return false;
+  }
+
+  protected static int[] select(int[] array, int[] indices) {
+    int[] result = new int[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      result[i] = array[indices[i]];
+    }
+    return result;
+  }
+}
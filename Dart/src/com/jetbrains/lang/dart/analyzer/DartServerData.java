@@ -1,6 +1,7 @@
 // Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package com.jetbrains.lang.dart.analyzer;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.openapi.application.ApplicationManager;
@@ -20,6 +21,7 @@ import org.dartlang.analysis.server.protocol.*;
 import org.jetbrains.annotations.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class DartServerData {
   public interface OutlineListener extends EventListener {
@@ -31,8 +33,9 @@ public final class DartServerData {
   private final EventDispatcher<OutlineListener> myEventDispatcher = EventDispatcher.create(OutlineListener.class);
 
   private final Map<String, List<DartError>> myErrorData = Collections.synchronizedMap(new HashMap<>());
-  private final Map<String, List<DartHighlightRegion>> myHighlightData = Collections.synchronizedMap(new HashMap<>());
-  private final Map<String, List<DartNavigationRegion>> myNavigationData = Collections.synchronizedMap(new HashMap<>());
+  // highlight and navigation regions are the most numerous, so they are stored packed
+  private final Map<String, DartPackedRegions<DartHighlightRegion>> myHighlightData = new ConcurrentHashMap<>();
+  private final Map<String, DartPackedRegions<DartNavigationRegion>> myNavigationData = new ConcurrentHashMap<>();
   private final Map<String, List<DartOverrideMember>> myOverrideData = Collections.synchronizedMap(new HashMap<>());
   private final Map<String, List<DartRegion>> myImplementedClassData = Collections.synchronizedMap(new HashMap<>());
   private final Map<String, List<DartRegion>> myImplementedMemberData = Collections.synchronizedMap(new HashMap<>());
@@ -88,35 +91,36 @@ public final class DartServerData {
   void computedHighlights(@NotNull final String filePath, final @NotNull List<? extends HighlightRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartHighlightRegion> newRegions = new ArrayList<>(regions.size());
+    final DartHighlightRegions.Builder newRegions = new DartHighlightRegions.Builder(regions.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
     for (HighlightRegion region : regions) {
       if (region.getLength() > 0) {
         final int offset = myService.getConvertedOffset(file, region.getOffset());
         final int length = myService.getConvertedOffset(file, region.getOffset() + region.getLength()) - offset;
-        newRegions.add(new DartHighlightRegion(offset, length, region.getType()));
+        newRegions.add(offset, length, region.getType());
       }
     }
 
-    myHighlightData.put(filePath, newRegions);
+    myHighlightData.put(filePath, newRegions.build());
     forceFileAnnotation(file, false);
   }
 
   void computedNavigation(@NotNull final String filePath, final @NotNull List<? extends NavigationRegion> regions) {
     if (myFilePathsWithUnsentChanges.contains(filePath)) return;
 
-    final List<DartNavigationRegion> newRegions = new ArrayList<>(regions.size());
+    final DartNavigationRegions.Builder newRegions = new DartNavigationRegions.Builder(filePath, regions.size());
     final VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
 
     for (NavigationRegion region : regions) {
       if (region.getLength() > 0) {
-        final DartNavigationRegion dartNavigationRegion = createDartNavigationRegion(myService, file, region);
-        newRegions.add(dartNavigationRegion);
+        final int offset = myService.getConvertedOffset(file, region.getOffset());
+        final int length = myService.getConvertedOffset(file, region.getOffset() + region.getLength()) - offset;
+        newRegions.add(offset, length, region.getTargetObjects());
       }
     }
 
-    myNavigationData.put(filePath, newRegions);
+    myNavigationData.put(filePath, newRegions.build());
     forceFileAnnotation(file, true);
   }
 
@@ -241,13 +245,13 @@ public final class DartServerData {
 
   @NotNull
   List<DartHighlightRegion> getHighlight(@NotNull final VirtualFile file) {
-    final List<DartHighlightRegion> regions = myHighlightData.get(file.getPath());
+    final DartPackedRegions<DartHighlightRegion> regions = myHighlightData.get(file.getPath());
     return regions != null ? regions : Collections.emptyList();
   }
 
   @NotNull
   List<DartNavigationRegion> getNavigation(@NotNull final VirtualFile file) {
-    final List<DartNavigationRegion> regions = myNavigationData.get(file.getPath());
+    final DartPackedRegions<DartNavigationRegion> regions = myNavigationData.get(file.getPath());
     return regions != null ? regions : Collections.emptyList();
   }
 
@@ -373,45 +377,52 @@ public final class DartServerData {
     final String filePath = file.getPath();
     myFilePathsWithUnsentChanges.add(filePath);
 
-    boolean regionsUpdated = updateRegionsDeletingTouched(filePath, myErrorData.get(filePath), e);
+    final int eventOffset = e.getOffset();
+    final int deltaLength = e.getNewLength() - e.getOldLength();
+
+    boolean regionsUpdated = updateRegionsDeletingTouched(myErrorData.get(filePath), eventOffset, deltaLength);
     if (regionsUpdated) {
       myFilePathsWithInaccurateErrorInfo.add(filePath);
     }
-    updateRegionsUpdatingTouched(myHighlightData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myNavigationData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myOverrideData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedClassData.get(filePath), e);
-    updateRegionsDeletingTouched(filePath, myImplementedMemberData.get(filePath), e);
+    updatePackedRegions(myHighlightData, filePath, eventOffset, deltaLength, false);
+    updatePackedRegions(myNavigationData, filePath, eventOffset, deltaLength, true);
+    updateRegionsDeletingTouched(myOverrideData.get(filePath), eventOffset, deltaLength);
+    updateRegionsDeletingTouched(myImplementedClassData.get(filePath), eventOffset, deltaLength);
+    updateRegionsDeletingTouched(myImplementedMemberData.get(filePath), eventOffset, deltaLength);
     // A bit outdated outline data is not a big problem, updated data will come shortly
   }
 
+  private static <T extends DartRegion> void updatePackedRegions(@NotNull final Map<String, DartPackedRegions<T>> data,
+                                                                @NotNull final String filePath,
+                                                                final int eventOffset,
+                                                                final int deltaLength,
+                                                                final boolean deleteTouched) {
+    final DartPackedRegions<T> regions = data.get(filePath);
+    if (regions == null) return;
+
+    final DartPackedRegions<T> updated = regions.documentChanged(eventOffset, deltaLength, deleteTouched);
+    if (updated != regions) {
+      // the server might have sent new regions meanwhile
+      data.replace(filePath, regions, updated);
+    }
+  }
+
   /**
    * @return {@code true} if at least one region has been updated or deleted, {@code false} if nothing done at all
    */
-  private static boolean updateRegionsDeletingTouched(@NotNull final String filePath,
-                                                      @Nullable final List<? extends DartRegion> regions,
-                                                      @NotNull final DocumentEvent e) {
+  @VisibleForTesting
+  static boolean updateRegionsDeletingTouched(@Nullable final List<? extends DartRegion> regions,
+                                              final int eventOffset,
+                                              final int deltaLength) {
     if (regions == null) return false;
 
     boolean regionUpdated = false;
 
     // delete touched regions, shift untouched
-    final int eventOffset = e.getOffset();
-    final int deltaLength = e.getNewLength() - e.getOldLength();
-
     final Iterator<? extends DartRegion> iterator = regions.iterator();
     while (iterator.hasNext()) {
       final DartRegion region = iterator.next();
 
-      if (region instanceof DartNavigationRegion) {
-        // may be we'd better delete target touched by editing?
-        for (DartNavigationTarget target : ((DartNavigationRegion)region).getTargets()) {
-          if (target.myFile.equals(filePath) && target.myConvertedOffset >= eventOffset) {
-            target.myConvertedOffset += deltaLength;
-          }
-        }
-      }
-
       if (deltaLength > 0) {
         // Something was typed. Shift untouched regions, delete touched.
         if (eventOffset <= region.myOffset) {
@@ -441,13 +452,10 @@ public final class DartServerData {
     return regionUpdated;
   }
 
-  private static void updateRegionsUpdatingTouched(@Nullable final List<? extends DartRegion> regions,
-                                                   @NotNull final DocumentEvent e) {
+  @VisibleForTesting
+  static void updateRegionsUpdatingTouched(@Nullable final List<? extends DartRegion> regions, final int eventOffset, final int deltaLength) {
     if (regions == null) return;
 
-    final int eventOffset = e.getOffset();
-    final int deltaLength = e.getNewLength() - e.getOldLength();
-
     final Iterator<? extends DartRegion> iterator = regions.iterator();
     while (iterator.hasNext()) {
       final DartRegion region = iterator.next();
@@ -510,9 +518,12 @@ public final class DartServerData {
   public static final class DartHighlightRegion extends DartRegion {
     private final String type;
 
-    private DartHighlightRegion(final int offset, final int length, @NotNull final String type) {
+    /**
+     * @param type interned type
+     */
+    DartHighlightRegion(final int offset, final int length, @NotNull final String type) {
       super(offset, length);
-      this.type = type.intern();
+      this.type = type;
     }
 
     public String getType() {
@@ -616,10 +627,28 @@ public final class DartServerData {
 
     private int myConvertedOffset = -1;
 
+    // converted offsets shared by the targets of packed navigation regions
+    private final int @Nullable [] myConvertedOffsets;
+    private final int myIndex;
+
     private DartNavigationTarget(@NotNull final NavigationTarget target) {
       myFile = FileUtil.toSystemIndependentName(target.getFile().trim()).intern();
       myOriginalOffset = target.getOffset();
       myKind = target.getKind().intern();
+      myConvertedOffsets = null;
+      myIndex = -1;
+    }
+
+    DartNavigationTarget(@NotNull final String file,
+                         final int originalOffset,
+                         @NotNull final String kind,
+                         final int @NotNull [] convertedOffsets,
+                         final int index) {
+      myFile = file;
+      myOriginalOffset = originalOffset;
+      myKind = kind;
+      myConvertedOffsets = convertedOffsets;
+      myIndex = index;
     }
 
     public String getFile() {
@@ -627,6 +656,14 @@ public final class DartServerData {
     }
 
     public int getOffset(@NotNull final Project project, @Nullable final VirtualFile file) {
+      if (myConvertedOffsets != null) {
+        int offset = myConvertedOffsets[myIndex];
+        if (offset == -1) {
+          offset = DartAnalysisServerService.getInstance(project).getConvertedOffset(file, myOriginalOffset);
+          myConvertedOffsets[myIndex] = offset;
+        }
+        return offset;
+      }
       if (myConvertedOffset == -1) {
         myConvertedOffset = DartAnalysisServerService.getInstance(project).getConvertedOffset(file, myOriginalOffset);
       }
@@ -0,0 +1,200 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits the number of requests that wait for the Analysis Server response at the same time. Pending requests are sent in the
+ * order of their {@link Priority}, so requests for the editor go ahead of the queued background ones. Background requests never
+ * take the last free slot, so that a burst of them can't delay an editor request until one of them gets a response.
+ * <p/>
+ * Requests submitted with equal non-null keys while the first one is pending or in flight share its result. Each caller gets
+ * its own future; the request is cancelled (and cancellation is sent to the server) only when all callers cancel their futures.
+ */
+public final class DartServerRequestQueue {
+  public enum Priority {EDITOR, BACKGROUND}
+
+  interface Sender<T> {
+    /**
+     * Sends the request to the server; the response or the default value on error must be passed to {@code result}.
+     *
+     * @return the action that cancels the request on the server
+     */
+    @NotNull
+    Runnable send(@NotNull CompletableFuture<T> result);
+  }
+
+  private final int myMaxInFlight;
+  private final Object myLock = new Object();
+  private final PriorityQueue<Request<?>> myPending = new PriorityQueue<>();
+  private final Map<Object, Request<?>> myKeyToRequest = new HashMap<>();
+  private final Set<Request<?>> myInFlight = new HashSet<>();
+  private long myNextSequenceNumber;
+
+  DartServerRequestQueue(int maxInFlight) {
+    myMaxInFlight = maxInFlight;
+  }
+
+  @NotNull
+  <T> CompletableFuture<T> submit(@Nullable Object key, @NotNull Priority priority, @NotNull Sender<T> sender) {
+    Request<T> request;
+    synchronized (myLock) {
+      //noinspection unchecked
+      request = key == null ? null : (Request<T>)myKeyToRequest.get(key);
+      if (request == null) {
+        request = new Request<>(key, priority, myNextSequenceNumber++, sender);
+        if (key != null) {
+          myKeyToRequest.put(key, request);
+        }
+        myPending.add(request);
+      }
+      else if (priority.compareTo(request.myPriority) < 0 && myPending.remove(request)) {
+        request.myPriority = priority;
+        myPending.add(request);
+      }
+      request.myWaiters++;
+    }
+
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    final Request<T> finalRequest = request;
+    request.myResult.whenComplete((result, throwable) -> {
+      if (throwable != null) {
+        future.completeExceptionally(throwable);
+      }
+      else {
+        future.complete(result);
+      }
+    });
+    future.whenComplete((result, throwable) -> {
+      if (throwable instanceof CancellationException) {
+        release(finalRequest);
+      }
+    });
+
+    sendPending();
+    return future;
+  }
+
+  /**
+   * Cancels all pending and in-flight requests.
+   */
+  void cancelAll() {
+    final List<Request<?>> requests;
+    synchronized (myLock) {
+      requests = new ArrayList<>(myPending);
+      requests.addAll(myInFlight);
+      myPending.clear();
+      myInFlight.clear();
+      myKeyToRequest.clear();
+    }
+    for (Request<?> request : requests) {
+      request.myResult.cancel(false);
+    }
+  }
+
+  int getPendingCount() {
+    synchronized (myLock) {
+      return myPending.size();
+    }
+  }
+
+  int getInFlightCount() {
+    synchronized (myLock) {
+      return myInFlight.size();
+    }
+  }
+
+  private void release(@NotNull Request<?> request) {
+    final Runnable cancelAction;
+    synchronized (myLock) {
+      if (--request.myWaiters > 0 || request.myResult.isDone()) return;
+
+      forget(request);
+      myPending.remove(request);
+      cancelAction = myInFlight.remove(request) ? request.myCancelAction : null;
+    }
+
+    request.myResult.cancel(false);
+    if (cancelAction != null) {
+      cancelAction.run();
+    }
+    sendPending();
+  }
+
+  private void sendPending() {
+    while (true) {
+      final Request<?> request;
+      synchronized (myLock) {
+        final Request<?> next = myPending.peek();
+        if (next == null || myInFlight.size() >= getMaxInFlight(next.myPriority)) return;
+        request = myPending.poll();
+        myInFlight.add(request);
+      }
+
+      request.myResult.whenComplete((result, throwable) -> {
+        final boolean wasInFlight;
+        synchronized (myLock) {
+          forget(request);
+          wasInFlight = myInFlight.remove(request);
+        }
+        if (wasInFlight) {
+          sendPending();
+        }
+      });
+      send(request);
+    }
+  }
+
+  private int getMaxInFlight(@NotNull Priority priority) {
+    // keep one slot for the editor requests unless the queue can't have more than one request in flight
+    return priority == Priority.EDITOR || myMaxInFlight <= 1 ? myMaxInFlight : myMaxInFlight - 1;
+  }
+
+  private static <T> void send(@NotNull Request<T> request) {
+    try {
+      final Runnable cancelAction = request.mySender.send(request.myResult);
+      request.myCancelAction = cancelAction;
+      if (request.myResult.isCancelled()) {
+        // cancelled while being sent
+        cancelAction.run();
+      }
+    }
+    catch (Throwable t) {
+      request.myResult.completeExceptionally(t);
+    }
+  }
+
+  private void forget(@NotNull Request<?> request) {
+    if (request.myKey != null) {
+      myKeyToRequest.remove(request.myKey, request);
+    }
+  }
+
+  private static final class Request<T> implements Comparable<Request<?>> {
+    @Nullable private final Object myKey;
+    private final long mySequenceNumber;
+    @NotNull private final Sender<T> mySender;
+    private final CompletableFuture<T> myResult = new CompletableFuture<>();
+    @NotNull private Priority myPriority;
+    private int myWaiters;
+    @Nullable private volatile Runnable myCancelAction;
+
+    private Request(@Nullable Object key, @NotNull Priority priority, long sequenceNumber, @NotNull Sender<T> sender) {
+      myKey = key;
+      myPriority = priority;
+      mySequenceNumber = sequenceNumber;
+      mySender = sender;
+    }
+
+    @Override
+    public int compareTo(@NotNull Request<?> other) {
+      final int result = myPriority.compareTo(other.myPriority);
+      return result != 0 ? result : Long.compare(mySequenceNumber, other.mySequenceNumber);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of Analysis Server requests about a position in a file, keyed by the file path, the document modification stamp and
+ * the offset.
+ * <p/>
+ * Results may depend on other files, so all results are dropped when overlaid content of any file is sent to the server. An
+ * {@code analysis.errors} notification means that the file has been analyzed again, so its results are dropped together with
+ * all type hierarchies, which depend on the whole project.
+ * <p/>
+ * A result is stored only if nothing was invalidated between the lookup and the response.
+ */
+final class DartServerResultCache {
+  enum Kind {HOVER, NAVIGATION, TYPE_HIERARCHY}
+
+  private static final int MAX_FILES = 50;
+  private static final int MAX_RESULTS_PER_FILE = 100;
+
+  private final Object myLock = new Object();
+  private final Map<String, Map<Key, Object>> myFileToResults = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Map<Key, Object>> eldest) {
+      return size() > MAX_FILES;
+    }
+  };
+  private long myGeneration;
+
+  private final AtomicInteger myHitCount = new AtomicInteger();
+  private final AtomicInteger myMissCount = new AtomicInteger();
+
+  /**
+   * @param extra additional request parameter, such as the length of the range for navigation
+   */
+  @Nullable
+  <T> T get(@NotNull Kind kind, @NotNull String filePath, long modificationStamp, int offset, int extra) {
+    final Object result;
+    synchronized (myLock) {
+      final Map<Key, Object> results = myFileToResults.get(filePath);
+      result = results == null ? null : results.get(new Key(kind, modificationStamp, offset, extra));
+    }
+
+    (result != null ? myHitCount : myMissCount).incrementAndGet();
+    //noinspection unchecked
+    return (T)result;
+  }
+
+  /**
+   * @return the value to pass to {@link #put} when the response to the request is received
+   */
+  long getGeneration() {
+    synchronized (myLock) {
+      return myGeneration;
+    }
+  }
+
+  void put(@NotNull Kind kind, @NotNull String filePath, long modificationStamp, int offset, int extra,
+           @NotNull Object result, long generation) {
+    synchronized (myLock) {
+      if (generation != myGeneration) return;
+
+      Map<Key, Object> results = myFileToResults.get(filePath);
+      if (results == null) {
+        results = new HashMap<>();
+        myFileToResults.put(filePath, results);
+      }
+      if (results.size() >= MAX_RESULTS_PER_FILE) {
+        results.clear();
+      }
+      results.put(new Key(kind, modificationStamp, offset, extra), result);
+    }
+  }
+
+  void contentUpdated() {
+    clear();
+  }
+
+  void errorsComputed(@NotNull String filePath) {
+    synchronized (myLock) {
+      myGeneration++;
+      myFileToResults.remove(filePath);
+      for (Iterator<Map<Key, Object>> iterator = myFileToResults.values().iterator(); iterator.hasNext(); ) {
+        final Map<Key, Object> results = iterator.next();
+        results.keySet().removeIf(key -> key.myKind == Kind.TYPE_HIERARCHY);
+        if (results.isEmpty()) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  void clear() {
+    synchronized (myLock) {
+      myGeneration++;
+      myFileToResults.clear();
+    }
+  }
+
+  int getHitCount() {
+    return myHitCount.get();
+  }
+
+  int getMissCount() {
+    return myMissCount.get();
+  }
+
+  private static final class Key {
+    @NotNull private final Kind myKind;
+    private final long myModificationStamp;
+    private final int myOffset;
+    private final int myExtra;
+
+    private Key(@NotNull Kind kind, long modificationStamp, int offset, int extra) {
+      myKind = kind;
+      myModificationStamp = modificationStamp;
+      myOffset = offset;
+      myExtra = extra;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      final Key key = (Key)o;
+      return myKind == key.myKind && myModificationStamp == key.myModificationStamp && myOffset == key.myOffset && myExtra == key.myExtra;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = myKind.hashCode();
+      result = 31 * result + Long.hashCode(myModificationStamp);
+      result = 31 * result + myOffset;
+      result = 31 * result + myExtra;
+      return result;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Decides what is sent with {@code analysis.setPriorityFiles} and {@code analysis.setSubscriptions}.
+ * <p/>
+ * Visible files are priority files and are subscribed to all services. Files that were visible recently and are still open
+ * form the warm tier: they stay subscribed to a smaller set of services, so that the server doesn't have to recompute and
+ * re-send their highlights, navigation and outline when the user switches back to them. Requests are sent only for the parts
+ * that changed since the previous {@link #flush}: switching between the tabs of the warm tier changes priority files only.
+ * <p/>
+ * Also keeps the number of received notifications for diagnostics.
+ */
+final class DartSubscriptionManager {
+  interface Sender {
+    void setPriorityFiles(@NotNull List<String> files);
+
+    void setSubscriptions(@NotNull Map<String, List<String>> subscriptions);
+  }
+
+  private static final int RATE_WINDOW_SECONDS = 10;
+
+  private final int myMaxWarmFiles;
+
+  private final List<String> myVisibleFiles = new ArrayList<>();
+  // most recently visible first
+  private final LinkedList<String> myWarmFiles = new LinkedList<>();
+
+  private Set<String> mySentPriorityFiles;
+  private Map<String, Set<String>> mySentSubscriptions;
+
+  private int mySentRequestCount;
+  private int mySkippedRequestCount;
+
+  private final Object myRateLock = new Object();
+  private final long[] myRateSeconds = new long[RATE_WINDOW_SECONDS];
+  private final int[] myRateCounts = new int[RATE_WINDOW_SECONDS];
+  private final Map<String, Integer> myServiceToNotificationCount = new HashMap<>();
+
+  DartSubscriptionManager(int maxWarmFiles) {
+    myMaxWarmFiles = maxWarmFiles;
+    Arrays.fill(myRateSeconds, Long.MIN_VALUE);
+  }
+
+  synchronized void setVisibleFiles(@NotNull List<String> visibleFiles) {
+    for (String file : myVisibleFiles) {
+      if (!visibleFiles.contains(file)) {
+        myWarmFiles.remove(file);
+        myWarmFiles.addFirst(file);
+      }
+    }
+    myWarmFiles.removeAll(visibleFiles);
+    while (myWarmFiles.size() > myMaxWarmFiles) {
+      myWarmFiles.removeLast();
+    }
+
+    myVisibleFiles.clear();
+    myVisibleFiles.addAll(visibleFiles);
+  }
+
+  synchronized void fileClosed(@NotNull String filePath) {
+    myWarmFiles.remove(filePath);
+  }
+
+  @NotNull
+  synchronized List<String> getWarmFiles() {
+    return new ArrayList<>(myWarmFiles);
+  }
+
+  /**
+   * Sends the requests needed to bring the server up to date.
+   *
+   * @param visibleFileServices services for visible files
+   * @param warmFileServices    services for the files of the warm tier, should be a subset of {@code visibleFileServices}
+   * @return {@code true} if at least one request was sent
+   */
+  synchronized boolean flush(@NotNull Collection<String> visibleFileServices,
+                             @NotNull Collection<String> warmFileServices,
+                             @NotNull Sender sender) {
+    boolean sent = false;
+
+    final Set<String> priorityFiles = new HashSet<>(myVisibleFiles);
+    if (!priorityFiles.equals(mySentPriorityFiles)) {
+      sender.setPriorityFiles(new ArrayList<>(myVisibleFiles));
+      mySentPriorityFiles = priorityFiles;
+      sent = true;
+    }
+
+    final Map<String, Set<String>> subscriptions = new HashMap<>();
+    for (String service : visibleFileServices) {
+      subscriptions.put(service, new LinkedHashSet<>(myVisibleFiles));
+    }
+    for (String service : warmFileServices) {
+      subscriptions.computeIfAbsent(service, s -> new LinkedHashSet<>()).addAll(myWarmFiles);
+    }
+
+    if (!subscriptions.equals(mySentSubscriptions)) {
+      final Map<String, List<String>> request = new HashMap<>();
+      for (Map.Entry<String, Set<String>> entry : subscriptions.entrySet()) {
+        request.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+      }
+      sender.setSubscriptions(request);
+      mySentSubscriptions = subscriptions;
+      sent = true;
+    }
+
+    if (sent) {
+      mySentRequestCount++;
+    }
+    else {
+      mySkippedRequestCount++;
+    }
+    return sent;
+  }
+
+  /**
+   * Forgets everything, for example when the server is stopped.
+   */
+  synchronized void reset() {
+    myVisibleFiles.clear();
+    myWarmFiles.clear();
+    mySentPriorityFiles = null;
+    mySentSubscriptions = null;
+  }
+
+  synchronized int getSentRequestCount() {
+    return mySentRequestCount;
+  }
+
+  /**
+   * @return the number of {@link #flush} calls that found nothing to send
+   */
+  synchronized int getSkippedRequestCount() {
+    return mySkippedRequestCount;
+  }
+
+  void notificationReceived(@NotNull String service, long timeMillis) {
+    final long second = timeMillis / 1000;
+    final int index = (int)(second % RATE_WINDOW_SECONDS);
+    synchronized (myRateLock) {
+      if (myRateSeconds[index] != second) {
+        myRateSeconds[index] = second;
+        myRateCounts[index] = 0;
+      }
+      myRateCounts[index]++;
+      myServiceToNotificationCount.merge(service, 1, Integer::sum);
+    }
+  }
+
+  /**
+   * @return average number of notifications per second received during the last {@value #RATE_WINDOW_SECONDS} seconds
+   */
+  double getNotificationsPerSecond(long timeMillis) {
+    final long second = timeMillis / 1000;
+    int count = 0;
+    synchronized (myRateLock) {
+      for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+        if (myRateSeconds[i] <= second && myRateSeconds[i] > second - RATE_WINDOW_SECONDS) {
+          count += myRateCounts[i];
+        }
+      }
+    }
+    return (double)count / RATE_WINDOW_SECONDS;
+  }
+
+  @NotNull
+  Map<String, Integer> getNotificationCounts() {
+    synchronized (myRateLock) {
+      return new HashMap<>(myServiceToNotificationCount);
+    }
+  }
+}
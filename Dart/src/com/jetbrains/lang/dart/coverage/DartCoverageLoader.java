@@ -0,0 +1,253 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.coverage;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Reads line hits from coverage files without building an object tree of the whole file. Supported formats are the JSON hitmap
+ * written by {@code package:coverage} ({@code {"coverage": [{"source": uri, "hits": [line, count, ...]}, ...]}}) and lcov
+ * tracefiles ({@code SF:}, {@code DA:} and {@code end_of_record} records). Hits of the same source are summed up.
+ */
+final class DartCoverageLoader {
+  private DartCoverageLoader() {
+  }
+
+  /**
+   * Line hits of one source, indexed by line number.
+   */
+  static final class LineHits {
+    private static final int NO_DATA = -1;
+
+    private int[] myHits = ArrayUtil.EMPTY_INT_ARRAY;
+    private int myMaxLine = -1;
+
+    void add(int line, int count) {
+      if (line < 0) return;
+
+      if (line >= myHits.length) {
+        final int oldLength = myHits.length;
+        myHits = ArrayUtil.realloc(myHits, Math.max(line + 1, oldLength * 3 / 2 + 16));
+        Arrays.fill(myHits, oldLength, myHits.length, NO_DATA);
+      }
+
+      final int old = myHits[line];
+      myHits[line] = old == NO_DATA ? Math.max(count, 0) : (int)Math.min(Integer.MAX_VALUE, (long)old + Math.max(count, 0));
+      myMaxLine = Math.max(myMaxLine, line);
+    }
+
+    void addAll(@NotNull LineHits other) {
+      for (int line = 0; line <= other.myMaxLine; line++) {
+        if (other.myHits[line] != NO_DATA) {
+          add(line, other.myHits[line]);
+        }
+      }
+    }
+
+    /**
+     * @return -1 if there are no hits in this source
+     */
+    int getMaxLine() {
+      return myMaxLine;
+    }
+
+    /**
+     * @return -1 if the line is not executable
+     */
+    int getHits(int line) {
+      return line <= myMaxLine ? myHits[line] : NO_DATA;
+    }
+  }
+
+  /**
+   * Files are loaded in parallel and merged.
+   *
+   * @param checkCanceled called often, may throw an exception to stop loading
+   * @return line hits per source: URIs for JSON hitmaps, paths for lcov
+   */
+  @NotNull
+  static Map<String, LineHits> load(@NotNull List<File> files, @NotNull Runnable checkCanceled) throws IOException {
+    try {
+      return files.parallelStream()
+        .map(file -> {
+          try {
+            return load(file, checkCanceled);
+          }
+          catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        })
+        .reduce(DartCoverageLoader::merge)
+        .orElseGet(HashMap::new);
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  @NotNull
+  static Map<String, LineHits> load(@NotNull File file, @NotNull Runnable checkCanceled) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 64 * 1024)) {
+      reader.mark(1024);
+      final boolean json = isJson(reader);
+      reader.reset();
+
+      final Map<String, LineHits> result = new HashMap<>();
+      if (json) {
+        loadJson(reader, result, checkCanceled);
+      }
+      else {
+        loadLcov(reader, result, checkCanceled);
+      }
+      return result;
+    }
+    catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("Malformed coverage file " + file.getPath() + ": " + e.getMessage(), e);
+    }
+  }
+
+  @NotNull
+  private static Map<String, LineHits> merge(@NotNull Map<String, LineHits> first, @NotNull Map<String, LineHits> second) {
+    final Map<String, LineHits> big = first.size() >= second.size() ? first : second;
+    final Map<String, LineHits> small = big == first ? second : first;
+    for (Map.Entry<String, LineHits> entry : small.entrySet()) {
+      final LineHits hits = big.get(entry.getKey());
+      if (hits == null) {
+        big.put(entry.getKey(), entry.getValue());
+      }
+      else {
+        hits.addAll(entry.getValue());
+      }
+    }
+    return big;
+  }
+
+  private static boolean isJson(@NotNull Reader reader) throws IOException {
+    int c;
+    while ((c = reader.read()) != -1) {
+      if (!Character.isWhitespace(c) && c != '\uFEFF') {
+        return c == '{' || c == '[';
+      }
+    }
+    return false;
+  }
+
+  static void loadJson(@NotNull Reader reader, @NotNull Map<String, LineHits> result, @NotNull Runnable checkCanceled) throws IOException {
+    final JsonReader json = new JsonReader(reader);
+    if (json.peek() == JsonToken.BEGIN_ARRAY) {
+      // the list of coverage entries without the wrapping object
+      readCoverageEntries(json, result, checkCanceled);
+      return;
+    }
+
+    json.beginObject();
+    while (json.hasNext()) {
+      if ("coverage".equals(json.nextName()) && json.peek() == JsonToken.BEGIN_ARRAY) {
+        readCoverageEntries(json, result, checkCanceled);
+      }
+      else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+  }
+
+  private static void readCoverageEntries(@NotNull JsonReader json, @NotNull Map<String, LineHits> result, @NotNull Runnable checkCanceled)
+    throws IOException {
+    int[] ranges = new int[64];
+
+    json.beginArray();
+    while (json.hasNext()) {
+      checkCanceled.run();
+
+      // "hits" may go before "source", so they are collected first as (first line, last line, count) triples
+      String source = null;
+      int rangesLength = 0;
+      json.beginObject();
+      while (json.hasNext()) {
+        final String name = json.nextName();
+        if ("source".equals(name) && json.peek() == JsonToken.STRING) {
+          source = json.nextString();
+        }
+        else if ("hits".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+          json.beginArray();
+          while (json.hasNext()) {
+            final String line = json.peek() == JsonToken.STRING ? json.nextString() : null;
+            final int lineNumber = line == null ? json.nextInt() : 0;
+            final int count = json.nextInt();
+            if (rangesLength + 3 >= ranges.length) {
+              ranges = ArrayUtil.realloc(ranges, ranges.length * 2);
+            }
+            if (line == null) {
+              ranges[rangesLength++] = lineNumber;
+              ranges[rangesLength++] = lineNumber;
+            }
+            else {
+              // "start-end" range of lines
+              final int dash = line.indexOf('-');
+              ranges[rangesLength++] = Integer.parseInt(dash < 0 ? line : line.substring(0, dash));
+              ranges[rangesLength++] = Integer.parseInt(dash < 0 ? line : line.substring(dash + 1));
+            }
+            ranges[rangesLength++] = count;
+          }
+          json.endArray();
+        }
+        else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
+
+      if (source != null) {
+        final LineHits hits = result.computeIfAbsent(source, s -> new LineHits());
+        for (int i = 0; i < rangesLength; i += 3) {
+          for (int line = ranges[i]; line <= ranges[i + 1]; line++) {
+            hits.add(line, ranges[i + 2]);
+          }
+        }
+      }
+    }
+    json.endArray();
+  }
+
+  static void loadLcov(@NotNull BufferedReader reader, @NotNull Map<String, LineHits> result, @NotNull Runnable checkCanceled)
+    throws IOException {
+    LineHits hits = null;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      if (line.startsWith("DA:")) {
+        if (hits == null) continue;
+        final int comma = line.indexOf(',', 3);
+        if (comma < 0) continue;
+        final int secondComma = line.indexOf(',', comma + 1);
+        hits.add(Integer.parseInt(line.substring(3, comma).trim()),
+                 parseCount(line.substring(comma + 1, secondComma < 0 ? line.length() : secondComma).trim()));
+      }
+      else if (line.startsWith("SF:")) {
+        checkCanceled.run();
+        hits = result.computeIfAbsent(line.substring(3).trim(), s -> new LineHits());
+      }
+      else if (line.startsWith("end_of_record")) {
+        hits = null;
+      }
+    }
+  }
+
+  /**
+   * lcov counts may be written as floating point numbers by some tools.
+   */
+  private static int parseCount(@NotNull String count) {
+    try {
+      return Integer.parseInt(count);
+    }
+    catch (NumberFormatException e) {
+      return (int)Math.min(Integer.MAX_VALUE, Double.parseDouble(count));
+    }
+  }
+}
@@ -1,17 +1,17 @@
 // Copyright 2000-2020 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package com.jetbrains.lang.dart.coverage;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
 import com.intellij.coverage.CoverageEngine;
 import com.intellij.coverage.CoverageRunner;
 import com.intellij.coverage.CoverageSuite;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.rt.coverage.data.ClassData;
 import com.intellij.rt.coverage.data.LineData;
 import com.intellij.rt.coverage.data.ProjectData;
@@ -20,13 +20,12 @@ import com.jetbrains.lang.dart.analyzer.DartAnalysisServerService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 
 public class DartCoverageRunner extends CoverageRunner {
   private static final String ID = "DartCoverageRunner";
@@ -86,37 +85,36 @@ public class DartCoverageRunner extends CoverageRunner {
     final ProjectData projectData = new ProjectData();
 
     try {
-      DartCoverageData data =
-        new Gson().fromJson(new BufferedReader(new FileReader(sessionDataFile, StandardCharsets.UTF_8)), DartCoverageData.class);
-      if (data == null) {
-        LOG.warn("Coverage file does not contain valid data.");
-        return null;
-      }
+      final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+      final Runnable checkCanceled = indicator != null ? indicator::checkCanceled : () -> {};
+      final Map<String, DartCoverageLoader.LineHits> data = DartCoverageLoader.load(getCoverageFiles(sessionDataFile), checkCanceled);
 
-      for (Map.Entry<String, SortedMap<Integer, Integer>> entry : data.getMergedDartFileCoverageData().entrySet()) {
+      for (Map.Entry<String, DartCoverageLoader.LineHits> entry : data.entrySet()) {
         ProgressManager.checkCanceled();
 
-        String filePath = getFileForUri(project, contextId, entry.getKey());
+        String filePath = getFileForSource(project, contextId, sessionDataFile, entry.getKey());
         if (filePath == null) {
           // File is not found.
           continue;
         }
-        SortedMap<Integer, Integer> lineHits = entry.getValue();
+        DartCoverageLoader.LineHits lineHits = entry.getValue();
         ClassData classData = projectData.getOrCreateClassData(filePath);
-        if (lineHits.size() == 0) {
+        if (lineHits.getMaxLine() < 0) {
           classData.setLines(new LineData[1]);
           continue;
         }
-        LineData[] lines = new LineData[lineHits.lastKey() + 1];
-        for (Map.Entry<Integer, Integer> hit : lineHits.entrySet()) {
-          LineData lineData = new LineData(hit.getKey(), null);
-          lineData.setHits(hit.getValue());
-          lines[hit.getKey()] = lineData;
+        LineData[] lines = new LineData[lineHits.getMaxLine() + 1];
+        for (int line = 0; line < lines.length; line++) {
+          final int hits = lineHits.getHits(line);
+          if (hits < 0) continue;
+          LineData lineData = new LineData(line, null);
+          lineData.setHits(hits);
+          lines[line] = lineData;
         }
         classData.setLines(lines);
       }
     }
-    catch (JsonSyntaxException | IOException e) {
+    catch (IOException e) {
       LOG.warn(e);
     }
     finally {
@@ -126,6 +124,51 @@ public class DartCoverageRunner extends CoverageRunner {
     return projectData;
   }
 
+  /**
+   * The coverage may be collected into a directory, for example one file per isolate or test suite.
+   */
+  @NotNull
+  private static List<File> getCoverageFiles(@NotNull final File sessionDataFile) {
+    if (!sessionDataFile.isDirectory()) {
+      return List.of(sessionDataFile);
+    }
+
+    final File[] children = sessionDataFile.listFiles(file -> {
+      if (!file.isFile()) return false;
+      final String extension = FileUtil.getExtension(file.getName());
+      return "json".equals(extension) || "info".equals(extension) || "lcov".equals(extension);
+    });
+    return children == null ? List.of() : new ArrayList<>(Arrays.asList(children));
+  }
+
+  /**
+   * @param source a URI for JSON hitmaps, a path for lcov; relative lcov paths are resolved against the coverage directory
+   *               or its ancestors, as {@code flutter test --coverage} writes them relative to the package root
+   */
+  @Nullable
+  private static String getFileForSource(@NotNull final Project project,
+                                         @NotNull final String contextId,
+                                         @NotNull final File sessionDataFile,
+                                         @NotNull final String source) {
+    if (source.contains(":") && !new File(source).isAbsolute()) {
+      return getFileForUri(project, contextId, source);
+    }
+
+    final File file = new File(source);
+    if (file.isAbsolute()) {
+      return FileUtil.toSystemIndependentName(file.getPath());
+    }
+
+    final File coverageDir = sessionDataFile.isDirectory() ? sessionDataFile : sessionDataFile.getParentFile();
+    for (File dir = coverageDir == null ? null : coverageDir.getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+      final File candidate = new File(dir, source);
+      if (candidate.isFile()) {
+        return FileUtil.toSystemIndependentName(candidate.getPath());
+      }
+    }
+    return null;
+  }
+
   @Nullable
   private static String getFileForUri(@NotNull final Project project, @NotNull final String contextId, @NotNull final String uri) {
     if (uri.startsWith("dart:_") || uri.startsWith("dart:") && uri.contains("-patch/")) {
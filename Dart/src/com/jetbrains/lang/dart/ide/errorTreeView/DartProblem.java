@@ -38,17 +38,43 @@ public class DartProblem {
   private @Nullable VirtualFile myFile;
   private @Nullable VirtualFile myPackageRoot;
   private @Nullable VirtualFile myContentRoot;
-  private String myPresentableLocationWithoutLineNumber;
+  // written last by ensureInitialized(), volatile because problems are initialized off the EDT
+  private volatile String myPresentableLocationWithoutLineNumber;
+
+  private String myPresentableErrorMessage;
+  private String myTooltipText;
 
   public DartProblem(@NotNull Project project, @NotNull AnalysisError error) {
     myProject = project;
     myAnalysisError = error;
   }
 
+  @NotNull AnalysisError getAnalysisError() {
+    return myAnalysisError;
+  }
+
   public @NotNull @NlsSafe String getErrorMessage() {
     return myAnalysisError.getMessage();
   }
 
+  /**
+   * Error message on a single line, as shown in the Dart Analysis tool window
+   */
+  @NotNull @NlsSafe String getPresentableErrorMessage() {
+    if (myPresentableErrorMessage == null) {
+      myPresentableErrorMessage = getErrorMessage().replaceAll("(\n)+", " ");
+    }
+    return myPresentableErrorMessage;
+  }
+
+  @NotNull @Nls String getTooltipText() {
+    if (myTooltipText == null) {
+      // Pass null to the url, mouse movement to the hover makes the tooltip go away, see https://youtrack.jetbrains.com/issue/WEB-39449
+      myTooltipText = generateTooltipText(getErrorMessage(), getContextMessages(), getCorrectionMessage(), null);
+    }
+    return myTooltipText;
+  }
+
   public @Nullable @NlsSafe String getCorrectionMessage() {
     return StringUtil.notNullize(myAnalysisError.getCorrection());
   }
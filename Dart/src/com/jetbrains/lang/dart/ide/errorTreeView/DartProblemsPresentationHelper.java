@@ -5,6 +5,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectFileIndex;
 import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.jetbrains.lang.dart.DartBundle;
@@ -15,8 +16,6 @@ import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import javax.swing.*;
-
 public class DartProblemsPresentationHelper {
 
   private final @NotNull Project myProject;
@@ -28,6 +27,8 @@ public class DartProblemsPresentationHelper {
   private boolean myContentRootUpToDate;
   private @Nullable VirtualFile myCurrentContentRoot;
 
+  private @Nullable ProblemFilter myProblemFilter;
+
   DartProblemsPresentationHelper(@NotNull Project project) {
     myProject = project;
     mySettings = new DartProblemsViewSettings(); // Start with default settings. Once actual settings are loaded `setSettings()` is called.
@@ -35,26 +36,19 @@ public class DartProblemsPresentationHelper {
 
   public void setSettings(@NotNull DartProblemsViewSettings settings) {
     mySettings = settings;
+    myProblemFilter = null;
   }
 
   public @NotNull DartProblemsViewSettings getSettings() {
     return mySettings;
   }
 
-  RowFilter<DartProblemsTableModel, Integer> getRowFilter() {
-    return new RowFilter<>() {
-      @Override
-      public boolean include(final @NotNull Entry<? extends DartProblemsTableModel, ? extends Integer> entry) {
-        return shouldShowProblem(entry.getModel().getItem(entry.getIdentifier()));
-      }
-    };
-  }
-
   void resetAllFilters() {
     mySettings.showErrors = DartProblemsViewSettings.SHOW_ERRORS_DEFAULT;
     mySettings.showWarnings = DartProblemsViewSettings.SHOW_WARNINGS_DEFAULT;
     mySettings.showHints = DartProblemsViewSettings.SHOW_HINTS_DEFAULT;
     mySettings.fileFilterMode = DartProblemsViewSettings.FILE_FILTER_MODE_DEFAULT;
+    myProblemFilter = null;
 
     assert !areFiltersApplied();
   }
@@ -64,6 +58,7 @@ public class DartProblemsPresentationHelper {
     mySettings.showWarnings = form.isShowWarnings();
     mySettings.showHints = form.isShowHints();
     mySettings.fileFilterMode = form.getFileFilterMode();
+    myProblemFilter = null;
   }
 
   void updateFromServerSettingsUI(@NotNull DartAnalysisServerSettingsForm form) {
@@ -87,6 +82,7 @@ public class DartProblemsPresentationHelper {
       myCurrentFile = file;
       myDartPackageRootUpToDate = false;
       myContentRootUpToDate = false;
+      myProblemFilter = null;
       return true;
     }
   }
@@ -132,40 +128,25 @@ public class DartProblemsPresentationHelper {
   }
 
   boolean shouldShowProblem(@NotNull DartProblem problem) {
-    if (!isShowErrors() && AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) return false;
-    if (!isShowWarnings() && AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) return false;
-    if (!isShowHints() && AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) return false;
-
-    if (getFileFilterMode() == DartProblemsViewSettings.FileFilterMode.File &&
-        (myCurrentFile == null || !myCurrentFile.equals(problem.getFile()))) {
-      return false;
-    }
-
-    if (getFileFilterMode() == DartProblemsViewSettings.FileFilterMode.Directory) {
-      if (myCurrentFile == null) return false;
+    return getProblemFilter().value(problem);
+  }
 
-      VirtualFile parent = myCurrentFile.getParent();
-      VirtualFile child = problem.getFile();
-      if (child != null && parent != null && !child.getPath().startsWith(parent.getPath() + "/")) {
-        return false;
+  /**
+   * @return filter that reflects current settings and current file, it doesn't change and can be used off the EDT
+   */
+  @NotNull Condition<DartProblem> getProblemFilter() {
+    if (myProblemFilter == null) {
+      final DartProblemsViewSettings.FileFilterMode fileFilterMode = getFileFilterMode();
+      if (fileFilterMode == DartProblemsViewSettings.FileFilterMode.DartPackage) {
+        ensurePackageRootUpToDate();
       }
-    }
-
-    if (getFileFilterMode() == DartProblemsViewSettings.FileFilterMode.DartPackage) {
-      ensurePackageRootUpToDate();
-      if (myCurrentDartPackageRoot == null || !myCurrentDartPackageRoot.equals(problem.getPackageRoot())) {
-        return false;
-      }
-    }
-
-    if (getFileFilterMode() == DartProblemsViewSettings.FileFilterMode.ContentRoot) {
-      ensureContentRootUpToDate();
-      if (myCurrentContentRoot == null || !myCurrentContentRoot.equals(problem.getContentRoot())) {
-        return false;
+      if (fileFilterMode == DartProblemsViewSettings.FileFilterMode.ContentRoot) {
+        ensureContentRootUpToDate();
       }
+      myProblemFilter = new ProblemFilter(isShowErrors(), isShowWarnings(), isShowHints(), fileFilterMode, myCurrentFile,
+                                          myCurrentDartPackageRoot, myCurrentContentRoot);
     }
-
-    return true;
+    return myProblemFilter;
   }
 
   private void ensurePackageRootUpToDate() {
@@ -234,4 +215,66 @@ public class DartProblemsPresentationHelper {
 
     return DartBundle.message("dart.problems.view.filtering.by.0.and.severity", filtering);
   }
+
+  private static final class ProblemFilter implements Condition<DartProblem> {
+    private final boolean myShowErrors;
+    private final boolean myShowWarnings;
+    private final boolean myShowHints;
+    private final @NotNull DartProblemsViewSettings.FileFilterMode myFileFilterMode;
+    private final @Nullable VirtualFile myCurrentFile;
+    private final @Nullable VirtualFile myCurrentDartPackageRoot;
+    private final @Nullable VirtualFile myCurrentContentRoot;
+
+    private ProblemFilter(boolean showErrors,
+                          boolean showWarnings,
+                          boolean showHints,
+                          @NotNull DartProblemsViewSettings.FileFilterMode fileFilterMode,
+                          @Nullable VirtualFile currentFile,
+                          @Nullable VirtualFile currentDartPackageRoot,
+                          @Nullable VirtualFile currentContentRoot) {
+      myShowErrors = showErrors;
+      myShowWarnings = showWarnings;
+      myShowHints = showHints;
+      myFileFilterMode = fileFilterMode;
+      myCurrentFile = currentFile;
+      myCurrentDartPackageRoot = currentDartPackageRoot;
+      myCurrentContentRoot = currentContentRoot;
+    }
+
+    @Override
+    public boolean value(@NotNull DartProblem problem) {
+      if (!myShowErrors && AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) return false;
+      if (!myShowWarnings && AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) return false;
+      if (!myShowHints && AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) return false;
+
+      if (myFileFilterMode == DartProblemsViewSettings.FileFilterMode.File &&
+          (myCurrentFile == null || !myCurrentFile.equals(problem.getFile()))) {
+        return false;
+      }
+
+      if (myFileFilterMode == DartProblemsViewSettings.FileFilterMode.Directory) {
+        if (myCurrentFile == null) return false;
+
+        VirtualFile parent = myCurrentFile.getParent();
+        VirtualFile child = problem.getFile();
+        if (child != null && parent != null && !child.getPath().startsWith(parent.getPath() + "/")) {
+          return false;
+        }
+      }
+
+      if (myFileFilterMode == DartProblemsViewSettings.FileFilterMode.DartPackage) {
+        if (myCurrentDartPackageRoot == null || !myCurrentDartPackageRoot.equals(problem.getPackageRoot())) {
+          return false;
+        }
+      }
+
+      if (myFileFilterMode == DartProblemsViewSettings.FileFilterMode.ContentRoot) {
+        if (myCurrentContentRoot == null || !myCurrentContentRoot.equals(problem.getContentRoot())) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
 }
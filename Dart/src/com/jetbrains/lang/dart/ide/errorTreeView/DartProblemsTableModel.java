@@ -3,11 +3,16 @@ package com.jetbrains.lang.dart.ide.errorTreeView;
 
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.ui.ColumnInfo;
 import com.intellij.util.ui.ListTableModel;
 import com.jetbrains.lang.dart.DartBundle;
@@ -32,14 +37,10 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
       // Do not emphasize a focused cell, drawing the whole row as selected is enough
       JLabel label = (JLabel)super.getTableCellRendererComponent(table, value, isSelected, false, row, column);
 
+      // Only visible rows are rendered, presentation is computed once per problem
       DartProblem problem = (DartProblem)value;
-      setText(problem.getErrorMessage().replaceAll("(\n)+", " "));
-
-      // Pass null to the url, mouse movement to the hover makes the tooltip go away, see https://youtrack.jetbrains.com/issue/WEB-39449
-      setToolTipText(DartProblem.generateTooltipText(problem.getErrorMessage(),
-                                                     problem.getContextMessages(),
-                                                     problem.getCorrectionMessage(),
-                                                     null));
+      setText(problem.getPresentableErrorMessage());
+      setToolTipText(problem.getTooltipText());
 
       String severity = problem.getSeverity();
       setIcon(AnalysisErrorSeverity.ERROR.equals(severity)
@@ -60,12 +61,37 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
     }
   };
 
+  /**
+   * Rows of the table are changed asynchronously, the listener is notified on the EDT when it's done.
+   */
+  interface Listener {
+    @Nullable DartProblem getSelectedProblem();
+
+    /**
+     * @param problemToSelect if not null then the table should select this problem: it either replaces the selected one or is the
+     *                        selected one that has been deselected because all rows have been replaced
+     */
+    void rowsChanged(@Nullable DartProblem problemToSelect);
+  }
+
+  // if more rows are changed at once then the table is notified about all rows change instead of each row change
+  private static final int MAX_ROWS_TO_UPDATE_ONE_BY_ONE = 100;
+
   private final @NotNull Project myProject;
   private final @NotNull DartProblemsPresentationHelper myPresentationHelper;
+  private final @NotNull Listener myListener;
+
+  // Live collection used in a super class. Contains only problems that pass the filter, sorted by the current sort key.
+  private final SortedRowList<DartProblem> myItems;
+
+  // All problems including the filtered out ones. Lists are not modified once put into the map, so they can be used off the EDT.
+  private final Map<String, List<DartProblem>> myFilePathToProblems = new HashMap<>();
 
-  // Kind of hack to keep a reference to the live collection used in a super class, but it allows improving performance greatly.
-  // Having it in hand we can do bulk rows removal with a single fireTableRowsDeleted() call afterwards
-  private final List<DartProblem> myItems = new ArrayList<>();
+  // EDT only
+  private final Map<String, List<? extends AnalysisError>> myPendingFilePathToErrors = new HashMap<>();
+  private boolean myRebuildRequested;
+  private boolean myUpdateInProgress;
+  private int myGeneration;
 
   private RowSorter.SortKey mySortKey = new RowSorter.SortKey(1, SortOrder.ASCENDING);
 
@@ -77,24 +103,21 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
   private int myWarningCountAfterFilter;
   private int myHintCountAfterFilter;
 
-  private final Comparator<DartProblem> myDescriptionComparator = new DartProblemsComparator(DartProblemsComparator.MESSAGE_COLUMN_ID);
-  private final Comparator<DartProblem> myLocationComparator = new DartProblemsComparator(DartProblemsComparator.LOCATION_COLUMN_ID);
-
-  DartProblemsTableModel(@NotNull Project project, @NotNull DartProblemsPresentationHelper presentationHelper) {
+  DartProblemsTableModel(@NotNull Project project,
+                         @NotNull DartProblemsPresentationHelper presentationHelper,
+                         @NotNull Listener listener) {
     myProject = project;
     myPresentationHelper = presentationHelper;
+    myListener = listener;
+    myItems = new SortedRowList<>(createComparator());
     setColumnInfos(new ColumnInfo[]{createDescriptionColumn(), createLocationColumn()});
     setItems(myItems);
-    setSortable(true);
+    // rows are sorted by this model itself, see createRowSorter()
+    setSortable(false);
   }
 
-  private @NotNull ColumnInfo<DartProblem, DartProblem> createDescriptionColumn() {
+  private static @NotNull ColumnInfo<DartProblem, DartProblem> createDescriptionColumn() {
     return new ColumnInfo<>(DartBundle.message("dart.problems.view.column.name.description")) {
-      @Override
-      public @Nullable Comparator<DartProblem> getComparator() {
-        return myDescriptionComparator;
-      }
-
       @Override
       public @Nullable TableCellRenderer getRenderer(@NotNull DartProblem problem) {
         return MESSAGE_RENDERER;
@@ -107,13 +130,8 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
     };
   }
 
-  private @NotNull ColumnInfo<DartProblem, String> createLocationColumn() {
+  private static @NotNull ColumnInfo<DartProblem, String> createLocationColumn() {
     return new ColumnInfo<>(DartBundle.message("dart.problems.view.column.name.location")) {
-      @Override
-      public @Nullable Comparator<DartProblem> getComparator() {
-        return myLocationComparator;
-      }
-
       @Override
       public @Nullable TableCellRenderer getRenderer(DartProblem problem) {
         return LOCATION_RENDERER;
@@ -126,9 +144,76 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
     };
   }
 
-  @Override
-  public RowSorter.SortKey getDefaultSortKey() {
-    return mySortKey;
+  /**
+   * The table shows rows in the model order. This sorter only keeps the sort key for the table header and passes header clicks
+   * to the model.
+   */
+  @NotNull RowSorter<DartProblemsTableModel> createRowSorter() {
+    return new RowSorter<>() {
+      @Override
+      public DartProblemsTableModel getModel() {
+        return DartProblemsTableModel.this;
+      }
+
+      @Override
+      public void toggleSortOrder(int column) {
+        SortOrder sortOrder = mySortKey.getColumn() == column && mySortKey.getSortOrder() == SortOrder.ASCENDING
+                              ? SortOrder.DESCENDING
+                              : SortOrder.ASCENDING;
+        setSortKeys(Collections.singletonList(new SortKey(column, sortOrder)));
+      }
+
+      @Override
+      public int convertRowIndexToModel(int index) {
+        return index;
+      }
+
+      @Override
+      public int convertRowIndexToView(int index) {
+        return index;
+      }
+
+      @Override
+      public void setSortKeys(@Nullable List<? extends SortKey> keys) {
+        if (keys != null && keys.size() == 1 && !keys.get(0).equals(mySortKey)) {
+          setSortKey(keys.get(0));
+          fireSortOrderChanged();
+        }
+      }
+
+      @Override
+      public List<? extends SortKey> getSortKeys() {
+        return Collections.singletonList(mySortKey);
+      }
+
+      @Override
+      public int getViewRowCount() {
+        return getRowCount();
+      }
+
+      @Override
+      public int getModelRowCount() {
+        return getRowCount();
+      }
+
+      @Override
+      public void modelStructureChanged() {}
+
+      @Override
+      public void allRowsChanged() {}
+
+      @Override
+      public void rowsInserted(int firstRow, int endRow) {}
+
+      @Override
+      public void rowsDeleted(int firstRow, int endRow) {}
+
+      @Override
+      public void rowsUpdated(int firstRow, int endRow) {}
+
+      @Override
+      public void rowsUpdated(int firstRow, int endRow, int column) {}
+    };
   }
 
   @Override
@@ -146,22 +231,14 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
     return false;
   }
 
-  private void removeRows(int firstRow, int lastRow) {
-    assert lastRow >= firstRow;
+  void removeAll() {
+    ApplicationManager.getApplication().assertIsDispatchThread();
 
-    for (int i = lastRow; i >= firstRow; i--) {
-      DartProblem removed = myItems.remove(i);
+    myGeneration++;
+    myPendingFilePathToErrors.clear();
+    myRebuildRequested = false;
+    myFilePathToProblems.clear();
 
-      if (AnalysisErrorSeverity.ERROR.equals(removed.getSeverity())) myErrorCount--;
-      if (AnalysisErrorSeverity.WARNING.equals(removed.getSeverity())) myWarningCount--;
-      if (AnalysisErrorSeverity.INFO.equals(removed.getSeverity())) myHintCount--;
-      updateProblemsCountAfterFilter(removed, -1);
-    }
-
-    fireTableRowsDeleted(firstRow, lastRow);
-  }
-
-  void removeAll() {
     int rowCount = getRowCount();
     if (rowCount > 0) {
       myItems.clear();
@@ -177,120 +254,205 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
   }
 
   /**
-   * If {@code selectedProblem} was removed and similar one added again then this method returns the added one,
-   * so that the caller could update selected row in the table
+   * Schedules replacement of the problems in the given files. Only the problems that have actually changed are removed and added,
+   * new problems are prepared off the EDT.
    */
-  @Nullable
-  DartProblem setProblemsAndReturnReplacementForSelection(@NotNull Map<String, List<? extends AnalysisError>> filePathToErrors,
-                                                          @Nullable DartProblem selectedProblem) {
-    boolean selectedProblemRemoved = removeRowsForFilesInSet(filePathToErrors.keySet(), selectedProblem);
-    return addErrorsAndReturnReplacementForSelection(filePathToErrors, selectedProblemRemoved ? selectedProblem : null);
+  void setErrors(@NotNull Map<String, List<? extends AnalysisError>> filePathToErrors) {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    myPendingFilePathToErrors.putAll(filePathToErrors);
+    startUpdateIfNeeded();
   }
 
-  private boolean removeRowsForFilesInSet(@NotNull Set<String> filePaths, @Nullable DartProblem selectedProblem) {
-    // Looks for regions in table items that should be removed and removes them.
-    // For performance reasons we try to call removeRows() as rare as possible, that means with regions as big as possible.
-    // Logic is based on the fact that all errors for each particular file are stored continuously in the myItems model
-
-    boolean selectedProblemRemoved = false;
-
-    int matchedFilesCount = 0;
-
-    for (int i = getRowCount() - 1; i >= 0; i--) {
-      final DartProblem problem = getItem(i);
-      if (filePaths.contains(problem.getSystemIndependentPath())) {
-        matchedFilesCount++;
-        final int lastRowToDelete = i;
+  /**
+   * Schedules filtering and sorting of all problems off the EDT.
+   */
+  private void rebuildRows() {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    myRebuildRequested = true;
+    startUpdateIfNeeded();
+  }
 
-        if (problem == selectedProblem) {
-          selectedProblemRemoved = true;
+  private void startUpdateIfNeeded() {
+    if (myUpdateInProgress || (myPendingFilePathToErrors.isEmpty() && !myRebuildRequested)) return;
+
+    // Only one update is computed at a time, and only updates change myFilePathToProblems, so the snapshot stays actual.
+    final Map<String, List<? extends AnalysisError>> filePathToErrors = new HashMap<>(myPendingFilePathToErrors);
+    final Map<String, List<DartProblem>> filePathToProblems = new HashMap<>(myFilePathToProblems);
+    final Condition<DartProblem> filter = myRebuildRequested ? myPresentationHelper.getProblemFilter() : null;
+    final Comparator<DartProblem> comparator = createComparator();
+    final DartProblemsViewSettings.ScopedAnalysisMode scopedAnalysisMode = myPresentationHelper.getScopedAnalysisMode();
+    final int generation = myGeneration;
+
+    myPendingFilePathToErrors.clear();
+    myRebuildRequested = false;
+    myUpdateInProgress = true;
+
+    ReadAction
+      .nonBlocking(() -> computeUpdate(filePathToErrors, filePathToProblems, scopedAnalysisMode, filter, comparator))
+      .finishOnUiThread(ModalityState.NON_MODAL, update -> {
+        myUpdateInProgress = false;
+        if (generation == myGeneration) {
+          applyUpdate(update);
         }
+        startUpdateIfNeeded();
+      })
+      .expireWith(myProject)
+      .submit(AppExecutorUtil.getAppExecutorService())
+      .onError(t -> ApplicationManager.getApplication().invokeLater(() -> {
+        // finishOnUiThread() isn't called if the computation failed, errors set since then still need to be shown
+        myUpdateInProgress = false;
+        startUpdateIfNeeded();
+      }, ModalityState.NON_MODAL, myProject.getDisposed()));
+  }
 
-        DartProblem lastProblemForCurrentFile = problem;
-
-        int j = i - 1;
-        while (j >= 0) {
-          final DartProblem previousProblem = getItem(j);
-
-          if (previousProblem.getSystemIndependentPath().equals(lastProblemForCurrentFile.getSystemIndependentPath())) {
-            // previousProblem should be removed from the table as well
-            j--;
+  private @NotNull Update computeUpdate(@NotNull Map<String, List<? extends AnalysisError>> filePathToErrors,
+                                        @NotNull Map<String, List<DartProblem>> filePathToProblems,
+                                        @NotNull DartProblemsViewSettings.ScopedAnalysisMode scopedAnalysisMode,
+                                        @Nullable Condition<DartProblem> filter,
+                                        @NotNull Comparator<DartProblem> comparator) {
+    final Update update = new Update();
 
-            if (previousProblem == selectedProblem) {
-              selectedProblemRemoved = true;
-            }
+    for (Map.Entry<String, List<? extends AnalysisError>> entry : filePathToErrors.entrySet()) {
+      ProgressManager.checkCanceled();
 
-            continue;
-          }
+      String filePath = entry.getKey();
+      VirtualFile vFile = LocalFileSystem.getInstance().findFileByPath(filePath);
+      boolean fileOk = vFile != null && (scopedAnalysisMode != DartProblemsViewSettings.ScopedAnalysisMode.All ||
+                                         ProjectFileIndex.getInstance(myProject).isInContent(vFile));
+      List<? extends AnalysisError> errors = fileOk ? entry.getValue() : AnalysisError.EMPTY_LIST;
 
-          if (filePaths.contains(previousProblem.getSystemIndependentPath())) {
-            matchedFilesCount++;
-            // continue iterating the table because we met a range of problems for another file that also should be removed
-            lastProblemForCurrentFile = previousProblem;
-            j--;
+      // problems for unchanged errors are kept, so that they keep their rows in the table
+      Map<AnalysisError, Deque<DartProblem>> oldProblems = new HashMap<>();
+      for (DartProblem problem : filePathToProblems.getOrDefault(filePath, Collections.emptyList())) {
+        oldProblems.computeIfAbsent(problem.getAnalysisError(), e -> new ArrayDeque<>()).add(problem);
+      }
 
-            if (previousProblem == selectedProblem) {
-              selectedProblemRemoved = true;
-            }
+      List<DartProblem> problems = new ArrayList<>(errors.size());
+      for (AnalysisError analysisError : errors) {
+        Deque<DartProblem> sameProblems = oldProblems.get(analysisError);
+        DartProblem problem = sameProblems != null ? sameProblems.poll() : null;
+        if (problem == null) {
+          problem = new DartProblem(myProject, analysisError);
+          // initialize presentation off the EDT
+          problem.getPresentableLocationWithoutLineNumber();
+          update.myAddedProblems.add(problem);
+        }
+        problems.add(problem);
+      }
 
-            continue;
-          }
+      for (Deque<DartProblem> removed : oldProblems.values()) {
+        update.myRemovedProblems.addAll(removed);
+      }
 
-          break;
-        }
+      update.myFilePathToProblems.put(filePath, problems);
+    }
 
-        final int firstRowToDelete = j + 1;
-        removeRows(firstRowToDelete, lastRowToDelete);
+    if (filter != null) {
+      filePathToProblems.putAll(update.myFilePathToProblems);
 
-        if (matchedFilesCount == filePaths.size()) {
-          break;
+      List<DartProblem> rows = new ArrayList<>();
+      for (List<DartProblem> problems : filePathToProblems.values()) {
+        ProgressManager.checkCanceled();
+        for (DartProblem problem : problems) {
+          if (filter.value(problem)) {
+            rows.add(problem);
+          }
         }
-
-        //noinspection AssignmentToForLoopParameter
-        i = j + 1; // rewind according to the amount of removed rows
       }
+      rows.sort(comparator);
+
+      update.myRows = rows;
+      update.myComparator = comparator;
     }
 
-    return selectedProblemRemoved;
+    return update;
   }
 
-  private @Nullable DartProblem addErrorsAndReturnReplacementForSelection(@NotNull Map<String, List<? extends AnalysisError>> filePathToErrors,
-                                                                          @Nullable DartProblem oldSelectedProblem) {
-    DartProblem newSelectedProblem = null;
-    DartProblemsViewSettings.ScopedAnalysisMode scopedAnalysisMode = myPresentationHelper.getScopedAnalysisMode();
+  private void applyUpdate(@NotNull Update update) {
+    DartProblem selectedProblem = myListener.getSelectedProblem();
 
-    List<DartProblem> problemsToAdd = new ArrayList<>();
-    for (Map.Entry<String, List<? extends AnalysisError>> entry : filePathToErrors.entrySet()) {
-      String filePath = entry.getKey();
-      VirtualFile vFile = LocalFileSystem.getInstance().findFileByPath(filePath);
-      boolean fileOk = vFile != null && (scopedAnalysisMode != DartProblemsViewSettings.ScopedAnalysisMode.All ||
-                                         ProjectFileIndex.getInstance(myProject).isInContent(vFile));
-      List<? extends AnalysisError> errors = fileOk ? entry.getValue() : AnalysisError.EMPTY_LIST;
+    for (Map.Entry<String, List<DartProblem>> entry : update.myFilePathToProblems.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        myFilePathToProblems.remove(entry.getKey());
+      }
+      else {
+        myFilePathToProblems.put(entry.getKey(), entry.getValue());
+      }
+    }
 
-      for (AnalysisError analysisError : errors) {
-        DartProblem problem = new DartProblem(myProject, analysisError);
-        problemsToAdd.add(problem);
-
-        if (oldSelectedProblem != null &&
-            lookSimilar(problem, oldSelectedProblem) &&
-            (newSelectedProblem == null ||
-             // check if current problem is closer to oldSelectedProblem
-             (Math.abs(oldSelectedProblem.getLineNumber() - newSelectedProblem.getLineNumber()) >=
-              Math.abs(oldSelectedProblem.getLineNumber() - problem.getLineNumber())))) {
-          newSelectedProblem = problem;
-        }
+    boolean selectedProblemRemoved = false;
+    for (DartProblem problem : update.myRemovedProblems) {
+      updateProblemsCount(problem, -1);
+      selectedProblemRemoved |= problem == selectedProblem;
+    }
+    for (DartProblem problem : update.myAddedProblems) {
+      updateProblemsCount(problem, +1);
+    }
 
-        if (AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) myErrorCount++;
-        if (AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) myWarningCount++;
-        if (AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) myHintCount++;
+    boolean allRowsChanged;
+    if (update.myRows != null) {
+      myItems.setAll(update.myRows, update.myComparator);
+      myErrorCountAfterFilter = 0;
+      myWarningCountAfterFilter = 0;
+      myHintCountAfterFilter = 0;
+      for (DartProblem problem : myItems) {
         updateProblemsCountAfterFilter(problem, +1);
       }
+      allRowsChanged = true;
+    }
+    else {
+      allRowsChanged = update.myRemovedProblems.size() + update.myAddedProblems.size() > MAX_ROWS_TO_UPDATE_ONE_BY_ONE;
+
+      for (DartProblem problem : update.myRemovedProblems) {
+        int row = myItems.find(problem);
+        if (row >= 0) {
+          myItems.remove(row);
+          updateProblemsCountAfterFilter(problem, -1);
+          if (!allRowsChanged) fireTableRowsDeleted(row, row);
+        }
+      }
+
+      for (DartProblem problem : update.myAddedProblems) {
+        if (myPresentationHelper.shouldShowProblem(problem)) {
+          int row = myItems.insert(problem);
+          updateProblemsCountAfterFilter(problem, +1);
+          if (!allRowsChanged) fireTableRowsInserted(row, row);
+        }
+      }
     }
 
-    if (!problemsToAdd.isEmpty()) {
-      addRows(problemsToAdd);
+    if (allRowsChanged) {
+      fireTableDataChanged();
     }
 
+    DartProblem problemToSelect = null;
+    if (selectedProblemRemoved) {
+      problemToSelect = findReplacementForSelection(selectedProblem, update.myAddedProblems);
+    }
+    else if (allRowsChanged && selectedProblem != null && myItems.find(selectedProblem) >= 0) {
+      problemToSelect = selectedProblem;
+    }
+
+    myListener.rowsChanged(problemToSelect);
+  }
+
+  /**
+   * If {@code oldSelectedProblem} was removed and similar one added again then this method returns the added one,
+   * so that the caller could update selected row in the table
+   */
+  private @Nullable DartProblem findReplacementForSelection(@NotNull DartProblem oldSelectedProblem,
+                                                            @NotNull List<DartProblem> addedProblems) {
+    DartProblem newSelectedProblem = null;
+    for (DartProblem problem : addedProblems) {
+      if (lookSimilar(problem, oldSelectedProblem) &&
+          (newSelectedProblem == null ||
+           // check if current problem is closer to oldSelectedProblem
+           (Math.abs(oldSelectedProblem.getLineNumber() - newSelectedProblem.getLineNumber()) >=
+            Math.abs(oldSelectedProblem.getLineNumber() - problem.getLineNumber()))) &&
+          myItems.find(problem) >= 0) {
+        newSelectedProblem = problem;
+      }
+    }
     return newSelectedProblem;
   }
 
@@ -300,33 +462,30 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
            problem1.getSystemIndependentPath().equals(problem2.getSystemIndependentPath());
   }
 
+  private void updateProblemsCount(@NotNull DartProblem problem, int delta) {
+    if (AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) myErrorCount += delta;
+    if (AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) myWarningCount += delta;
+    if (AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) myHintCount += delta;
+  }
+
   private void updateProblemsCountAfterFilter(@NotNull DartProblem problem, int delta) {
-    if (myPresentationHelper.shouldShowProblem(problem)) {
-      if (AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) myErrorCountAfterFilter += delta;
-      if (AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) myWarningCountAfterFilter += delta;
-      if (AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) myHintCountAfterFilter += delta;
-    }
+    if (AnalysisErrorSeverity.ERROR.equals(problem.getSeverity())) myErrorCountAfterFilter += delta;
+    if (AnalysisErrorSeverity.WARNING.equals(problem.getSeverity())) myWarningCountAfterFilter += delta;
+    if (AnalysisErrorSeverity.INFO.equals(problem.getSeverity())) myHintCountAfterFilter += delta;
   }
 
-  void setSortKey(@NotNull RowSorter.SortKey sortKey) {
+  private void setSortKey(@NotNull RowSorter.SortKey sortKey) {
     mySortKey = sortKey;
+    rebuildRows();
   }
 
   void onFilterChanged() {
-    ApplicationManager.getApplication().assertIsDispatchThread();
-    if (myPresentationHelper.areFiltersApplied()) {
-      myErrorCountAfterFilter = 0;
-      myWarningCountAfterFilter = 0;
-      myHintCountAfterFilter = 0;
-      for (DartProblem problem : myItems) {
-        updateProblemsCountAfterFilter(problem, +1);
-      }
-    }
-    else {
-      myErrorCountAfterFilter = myErrorCount;
-      myWarningCountAfterFilter = myWarningCount;
-      myHintCountAfterFilter = myHintCount;
-    }
+    rebuildRows();
+  }
+
+  private @NotNull Comparator<DartProblem> createComparator() {
+    return new DartProblemsComparator(mySortKey.getColumn(), mySortKey.getSortOrder() != SortOrder.DESCENDING,
+                                      myPresentationHelper.isGroupBySeverity());
   }
 
   boolean hasErrors() {
@@ -374,49 +533,68 @@ class DartProblemsTableModel extends ListTableModel<DartProblem> {
     return statusText;
   }
 
-  private class DartProblemsComparator implements Comparator<DartProblem> {
+  private static final class Update {
+    private final Map<String, List<DartProblem>> myFilePathToProblems = new HashMap<>();
+    private final List<DartProblem> myRemovedProblems = new ArrayList<>();
+    private final List<DartProblem> myAddedProblems = new ArrayList<>();
+    // all rows, if they have been rebuilt
+    private @Nullable List<DartProblem> myRows;
+    private @Nullable Comparator<DartProblem> myComparator;
+  }
+
+  /**
+   * Doesn't depend on mutable state, so it can be used off the EDT. Problems that are equal in the sorted column are ordered by
+   * location and offset, so that rows can be found by binary search.
+   */
+  private static final class DartProblemsComparator implements Comparator<DartProblem> {
     private static final int MESSAGE_COLUMN_ID = 0;
-    private static final int LOCATION_COLUMN_ID = 1;
 
     private final int myColumn;
+    private final boolean myAscending;
+    private final boolean myGroupBySeverity;
 
-    DartProblemsComparator(final int column) {
+    DartProblemsComparator(int column, boolean ascending, boolean groupBySeverity) {
       myColumn = column;
+      myAscending = ascending;
+      myGroupBySeverity = groupBySeverity;
     }
 
     @Override
     public int compare(@NotNull DartProblem problem1, @NotNull DartProblem problem2) {
-      if (myPresentationHelper.isGroupBySeverity()) {
+      if (myGroupBySeverity) {
         int s1 = getSeverityIndex(problem1);
         int s2 = getSeverityIndex(problem2);
         if (s1 != s2) {
           // Regardless of sorting direction, if 'Group by severity' is selected then we should keep errors on top
-          return mySortKey.getSortOrder() == SortOrder.ASCENDING ? s1 - s2 : s2 - s1;
+          return s1 - s2;
         }
       }
 
-      if (myColumn == MESSAGE_COLUMN_ID) {
-        return StringUtil.compare(problem1.getErrorMessage(), problem2.getErrorMessage(), false);
+      int result = myColumn == MESSAGE_COLUMN_ID
+                   ? StringUtil.compare(problem1.getErrorMessage(), problem2.getErrorMessage(), false)
+                   : StringUtil.compare(problem1.getPresentableLocationWithoutLineNumber(),
+                                        problem2.getPresentableLocationWithoutLineNumber(), false);
+      if (result != 0) {
+        return myAscending ? result : -result;
       }
 
-      if (myColumn == LOCATION_COLUMN_ID) {
-        int result = StringUtil.compare(problem1.getPresentableLocationWithoutLineNumber(),
-                                        problem2.getPresentableLocationWithoutLineNumber(), false);
-        if (result != 0) {
-          return result;
-        }
-        else {
-          // Regardless of sorting direction, line numbers within the same file should be sorted in ascending order
-          return mySortKey.getSortOrder() == SortOrder.ASCENDING
-                 ? problem1.getLineNumber() - problem2.getLineNumber()
-                 : problem2.getLineNumber() - problem1.getLineNumber();
-        }
+      if (myColumn == MESSAGE_COLUMN_ID) {
+        result = StringUtil.compare(problem1.getPresentableLocationWithoutLineNumber(),
+                                    problem2.getPresentableLocationWithoutLineNumber(), false);
+        if (result != 0) return result;
       }
 
-      return 0;
+      // Regardless of sorting direction, line numbers within the same file should be sorted in ascending order
+      result = Integer.compare(problem1.getLineNumber(), problem2.getLineNumber());
+      if (result != 0) return result;
+
+      result = Integer.compare(problem1.getAnalysisError().getLocation().getOffset(), problem2.getAnalysisError().getLocation().getOffset());
+      if (result != 0) return result;
+
+      return myColumn == MESSAGE_COLUMN_ID ? 0 : StringUtil.compare(problem1.getErrorMessage(), problem2.getErrorMessage(), false);
     }
 
-    private int getSeverityIndex(@NotNull DartProblem problem) {
+    private static int getSeverityIndex(@NotNull DartProblem problem) {
       String severity = problem.getSeverity();
       if (AnalysisErrorSeverity.ERROR.equals(severity)) {
         return 0;
@@ -54,7 +54,7 @@ public final class DartProblemsView implements PersistentStateComponent<DartProb
   private final DartProblemsPresentationHelper myPresentationHelper;
 
   private final Object myLock = new Object(); // use this lock to access myScheduledFilePathToErrors and myAlarm
-  private final Map<String, List<? extends AnalysisError>> myScheduledFilePathToErrors = new HashMap<>();
+  private Map<String, List<? extends AnalysisError>> myScheduledFilePathToErrors = new HashMap<>();
   private final Alarm myAlarm;
 
   @NotNull
@@ -79,8 +79,8 @@ public final class DartProblemsView implements PersistentStateComponent<DartProb
 
       final Map<String, List<? extends AnalysisError>> filePathToErrors;
       synchronized (myLock) {
-        filePathToErrors = new HashMap<>(myScheduledFilePathToErrors);
-        myScheduledFilePathToErrors.clear();
+        filePathToErrors = myScheduledFilePathToErrors;
+        myScheduledFilePathToErrors = new HashMap<>();
       }
 
       DartProblemsViewPanel panel = getProblemsViewPanel();
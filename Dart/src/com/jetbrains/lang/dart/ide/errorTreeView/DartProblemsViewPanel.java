@@ -79,7 +79,23 @@ public class DartProblemsViewPanel extends SimpleToolWindowPanel implements Data
   }
 
   private @NotNull TableView<DartProblem> createTable() {
-    TableView<DartProblem> table = new TableView<>(new DartProblemsTableModel(myProject, myPresentationHelper));
+    DartProblemsTableModel model = new DartProblemsTableModel(myProject, myPresentationHelper, new DartProblemsTableModel.Listener() {
+      @Override
+      public @Nullable DartProblem getSelectedProblem() {
+        return myTable.getSelectedObject();
+      }
+
+      @Override
+      public void rowsChanged(@Nullable DartProblem problemToSelect) {
+        if (problemToSelect != null) {
+          myTable.setSelection(Collections.singletonList(problemToSelect));
+        }
+
+        updateStatusDescription();
+      }
+    });
+    TableView<DartProblem> table = new TableView<>(model);
+    table.setRowSorter(model.createRowSorter());
 
     EditSourceOnDoubleClickHandler.install(table);
     EditSourceOnEnterKeyHandler.install(table);
@@ -91,15 +107,6 @@ public class DartProblemsViewPanel extends SimpleToolWindowPanel implements Data
       }
     });
 
-    //noinspection unchecked
-    ((DefaultRowSorter<DartProblemsTableModel, Integer>)table.getRowSorter()).setRowFilter(myPresentationHelper.getRowFilter());
-
-    table.getRowSorter().addRowSorterListener(e -> {
-      List<? extends RowSorter.SortKey> sortKeys = myTable.getRowSorter().getSortKeys();
-      assert sortKeys.size() == 1 : sortKeys;
-      ((DartProblemsTableModel)myTable.getModel()).setSortKey(sortKeys.get(0));
-    });
-
     new TableSpeedSearch(table, object -> object instanceof DartProblem
                                           ? ((DartProblem)object).getErrorMessage() + " " + ((DartProblem)object).getPresentableLocation()
                                           : "");
@@ -283,9 +290,8 @@ public class DartProblemsViewPanel extends SimpleToolWindowPanel implements Data
   }
 
   void fireGroupingOrFilterChanged() {
-    myTable.getRowSorter().allRowsChanged();
+    // status description is updated when rows are ready
     ((DartProblemsTableModel)myTable.getModel()).onFilterChanged();
-    updateStatusDescription();
   }
 
   private void showFiltersPopup() {
@@ -386,16 +392,7 @@ public class DartProblemsViewPanel extends SimpleToolWindowPanel implements Data
   }
 
   public void setErrors(@NotNull Map<String, List<? extends AnalysisError>> filePathToErrors) {
-    DartProblemsTableModel model = (DartProblemsTableModel)myTable.getModel();
-    DartProblem oldSelectedProblem = myTable.getSelectedObject();
-
-    DartProblem updatedSelectedProblem = model.setProblemsAndReturnReplacementForSelection(filePathToErrors, oldSelectedProblem);
-
-    if (updatedSelectedProblem != null) {
-      myTable.setSelection(Collections.singletonList(updatedSelectedProblem));
-    }
-
-    updateStatusDescription();
+    ((DartProblemsTableModel)myTable.getModel()).setErrors(filePathToErrors);
   }
 
   void clearAll() {
@@ -0,0 +1,231 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.errorTreeView;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * List kept sorted by a comparator, with {@code O(log n)} access by index, insertion and removal. Elements are stored in blocks
+ * of limited size, a Fenwick tree over block sizes maps row indices to blocks.
+ * <p/>
+ * Elements are compared by the comparator and identified by identity, equal elements are kept in the order of insertion.
+ */
+final class SortedRowList<T> extends AbstractList<T> {
+  private static final int MAX_BLOCK_SIZE = 512;
+
+  private @NotNull Comparator<? super T> myComparator;
+  private final List<List<T>> myBlocks = new ArrayList<>();
+  // Fenwick tree over the sizes of myBlocks, 1-based
+  private int[] myTree = new int[1];
+  private int mySize;
+
+  SortedRowList(@NotNull Comparator<? super T> comparator) {
+    myComparator = comparator;
+  }
+
+  @NotNull Comparator<? super T> getComparator() {
+    return myComparator;
+  }
+
+  /**
+   * Replaces all elements.
+   *
+   * @param sortedElements elements sorted by {@code comparator}
+   */
+  void setAll(@NotNull List<? extends T> sortedElements, @NotNull Comparator<? super T> comparator) {
+    myComparator = comparator;
+    myBlocks.clear();
+    for (int start = 0; start < sortedElements.size(); start += MAX_BLOCK_SIZE / 2) {
+      myBlocks.add(new ArrayList<>(sortedElements.subList(start, Math.min(start + MAX_BLOCK_SIZE / 2, sortedElements.size()))));
+    }
+    mySize = sortedElements.size();
+    rebuildTree();
+    modCount++;
+  }
+
+  @Override
+  public void clear() {
+    setAll(Collections.emptyList(), myComparator);
+  }
+
+  @Override
+  public int size() {
+    return mySize;
+  }
+
+  @Override
+  public T get(int index) {
+    Objects.checkIndex(index, mySize);
+    final int block = findBlockByIndex(index);
+    return myBlocks.get(block).get(index - prefixSize(block));
+  }
+
+  /**
+   * @return index of the inserted element, after the elements equal to it
+   */
+  int insert(@NotNull T element) {
+    if (myBlocks.isEmpty()) {
+      myBlocks.add(new ArrayList<>(Collections.singletonList(element)));
+      mySize = 1;
+      modCount++;
+      rebuildTree();
+      return 0;
+    }
+
+    int low = 0;
+    int high = myBlocks.size() - 1;
+    int block = high;
+    // first block whose last element is greater than the inserted one, or the last block
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final List<T> midBlock = myBlocks.get(mid);
+      if (myComparator.compare(midBlock.get(midBlock.size() - 1), element) > 0) {
+        block = mid;
+        high = mid - 1;
+      }
+      else {
+        low = mid + 1;
+      }
+    }
+
+    final List<T> elements = myBlocks.get(block);
+    final int indexInBlock = upperBound(elements, element);
+    elements.add(indexInBlock, element);
+    mySize++;
+    modCount++;
+
+    final int index = prefixSize(block) + indexInBlock;
+    if (elements.size() > MAX_BLOCK_SIZE) {
+      final List<T> tail = new ArrayList<>(elements.subList(MAX_BLOCK_SIZE / 2, elements.size()));
+      elements.subList(MAX_BLOCK_SIZE / 2, elements.size()).clear();
+      myBlocks.add(block + 1, tail);
+      rebuildTree();
+    }
+    else {
+      updateTree(block, 1);
+    }
+    return index;
+  }
+
+  @Override
+  public T remove(int index) {
+    Objects.checkIndex(index, mySize);
+    final int block = findBlockByIndex(index);
+    final List<T> elements = myBlocks.get(block);
+    final T removed = elements.remove(index - prefixSize(block));
+    mySize--;
+    modCount++;
+
+    if (elements.isEmpty()) {
+      myBlocks.remove(block);
+      rebuildTree();
+    }
+    else {
+      updateTree(block, -1);
+    }
+    return removed;
+  }
+
+  /**
+   * @return index of the given element (compared by identity) or -1
+   */
+  int find(@NotNull T element) {
+    int low = 0;
+    int high = myBlocks.size() - 1;
+    int block = myBlocks.size();
+    // first block whose last element is not less than the element
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final List<T> midBlock = myBlocks.get(mid);
+      if (myComparator.compare(midBlock.get(midBlock.size() - 1), element) >= 0) {
+        block = mid;
+        high = mid - 1;
+      }
+      else {
+        low = mid + 1;
+      }
+    }
+
+    for (int i = block; i < myBlocks.size(); i++) {
+      final List<T> elements = myBlocks.get(i);
+      for (int j = i == block ? lowerBound(elements, element) : 0; j < elements.size(); j++) {
+        final T candidate = elements.get(j);
+        if (candidate == element) return prefixSize(i) + j;
+        if (myComparator.compare(candidate, element) != 0) return -1;
+      }
+    }
+    return -1;
+  }
+
+  private int lowerBound(@NotNull List<T> elements, @NotNull T element) {
+    int low = 0;
+    int high = elements.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (myComparator.compare(elements.get(mid), element) < 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int upperBound(@NotNull List<T> elements, @NotNull T element) {
+    int low = 0;
+    int high = elements.size();
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (myComparator.compare(elements.get(mid), element) <= 0) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private void rebuildTree() {
+    myTree = new int[myBlocks.size() + 1];
+    for (int i = 1; i <= myBlocks.size(); i++) {
+      myTree[i] += myBlocks.get(i - 1).size();
+      final int parent = i + (i & -i);
+      if (parent <= myBlocks.size()) {
+        myTree[parent] += myTree[i];
+      }
+    }
+  }
+
+  private void updateTree(int block, int delta) {
+    for (int i = block + 1; i < myTree.length; i += i & -i) {
+      myTree[i] += delta;
+    }
+  }
+
+  /**
+   * @return total size of the blocks before the given one
+   */
+  private int prefixSize(int block) {
+    int result = 0;
+    for (int i = block; i > 0; i -= i & -i) {
+      result += myTree[i];
+    }
+    return result;
+  }
+
+  private int findBlockByIndex(int index) {
+    int position = 0;
+    int remaining = index;
+    for (int step = Integer.highestOneBit(Math.max(myTree.length - 1, 1)); step > 0; step >>= 1) {
+      final int next = position + step;
+      if (next < myTree.length && myTree[next] <= remaining) {
+        position = next;
+        remaining -= myTree[next];
+      }
+    }
+    return position;
+  }
+}
@@ -29,6 +29,7 @@ import com.intellij.psi.search.GlobalSearchScopesCore;
 import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.PathUtil;
 import com.intellij.util.TimeoutUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.xdebugger.*;
 import com.intellij.xdebugger.breakpoints.XBreakpointHandler;
 import com.intellij.xdebugger.evaluation.XDebuggerEditorsProvider;
@@ -60,12 +61,17 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public final class DartVmServiceDebugProcess extends XDebugProcess {
   private static final Logger LOG = Logger.getInstance(DartVmServiceDebugProcess.class.getName());
 
   private static final String ORG_DARTLANG_APP_PREFIX = "org-dartlang-app://";
 
+  // about one frame
+  private static final int OUTPUT_FLUSH_DELAY_MS = 16;
+  private static final int MAX_PENDING_OUTPUT_CHARS = 1024 * 1024;
+
   private final @Nullable ExecutionResult myExecutionResult;
   private final @NotNull DartUrlResolver myDartUrlResolver;
 
@@ -88,6 +94,20 @@ public final class DartVmServiceDebugProcess extends XDebugProcess {
   @Nullable String myRemoteProjectRootUri;
   private @Nullable String myBazelWorkspacePath;
 
+  private final @NotNull DartVmServiceOutputBuffer myOutputBuffer =
+    new DartVmServiceOutputBuffer(MAX_PENDING_OUTPUT_CHARS, new DartVmServiceOutputBuffer.Printer() {
+      @Override
+      public void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+        getSession().getConsoleView().print(text, contentType);
+      }
+
+      @Override
+      public void outputSkipped(int charCount) {
+        getSession().getConsoleView().print(DartBundle.message("debugger.output.skipped", charCount) + "\n",
+                                            ConsoleViewContentType.SYSTEM_OUTPUT);
+      }
+    });
+
   private final @NotNull OpenDartObservatoryUrlAction myOpenObservatoryAction =
     new OpenDartObservatoryUrlAction(null, () -> myVmConnected && !getSession().isStopped());
 
@@ -292,6 +312,11 @@ public final class DartVmServiceDebugProcess extends XDebugProcess {
       public void logInformation(final String message, final Throwable exception) {
         LOG.debug(message, exception);
       }
+
+      @Override
+      public boolean isInformationEnabled() {
+        return LOG.isDebugEnabled();
+      }
     });
   }
 
@@ -444,6 +469,9 @@ public final class DartVmServiceDebugProcess extends XDebugProcess {
   public void stop() {
     myVmConnected = false;
 
+    myOutputBuffer.flush();
+    myOutputBuffer.dispose();
+
     if (myVmServiceWrapper != null) {
       if (myDASExecutionContextId != null) {
         DartAnalysisServerService.getInstance(getSession().getProject()).execution_deleteContext(myDASExecutionContextId);
@@ -508,9 +536,17 @@ public final class DartVmServiceDebugProcess extends XDebugProcess {
     }
   }
 
-  public void handleWriteEvent(String base64Data) {
+  /**
+   * Called on the thread that reads the VM service socket, never blocks. If the console doesn't keep up with the output, part of it
+   * is dropped with a notice, see {@link DartVmServiceOutputBuffer}.
+   */
+  public void handleWriteEvent(@NotNull String streamId, String base64Data) {
     String message = new String(Base64.getDecoder().decode(base64Data), Charsets.UTF_8);
-    getSession().getConsoleView().print(message, ConsoleViewContentType.NORMAL_OUTPUT);
+    ConsoleViewContentType contentType = VmService.STDERR_STREAM_ID.equals(streamId) ? ConsoleViewContentType.ERROR_OUTPUT
+                                                                                     : ConsoleViewContentType.NORMAL_OUTPUT;
+    if (myOutputBuffer.add(message, contentType)) {
+      AppExecutorUtil.getAppScheduledExecutorService().schedule(myOutputBuffer::flush, OUTPUT_FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
   }
 
   @Override
@@ -0,0 +1,111 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.runner.server.vmService;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces the output of the Dart VM ({@code WriteEvent}s of the Stdout and Stderr streams) into one console write per content
+ * type per flush. The owner calls {@link #flush()} about once per frame after {@link #add} reports that a flush is needed.
+ * <p/>
+ * Output is added by the thread that reads the VM service socket, so {@link #add} never blocks. If the console doesn't keep up
+ * and more than the given number of chars is waiting for a flush, further output is dropped until the next flush, which reports
+ * the number of dropped chars with {@link Printer#outputSkipped}.
+ */
+final class DartVmServiceOutputBuffer {
+  interface Printer {
+    void print(@NotNull String text, @NotNull ConsoleViewContentType contentType);
+
+    void outputSkipped(int charCount);
+  }
+
+  private static final class Chunk {
+    private final @NotNull ConsoleViewContentType myContentType;
+    private final @NotNull StringBuilder myText = new StringBuilder();
+
+    private Chunk(@NotNull ConsoleViewContentType contentType) {
+      myContentType = contentType;
+    }
+  }
+
+  private final int myMaxPendingChars;
+  private final @NotNull Printer myPrinter;
+
+  // guarded by this
+  private final List<Chunk> myChunks = new ArrayList<>();
+  private int myPendingChars;
+  private int mySkippedChars;
+  private boolean myFlushRequested;
+  private boolean myDisposed;
+
+  // serializes printing, so that concurrent flushes don't reorder the output
+  private final Object myFlushLock = new Object();
+
+  DartVmServiceOutputBuffer(int maxPendingChars, @NotNull Printer printer) {
+    myMaxPendingChars = maxPendingChars;
+    myPrinter = printer;
+  }
+
+  /**
+   * @return {@code true} if the caller must schedule {@link #flush()}, that is, if no flush is pending yet
+   */
+  synchronized boolean add(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+    if (myDisposed || text.isEmpty()) return false;
+
+    if (myPendingChars + text.length() > myMaxPendingChars) {
+      // the flush is already requested
+      mySkippedChars += text.length();
+      return false;
+    }
+
+    final Chunk last = myChunks.isEmpty() ? null : myChunks.get(myChunks.size() - 1);
+    final Chunk chunk = last != null && last.myContentType == contentType ? last : new Chunk(contentType);
+    if (chunk != last) {
+      myChunks.add(chunk);
+    }
+    chunk.myText.append(text);
+    myPendingChars += text.length();
+
+    if (myFlushRequested) return false;
+    myFlushRequested = true;
+    return true;
+  }
+
+  /**
+   * Prints everything buffered so far, followed by the number of chars dropped since the previous flush, if any.
+   */
+  void flush() {
+    synchronized (myFlushLock) {
+      final List<Chunk> chunks;
+      final int skippedChars;
+      synchronized (this) {
+        myFlushRequested = false;
+        chunks = new ArrayList<>(myChunks);
+        skippedChars = mySkippedChars;
+        myChunks.clear();
+        myPendingChars = 0;
+        mySkippedChars = 0;
+      }
+
+      for (Chunk chunk : chunks) {
+        myPrinter.print(chunk.myText.toString(), chunk.myContentType);
+      }
+      if (skippedChars > 0) {
+        myPrinter.outputSkipped(skippedChars);
+      }
+    }
+  }
+
+  /**
+   * Drops the buffered output. Output added later is ignored.
+   */
+  synchronized void dispose() {
+    myDisposed = true;
+    myChunks.clear();
+    myPendingChars = 0;
+    mySkippedChars = 0;
+  }
+}
@@ -0,0 +1,309 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.*;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.PathUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.jetbrains.lang.dart.util.DartUrlResolver.PACKAGE_PREFIX;
+
+/**
+ * Project-level cache of the live packages of pub packages: the package itself and its path packages from {@code pubspec.yaml},
+ * or the packages listed in {@code .dart_tool/package_config.json} or {@code .packages}. {@link DartUrlResolverImpl} instances
+ * are created very often, and computing the packages of a pubspec with many path dependencies means parsing all their pubspecs.
+ * <p/>
+ * An entry is recomputed when one of the files it was built from is changed (including unsaved changes of {@code pubspec.yaml}),
+ * and when a file or folder that may affect it is created, deleted, moved or renamed. Module roots changes drop all entries.
+ */
+public final class DartPackageGraph implements Disposable {
+  @NotNull private final Project myProject;
+  private final Map<VirtualFile, Packages> myPubspecToPackages = new ConcurrentHashMap<>();
+
+  /**
+   * Reverse index from the paths of the files and folders that entries depend on to the pubspecs of these entries.
+   * Guarded by itself.
+   */
+  private final NavigableMap<String, Set<VirtualFile>> myPathToPubspecs = new TreeMap<>();
+
+  /**
+   * Incremented on each VFS change and on each {@link #clear()}, entries computed while it changed are not cached because
+   * they may miss an invalidation. Guarded by {@link #myPathToPubspecs}.
+   */
+  private long myModificationCount;
+
+  public static DartPackageGraph getInstance(@NotNull final Project project) {
+    return project.getService(DartPackageGraph.class);
+  }
+
+  public DartPackageGraph(@NotNull final Project project) {
+    myProject = project;
+
+    final MessageBusConnection connection = project.getMessageBus().connect(this);
+    connection.subscribe(ModuleRootListener.TOPIC, new ModuleRootListener() {
+      @Override
+      public void rootsChanged(@NotNull ModuleRootEvent event) {
+        clear();
+      }
+    });
+    connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        synchronized (myPathToPubspecs) {
+          myModificationCount++;
+        }
+        if (!myPubspecToPackages.isEmpty()) {
+          processEvents(events);
+        }
+      }
+    });
+  }
+
+  @NotNull
+  public Packages getPackages(@NotNull final VirtualFile pubspecYamlFile) {
+    final Packages cached = myPubspecToPackages.get(pubspecYamlFile);
+    if (cached != null && cached.isUpToDate()) {
+      return cached;
+    }
+
+    final long modificationCount;
+    synchronized (myPathToPubspecs) {
+      modificationCount = myModificationCount;
+    }
+
+    final Packages packages = computePackages(pubspecYamlFile);
+    synchronized (myPathToPubspecs) {
+      if (modificationCount != myModificationCount) {
+        return packages;
+      }
+      if (cached != null) {
+        forget(pubspecYamlFile, cached);
+      }
+      for (String path : packages.myWatchedPaths) {
+        myPathToPubspecs.computeIfAbsent(path, p -> new HashSet<>()).add(pubspecYamlFile);
+      }
+      myPubspecToPackages.put(pubspecYamlFile, packages);
+    }
+    return packages;
+  }
+
+  @Override
+  public void dispose() {
+  }
+
+  void clear() {
+    synchronized (myPathToPubspecs) {
+      myModificationCount++;
+      myPubspecToPackages.clear();
+      myPathToPubspecs.clear();
+    }
+  }
+
+  private void processEvents(@NotNull List<? extends VFileEvent> events) {
+    for (VFileEvent event : events) {
+      if (event instanceof VFileContentChangeEvent) continue; // handled by modification stamps
+
+      if (event instanceof VFileMoveEvent) {
+        pathChanged(((VFileMoveEvent)event).getOldPath(), false);
+        pathChanged(((VFileMoveEvent)event).getNewPath(), true);
+      }
+      else if (event instanceof VFilePropertyChangeEvent) {
+        if (((VFilePropertyChangeEvent)event).isRename()) {
+          pathChanged(((VFilePropertyChangeEvent)event).getOldPath(), false);
+          pathChanged(((VFilePropertyChangeEvent)event).getNewPath(), true);
+        }
+      }
+      else {
+        pathChanged(event.getPath(), event instanceof VFileCreateEvent || event instanceof VFileCopyEvent);
+      }
+    }
+  }
+
+  /**
+   * @param created a file or folder appeared at this path
+   */
+  private void pathChanged(@NotNull final String path, final boolean created) {
+    final String name = PathUtil.getFileName(path);
+    if (created && (PubspecYamlUtil.PUBSPEC_YAML.equals(name) || PubspecYamlUtil.LIB_DIR_NAME.equals(name))) {
+      // may be a new path package, entries do not know the paths of path packages that do not exist
+      clear();
+      return;
+    }
+
+    synchronized (myPathToPubspecs) {
+      final Set<VirtualFile> affected = new HashSet<>();
+      final Set<VirtualFile> exact = myPathToPubspecs.get(path);
+      if (exact != null) {
+        affected.addAll(exact);
+      }
+      // files under the changed folder
+      for (Set<VirtualFile> pubspecs : myPathToPubspecs.subMap(path + "/", true, path + "/\uFFFF", true).values()) {
+        affected.addAll(pubspecs);
+      }
+
+      for (VirtualFile pubspec : affected) {
+        final Packages packages = myPubspecToPackages.remove(pubspec);
+        if (packages != null) {
+          forget(pubspec, packages);
+        }
+      }
+    }
+  }
+
+  private void forget(@NotNull final VirtualFile pubspec, @NotNull final Packages packages) {
+    for (String path : packages.myWatchedPaths) {
+      final Set<VirtualFile> pubspecs = myPathToPubspecs.get(path);
+      if (pubspecs != null && pubspecs.remove(pubspec) && pubspecs.isEmpty()) {
+        myPathToPubspecs.remove(path);
+      }
+    }
+  }
+
+  @NotNull
+  private Packages computePackages(@NotNull final VirtualFile pubspecYamlFile) {
+    final Map<String, VirtualFile> nameToDir = new HashMap<>();
+    // stamps are taken before the files are read, so a change made while computing leaves the entry outdated
+    final Map<VirtualFile, Long> configFiles = new LinkedHashMap<>();
+    final Set<String> watchedPaths = new HashSet<>();
+
+    configFiles.put(pubspecYamlFile, getModificationStamp(pubspecYamlFile));
+    watchedPaths.add(pubspecYamlFile.getPath());
+
+    final VirtualFile baseDir = pubspecYamlFile.getParent();
+    if (baseDir == null) {
+      return new Packages(nameToDir, configFiles, watchedPaths);
+    }
+
+    watchedPaths.add(baseDir.getPath() + "/" + DotPackagesFileUtil.DOT_PACKAGES);
+    watchedPaths.add(baseDir.getPath() + "/" + DotPackagesFileUtil.DART_TOOL_DIR + "/" + DotPackagesFileUtil.PACKAGE_CONFIG_JSON);
+    watchedPaths.add(baseDir.getPath() + "/" + PubspecYamlUtil.LIB_DIR_NAME);
+
+    VirtualFile packagesFile = DotPackagesFileUtil.findPackageConfigJsonFile(baseDir);
+    if (packagesFile == null) {
+      packagesFile = baseDir.findChild(DotPackagesFileUtil.DOT_PACKAGES);
+    }
+
+    if (packagesFile != null && !packagesFile.isDirectory()) {
+      configFiles.put(packagesFile, getModificationStamp(packagesFile));
+      final Map<String, String> packagesMap = DotPackagesFileUtil.getPackagesMap(packagesFile);
+      if (packagesMap != null) {
+        for (Map.Entry<String, String> entry : packagesMap.entrySet()) {
+          final String packageName = entry.getKey();
+          final String packagePath = entry.getValue();
+          watchedPaths.add(packagePath);
+          final VirtualFile packageDir = pubspecYamlFile.getFileSystem().findFileByPath(packagePath);
+          if (packageDir != null) {
+            nameToDir.put(packageName, packageDir);
+          }
+        }
+      }
+    }
+    else {
+      final String name = PubspecYamlUtil.getDartProjectName(pubspecYamlFile);
+      final VirtualFile libFolder = baseDir.findChild(PubspecYamlUtil.LIB_DIR_NAME);
+
+      if (name != null && libFolder != null && libFolder.isDirectory()) {
+        nameToDir.put(name, libFolder);
+      }
+
+      PubspecYamlUtil.processInProjectPathPackagesRecursively(myProject, pubspecYamlFile, (packageName, packageDir) -> {
+        nameToDir.put(packageName, packageDir);
+        watchedPaths.add(packageDir.getPath());
+        final VirtualFile packageBaseDir = packageDir.getParent();
+        final VirtualFile packagePubspec = packageBaseDir == null ? null : packageBaseDir.findChild(PubspecYamlUtil.PUBSPEC_YAML);
+        if (packagePubspec != null && !packagePubspec.isDirectory() && !configFiles.containsKey(packagePubspec)) {
+          configFiles.put(packagePubspec, getModificationStamp(packagePubspec));
+          watchedPaths.add(packagePubspec.getPath());
+        }
+      });
+    }
+
+    return new Packages(nameToDir, configFiles, watchedPaths);
+  }
+
+  private static long getModificationStamp(@NotNull final VirtualFile file) {
+    if (PubspecYamlUtil.isPubspecFile(file)) {
+      // the same as in PubspecYamlUtil, unsaved changes of pubspec.yaml are taken into account
+      final Document cachedDocument = FileDocumentManager.getInstance().getCachedDocument(file);
+      if (cachedDocument != null) return cachedDocument.getModificationStamp();
+    }
+    return file.getModificationCount();
+  }
+
+  public static final class Packages {
+    public static final Packages EMPTY = new Packages(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+    @NotNull private final Map<String, VirtualFile> myNameToDir;
+    @NotNull private final Map<VirtualFile, String> myDirToName;
+    private final VirtualFile @NotNull [] myConfigFiles;
+    private final long @NotNull [] myConfigFileStamps;
+    private final String @NotNull [] myWatchedPaths;
+
+    private Packages(@NotNull final Map<String, VirtualFile> nameToDir,
+                     @NotNull final Map<VirtualFile, Long> configFiles,
+                     @NotNull final Set<String> watchedPaths) {
+      myNameToDir = Collections.unmodifiableMap(nameToDir);
+      myDirToName = new HashMap<>();
+      for (Map.Entry<String, VirtualFile> entry : nameToDir.entrySet()) {
+        myDirToName.putIfAbsent(entry.getValue(), entry.getKey());
+      }
+      myConfigFiles = configFiles.keySet().toArray(VirtualFile.EMPTY_ARRAY);
+      myConfigFileStamps = new long[myConfigFiles.length];
+      for (int i = 0; i < myConfigFiles.length; i++) {
+        myConfigFileStamps[i] = configFiles.get(myConfigFiles[i]);
+      }
+      myWatchedPaths = ArrayUtil.toStringArray(watchedPaths);
+    }
+
+    private boolean isUpToDate() {
+      for (int i = 0; i < myConfigFiles.length; i++) {
+        if (!myConfigFiles[i].isValid() || getModificationStamp(myConfigFiles[i]) != myConfigFileStamps[i]) {
+          return false;
+        }
+      }
+      for (VirtualFile dir : myDirToName.keySet()) {
+        if (!dir.isValid()) return false;
+      }
+      return true;
+    }
+
+    @NotNull
+    public Map<String, VirtualFile> getPackageNameToDirMap() {
+      return myNameToDir;
+    }
+
+    /**
+     * Looks for the package folder among the ancestors of the file, so the cost does not depend on the number of packages.
+     *
+     * @return {@code package:} URL of the file if it is located in one of the package folders
+     */
+    @Nullable
+    public String getPackageUrl(@NotNull final VirtualFile file) {
+      if (myDirToName.isEmpty()) return null;
+
+      for (VirtualFile dir = file; dir != null; dir = dir.getParent()) {
+        final String packageName = myDirToName.get(dir);
+        if (packageName != null) {
+          final String relPath = VfsUtilCore.getRelativePath(file, dir, '/');
+          return relPath == null ? null : PACKAGE_PREFIX + packageName + "/" + relPath;
+        }
+      }
+      return null;
+    }
+  }
+}
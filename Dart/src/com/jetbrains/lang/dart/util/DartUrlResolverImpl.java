@@ -35,8 +35,9 @@ public final class DartUrlResolverImpl extends DartUrlResolver {
   @NotNull private final Project myProject;
   @Nullable private final DartSdk myDartSdk;
   @Nullable private final VirtualFile myPubspecYamlFile;
-  // myLivePackageNameToDirMap also contains packages map from .packages file if applicable
-  @NotNull private final Map<String, VirtualFile> myLivePackageNameToDirMap = new HashMap<>();
+  // myLivePackages also contains packages map from package_config.json or .packages file if applicable
+  @NotNull private final DartPackageGraph.Packages myLivePackages;
+  @NotNull private final Map<String, VirtualFile> myLivePackageNameToDirMap;
   // myPackagesMapFromLib is not empty only if pubspec.yaml file is null
   @NotNull private final Map<String, List<String>> myPackagesMapFromLib = new HashMap<>();
 
@@ -44,8 +45,10 @@ public final class DartUrlResolverImpl extends DartUrlResolver {
     myProject = project;
     myDartSdk = DartSdk.getDartSdk(project);
     myPubspecYamlFile = PubspecYamlUtil.findPubspecYamlFile(myProject, contextFile);
-
-    initLivePackageNameToDirMap();
+    myLivePackages = myPubspecYamlFile == null
+                     ? DartPackageGraph.Packages.EMPTY
+                     : DartPackageGraph.getInstance(project).getPackages(myPubspecYamlFile);
+    myLivePackageNameToDirMap = myLivePackages.getPackageNameToDirMap();
 
     if (myPubspecYamlFile == null) {
       initPackagesMapFromLib(contextFile);
@@ -151,7 +154,7 @@ public final class DartUrlResolverImpl extends DartUrlResolver {
     if (myDartSdk != null) result = getUrlIfFileFromSdkLib(myProject, file, myDartSdk);
     if (result != null) return result;
 
-    result = getUrlIfFileFromLivePackage(file, myLivePackageNameToDirMap);
+    result = myLivePackages.getPackageUrl(file);
     if (result != null) return result;
 
     result = getUrlIfFileFromDartPackagesLib(file, myPackagesMapFromLib);
@@ -177,20 +180,6 @@ public final class DartUrlResolverImpl extends DartUrlResolver {
              : null;
   }
 
-  @Nullable
-  private static String getUrlIfFileFromLivePackage(final @NotNull VirtualFile file,
-                                                    final @NotNull Map<String, VirtualFile> livePackageNameToDirMap) {
-    for (Map.Entry<String, VirtualFile> entry : livePackageNameToDirMap.entrySet()) {
-      final String packageName = entry.getKey();
-      final VirtualFile packageDir = entry.getValue();
-      final String relPath = VfsUtilCore.getRelativePath(file, packageDir, '/');
-      if (relPath != null) {
-        return PACKAGE_PREFIX + packageName + "/" + relPath;
-      }
-    }
-    return null;
-  }
-
   @Nullable
   private static String getUrlIfFileFromDartPackagesLib(final @NotNull VirtualFile file,
                                                         final @NotNull Map<String, List<String>> pubListPackageDirsMap) {
@@ -205,37 +194,6 @@ public final class DartUrlResolverImpl extends DartUrlResolver {
     return null;
   }
 
-  private void initLivePackageNameToDirMap() {
-    final VirtualFile baseDir = myPubspecYamlFile == null ? null : myPubspecYamlFile.getParent();
-    if (myPubspecYamlFile == null || baseDir == null) return;
-    final VirtualFile dotPackagesFile = baseDir.findChild(DotPackagesFileUtil.DOT_PACKAGES);
-
-    if (dotPackagesFile != null && !dotPackagesFile.isDirectory()) {
-      final Map<String, String> packagesMap = DotPackagesFileUtil.getPackagesMap(dotPackagesFile);
-      if (packagesMap != null) {
-        for (Map.Entry<String, String> entry : packagesMap.entrySet()) {
-          final String packageName = entry.getKey();
-          final String packagePath = entry.getValue();
-          final VirtualFile packageDir = myPubspecYamlFile.getFileSystem().findFileByPath(packagePath);
-          if (packageDir != null) {
-            myLivePackageNameToDirMap.put(packageName, packageDir);
-          }
-        }
-      }
-    }
-    else {
-      final String name = PubspecYamlUtil.getDartProjectName(myPubspecYamlFile);
-      final VirtualFile libFolder = baseDir.findChild(PubspecYamlUtil.LIB_DIR_NAME);
-
-      if (name != null && libFolder != null && libFolder.isDirectory()) {
-        myLivePackageNameToDirMap.put(name, libFolder);
-      }
-
-      PubspecYamlUtil
-        .processInProjectPathPackagesRecursively(myProject, myPubspecYamlFile, myLivePackageNameToDirMap::put);
-    }
-  }
-
   private void initPackagesMapFromLib(final @NotNull VirtualFile contextFile) {
     final Module module = ModuleUtilCore.findModuleForFile(contextFile, myProject);
 
@@ -1,6 +1,11 @@
 // Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
 package com.jetbrains.lang.dart.util;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
@@ -21,30 +26,99 @@ import java.util.Map;
 public final class DotPackagesFileUtil {
 
   public static final String DOT_PACKAGES = ".packages";
+  public static final String DART_TOOL_DIR = ".dart_tool";
+  public static final String PACKAGE_CONFIG_JSON = "package_config.json";
 
   private static final Key<Pair<Long, Map<String, String>>> MOD_STAMP_TO_PACKAGES_MAP = Key.create("MOD_STAMP_TO_PACKAGES_MAP");
 
+  /**
+   * @return {@code .dart_tool/package_config.json} file in the given folder, which pub writes next to or instead of {@code .packages}
+   */
   @Nullable
-  public static Map<String, String> getPackagesMap(@NotNull final VirtualFile dotPackagesFile) {
-    Pair<Long, Map<String, String>> data = dotPackagesFile.getUserData(MOD_STAMP_TO_PACKAGES_MAP);
+  public static VirtualFile findPackageConfigJsonFile(@NotNull final VirtualFile baseDir) {
+    final VirtualFile dartToolDir = baseDir.findChild(DART_TOOL_DIR);
+    final VirtualFile file = dartToolDir == null ? null : dartToolDir.findChild(PACKAGE_CONFIG_JSON);
+    return file != null && !file.isDirectory() ? file : null;
+  }
+
+  /**
+   * @param packagesFile either {@code .packages} or {@code .dart_tool/package_config.json} file
+   * @return map from package names to absolute paths of package folders ({@code lib} folders in most cases)
+   */
+  @Nullable
+  public static Map<String, String> getPackagesMap(@NotNull final VirtualFile packagesFile) {
+    Pair<Long, Map<String, String>> data = packagesFile.getUserData(MOD_STAMP_TO_PACKAGES_MAP);
 
-    final Long currentTimestamp = dotPackagesFile.getModificationCount();
+    final Long currentTimestamp = packagesFile.getModificationCount();
     final Long cachedTimestamp = Pair.getFirst(data);
 
     if (cachedTimestamp == null || !cachedTimestamp.equals(currentTimestamp)) {
       data = null;
-      dotPackagesFile.putUserData(MOD_STAMP_TO_PACKAGES_MAP, null);
-      final Map<String, String> packagesMap = loadPackagesMap(dotPackagesFile);
+      packagesFile.putUserData(MOD_STAMP_TO_PACKAGES_MAP, null);
+      final Map<String, String> packagesMap = PACKAGE_CONFIG_JSON.equals(packagesFile.getName())
+                                              ? loadPackageConfigJson(packagesFile)
+                                              : loadPackagesMap(packagesFile);
 
       if (packagesMap != null) {
         data = Pair.create(currentTimestamp, packagesMap);
-        dotPackagesFile.putUserData(MOD_STAMP_TO_PACKAGES_MAP, data);
+        packagesFile.putUserData(MOD_STAMP_TO_PACKAGES_MAP, data);
       }
     }
 
     return Pair.getSecond(data);
   }
 
+  /**
+   * See https://github.com/dart-lang/language/blob/master/accepted/2.8/language-versioning/package-config-file-v2.md
+   */
+  @Nullable
+  private static Map<String, String> loadPackageConfigJson(@NotNull final VirtualFile packageConfigJsonFile) {
+    final VirtualFile baseDir = packageConfigJsonFile.getParent();
+    if (baseDir == null) return null;
+
+    try {
+      final String text = new String(packageConfigJsonFile.contentsToByteArray(), StandardCharsets.UTF_8);
+      final JsonElement root = new JsonParser().parse(text);
+      final JsonElement packages = root.isJsonObject() ? root.getAsJsonObject().get("packages") : null;
+      if (packages == null || !packages.isJsonArray()) return null;
+
+      final Map<String, String> result = new HashMap<>();
+      for (JsonElement element : (JsonArray)packages) {
+        if (!element.isJsonObject()) continue;
+
+        final JsonObject packageObject = element.getAsJsonObject();
+        final String packageName = getString(packageObject, "name");
+        final String rootUri = getString(packageObject, "rootUri");
+        if (StringUtil.isEmpty(packageName) || rootUri == null) continue;
+
+        final String rootPath = getAbsolutePackageRootPath(baseDir, decodeUri(rootUri));
+        if (rootPath == null) continue;
+
+        final String packageUri = getString(packageObject, "packageUri");
+        final String packagePath = StringUtil.isEmpty(packageUri)
+                                   ? rootPath
+                                   : FileUtil.toCanonicalPath(rootPath + "/" + StringUtil.trimEnd(decodeUri(packageUri), "/"));
+        result.put(packageName, packagePath);
+      }
+      return result;
+    }
+    catch (IOException | JsonParseException | IllegalStateException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  private static String getString(@NotNull final JsonObject object, @NotNull final String name) {
+    final JsonElement element = object.get(name);
+    return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+  }
+
+  @NotNull
+  private static String decodeUri(@NotNull final String encodedUri) {
+    // need to protect '+' chars because URLDecoder.decode replaces '+' with space
+    return URLUtil.decode(StringUtil.replace(encodedUri, "+", "%2B"));
+  }
+
   @Nullable
   private static Map<String, String> loadPackagesMap(@NotNull final VirtualFile dotPackagesFile) {
     try {
@@ -64,10 +138,7 @@ public final class DotPackagesFileUtil {
         final int colonIndex = line.indexOf(':');
         if (colonIndex > 0 && colonIndex < line.length() - 1) {
           final String packageName = line.substring(0, colonIndex).trim();
-          final String encodedUri = line.substring(colonIndex + 1).trim();
-          // need to protect '+' chars because URLDecoder.decode replaces '+' with space
-          final String encodedUriWithoutPluses = StringUtil.replace(encodedUri, "+", "%2B");
-          final String uri = URLUtil.decode(encodedUriWithoutPluses);
+          final String uri = decodeUri(line.substring(colonIndex + 1).trim());
           final String packageUri = getAbsolutePackageRootPath(dotPackagesFile.getParent(), uri);
           if (!packageName.isEmpty() && packageUri != null) {
             result.put(packageName, packageUri);
@@ -1,10 +1,17 @@
 package com.jetbrains.dart.analysisServer;
 
+import com.google.dart.server.RequestListener;
+import com.intellij.codeInsight.daemon.impl.HighlightInfo;
+import com.intellij.lang.annotation.HighlightSeverity;
 import com.intellij.openapi.actionSystem.IdeActions;
 import com.intellij.testFramework.fixtures.CodeInsightFixtureTestCase;
 import com.intellij.testFramework.fixtures.impl.CodeInsightTestFixtureImpl;
+import com.intellij.util.containers.ContainerUtil;
+import com.jetbrains.lang.dart.analyzer.DartAnalysisServerService;
 import com.jetbrains.lang.dart.util.DartTestUtils;
 
+import java.util.List;
+
 public class DartServerEditingTest extends CodeInsightFixtureTestCase {
   @Override
   public void setUp() throws Exception {
@@ -28,4 +35,38 @@ public class DartServerEditingTest extends CodeInsightFixtureTestCase {
                           "  new Random();\n" +
                           "<caret>}");
   }
+
+  public void testTypingInLargeFileSendsOnlyEdits() {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      text.append("final field").append(i).append(" = ").append(i).append(";\n");
+    }
+    text.append("main() {\n  <caret>\n}\n");
+    myFixture.configureByText("large.dart", text.toString());
+    myFixture.type(' ');
+
+    final DartAnalysisServerService service = DartAnalysisServerService.getInstance(getProject());
+    service.updateFilesContent(); // the first update sends the whole text
+    myFixture.doHighlighting();
+
+    final List<String> requests = ContainerUtil.createConcurrentList();
+    final RequestListener listener = json -> {
+      if (json.contains("\"analysis.updateContent\"")) {
+        requests.add(json);
+      }
+    };
+    service.addRequestListener(listener);
+    try {
+      myFixture.type("undefinedName;");
+      service.updateFilesContent();
+      final List<HighlightInfo> errors = myFixture.doHighlighting(HighlightSeverity.ERROR);
+
+      assertTrue(ContainerUtil.exists(errors, info -> "undefinedName".equals(info.getText())));
+      assertTrue(requests.toString(), ContainerUtil.exists(requests, json -> json.contains("\"change\"") && json.contains("undefinedName")));
+      assertFalse("the whole text was sent", ContainerUtil.exists(requests, json -> json.contains("\"add\"")));
+    }
+    finally {
+      service.removeRequestListener(listener);
+    }
+  }
 }
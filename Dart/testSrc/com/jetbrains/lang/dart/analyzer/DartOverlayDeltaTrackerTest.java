@@ -0,0 +1,141 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.SourceEdit;
+
+import java.util.List;
+import java.util.Random;
+
+public class DartOverlayDeltaTrackerTest extends TestCase {
+  private static final String PATH = "/project/lib/generated.dart";
+
+  private final DartOverlayDeltaTracker myTracker = new DartOverlayDeltaTracker();
+  private StringBuilder myText;
+  private long myStamp;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myText = new StringBuilder("void main() {\n  print('hello');\n}\n");
+    myStamp = 10;
+  }
+
+  public void testTypingIsCoalesced() {
+    String base = myText.toString();
+    int offset = myText.indexOf("print");
+    for (char c : "var x = 1;".toCharArray()) {
+      edit(offset++, 0, String.valueOf(c));
+    }
+    edit(offset - 1, 1, ""); // backspace
+    edit(offset - 3, 0, "42");
+
+    List<SourceEdit> edits = getEdits(10);
+    assertEquals(1, edits.size());
+    assertEquals(base.indexOf("print"), edits.get(0).getOffset());
+    assertEquals(0, edits.get(0).getLength());
+    assertEquals("var x =42 1", edits.get(0).getReplacement());
+    assertEquals(myText.toString(), apply(base, edits));
+  }
+
+  public void testBackspaceBeyondInsertedText() {
+    String base = myText.toString();
+    int offset = myText.indexOf("hello");
+    edit(offset, 0, "ab");
+    edit(offset - 1, 3, ""); // removes the quote and "ab"
+    List<SourceEdit> edits = getEdits(10);
+    assertEquals(1, edits.size());
+    assertEquals(myText.toString(), apply(base, edits));
+  }
+
+  public void testDistantEditsAreKeptInOrder() {
+    String base = myText.toString();
+    edit(0, 4, "int");
+    edit(myText.length(), 0, "// end\n");
+    edit(1, 0, "x");
+    List<SourceEdit> edits = getEdits(10);
+    assertEquals(3, edits.size());
+    assertEquals(myText.toString(), apply(base, edits));
+  }
+
+  public void testRandomEdits() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      myTracker.reset(PATH);
+      myText = new StringBuilder(randomText(random, 200));
+      String base = myText.toString();
+      long baseStamp = myStamp;
+      int count = 1 + random.nextInt(20);
+      for (int i = 0; i < count; i++) {
+        int offset = random.nextInt(myText.length() + 1);
+        int length = random.nextInt(Math.min(5, myText.length() - offset) + 1);
+        edit(offset, length, randomText(random, random.nextInt(4)));
+      }
+      List<SourceEdit> edits = myTracker.getEdits(PATH, baseStamp, myStamp, Integer.MAX_VALUE);
+      assertNotNull(edits);
+      assertEquals(myText.toString(), apply(base, edits));
+    }
+  }
+
+  public void testFallbackToFullContent() {
+    edit(0, 0, "a");
+    assertNull("server has another content", myTracker.getEdits(PATH, 9, myStamp, myText.length()));
+    assertNull("document changed without events", myTracker.getEdits(PATH, 10, myStamp + 1, myText.length()));
+
+    myTracker.documentChanged(PATH, myStamp + 5, myStamp + 6, 0, 0, "b");
+    assertNull("missed an event", myTracker.getEdits(PATH, 10, myStamp + 6, myText.length()));
+
+    myTracker.reset(PATH);
+    myText = new StringBuilder("short");
+    edit(0, 5, "replaced completely");
+    assertNull("delta bigger than the text", myTracker.getEdits(PATH, myStamp - 1, myStamp, myText.length()));
+  }
+
+  public void testTypingInLargeFileIsOneEdit() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      text.append("  final field").append(i).append(" = const Value(").append(i).append(", 'generated');\n");
+    }
+    myText = text;
+    String base = myText.toString();
+    int start = myText.length() / 2;
+    int offset = start;
+    for (char c : "someIdentifier".toCharArray()) {
+      edit(offset++, 0, String.valueOf(c));
+    }
+    List<SourceEdit> edits = getEdits(10);
+    assertEquals(myText.toString(), apply(base, edits));
+    assertEquals(1, edits.size());
+    assertEquals(start, edits.get(0).getOffset());
+    assertEquals(0, edits.get(0).getLength());
+    assertEquals("someIdentifier", edits.get(0).getReplacement());
+  }
+
+  private List<SourceEdit> getEdits(long baseStamp) {
+    List<SourceEdit> edits = myTracker.getEdits(PATH, baseStamp, myStamp, myText.length());
+    assertNotNull(edits);
+    return edits;
+  }
+
+  private void edit(int offset, int length, String replacement) {
+    myTracker.documentChanged(PATH, myStamp, myStamp + 1, offset, length, replacement);
+    myText.replace(offset, offset + length, replacement);
+    myStamp++;
+  }
+
+  private static String apply(String text, List<SourceEdit> edits) {
+    StringBuilder result = new StringBuilder(text);
+    for (SourceEdit edit : edits) {
+      result.replace(edit.getOffset(), edit.getOffset() + edit.getLength(), edit.getReplacement());
+    }
+    return result.toString();
+  }
+
+  private static String randomText(Random random, int length) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      sb.append("ab\n {}".charAt(random.nextInt(6)));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import com.intellij.util.SmartList;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.NavigationTarget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.jetbrains.lang.dart.analyzer.DartServerData.*;
+
+public class DartPackedRegionsTest extends TestCase {
+  private static final String FILE = "/project/lib/main.dart";
+  private static final String[] TYPES = {"KEYWORD", "CLASS", "IDENTIFIER_DEFAULT", "LITERAL_STRING"};
+
+  public void testHighlightsShiftedLikeObjects() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      List<DartHighlightRegion> objects = new ArrayList<>();
+      DartHighlightRegions.Builder builder = new DartHighlightRegions.Builder(50);
+      int offset = 0;
+      for (int i = 0; i < 50; i++) {
+        offset += random.nextInt(5);
+        int length = 1 + random.nextInt(6);
+        String type = TYPES[random.nextInt(TYPES.length)];
+        objects.add(new DartHighlightRegion(offset, length, type));
+        builder.add(offset, length, type);
+        offset += length;
+      }
+
+      DartPackedRegions<DartHighlightRegion> packed = builder.build();
+      for (int edit = 0; edit < 20; edit++) {
+        int eventOffset = random.nextInt(offset);
+        int deltaLength = random.nextBoolean() ? 1 + random.nextInt(3) : -1 - random.nextInt(Math.min(5, offset - eventOffset));
+        updateRegionsUpdatingTouched(objects, eventOffset, deltaLength);
+        packed = packed.documentChanged(eventOffset, deltaLength, false);
+        assertHighlightsEqual(objects, packed);
+      }
+    }
+  }
+
+  public void testNavigationShiftedLikeObjects() {
+    Random random = new Random(7);
+    List<NavigationTarget> targets = createTargets(10);
+    for (int iteration = 0; iteration < 200; iteration++) {
+      List<DartRegion> objects = new ArrayList<>();
+      DartNavigationRegions.Builder builder = new DartNavigationRegions.Builder(FILE, 50);
+      int offset = 0;
+      for (int i = 0; i < 50; i++) {
+        offset += random.nextInt(5);
+        int length = 1 + random.nextInt(6);
+        objects.add(new DartRegion(offset, length));
+        builder.add(offset, length, targets.subList(i % 10, i % 10 + 1));
+        offset += length;
+      }
+
+      DartPackedRegions<DartNavigationRegion> packed = builder.build();
+      for (int edit = 0; edit < 20; edit++) {
+        int eventOffset = random.nextInt(offset);
+        int deltaLength = random.nextBoolean() ? 1 + random.nextInt(3) : -1 - random.nextInt(Math.min(5, offset - eventOffset));
+        updateRegionsDeletingTouched(objects, eventOffset, deltaLength);
+        packed = packed.documentChanged(eventOffset, deltaLength, true);
+        assertEquals(objects, new ArrayList<DartRegion>(packed));
+      }
+    }
+  }
+
+  public void testShiftWithoutDeletionIsInPlace() {
+    DartHighlightRegions.Builder builder = new DartHighlightRegions.Builder(2);
+    builder.add(10, 5, "KEYWORD");
+    builder.add(20, 5, "CLASS");
+    DartPackedRegions<DartHighlightRegion> packed = builder.build();
+    assertSame(packed, packed.documentChanged(0, 3, false));
+    assertEquals(13, packed.get(0).getOffset());
+    assertEquals(23, packed.get(1).getOffset());
+
+    DartPackedRegions<DartHighlightRegion> updated = packed.documentChanged(12, -5, false);
+    assertNotSame(packed, updated);
+    assertEquals(1, updated.size());
+    assertEquals(18, updated.get(0).getOffset());
+    assertEquals("CLASS", updated.get(0).getType());
+  }
+
+  public void testNavigationTargetsAreShared() {
+    List<NavigationTarget> targets = createTargets(3);
+    DartNavigationRegions.Builder builder = new DartNavigationRegions.Builder(FILE, 4);
+    builder.add(0, 3, Arrays.asList(targets.get(0), targets.get(1)));
+    builder.add(5, 3, targets.subList(2, 3));
+    builder.add(10, 3, targets.subList(0, 1));
+    builder.add(15, 3, new ArrayList<>());
+    DartPackedRegions<DartNavigationRegion> packed = builder.build();
+
+    assertEquals(4, packed.size());
+    assertEquals(2, packed.get(0).getTargets().size());
+    assertEquals("/project/lib/file1.dart", packed.get(0).getTargets().get(1).getFile());
+    assertEquals("CLASS", packed.get(1).getTargets().get(0).getKind());
+    assertSame(packed.get(0).getTargets().get(0).getFile(), packed.get(2).getTargets().get(0).getFile());
+    assertTrue(packed.get(3).getTargets().isEmpty());
+
+    DartPackedRegions<DartNavigationRegion> updated = packed.documentChanged(6, 1, true);
+    assertEquals(3, updated.size());
+    assertEquals("/project/lib/file0.dart", updated.get(1).getTargets().get(0).getFile());
+    assertEquals(11, updated.get(1).getOffset());
+  }
+
+  public void testLargeFileRegionsMatchObjects() {
+    int regionsPerFile = 5000;
+    List<NavigationTarget> targets = createTargets(500);
+    int[] sharedConvertedOffset = {-1};
+
+    List<DartHighlightRegion> highlightObjects = new ArrayList<>(regionsPerFile);
+    List<DartNavigationRegion> navigationObjects = new ArrayList<>(regionsPerFile);
+    DartHighlightRegions.Builder highlights = new DartHighlightRegions.Builder(regionsPerFile);
+    DartNavigationRegions.Builder navigation = new DartNavigationRegions.Builder(FILE, regionsPerFile);
+    for (int i = 0; i < regionsPerFile; i++) {
+      highlightObjects.add(new DartHighlightRegion(i * 10, 5, TYPES[i % TYPES.length]));
+      highlights.add(i * 10, 5, TYPES[i % TYPES.length]);
+      NavigationTarget target = targets.get(i % targets.size());
+      navigationObjects.add(new DartNavigationRegion(i * 10, 5, new SmartList<>(
+        new DartNavigationTarget(target.getFile(), target.getOffset(), target.getKind(), sharedConvertedOffset, 0))));
+      navigation.add(i * 10, 5, targets.subList(i % targets.size(), i % targets.size() + 1));
+    }
+
+    assertHighlightsEqual(highlightObjects, highlights.build());
+    DartPackedRegions<DartNavigationRegion> packed = navigation.build();
+    assertEquals(regionsPerFile, packed.size());
+    for (int i = 0; i < regionsPerFile; i++) {
+      DartNavigationRegion expected = navigationObjects.get(i);
+      DartNavigationRegion actual = packed.get(i);
+      assertEquals(expected, actual);
+      assertEquals(1, actual.getTargets().size());
+      assertEquals(expected.getTargets().get(0).getFile(), actual.getTargets().get(0).getFile());
+      assertEquals(expected.getTargets().get(0).getKind(), actual.getTargets().get(0).getKind());
+    }
+    // the file path of a target is stored once, not per region
+    assertSame(packed.get(0).getTargets().get(0).getFile(), packed.get(targets.size()).getTargets().get(0).getFile());
+  }
+
+  private static List<NavigationTarget> createTargets(int count) {
+    String[] files = new String[count];
+    List<NavigationTarget> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      files[i] = "/project/lib/file" + i + ".dart";
+      NavigationTarget target = new NavigationTarget("CLASS", i, i * 100, 5, i + 1, 1, null, null);
+      target.lookupFile(files);
+      result.add(target);
+    }
+    return result;
+  }
+
+  private static void assertHighlightsEqual(List<DartHighlightRegion> expected, List<DartHighlightRegion> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i), actual.get(i));
+      assertEquals(expected.get(i).getType(), actual.get(i).getType());
+    }
+  }
+}
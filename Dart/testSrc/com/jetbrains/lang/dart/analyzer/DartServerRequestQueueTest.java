@@ -0,0 +1,124 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.jetbrains.lang.dart.analyzer.DartServerRequestQueue.Priority.BACKGROUND;
+import static com.jetbrains.lang.dart.analyzer.DartServerRequestQueue.Priority.EDITOR;
+
+public class DartServerRequestQueueTest extends TestCase {
+  private final List<String> mySent = new ArrayList<>();
+  private final List<String> myCancelled = new ArrayList<>();
+  private final List<CompletableFuture<String>> myResults = new ArrayList<>();
+
+  public void testIdenticalRequestsAreCoalesced() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(4);
+    CompletableFuture<String> first = queue.submit("key", EDITOR, sender("hover"));
+    CompletableFuture<String> second = queue.submit("key", EDITOR, sender("hover again"));
+    CompletableFuture<String> other = queue.submit("other key", EDITOR, sender("other hover"));
+    assertEquals(List.of("hover", "other hover"), mySent);
+
+    myResults.get(0).complete("result");
+    assertEquals("result", first.join());
+    assertEquals("result", second.join());
+    assertFalse(other.isDone());
+
+    queue.submit("key", EDITOR, sender("hover after response"));
+    assertEquals(List.of("hover", "other hover", "hover after response"), mySent);
+  }
+
+  public void testEditorRequestsGoFirst() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(1);
+    queue.submit(null, BACKGROUND, sender("background 1"));
+    queue.submit(null, BACKGROUND, sender("background 2"));
+    queue.submit(null, EDITOR, sender("editor 1"));
+    queue.submit("key", BACKGROUND, sender("background 3"));
+    queue.submit("key", EDITOR, sender("editor 2"));
+    assertEquals(List.of("background 1"), mySent);
+    assertEquals(3, queue.getPendingCount());
+
+    for (int i = 0; i < 3; i++) {
+      myResults.get(i).complete("");
+    }
+    assertEquals(List.of("background 1", "editor 1", "background 3", "background 2"), mySent);
+    assertEquals(0, queue.getPendingCount());
+    assertEquals(1, queue.getInFlightCount());
+    myResults.get(3).complete("");
+    assertEquals(0, queue.getInFlightCount());
+  }
+
+  public void testSlotIsReservedForEditorRequests() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(2);
+    queue.submit(null, BACKGROUND, sender("background 1"));
+    queue.submit(null, BACKGROUND, sender("background 2"));
+    assertEquals(List.of("background 1"), mySent);
+
+    queue.submit(null, EDITOR, sender("editor 1"));
+    assertEquals(List.of("background 1", "editor 1"), mySent);
+    assertEquals(2, queue.getInFlightCount());
+
+    queue.submit(null, EDITOR, sender("editor 2"));
+    myResults.get(1).complete("");
+    assertEquals(List.of("background 1", "editor 1", "editor 2"), mySent);
+
+    myResults.get(2).complete("");
+    assertEquals(List.of("background 1", "editor 1", "editor 2"), mySent);
+    myResults.get(0).complete("");
+    assertEquals(List.of("background 1", "editor 1", "editor 2", "background 2"), mySent);
+  }
+
+  public void testCancellationIsSentWhenNobodyWaits() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(1);
+    CompletableFuture<String> first = queue.submit("key", EDITOR, sender("hover"));
+    CompletableFuture<String> second = queue.submit("key", EDITOR, sender("hover again"));
+    CompletableFuture<String> pending = queue.submit(null, BACKGROUND, sender("search"));
+
+    first.cancel(false);
+    assertTrue(myCancelled.isEmpty());
+    assertFalse(second.isDone());
+
+    second.cancel(false);
+    assertEquals(List.of("hover"), myCancelled);
+    assertEquals(List.of("hover", "search"), mySent);
+
+    pending.cancel(false);
+    assertEquals(List.of("hover", "search"), myCancelled);
+    assertEquals(0, queue.getInFlightCount());
+  }
+
+  public void testPendingRequestIsNotSentAfterCancellation() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(1);
+    queue.submit(null, EDITOR, sender("hover"));
+    queue.submit(null, BACKGROUND, sender("search")).cancel(false);
+    myResults.get(0).complete("");
+    assertEquals(List.of("hover"), mySent);
+    assertTrue(myCancelled.isEmpty());
+  }
+
+  public void testCancelAll() {
+    DartServerRequestQueue queue = new DartServerRequestQueue(1);
+    CompletableFuture<String> inFlight = queue.submit(null, EDITOR, sender("hover"));
+    CompletableFuture<String> pending = queue.submit(null, EDITOR, sender("navigation"));
+    queue.cancelAll();
+    assertTrue(inFlight.isCancelled());
+    assertTrue(pending.isCancelled());
+    assertEquals(List.of("hover"), mySent);
+
+    queue.submit(null, EDITOR, sender("assists"));
+    assertEquals(List.of("hover", "assists"), mySent);
+  }
+
+  @NotNull
+  private DartServerRequestQueue.Sender<String> sender(@NotNull String request) {
+    return result -> {
+      mySent.add(request);
+      myResults.add(result);
+      return () -> myCancelled.add(request);
+    };
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import junit.framework.TestCase;
+
+import static com.jetbrains.lang.dart.analyzer.DartServerResultCache.Kind.*;
+
+public class DartServerResultCacheTest extends TestCase {
+  private static final String MAIN = "/project/lib/main.dart";
+  private static final String OTHER = "/project/lib/other.dart";
+
+  public void testKeyedByStampAndOffset() {
+    DartServerResultCache cache = new DartServerResultCache();
+    cache.put(HOVER, MAIN, 1, 10, 0, "hover", cache.getGeneration());
+    assertEquals("hover", cache.get(HOVER, MAIN, 1, 10, 0));
+    assertNull(cache.get(HOVER, MAIN, 2, 10, 0));
+    assertNull(cache.get(HOVER, MAIN, 1, 11, 0));
+    assertNull(cache.get(NAVIGATION, MAIN, 1, 10, 0));
+    assertNull(cache.get(HOVER, OTHER, 1, 10, 0));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+  }
+
+  public void testContentUpdateDropsEverything() {
+    DartServerResultCache cache = new DartServerResultCache();
+    cache.put(HOVER, MAIN, 1, 10, 0, "hover", cache.getGeneration());
+    cache.put(NAVIGATION, OTHER, 1, 10, 5, "navigation", cache.getGeneration());
+    cache.contentUpdated();
+    assertNull(cache.get(HOVER, MAIN, 1, 10, 0));
+    assertNull(cache.get(NAVIGATION, OTHER, 1, 10, 5));
+  }
+
+  public void testErrorsDropFileAndTypeHierarchies() {
+    DartServerResultCache cache = new DartServerResultCache();
+    cache.put(HOVER, MAIN, 1, 10, 0, "hover", cache.getGeneration());
+    cache.put(HOVER, OTHER, 1, 10, 0, "other hover", cache.getGeneration());
+    cache.put(TYPE_HIERARCHY, OTHER, 1, 20, 1, "hierarchy", cache.getGeneration());
+    cache.errorsComputed(MAIN);
+    assertNull(cache.get(HOVER, MAIN, 1, 10, 0));
+    assertNull(cache.get(TYPE_HIERARCHY, OTHER, 1, 20, 1));
+    assertEquals("other hover", cache.get(HOVER, OTHER, 1, 10, 0));
+  }
+
+  public void testResponseToStaleRequestIsNotStored() {
+    DartServerResultCache cache = new DartServerResultCache();
+    long generation = cache.getGeneration();
+    cache.errorsComputed(OTHER);
+    cache.put(HOVER, MAIN, 1, 10, 0, "hover", generation);
+    assertNull(cache.get(HOVER, MAIN, 1, 10, 0));
+  }
+}
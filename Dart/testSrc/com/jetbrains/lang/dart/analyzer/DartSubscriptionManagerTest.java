@@ -0,0 +1,110 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class DartSubscriptionManagerTest extends TestCase {
+  private static final List<String> ALL_SERVICES = List.of("HIGHLIGHTS", "NAVIGATION", "OVERRIDES");
+  private static final List<String> WARM_SERVICES = List.of("HIGHLIGHTS", "NAVIGATION");
+
+  private final List<List<String>> myPriorityFiles = new ArrayList<>();
+  private final List<Map<String, List<String>>> mySubscriptions = new ArrayList<>();
+
+  public void testRecentlyVisibleFilesStaySubscribed() {
+    DartSubscriptionManager manager = new DartSubscriptionManager(2);
+    manager.setVisibleFiles(List.of("a"));
+    assertTrue(flush(manager));
+    assertEquals(List.of(List.of("a")), myPriorityFiles);
+    assertEquals(Map.of("HIGHLIGHTS", List.of("a"), "NAVIGATION", List.of("a"), "OVERRIDES", List.of("a")), mySubscriptions.get(0));
+
+    manager.setVisibleFiles(List.of("b"));
+    manager.setVisibleFiles(List.of("c"));
+    manager.setVisibleFiles(List.of("d"));
+    assertEquals(List.of("c", "b"), manager.getWarmFiles());
+    assertTrue(flush(manager));
+    assertEquals(List.of("d"), myPriorityFiles.get(1));
+    assertEquals(Set.of("d", "c", "b"), new HashSet<>(mySubscriptions.get(1).get("HIGHLIGHTS")));
+    assertEquals(List.of("d"), mySubscriptions.get(1).get("OVERRIDES"));
+
+    manager.fileClosed("c");
+    assertEquals(List.of("b"), manager.getWarmFiles());
+  }
+
+  public void testSwitchingBetweenWarmFilesChangesPriorityFilesOnly() {
+    DartSubscriptionManager manager = new DartSubscriptionManager(5);
+    manager.setVisibleFiles(List.of("a"));
+    manager.setVisibleFiles(List.of("b"));
+    flush(manager);
+    manager.setVisibleFiles(List.of("a"));
+    manager.setVisibleFiles(List.of("b"));
+    assertFalse(flush(manager));
+    assertEquals(1, manager.getSkippedRequestCount());
+
+    manager.setVisibleFiles(List.of("a"));
+    assertTrue(flush(manager));
+    assertEquals(2, myPriorityFiles.size());
+    assertEquals(List.of("a"), myPriorityFiles.get(1));
+    // "b" lost OVERRIDES, "a" got them
+    assertEquals(2, mySubscriptions.size());
+    assertEquals(List.of("a"), mySubscriptions.get(1).get("OVERRIDES"));
+
+    manager.setVisibleFiles(List.of("b"));
+    manager.setVisibleFiles(List.of("a"));
+    assertFalse(flush(manager));
+    assertEquals(2, manager.getSentRequestCount());
+  }
+
+  public void testServicesChange() {
+    DartSubscriptionManager manager = new DartSubscriptionManager(5);
+    manager.setVisibleFiles(List.of("a"));
+    flush(manager);
+    assertTrue(manager.flush(List.of("HIGHLIGHTS", "NAVIGATION", "OVERRIDES", "CLOSING_LABELS"), WARM_SERVICES, sender()));
+    assertEquals(1, myPriorityFiles.size());
+    assertEquals(List.of("a"), mySubscriptions.get(1).get("CLOSING_LABELS"));
+  }
+
+  public void testResetSendsEverythingAgain() {
+    DartSubscriptionManager manager = new DartSubscriptionManager(5);
+    manager.setVisibleFiles(List.of("a"));
+    flush(manager);
+    manager.reset();
+    manager.setVisibleFiles(List.of("a"));
+    assertTrue(flush(manager));
+    assertEquals(2, myPriorityFiles.size());
+    assertEquals(2, mySubscriptions.size());
+    assertTrue(manager.getWarmFiles().isEmpty());
+  }
+
+  public void testNotificationRate() {
+    DartSubscriptionManager manager = new DartSubscriptionManager(5);
+    for (int i = 0; i < 30; i++) {
+      manager.notificationReceived(i % 2 == 0 ? "HIGHLIGHTS" : "OUTLINE", 100_000 + i * 100);
+    }
+    assertEquals(3.0, manager.getNotificationsPerSecond(102_999), 0.001);
+    assertEquals(1.0, manager.getNotificationsPerSecond(111_000), 0.001);
+    assertEquals(0.0, manager.getNotificationsPerSecond(200_000), 0.001);
+    assertEquals(Map.of("HIGHLIGHTS", 15, "OUTLINE", 15), manager.getNotificationCounts());
+  }
+
+  private boolean flush(@NotNull DartSubscriptionManager manager) {
+    return manager.flush(ALL_SERVICES, WARM_SERVICES, sender());
+  }
+
+  @NotNull
+  private DartSubscriptionManager.Sender sender() {
+    return new DartSubscriptionManager.Sender() {
+      @Override
+      public void setPriorityFiles(@NotNull List<String> files) {
+        myPriorityFiles.add(files);
+      }
+
+      @Override
+      public void setSubscriptions(@NotNull Map<String, List<String>> subscriptions) {
+        mySubscriptions.add(subscriptions);
+      }
+    };
+  }
+}
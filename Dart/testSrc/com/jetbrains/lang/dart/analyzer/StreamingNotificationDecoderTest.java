@@ -0,0 +1,254 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.analyzer;
+
+import com.google.dart.server.AnalysisServerListenerAdapter;
+import com.google.dart.server.internal.remote.StreamingNotificationDecoder;
+import com.google.dart.server.internal.remote.processor.NotificationAnalysisHighlightsProcessor;
+import com.google.dart.server.internal.remote.processor.NotificationAnalysisNavigationProcessor;
+import com.google.dart.server.internal.remote.processor.NotificationCompletionResultsProcessor;
+import com.google.dart.server.internal.remote.processor.NotificationProcessor;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.TestCase;
+import org.dartlang.analysis.server.protocol.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Checks that {@link StreamingNotificationDecoder} produces the same protocol objects as the tree based processors
+ * on server traffic: the generated one, or a recorded debug log of the analysis server
+ * (lines like {@code "1612345678901 <= {...}"}) passed in the {@code dart.server.traffic} system property.
+ */
+public class StreamingNotificationDecoderTest extends TestCase {
+  private static final String FILE = "/project/lib/big.dart";
+
+  public void testHighlights() throws Exception {
+    String line = highlights(FILE, 1000);
+    assertEquals(processTree(line), decode(line));
+  }
+
+  public void testNavigation() throws Exception {
+    String line = navigation(FILE, 1000);
+    RecordingListener decoded = decode(line);
+    assertEquals(processTree(line), decoded);
+    NavigationRegion region = decoded.navigation.get(FILE).get(7);
+    assertEquals("/project/lib/file7.dart", region.getTargetObjects().get(0).getFile());
+  }
+
+  public void testCompletion() throws Exception {
+    String line = completion("12", 500);
+    RecordingListener decoded = decode(line);
+    assertEquals(processTree(line), decoded);
+    assertEquals(500, decoded.completions.size());
+    assertEquals(Arrays.asList("CLASS", "FUNCTION"), decoded.includedElementKinds);
+    assertEquals("/project/lib/main.dart", decoded.libraryFile);
+  }
+
+  public void testOtherNotificationsAreNotHandled() {
+    RecordingListener listener = new RecordingListener();
+    StreamingNotificationDecoder decoder = new StreamingNotificationDecoder(listener, bytes -> fail());
+    assertFalse(decoder.decode(bytes("{\"event\":\"analysis.errors\",\"params\":{\"file\":\"a.dart\",\"errors\":[]}}")));
+    assertFalse(decoder.decode(bytes("{\"id\":\"1\",\"result\":{}}")));
+    assertFalse(decoder.decode(bytes("{\"event\":\"analysis.highlightsX\",\"params\":{}}")));
+    // unexpected structure is left to the processors
+    assertFalse(decoder.decode(bytes("{\"event\":\"analysis.highlights\",\"params\":{\"file\":\"a.dart\"}}")));
+    assertTrue(listener.highlights.isEmpty());
+  }
+
+  public void testHiddenFilesAreDecodedWhenShown() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    List<byte[]> raw = new ArrayList<>();
+    StreamingNotificationDecoder decoder = new StreamingNotificationDecoder(listener, raw::add);
+    Set<String> visible = new HashSet<>();
+    decoder.setDeferralFilter(file -> !visible.contains(file));
+
+    assertTrue(decoder.decode(bytes(highlights(FILE, 10))));
+    assertTrue(decoder.decode(bytes(highlights(FILE, 20))));
+    assertTrue(decoder.decode(bytes(navigation(FILE, 5))));
+    assertEquals(3, raw.size());
+    assertTrue(listener.highlights.isEmpty());
+    assertTrue(listener.navigation.isEmpty());
+
+    visible.add(FILE);
+    decoder.decodeDeferred(Collections.singletonList(FILE));
+    assertEquals(processTree(highlights(FILE, 20)).highlights, listener.highlights);
+    assertEquals(processTree(navigation(FILE, 5)).navigation, listener.navigation);
+
+    // decoded only once
+    listener.highlights.clear();
+    decoder.decodeDeferred(Collections.singletonList(FILE));
+    assertTrue(listener.highlights.isEmpty());
+  }
+
+  public void testNewerResultsForVisibleFileDropDeferredOnes() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    StreamingNotificationDecoder decoder = new StreamingNotificationDecoder(listener, bytes -> {});
+    Set<String> visible = new HashSet<>();
+    decoder.setDeferralFilter(file -> !visible.contains(file));
+
+    assertTrue(decoder.decode(bytes(highlights(FILE, 10))));
+    visible.add(FILE);
+    assertTrue(decoder.decode(bytes(highlights(FILE, 30))));
+    decoder.decodeDeferred(Collections.singletonList(FILE));
+    assertEquals(30, listener.highlights.get(FILE).size());
+  }
+
+  public void testLargeTraffic() throws Exception {
+    List<String> traffic = loadTraffic();
+    List<byte[]> raw = new ArrayList<>();
+    StreamingNotificationDecoder decoder = new StreamingNotificationDecoder(new RecordingListener(), raw::add);
+    for (String line : traffic) {
+      assertEquals(processTree(line), decode(line));
+      // the same decoder is reused for all notifications
+      assertTrue(decoder.decode(bytes(line)));
+    }
+    assertEquals(traffic.size(), raw.size());
+  }
+
+  private static List<String> loadTraffic() throws IOException {
+    String log = System.getProperty("dart.server.traffic");
+    if (log == null) {
+      return Arrays.asList(highlights(FILE, 20000), navigation(FILE, 20000), completion("1", 5000));
+    }
+
+    List<String> result = new ArrayList<>();
+    for (String line : Files.readAllLines(Paths.get(log), StandardCharsets.UTF_8)) {
+      int start = line.indexOf(" <= {");
+      if (start >= 0) {
+        String json = line.substring(start + 4);
+        if (json.startsWith("{\"event\":\"analysis.highlights\"") ||
+            json.startsWith("{\"event\":\"analysis.navigation\"") ||
+            json.startsWith("{\"event\":\"completion.results\"")) {
+          result.add(json);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static RecordingListener processTree(String line) throws Exception {
+    RecordingListener listener = new RecordingListener();
+    JsonObject response = new JsonParser().parse(line).getAsJsonObject();
+    String event = response.get("event").getAsString();
+    NotificationProcessor processor = event.equals("analysis.highlights") ? new NotificationAnalysisHighlightsProcessor(listener)
+                                      : event.equals("analysis.navigation") ? new NotificationAnalysisNavigationProcessor(listener)
+                                      : new NotificationCompletionResultsProcessor(listener);
+    processor.process(response);
+    return listener;
+  }
+
+  private static RecordingListener decode(String line) {
+    RecordingListener listener = new RecordingListener();
+    assertTrue(new StreamingNotificationDecoder(listener, bytes -> {}).decode(bytes(line)));
+    return listener;
+  }
+
+  private static byte[] bytes(String line) {
+    return line.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String highlights(String file, int count) {
+    StringBuilder sb = new StringBuilder("{\"event\":\"analysis.highlights\",\"params\":{\"file\":\"" + file + "\",\"regions\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"type\":\"").append(i % 2 == 0 ? "KEYWORD" : "IDENTIFIER_DEFAULT")
+        .append("\",\"offset\":").append(i * 10).append(",\"length\":").append(i % 7).append('}');
+    }
+    return sb.append("]}}").toString();
+  }
+
+  private static String navigation(String file, int count) {
+    int targetCount = Math.max(1, count / 4);
+    int fileCount = Math.max(1, count / 100) + 8;
+    StringBuilder sb = new StringBuilder("{\"event\":\"analysis.navigation\",\"params\":{\"file\":\"" + file + "\",\"regions\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"offset\":").append(i * 10).append(",\"length\":5,\"targets\":[").append(i % targetCount).append("]}");
+    }
+    sb.append("],\"targets\":[");
+    for (int i = 0; i < targetCount; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"kind\":\"CLASS\",\"fileIndex\":").append(i % fileCount).append(",\"offset\":").append(i)
+        .append(",\"length\":3,\"startLine\":").append(i + 1).append(",\"startColumn\":1");
+      if (i % 2 == 0) sb.append(",\"codeOffset\":").append(i).append(",\"codeLength\":10");
+      sb.append('}');
+    }
+    sb.append("],\"files\":[");
+    for (int i = 0; i < fileCount; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("\"/project/lib/file").append(i).append(".dart\"");
+    }
+    return sb.append("]}}").toString();
+  }
+
+  private static String completion(String id, int count) {
+    StringBuilder sb = new StringBuilder("{\"event\":\"completion.results\",\"params\":{\"id\":\"" + id + "\"," +
+                                         "\"replacementOffset\":10,\"replacementLength\":2,\"results\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"kind\":\"INVOCATION\",\"relevance\":").append(1000 - i).append(",\"completion\":\"name").append(i)
+        .append("\",\"selectionOffset\":6,\"selectionLength\":0,\"isDeprecated\":false,\"isPotential\":false,")
+        .append("\"docSummary\":\"Doc \\u00e9 ").append(i).append("\",\"parameterNames\":[\"a\",\"b\"],\"parameterTypes\":[\"int\",\"String\"],")
+        .append("\"element\":{\"kind\":\"METHOD\",\"name\":\"name").append(i).append("\",\"flags\":0}}");
+    }
+    return sb.append("],\"isLast\":true,\"libraryFile\":\"/project/lib/main.dart\",\"includedElementKinds\":[\"CLASS\",\"FUNCTION\"],")
+      .append("\"includedSuggestionSets\":[{\"id\":1,\"relevance\":10}]}}").toString();
+  }
+
+  private static class RecordingListener extends AnalysisServerListenerAdapter {
+    final Map<String, List<HighlightRegion>> highlights = new HashMap<>();
+    final Map<String, List<NavigationRegion>> navigation = new HashMap<>();
+    List<CompletionSuggestion> completions;
+    List<IncludedSuggestionSet> includedSuggestionSets;
+    List<String> includedElementKinds;
+    @Nullable String libraryFile;
+
+    @Override
+    public void computedHighlights(String file, List<HighlightRegion> regions) {
+      highlights.put(file, regions);
+    }
+
+    @Override
+    public void computedNavigation(String file, List<NavigationRegion> regions) {
+      navigation.put(file, regions);
+    }
+
+    @Override
+    public void computedCompletion(String completionId,
+                                   int replacementOffset,
+                                   int replacementLength,
+                                   List<CompletionSuggestion> completions,
+                                   List<IncludedSuggestionSet> includedSuggestionSets,
+                                   List<String> includedElementKinds,
+                                   List<IncludedSuggestionRelevanceTag> includedSuggestionRelevanceTags,
+                                   boolean isLast,
+                                   @Nullable String libraryFile) {
+      this.completions = completions;
+      this.includedSuggestionSets = includedSuggestionSets;
+      this.includedElementKinds = includedElementKinds;
+      this.libraryFile = libraryFile;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof RecordingListener)) return false;
+      RecordingListener other = (RecordingListener)o;
+      return highlights.equals(other.highlights) &&
+             navigation.equals(other.navigation) &&
+             Objects.equals(completions, other.completions) &&
+             Objects.equals(includedSuggestionSets, other.includedSuggestionSets) &&
+             Objects.equals(includedElementKinds, other.includedElementKinds) &&
+             Objects.equals(libraryFile, other.libraryFile);
+    }
+
+    @Override
+    public int hashCode() {
+      return highlights.hashCode();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.coverage;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DartCoverageLoaderTest extends TestCase {
+  private static final Runnable NOT_CANCELED = () -> {};
+
+  private final List<File> myFiles = new ArrayList<>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (File file : myFiles) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testJsonHitmap() throws IOException {
+    File file = createFile(".json", "{\"type\":\"CodeCoverage\",\"coverage\":[" +
+                                    "{\"hits\":[3,1,4,0],\"source\":\"package:foo/foo.dart\",\"script\":{\"type\":\"@Script\"}}," +
+                                    "{\"source\":\"package:foo/foo.dart\",\"hits\":[4,2,\"6-7\",5],\"funcHits\":[1,1]}," +
+                                    "{\"source\":\"package:foo/empty.dart\",\"hits\":[]}]}");
+    Map<String, DartCoverageLoader.LineHits> data = DartCoverageLoader.load(file, NOT_CANCELED);
+    assertEquals(2, data.size());
+
+    DartCoverageLoader.LineHits hits = data.get("package:foo/foo.dart");
+    assertEquals(7, hits.getMaxLine());
+    assertEquals(-1, hits.getHits(2));
+    assertEquals(1, hits.getHits(3));
+    assertEquals(2, hits.getHits(4));
+    assertEquals(-1, hits.getHits(5));
+    assertEquals(5, hits.getHits(6));
+    assertEquals(5, hits.getHits(7));
+    assertEquals(-1, data.get("package:foo/empty.dart").getMaxLine());
+  }
+
+  public void testLcov() throws IOException {
+    File file = createFile(".info", "TN:\n" +
+                                    "SF:lib/main.dart\n" +
+                                    "DA:1,3\n" +
+                                    "DA:2,0,checksum\n" +
+                                    "LF:2\n" +
+                                    "LH:1\n" +
+                                    "end_of_record\n" +
+                                    "SF:lib/main.dart\n" +
+                                    "DA:2,4\n" +
+                                    "end_of_record\n");
+    DartCoverageLoader.LineHits hits = DartCoverageLoader.load(file, NOT_CANCELED).get("lib/main.dart");
+    assertEquals(2, hits.getMaxLine());
+    assertEquals(3, hits.getHits(1));
+    assertEquals(4, hits.getHits(2));
+  }
+
+  public void testFilesMerged() throws IOException {
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      files.add(createFile(".json", "{\"coverage\":[{\"source\":\"package:foo/foo.dart\",\"hits\":[1," + i + ",2,1]}," +
+                                    "{\"source\":\"package:foo/file" + i + ".dart\",\"hits\":[1,1]}]}"));
+    }
+    files.add(createFile(".info", "SF:/foo/lib/foo.dart\nDA:1,1\nend_of_record\n"));
+
+    Map<String, DartCoverageLoader.LineHits> data = DartCoverageLoader.load(files, NOT_CANCELED);
+    assertEquals(10, data.size());
+    assertEquals(28, data.get("package:foo/foo.dart").getHits(1));
+    assertEquals(8, data.get("package:foo/foo.dart").getHits(2));
+    assertEquals(1, data.get("/foo/lib/foo.dart").getHits(1));
+  }
+
+  public void testMalformedFile() throws IOException {
+    File file = createFile(".json", "{\"coverage\":[{\"source\":\"package:foo/foo.dart\",\"hits\":[1]}]}");
+    try {
+      DartCoverageLoader.load(file, NOT_CANCELED);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  /**
+   * Loads a generated coverage file similar to the one collected for a big test suite, with every source reported by several isolates.
+   */
+  public void testLargeFile() throws IOException {
+    int entries = 2000;
+    int sources = 200;
+    int lines = 300;
+    File file = createFile(".json", "");
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      writer.write("{\"type\":\"CodeCoverage\",\"coverage\":[");
+      for (int i = 0; i < entries; i++) {
+        if (i > 0) writer.write(',');
+        writer.write("{\"source\":\"package:foo/file" + i % sources + ".dart\",\"script\":{\"type\":\"@Script\",\"fixedId\":true," +
+                     "\"id\":\"libraries/1/scripts/file" + i + "\",\"uri\":\"package:foo/file" + i + ".dart\"},\"hits\":[");
+        for (int line = 1; line < lines; line++) {
+          if (line > 1) writer.write(',');
+          writer.write(line + "," + (line + i) % 3);
+        }
+        writer.write("]}");
+      }
+      writer.write("]}");
+    }
+
+    Map<String, DartCoverageLoader.LineHits> data = DartCoverageLoader.load(List.of(file), NOT_CANCELED);
+    assertEquals(sources, data.size());
+    for (int source = 0; source < sources; source += 37) {
+      DartCoverageLoader.LineHits hits = data.get("package:foo/file" + source + ".dart");
+      assertEquals(lines - 1, hits.getMaxLine());
+      for (int line = 1; line < lines; line++) {
+        int expected = 0;
+        for (int i = source; i < entries; i += sources) {
+          expected += (line + i) % 3;
+        }
+        assertEquals(expected, hits.getHits(line));
+      }
+    }
+  }
+
+  private File createFile(String extension, String text) throws IOException {
+    File file = File.createTempFile("coverage", extension);
+    myFiles.add(file);
+    Files.writeString(file.toPath(), text);
+    return file;
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.errorTreeView;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class SortedRowListTest extends TestCase {
+  private static final Comparator<int[]> BY_FIRST = Comparator.comparingInt(o -> o[0]);
+
+  public void testInsertKeepsOrderOfEqualElements() {
+    SortedRowList<int[]> list = new SortedRowList<>(BY_FIRST);
+    int[] a = {1};
+    int[] b = {1};
+    int[] c = {0};
+    assertEquals(0, list.insert(a));
+    assertEquals(1, list.insert(b));
+    assertEquals(0, list.insert(c));
+    assertSame(c, list.get(0));
+    assertSame(a, list.get(1));
+    assertSame(b, list.get(2));
+
+    assertEquals(2, list.find(b));
+    assertEquals(-1, list.find(new int[]{1}));
+    assertEquals(-1, list.find(new int[]{5}));
+    assertSame(a, list.remove(1));
+    assertEquals(1, list.find(b));
+  }
+
+  public void testRandomOperations() {
+    Random random = new Random(42);
+    SortedRowList<int[]> list = new SortedRowList<>(BY_FIRST);
+    List<int[]> expected = new ArrayList<>();
+
+    for (int i = 0; i < 20000; i++) {
+      if (expected.isEmpty() || random.nextInt(3) > 0) {
+        int[] element = {random.nextInt(1000)};
+        int index = list.insert(element);
+        assertSame(element, list.get(index));
+        expected.add(index, element);
+      }
+      else {
+        int[] element = expected.get(random.nextInt(expected.size()));
+        int index = list.find(element);
+        assertSame(element, expected.get(index));
+        list.remove(index);
+        expected.remove(index);
+      }
+    }
+
+    assertEquals(expected.size(), list.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertSame(expected.get(i), list.get(i));
+      if (i > 0) assertTrue(expected.get(i - 1)[0] <= expected.get(i)[0]);
+    }
+  }
+
+  public void testSetAll() {
+    List<int[]> sorted = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      sorted.add(new int[]{i / 2});
+    }
+    SortedRowList<int[]> list = new SortedRowList<>(BY_FIRST);
+    list.setAll(sorted, BY_FIRST.reversed());
+    list.setAll(sorted, BY_FIRST);
+    assertEquals(3000, list.size());
+    assertSame(sorted.get(2999), list.get(2999));
+    assertEquals(1001, list.find(sorted.get(1001)));
+    assertEquals(1000, list.insert(new int[]{499}));
+
+    list.clear();
+    assertTrue(list.isEmpty());
+    assertEquals(0, list.insert(new int[]{7}));
+  }
+}
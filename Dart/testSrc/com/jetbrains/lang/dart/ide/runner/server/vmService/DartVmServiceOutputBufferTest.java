@@ -0,0 +1,75 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.runner.server.vmService;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DartVmServiceOutputBufferTest extends TestCase {
+  private final List<String> myPrinted = new ArrayList<>();
+
+  public void testCoalescesOutputOfSameType() {
+    DartVmServiceOutputBuffer buffer = new DartVmServiceOutputBuffer(Integer.MAX_VALUE, new RecordingPrinter());
+    assertTrue(buffer.add("a\n", ConsoleViewContentType.NORMAL_OUTPUT));
+    assertFalse(buffer.add("b\n", ConsoleViewContentType.NORMAL_OUTPUT));
+    assertFalse(buffer.add("oops\n", ConsoleViewContentType.ERROR_OUTPUT));
+    assertFalse(buffer.add("c\n", ConsoleViewContentType.NORMAL_OUTPUT));
+    buffer.flush();
+    assertEquals(List.of("NORMAL:a\nb\n", "ERROR:oops\n", "NORMAL:c\n"), myPrinted);
+
+    buffer.flush();
+    assertEquals(3, myPrinted.size());
+    assertTrue(buffer.add("d\n", ConsoleViewContentType.NORMAL_OUTPUT));
+  }
+
+  public void testOutputIsNotDroppedWithoutFlush() {
+    DartVmServiceOutputBuffer buffer = new DartVmServiceOutputBuffer(Integer.MAX_VALUE, new RecordingPrinter());
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      String line = "Line " + i + "\n";
+      buffer.add(line, ConsoleViewContentType.NORMAL_OUTPUT);
+      expected.append(line);
+    }
+    buffer.flush();
+    assertEquals(List.of("NORMAL:" + expected), myPrinted);
+  }
+
+  public void testDropsOutputOverLimitUntilFlush() {
+    DartVmServiceOutputBuffer buffer = new DartVmServiceOutputBuffer(10, new RecordingPrinter());
+    assertTrue(buffer.add("01234", ConsoleViewContentType.NORMAL_OUTPUT));
+    assertFalse(buffer.add("56789", ConsoleViewContentType.ERROR_OUTPUT));
+    assertFalse(buffer.add("abc", ConsoleViewContentType.NORMAL_OUTPUT));
+    assertFalse(buffer.add("de", ConsoleViewContentType.NORMAL_OUTPUT));
+    buffer.flush();
+    assertEquals(List.of("NORMAL:01234", "ERROR:56789", "SKIPPED:5"), myPrinted);
+
+    myPrinted.clear();
+    assertTrue(buffer.add("fgh", ConsoleViewContentType.NORMAL_OUTPUT));
+    buffer.flush();
+    assertEquals(List.of("NORMAL:fgh"), myPrinted);
+  }
+
+  public void testDisposeDropsBufferedOutput() {
+    DartVmServiceOutputBuffer buffer = new DartVmServiceOutputBuffer(Integer.MAX_VALUE, new RecordingPrinter());
+    assertTrue(buffer.add("0123456789", ConsoleViewContentType.NORMAL_OUTPUT));
+    buffer.dispose();
+    assertFalse(buffer.add("def", ConsoleViewContentType.NORMAL_OUTPUT));
+    buffer.flush();
+    assertTrue(myPrinted.isEmpty());
+  }
+
+  private class RecordingPrinter implements DartVmServiceOutputBuffer.Printer {
+    @Override
+    public void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+      myPrinted.add((contentType == ConsoleViewContentType.ERROR_OUTPUT ? "ERROR:" : "NORMAL:") + text);
+    }
+
+    @Override
+    public void outputSkipped(int charCount) {
+      myPrinted.add("SKIPPED:" + charCount);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.runner.server.vmService;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local WebSocket server that plays the Dart VM service for a single client: answers {@code getVersion}, confirms all other
+ * requests and sends the notifications it is asked to. Supports just enough of RFC 6455 for the weberknecht client used by
+ * {@link org.dartlang.vm.service.VmService}.
+ */
+final class FakeVmServiceServer implements Closeable {
+  private static final String WEB_SOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  private final ServerSocket myServerSocket;
+  private final CountDownLatch myConnected = new CountDownLatch(1);
+  private volatile Socket mySocket;
+  private OutputStream myOutput;
+
+  FakeVmServiceServer() throws IOException {
+    myServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    final Thread thread = new Thread(this::serve, "Fake VM service");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @NotNull
+  String getUrl() {
+    return "ws://127.0.0.1:" + myServerSocket.getLocalPort() + "/ws";
+  }
+
+  /**
+   * Sends a {@code WriteEvent} the way the VM does, with the fields that the IDE doesn't need.
+   */
+  void sendOutput(@NotNull String streamId, @NotNull String text) throws IOException {
+    final String bytes = Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    sendNotification(streamId, "{\"type\":\"Event\",\"kind\":\"WriteEvent\"," +
+                               "\"isolate\":{\"type\":\"@Isolate\",\"id\":\"isolates/1\",\"name\":\"main\",\"number\":\"1\"}," +
+                               "\"timestamp\":1600000000000,\"bytes\":\"" + bytes + "\"}");
+  }
+
+  void sendNotification(@NotNull String streamId, @NotNull String eventJson) throws IOException {
+    sendText("{\"jsonrpc\":\"2.0\",\"method\":\"streamNotify\",\"params\":{\"streamId\":\"" + streamId + "\",\"event\":" +
+             eventJson + "}}");
+  }
+
+  private void serve() {
+    try (Socket socket = myServerSocket.accept()) {
+      mySocket = socket;
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      synchronized (this) {
+        myOutput = new BufferedOutputStream(socket.getOutputStream());
+      }
+      handshake(input);
+      myConnected.countDown();
+
+      while (true) {
+        final String request = readTextFrame(input);
+        if (request == null) break;
+
+        final JsonObject json = new JsonParser().parse(request).getAsJsonObject();
+        final JsonObject result = new JsonObject();
+        if ("getVersion".equals(json.get("method").getAsString())) {
+          result.addProperty("type", "Version");
+          result.addProperty("major", 3);
+          result.addProperty("minor", 44);
+        }
+        else {
+          result.addProperty("type", "Success");
+        }
+        final JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("result", result);
+        response.add("id", json.get("id"));
+        sendText(response.toString());
+      }
+    }
+    catch (IOException | NoSuchAlgorithmException ignored) {
+      // the client has gone
+    }
+  }
+
+  private void handshake(@NotNull DataInputStream input) throws IOException, NoSuchAlgorithmException {
+    String key = null;
+    String line;
+    while (!(line = readLine(input)).isEmpty()) {
+      final int colon = line.indexOf(':');
+      if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+        key = line.substring(colon + 1).trim();
+      }
+    }
+
+    final byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEB_SOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+    final String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                            "Upgrade: websocket\r\n" +
+                            "Connection: Upgrade\r\n" +
+                            "Sec-WebSocket-Accept: " + Base64.getEncoder().encodeToString(digest) + "\r\n" +
+                            "\r\n";
+    synchronized (this) {
+      myOutput.write(response.getBytes(StandardCharsets.US_ASCII));
+      myOutput.flush();
+    }
+  }
+
+  @NotNull
+  private static String readLine(@NotNull DataInputStream input) throws IOException {
+    final StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = input.read()) != '\n') {
+      if (c == -1) throw new EOFException();
+      if (c != '\r') line.append((char)c);
+    }
+    return line.toString();
+  }
+
+  /**
+   * @return the payload of the next text frame, or {@code null} if the connection is closed
+   */
+  private static String readTextFrame(@NotNull DataInputStream input) throws IOException {
+    while (true) {
+      final int first = input.read();
+      if (first == -1) return null;
+      final int second = input.readUnsignedByte();
+
+      long length = second & 0x7F;
+      if (length == 126) {
+        length = input.readUnsignedShort();
+      }
+      else if (length == 127) {
+        length = input.readLong();
+      }
+      final byte[] mask = new byte[4];
+      if ((second & 0x80) != 0) {
+        input.readFully(mask);
+      }
+      final byte[] payload = new byte[(int)length];
+      input.readFully(payload);
+      for (int i = 0; i < payload.length; i++) {
+        payload[i] ^= mask[i % 4];
+      }
+
+      final int opcode = first & 0x0F;
+      if (opcode == 0x8) return null;
+      if (opcode == 0x1) return new String(payload, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void sendText(@NotNull String text) throws IOException {
+    try {
+      if (!myConnected.await(10, TimeUnit.SECONDS)) throw new IOException("No client");
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+
+    synchronized (this) {
+      writeFrame(text.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private void writeFrame(byte @NotNull [] payload) throws IOException {
+    myOutput.write(0x81);
+    if (payload.length < 126) {
+      myOutput.write(payload.length);
+    }
+    else if (payload.length < 65536) {
+      myOutput.write(126);
+      myOutput.write(payload.length >>> 8);
+      myOutput.write(payload.length);
+    }
+    else {
+      myOutput.write(127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        myOutput.write((int)((long)payload.length >>> shift));
+      }
+    }
+    myOutput.write(payload);
+    myOutput.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    myServerSocket.close();
+    final Socket socket = mySocket;
+    if (socket != null) {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.ide.runner.server.vmService;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import junit.framework.TestCase;
+import org.dartlang.vm.service.VmService;
+import org.dartlang.vm.service.VmServiceListener;
+import org.dartlang.vm.service.element.Event;
+import org.dartlang.vm.service.element.EventKind;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output of a chatty application sent by {@link FakeVmServiceServer} through {@link VmService} into {@link DartVmServiceOutputBuffer}.
+ */
+public class VmServiceOutputEventsTest extends TestCase {
+  private static final int LINE_COUNT = 20_000;
+
+  public void testOutputEvents() throws Exception {
+    final StringBuilder stdout = new StringBuilder();
+    final StringBuilder stderr = new StringBuilder();
+    final AtomicInteger printCount = new AtomicInteger();
+    final AtomicInteger skippedChars = new AtomicInteger();
+    final DartVmServiceOutputBuffer buffer = new DartVmServiceOutputBuffer(Integer.MAX_VALUE, new DartVmServiceOutputBuffer.Printer() {
+      @Override
+      public void print(@NotNull String text, @NotNull ConsoleViewContentType contentType) {
+        printCount.incrementAndGet();
+        (contentType == ConsoleViewContentType.ERROR_OUTPUT ? stderr : stdout).append(text);
+      }
+
+      @Override
+      public void outputSkipped(int charCount) {
+        skippedChars.addAndGet(charCount);
+      }
+    });
+
+    final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    final CountDownLatch done = new CountDownLatch(1);
+    final String[] doneIsolateId = new String[1];
+    final AtomicInteger incompleteEvents = new AtomicInteger();
+
+    try (FakeVmServiceServer server = new FakeVmServiceServer()) {
+      final VmService vmService = VmService.connect(server.getUrl());
+      vmService.addVmServiceListener(new VmServiceListener() {
+        @Override
+        public void connectionOpened() {
+        }
+
+        @Override
+        public void received(String streamId, Event event) {
+          if (event.getKind() == EventKind.WriteEvent) {
+            // listeners get all the fields of output events, not only the bytes
+            if (event.getIsolate() == null || !"isolates/1".equals(event.getIsolate().getId()) || event.getTimestamp() != 1600000000000L) {
+              incompleteEvents.incrementAndGet();
+            }
+            final String text = new String(Base64.getDecoder().decode(event.getBytes()), StandardCharsets.UTF_8);
+            final ConsoleViewContentType contentType = VmService.STDERR_STREAM_ID.equals(streamId) ? ConsoleViewContentType.ERROR_OUTPUT
+                                                                                                   : ConsoleViewContentType.NORMAL_OUTPUT;
+            if (buffer.add(text, contentType)) {
+              executor.schedule(buffer::flush, 16, TimeUnit.MILLISECONDS);
+            }
+          }
+          else if (event.getKind() == EventKind.Resume) {
+            doneIsolateId[0] = event.getIsolate().getId();
+            done.countDown();
+          }
+        }
+
+        @Override
+        public void connectionClosed() {
+        }
+      });
+
+      final StringBuilder expectedStdout = new StringBuilder();
+      final StringBuilder expectedStderr = new StringBuilder();
+      for (int i = 0; i < LINE_COUNT; i++) {
+        final String line = "Line " + i + " of a chatty application, é中\n";
+        if (i % 100 == 0) {
+          server.sendOutput(VmService.STDERR_STREAM_ID, line);
+          expectedStderr.append(line);
+        }
+        else {
+          server.sendOutput(VmService.STDOUT_STREAM_ID, line);
+          expectedStdout.append(line);
+        }
+      }
+      // events of other streams are decoded completely
+      server.sendNotification(VmService.DEBUG_STREAM_ID, "{\"type\":\"Event\",\"kind\":\"Resume\"," +
+                                                         "\"isolate\":{\"type\":\"@Isolate\",\"id\":\"isolates/1\",\"name\":\"main\"}}");
+
+      assertTrue(done.await(60, TimeUnit.SECONDS));
+      executor.submit(buffer::flush).get();
+
+      assertEquals("isolates/1", doneIsolateId[0]);
+      assertEquals(0, incompleteEvents.get());
+      assertEquals(0, skippedChars.get());
+      assertEquals(expectedStdout.toString(), stdout.toString());
+      assertEquals(expectedStderr.toString(), stderr.toString());
+      assertTrue(String.valueOf(printCount.get()), printCount.get() < LINE_COUNT / 10);
+      vmService.disconnect();
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+}
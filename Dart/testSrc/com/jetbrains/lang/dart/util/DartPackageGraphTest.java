@@ -0,0 +1,100 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.jetbrains.lang.dart.util;
+
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.jetbrains.lang.dart.DartCodeInsightFixtureTestCase;
+
+import java.io.IOException;
+
+public class DartPackageGraphTest extends DartCodeInsightFixtureTestCase {
+
+  public void testPackageConfigJson() {
+    final VirtualFile pubspec = myFixture.addFileToProject("app/pubspec.yaml", "name: app").getVirtualFile();
+    final VirtualFile appFile = myFixture.addFileToProject("app/lib/src/app.dart", "").getVirtualFile();
+    final VirtualFile fooFile = myFixture.addFileToProject("foo/lib/foo.dart", "").getVirtualFile();
+    myFixture.addFileToProject("app/.dart_tool/package_config.json",
+                               "{\"configVersion\": 2, \"packages\": [\n" +
+                               "  {\"name\": \"foo\", \"rootUri\": \"../../foo/\", \"packageUri\": \"lib/\"},\n" +
+                               "  {\"name\": \"app\", \"rootUri\": \"../\", \"packageUri\": \"lib/\"},\n" +
+                               "  {\"name\": \"missing\", \"rootUri\": \"../../missing/\", \"packageUri\": \"lib/\"}\n" +
+                               "]}");
+    myFixture.addFileToProject("app/.packages", "foo:../wrong/lib/\n");
+
+    final DartUrlResolver resolver = DartUrlResolver.getInstance(getProject(), pubspec);
+    assertEquals(fooFile, resolver.findFileByDartUrl("package:foo/foo.dart"));
+    assertEquals(appFile, resolver.findFileByDartUrl("package:app/src/app.dart"));
+    assertNull(resolver.findFileByDartUrl("package:missing/missing.dart"));
+    assertEquals("package:foo/foo.dart", resolver.getDartUrlForFile(fooFile));
+    assertEquals("package:app/src/app.dart", resolver.getDartUrlForFile(appFile));
+  }
+
+  public void testPathPackagesAndInvalidation() throws IOException {
+    final VirtualFile pubspec = myFixture.addFileToProject("app/pubspec.yaml", "name: app\n" +
+                                                                               "dependencies:\n" +
+                                                                               "  foo:\n" +
+                                                                               "    path: ../foo\n").getVirtualFile();
+    myFixture.addFileToProject("foo/pubspec.yaml", "name: foo");
+    final VirtualFile fooFile = myFixture.addFileToProject("foo/lib/foo.dart", "").getVirtualFile();
+    final VirtualFile barFile = myFixture.addFileToProject("bar/lib/bar.dart", "").getVirtualFile();
+
+    final DartPackageGraph graph = DartPackageGraph.getInstance(getProject());
+    final DartPackageGraph.Packages packages = graph.getPackages(pubspec);
+    assertSame(packages, graph.getPackages(pubspec));
+    assertEquals("package:foo/foo.dart", packages.getPackageUrl(fooFile));
+    assertNull(packages.getPackageUrl(barFile));
+
+    // unsaved changes of pubspec.yaml are taken into account
+    WriteAction.run(() -> {
+      VfsUtil.saveText(pubspec, "name: app\n" +
+                                "dependencies:\n" +
+                                "  bar:\n" +
+                                "    path: ../bar\n");
+    });
+    final DartPackageGraph.Packages changed = graph.getPackages(pubspec);
+    assertNotSame(packages, changed);
+    assertNull(changed.getPackageUrl(fooFile));
+    assertEquals("package:bar/bar.dart", changed.getPackageUrl(barFile));
+
+    // .packages file appears
+    myFixture.addFileToProject("app/.packages", "foo:../foo/lib/\n");
+    final DartPackageGraph.Packages fromDotPackages = graph.getPackages(pubspec);
+    assertNotSame(changed, fromDotPackages);
+    assertEquals("package:foo/foo.dart", fromDotPackages.getPackageUrl(fooFile));
+    assertNull(fromDotPackages.getPackageUrl(barFile));
+
+    // package folder is deleted
+    WriteAction.run(() -> fooFile.getParent().delete(this));
+    final DartPackageGraph.Packages afterDelete = graph.getPackages(pubspec);
+    assertNotSame(fromDotPackages, afterDelete);
+    assertTrue(afterDelete.getPackageNameToDirMap().isEmpty());
+  }
+
+  public void testManyPathPackages() {
+    final int packageCount = 200;
+    final StringBuilder pubspecText = new StringBuilder("name: app\ndependencies:\n");
+    for (int i = 0; i < packageCount; i++) {
+      myFixture.addFileToProject("pkg" + i + "/pubspec.yaml", "name: pkg" + i);
+      myFixture.addFileToProject("pkg" + i + "/lib/src/pkg" + i + ".dart", "");
+      pubspecText.append("  pkg").append(i).append(":\n    path: ../pkg").append(i).append("\n");
+    }
+    final VirtualFile pubspec = myFixture.addFileToProject("app/pubspec.yaml", pubspecText.toString()).getVirtualFile();
+    final VirtualFile context = myFixture.addFileToProject("app/lib/app.dart", "").getVirtualFile();
+
+    final DartPackageGraph graph = DartPackageGraph.getInstance(getProject());
+    final DartPackageGraph.Packages packages = graph.getPackages(pubspec);
+    assertEquals(packageCount, packages.getPackageNameToDirMap().size());
+
+    for (int i = 0; i < packageCount; i++) {
+      final DartUrlResolver resolver = DartUrlResolver.getInstance(getProject(), context);
+      final String url = "package:pkg" + i + "/src/pkg" + i + ".dart";
+      final VirtualFile file = resolver.findFileByDartUrl(url);
+      assertNotNull(url, file);
+      assertEquals("pkg" + i + ".dart", file.getName());
+      assertEquals(url, resolver.getDartUrlForFile(file));
+      assertEquals(url, packages.getPackageUrl(file));
+    }
+    assertSame(packages, graph.getPackages(pubspec));
+  }
+}
@@ -13,6 +13,8 @@
  */
 package com.google.dart.server;
 
+import org.dartlang.analysis.server.protocol.RequestError;
+
 /**
  * The interface {@code UpdateContentConsumer} defines the behavior of objects that consume
  * 'analysis.updateContent' responses.
@@ -24,4 +26,11 @@ public interface UpdateContentConsumer extends Consumer {
    * A response to the request was received.
    */
   public void onResponse();
+
+  /**
+   * The server failed to apply the changes, e.g. a {@code ChangeContentOverlay} with edits that don't match the current overlay.
+   * Called before {@link #onResponse()}.
+   */
+  default void onError(RequestError requestError) {
+  }
 }
@@ -14,17 +14,24 @@
 package com.google.dart.server.internal.remote;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * An {@link InputStream} based implementation of {@link ResponseStream}. Each line must contain
  * exactly one complete JSON object.
+ * <p>
+ * Lines are kept as UTF-8 bytes and parsed directly from them, without creating an intermediate
+ * {@link String}. Notifications supported by the {@link StreamingNotificationDecoder} (if set) are
+ * decoded into protocol objects without building a JSON tree at all.
  *
  * @coverage dart.server.remote
  */
@@ -38,15 +45,15 @@ public class ByteResponseStream implements ResponseStream {
     @Override
     public void run() {
       while (true) {
-        String line;
+        byte[] line;
         try {
-          line = reader.readLine();
+          line = readLine();
         } catch (IOException e) {
           line = null;
         }
         // check for EOF
         if (line == null) {
-          lineQueue.add(EOF_LINE);
+          lineQueue.add(EOF_BYTES);
 
           if (onStreamEndRunnable != null) {
             onStreamEndRunnable.run();
@@ -56,10 +63,10 @@ public class ByteResponseStream implements ResponseStream {
         }
         // debug output
         if (debugStream != null) {
-          debugStream.println(System.currentTimeMillis() + " <= " + line);
+          debugStream.println(System.currentTimeMillis() + " <= " + new String(line, StandardCharsets.UTF_8));
         }
         // ignore non-JSON (debug) lines
-        if (!line.startsWith("{")) {
+        if (line.length == 0 || line[0] != '{') {
           continue;
         }
         // add a JSON line
@@ -70,10 +77,25 @@ public class ByteResponseStream implements ResponseStream {
 
   public static final String EOF_LINE = "EOF line";
 
+  private static final byte[] EOF_BYTES = new byte[0];
+
+  /**
+   * The {@link InputStream} to read JSON lines from.
+   */
+  private final InputStream stream;
+
   /**
-   * The {@link BufferedReader} to read JSON strings from.
+   * The buffer of bytes read from {@link #stream}, valid between {@link #readPosition} and
+   * {@link #readLimit}.
    */
-  private final BufferedReader reader;
+  private final byte[] readBuffer = new byte[65536];
+  private int readPosition;
+  private int readLimit;
+
+  /**
+   * The buffer the current line is collected in, grows to the size of the longest line.
+   */
+  private byte[] lineBuffer = new byte[8192];
 
   /**
    * The {@link DebugPrintStream} to print all lines to.
@@ -84,7 +106,9 @@ public class ByteResponseStream implements ResponseStream {
   /**
    * The queue of lines.
    */
-  private final BlockingQueue<String> lineQueue = new LinkedBlockingQueue<String>();
+  private final BlockingQueue<byte[]> lineQueue = new LinkedBlockingQueue<byte[]>();
+
+  private volatile StreamingNotificationDecoder notificationDecoder;
 
   /**
    * Initializes a newly created response stream.
@@ -93,28 +117,84 @@ public class ByteResponseStream implements ResponseStream {
    * @param debugStream the {@link PrintStream} to print all lines to, may be {@code null}
    */
   public ByteResponseStream(InputStream stream, DebugPrintStream debugStream, Runnable onStreamEndRunnable) {
-    reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    this.stream = stream;
     this.debugStream = debugStream;
     this.onStreamEndRunnable = onStreamEndRunnable;
     new LinesReaderThread().start();
   }
 
+  /**
+   * Sets the decoder that is given the chance to handle each line before it is parsed into a
+   * {@link JsonObject}, {@code null} to parse all lines.
+   */
+  public void setNotificationDecoder(StreamingNotificationDecoder notificationDecoder) {
+    this.notificationDecoder = notificationDecoder;
+  }
+
   @Override
   public void lastRequestProcessed() {
   }
 
   @Override
   public JsonObject take() throws Exception {
-    String line = lineQueue.take();
-    if (line == EOF_LINE) {
-      lineQueue.add(line);
-      return null;
+    while (true) {
+      byte[] line = lineQueue.take();
+      if (line == EOF_BYTES) {
+        lineQueue.add(line);
+        return null;
+      }
+      StreamingNotificationDecoder decoder = notificationDecoder;
+      if (decoder != null && decoder.decode(line)) {
+        continue;
+      }
+      return parse(line);
     }
+  }
+
+  static JsonObject parse(byte[] line) {
     try {
-      return (JsonObject) new JsonParser().parse(line);
-    } catch (JsonSyntaxException e) {
+      JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(line), StandardCharsets.UTF_8));
+      return (JsonObject) new JsonParser().parse(reader);
+    } catch (JsonParseException | ClassCastException e) {
       // Include the line in the message so that we can better diagnose the problem
-      throw new JsonSyntaxException("Parse server message failed: " + line, e);
+      throw new JsonSyntaxException("Parse server message failed: " + new String(line, StandardCharsets.UTF_8), e);
+    }
+  }
+
+  /**
+   * Reads bytes up to the next line terminator, which may be "\n" or "\r\n".
+   *
+   * @return the bytes of the line without the terminator, or {@code null} at the end of the stream
+   */
+  private byte[] readLine() throws IOException {
+    int length = 0;
+    while (true) {
+      if (readPosition == readLimit) {
+        readLimit = stream.read(readBuffer);
+        readPosition = 0;
+        if (readLimit <= 0) {
+          readLimit = 0;
+          return length == 0 ? null : Arrays.copyOf(lineBuffer, length);
+        }
+      }
+      int end = readPosition;
+      while (end < readLimit && readBuffer[end] != '\n') {
+        end++;
+      }
+      int chunk = end - readPosition;
+      if (length + chunk > lineBuffer.length) {
+        lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, length + chunk));
+      }
+      System.arraycopy(readBuffer, readPosition, lineBuffer, length, chunk);
+      length += chunk;
+      if (end < readLimit) {
+        readPosition = end + 1;
+        if (length > 0 && lineBuffer[length - 1] == '\r') {
+          length--;
+        }
+        return Arrays.copyOf(lineBuffer, length);
+      }
+      readPosition = readLimit;
     }
   }
 }
@@ -33,11 +33,16 @@ import org.dartlang.analysis.server.protocol.*;
 import org.osgi.framework.Version;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * This {@link AnalysisServer} calls out to the analysis server written in Dart and communicates
@@ -103,6 +108,14 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
    */
   private final BroadcastAnalysisServerListener listener = new BroadcastAnalysisServerListener();
 
+  /**
+   * Decodes the largest notifications directly from the bytes of the {@link ByteResponseStream}.
+   */
+  private final StreamingNotificationDecoder notificationDecoder =
+    new StreamingNotificationDecoder(listener, this::streamingNotificationDecoded);
+
+  private boolean streamingNotificationDecoding = true;
+
   private final List<RequestListener> requestListenerList = new ArrayList<>();
 
   private final List<ResponseListener> responseListenerList = new ArrayList<>();
@@ -120,6 +133,12 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
    */
   private final Object consumerMapLock = new Object();
 
+  /**
+   * The ids of the cancelled requests and of the "server.cancelRequest" requests, whose responses are ignored. Access is
+   * synchronized on {@link #consumerMapLock}.
+   */
+  private final Set<String> ignoredResponseIds = new HashSet<String>();
+
   /**
    * The unique ID for the next request.
    */
@@ -160,6 +179,30 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     this.checkServerVersion = checkServerVersion;
   }
 
+  /**
+   * Enables or disables decoding of the largest notifications directly from the response stream,
+   * takes effect when the server is (re)started.
+   */
+  public void setStreamingNotificationDecoding(boolean enabled) {
+    streamingNotificationDecoding = enabled;
+  }
+
+  /**
+   * Sets the predicate of the files which highlights and navigation notifications may be left
+   * undecoded for until {@link #decodeDeferredNotifications(Collection)} is called.
+   */
+  public void setNotificationDeferralFilter(Predicate<String> filePathFilter) {
+    notificationDecoder.setDeferralFilter(filePathFilter);
+  }
+
+  /**
+   * Decodes the latest deferred highlights and navigation notifications for the given files and
+   * notifies the listeners.
+   */
+  public void decodeDeferredNotifications(Collection<String> filePaths) {
+    notificationDecoder.decodeDeferred(filePaths);
+  }
+
   @Override
   public void addAnalysisServerListener(AnalysisServerListener listener) {
     this.listener.addListener(listener);
@@ -564,6 +607,33 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     sendRequestToServer(id, RequestUtilities.generateSearchGetTypeHierarchy(id, file, offset, superOnly), consumer);
   }
 
+  /**
+   * Stops waiting for the response to the request that was sent with the given consumer and asks the server to cancel it.
+   * The consumer is not notified. Servers that do not support "server.cancelRequest" respond with an error, which is ignored
+   * as well.
+   *
+   * @param consumer the {@link Consumer} passed when the request was made
+   */
+  public void cancelRequest(Consumer consumer) {
+    String requestId = null;
+    String id = generateUniqueId();
+    synchronized (consumerMapLock) {
+      for (Map.Entry<String, Consumer> entry : consumerMap.entrySet()) {
+        if (entry.getValue() == consumer) {
+          requestId = entry.getKey();
+          break;
+        }
+      }
+      if (requestId == null) {
+        return;
+      }
+      consumerMap.remove(requestId);
+      ignoredResponseIds.add(requestId);
+      ignoredResponseIds.add(id);
+    }
+    sendRequestToServer(id, RequestUtilities.generateServerCancelRequest(id, requestId));
+  }
+
   @Override
   public void server_getVersion(GetVersionConsumer consumer) {
     String id = generateUniqueId();
@@ -730,6 +800,10 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     // prepare consumer
     Consumer consumer;
     synchronized (consumerMapLock) {
+      if (ignoredResponseIds.remove(idString)) {
+        consumerMap.remove(idString);
+        return;
+      }
       consumer = consumerMap.get(idString);
     }
     JsonObject errorObject = (JsonObject)response.get("error");
@@ -746,6 +820,9 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     // Analysis Domain
     //
     if (consumer instanceof UpdateContentConsumer) {
+      if (requestError != null) {
+        ((UpdateContentConsumer)consumer).onError(requestError);
+      }
       ((UpdateContentConsumer)consumer).onResponse();
     }
     //
@@ -878,6 +955,20 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
     }
   }
 
+  private void streamingNotificationDecoded(byte[] line) {
+    lastResponseTime.set(System.currentTimeMillis());
+    synchronized (responseListenerList) {
+      if (responseListenerList.isEmpty()) {
+        return;
+      }
+      String response = new String(line, StandardCharsets.UTF_8);
+      List<ResponseListener> listeners = ImmutableList.copyOf(responseListenerList);
+      for (ResponseListener listener : listeners) {
+        listener.onResponse(response);
+      }
+    }
+  }
+
   private void notifyResponseListeners(JsonObject response) {
     synchronized (responseListenerList) {
       List<ResponseListener> listeners = ImmutableList.copyOf(responseListenerList);
@@ -919,8 +1010,13 @@ public class RemoteAnalysisServerImpl implements AnalysisServer {
   private void startServer() throws Exception {
     socket.start();
     consumerMap.clear();
+    ignoredResponseIds.clear();
     requestSink = socket.getRequestSink();
     responseStream = socket.getResponseStream();
+    notificationDecoder.clearDeferred();
+    if (responseStream instanceof ByteResponseStream) {
+      ((ByteResponseStream)responseStream).setNotificationDecoder(streamingNotificationDecoding ? notificationDecoder : null);
+    }
     errorStream = socket.getErrorStream();
     new ServerResponseReaderThread(responseStream).start();
     if (errorStream != null) {
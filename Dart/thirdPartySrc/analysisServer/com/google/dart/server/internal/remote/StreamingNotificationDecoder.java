@@ -0,0 +1,500 @@
+package com.google.dart.server.internal.remote;
+
+import com.google.dart.server.AnalysisServerListener;
+import com.google.dart.server.utilities.general.JsonUtilities;
+import com.google.dart.server.utilities.logging.Logging;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.dartlang.analysis.server.protocol.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decodes the largest notifications ("analysis.highlights", "analysis.navigation" and
+ * "completion.results") directly from the UTF-8 bytes of a response line into protocol objects,
+ * without building a JSON tree for them.
+ * <p>
+ * Highlights and navigation for the files accepted by the deferral filter (usually the files not
+ * visible in any editor) are not decoded at all. Only the bytes of the latest such notification
+ * are kept for each file, and they are decoded by {@link #decodeDeferred(Collection)} once the
+ * file becomes visible.
+ *
+ * @coverage dart.server.remote
+ */
+public class StreamingNotificationDecoder {
+  private static final String HIGHLIGHTS = "analysis.highlights";
+  private static final String NAVIGATION = "analysis.navigation";
+  private static final String COMPLETION_RESULTS = "completion.results";
+
+  private static final String[] EVENTS = {HIGHLIGHTS, NAVIGATION, COMPLETION_RESULTS};
+  private static final byte[][] EVENT_BYTES = {
+      HIGHLIGHTS.getBytes(StandardCharsets.UTF_8),
+      NAVIGATION.getBytes(StandardCharsets.UTF_8),
+      COMPLETION_RESULTS.getBytes(StandardCharsets.UTF_8)};
+
+  /**
+   * The server writes the event name first in all notifications.
+   */
+  private static final byte[] EVENT_PREFIX = "{\"event\":\"".getBytes(StandardCharsets.UTF_8);
+
+  private static final int MAX_DEFERRED = 100;
+
+  /**
+   * Marks a notification which has been deferred instead of decoded.
+   */
+  private static final Runnable DEFERRED = () -> {
+  };
+
+  private final AnalysisServerListener listener;
+  private final Consumer<byte[]> rawNotificationConsumer;
+  private volatile Predicate<String> deferralFilter;
+
+  /**
+   * The bytes of deferred notifications by the event name and file path, the eldest are dropped;
+   * the server sends fresh results anyway when the file is subscribed to again.
+   */
+  private final Map<String, byte[]> deferred = new LinkedHashMap<String, byte[]>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > MAX_DEFERRED;
+    }
+  };
+
+  /**
+   * @param listener                the listener to notify about decoded notifications
+   * @param rawNotificationConsumer is given the bytes of every notification handled by this
+   *                                decoder, before the listener is notified
+   */
+  public StreamingNotificationDecoder(AnalysisServerListener listener, Consumer<byte[]> rawNotificationConsumer) {
+    this.listener = listener;
+    this.rawNotificationConsumer = rawNotificationConsumer;
+  }
+
+  /**
+   * Sets the predicate of the files which highlights and navigation may be deferred for,
+   * {@code null} to decode all notifications immediately.
+   */
+  public void setDeferralFilter(Predicate<String> deferralFilter) {
+    this.deferralFilter = deferralFilter;
+  }
+
+  /**
+   * Decodes the given line and notifies the listener if it is a notification supported by this
+   * decoder.
+   *
+   * @return {@code true} if the notification has been handled, {@code false} if it should be
+   * parsed and processed as usual
+   */
+  public synchronized boolean decode(byte[] line) {
+    String event = getEvent(line);
+    if (event == null) {
+      return false;
+    }
+    Runnable notification;
+    try {
+      notification = decode(event, line, deferralFilter);
+    } catch (IOException | RuntimeException e) {
+      // unexpected structure, leave it to the processors
+      return false;
+    }
+    rawNotificationConsumer.accept(line);
+    notification.run();
+    return true;
+  }
+
+  /**
+   * Decodes the deferred notifications for the given files and notifies the listener.
+   */
+  public synchronized void decodeDeferred(Collection<String> filePaths) {
+    for (String filePath : filePaths) {
+      for (String event : new String[]{HIGHLIGHTS, NAVIGATION}) {
+        byte[] line = deferred.remove(getKey(event, filePath));
+        if (line == null) {
+          continue;
+        }
+        try {
+          decode(event, line, null).run();
+        } catch (IOException | RuntimeException e) {
+          Logging.getLogger().logError("Failed to decode deferred " + event + " for " + filePath, e);
+        }
+      }
+    }
+  }
+
+  public synchronized void clearDeferred() {
+    deferred.clear();
+  }
+
+  /**
+   * @return the name of the event of the notification if it is supported by this decoder
+   */
+  static String getEvent(byte[] line) {
+    if (!startsWith(line, 0, EVENT_PREFIX)) {
+      return null;
+    }
+    for (int i = 0; i < EVENT_BYTES.length; i++) {
+      int end = EVENT_PREFIX.length + EVENT_BYTES[i].length;
+      if (startsWith(line, EVENT_PREFIX.length, EVENT_BYTES[i]) && end < line.length && line[end] == '"') {
+        return EVENTS[i];
+      }
+    }
+    return null;
+  }
+
+  private static boolean startsWith(byte[] line, int offset, byte[] prefix) {
+    if (line.length < offset + prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (line[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String getKey(String event, String filePath) {
+    return event + '\n' + filePath;
+  }
+
+  /**
+   * @return the action notifying the listener, or {@link #DEFERRED}
+   */
+  private Runnable decode(String event, byte[] line, Predicate<String> deferralFilter) throws IOException {
+    JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(line), StandardCharsets.UTF_8));
+    Runnable result = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("params")) {
+        reader.skipValue();
+        continue;
+      }
+      if (event.equals(HIGHLIGHTS)) {
+        result = decodeHighlights(reader, line, deferralFilter);
+      }
+      else if (event.equals(NAVIGATION)) {
+        result = decodeNavigation(reader, line, deferralFilter);
+      }
+      else {
+        result = decodeCompletionResults(reader);
+      }
+      if (result == DEFERRED) {
+        return result;
+      }
+    }
+    reader.endObject();
+    if (result == null) {
+      throw new IOException("No params in " + event);
+    }
+    return result;
+  }
+
+  private boolean defer(String event, String file, byte[] line, Predicate<String> deferralFilter) {
+    if (deferralFilter == null || !deferralFilter.test(file)) {
+      deferred.remove(getKey(event, file));
+      return false;
+    }
+    deferred.put(getKey(event, file), line);
+    return true;
+  }
+
+  private Runnable decodeHighlights(JsonReader reader, byte[] line, Predicate<String> deferralFilter) throws IOException {
+    String file = null;
+    List<HighlightRegion> regions = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("file")) {
+        file = reader.nextString();
+        if (defer(HIGHLIGHTS, file, line, deferralFilter)) {
+          return DEFERRED;
+        }
+      }
+      else if (name.equals("regions")) {
+        regions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          regions.add(readHighlightRegion(reader));
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || regions == null) {
+      throw new IOException("Incomplete " + HIGHLIGHTS);
+    }
+    String finalFile = file;
+    List<HighlightRegion> finalRegions = regions;
+    return () -> listener.computedHighlights(finalFile, finalRegions);
+  }
+
+  private static HighlightRegion readHighlightRegion(JsonReader reader) throws IOException {
+    String type = null;
+    int offset = 0;
+    int length = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("type")) {
+        type = reader.nextString();
+      }
+      else if (name.equals("offset")) {
+        offset = reader.nextInt();
+      }
+      else if (name.equals("length")) {
+        length = reader.nextInt();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new HighlightRegion(type, offset, length);
+  }
+
+  private Runnable decodeNavigation(JsonReader reader, byte[] line, Predicate<String> deferralFilter) throws IOException {
+    String file = null;
+    List<NavigationRegion> regions = null;
+    List<NavigationTarget> targets = null;
+    List<String> files = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("file")) {
+        file = reader.nextString();
+        if (defer(NAVIGATION, file, line, deferralFilter)) {
+          return DEFERRED;
+        }
+      }
+      else if (name.equals("regions")) {
+        regions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          regions.add(readNavigationRegion(reader));
+        }
+        reader.endArray();
+      }
+      else if (name.equals("targets")) {
+        targets = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          targets.add(readNavigationTarget(reader));
+        }
+        reader.endArray();
+      }
+      else if (name.equals("files")) {
+        files = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          files.add(reader.nextString());
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (file == null || regions == null || targets == null || files == null) {
+      throw new IOException("Incomplete " + NAVIGATION);
+    }
+    String[] targetFiles = files.toArray(new String[0]);
+    for (NavigationTarget target : targets) {
+      target.lookupFile(targetFiles);
+    }
+    for (NavigationRegion region : regions) {
+      region.lookupTargets(targets);
+    }
+    String finalFile = file;
+    List<NavigationRegion> finalRegions = regions;
+    return () -> listener.computedNavigation(finalFile, finalRegions);
+  }
+
+  private static NavigationRegion readNavigationRegion(JsonReader reader) throws IOException {
+    int offset = 0;
+    int length = 0;
+    int[] targets = new int[0];
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("offset")) {
+        offset = reader.nextInt();
+      }
+      else if (name.equals("length")) {
+        length = reader.nextInt();
+      }
+      else if (name.equals("targets")) {
+        targets = readIntArray(reader);
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationRegion(offset, length, targets);
+  }
+
+  private static NavigationTarget readNavigationTarget(JsonReader reader) throws IOException {
+    String kind = null;
+    int fileIndex = 0;
+    int offset = 0;
+    int length = 0;
+    int startLine = 0;
+    int startColumn = 0;
+    Integer codeOffset = null;
+    Integer codeLength = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      switch (name) {
+        case "kind":
+          kind = reader.nextString();
+          break;
+        case "fileIndex":
+          fileIndex = reader.nextInt();
+          break;
+        case "offset":
+          offset = reader.nextInt();
+          break;
+        case "length":
+          length = reader.nextInt();
+          break;
+        case "startLine":
+          startLine = reader.nextInt();
+          break;
+        case "startColumn":
+          startColumn = reader.nextInt();
+          break;
+        case "codeOffset":
+          codeOffset = reader.nextInt();
+          break;
+        case "codeLength":
+          codeLength = reader.nextInt();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return new NavigationTarget(kind, fileIndex, offset, length, startLine, startColumn, codeOffset, codeLength);
+  }
+
+  private static int[] readIntArray(JsonReader reader) throws IOException {
+    int[] result = new int[4];
+    int size = 0;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (size == result.length) {
+        result = Arrays.copyOf(result, size * 2);
+      }
+      result[size++] = reader.nextInt();
+    }
+    reader.endArray();
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  /**
+   * Suggestions are small, so each of them is parsed into its own short-lived tree and decoded by
+   * {@link CompletionSuggestion#fromJson}, instead of building the tree of the whole notification.
+   */
+  private Runnable decodeCompletionResults(JsonReader reader) throws IOException {
+    JsonParser parser = new JsonParser();
+    String completionId = null;
+    Integer replacementOffset = null;
+    Integer replacementLength = null;
+    Boolean isLast = null;
+    String libraryFile = null;
+    List<CompletionSuggestion> suggestions = null;
+    List<IncludedSuggestionSet> includedSuggestionSets = Collections.emptyList();
+    List<String> includedElementKinds = null;
+    List<String> includedSuggestionKinds = null;
+    List<IncludedSuggestionRelevanceTag> includedSuggestionRelevanceTags = Collections.emptyList();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      switch (name) {
+        case "id":
+          completionId = reader.nextString();
+          break;
+        case "replacementOffset":
+          replacementOffset = reader.nextInt();
+          break;
+        case "replacementLength":
+          replacementLength = reader.nextInt();
+          break;
+        case "isLast":
+          isLast = reader.nextBoolean();
+          break;
+        case "libraryFile":
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+          }
+          else {
+            libraryFile = reader.nextString();
+          }
+          break;
+        case "results":
+          suggestions = new ArrayList<>();
+          reader.beginArray();
+          while (reader.hasNext()) {
+            suggestions.add(CompletionSuggestion.fromJson(parser.parse(reader).getAsJsonObject()));
+          }
+          reader.endArray();
+          break;
+        case "includedSuggestionSets":
+          includedSuggestionSets = IncludedSuggestionSet.fromJsonArray(readArray(parser, reader));
+          break;
+        case "includedElementKinds":
+          includedElementKinds = JsonUtilities.decodeStringList(readArray(parser, reader));
+          break;
+        case "includedSuggestionKinds":
+          includedSuggestionKinds = JsonUtilities.decodeStringList(readArray(parser, reader));
+          break;
+        case "includedSuggestionRelevanceTags":
+          includedSuggestionRelevanceTags = IncludedSuggestionRelevanceTag.fromJsonArray(readArray(parser, reader));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (completionId == null || replacementOffset == null || replacementLength == null || isLast == null || suggestions == null) {
+      throw new IOException("Incomplete " + COMPLETION_RESULTS);
+    }
+    String finalCompletionId = completionId;
+    int finalReplacementOffset = replacementOffset;
+    int finalReplacementLength = replacementLength;
+    boolean finalIsLast = isLast;
+    String finalLibraryFile = libraryFile;
+    List<CompletionSuggestion> finalSuggestions = suggestions;
+    List<IncludedSuggestionSet> finalIncludedSuggestionSets = includedSuggestionSets;
+    List<String> finalIncludedElementKinds = includedElementKinds != null ? includedElementKinds
+                                             : includedSuggestionKinds != null ? includedSuggestionKinds
+                                             : Collections.<String>emptyList();
+    List<IncludedSuggestionRelevanceTag> finalIncludedSuggestionRelevanceTags = includedSuggestionRelevanceTags;
+    return () -> listener.computedCompletion(finalCompletionId,
+                                             finalReplacementOffset,
+                                             finalReplacementLength,
+                                             finalSuggestions,
+                                             finalIncludedSuggestionSets,
+                                             finalIncludedElementKinds,
+                                             finalIncludedSuggestionRelevanceTags,
+                                             finalIsLast,
+                                             finalLibraryFile);
+  }
+
+  private static JsonArray readArray(JsonParser parser, JsonReader reader) {
+    return parser.parse(reader).getAsJsonArray();
+  }
+}
@@ -16,7 +16,10 @@ package org.dartlang.vm.service;
 import com.google.common.collect.Maps;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import de.roderick.weberknecht.WebSocket;
 import de.roderick.weberknecht.WebSocketEventHandler;
 import de.roderick.weberknecht.WebSocketException;
@@ -29,6 +32,7 @@ import org.dartlang.vm.service.internal.WebSocketRequestSink;
 import org.dartlang.vm.service.logging.Logging;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -81,9 +85,13 @@ abstract class VmServiceBase implements VmServiceConst {
 
       @Override
       public void onMessage(WebSocketMessage message) {
-        Logging.getLogger().logInformation("VM message: " + message.getText());
+        // getText() decodes the message bytes on each call
+        final String text = message.getText();
+        if (Logging.getLogger().isInformationEnabled()) {
+          Logging.getLogger().logInformation("VM message: " + text);
+        }
         try {
-          vmService.processMessage(message.getText());
+          vmService.processMessage(text);
         } catch (Exception e) {
           Logging.getLogger().logError(e.getMessage(), e);
         }
@@ -391,6 +399,10 @@ abstract class VmServiceBase implements VmServiceConst {
       return;
     }
 
+    if (processOutputEvent(jsonText)) {
+      return;
+    }
+
     // Decode the JSON
     JsonObject json;
     try {
@@ -425,6 +437,87 @@ abstract class VmServiceBase implements VmServiceConst {
     }
   }
 
+  /**
+   * Process a {@code WriteEvent} of the {@link VmService#STDOUT_STREAM_ID} or {@link VmService#STDERR_STREAM_ID} stream. A chatty
+   * application may send thousands of them per second, so they are decoded in a single pass with a streaming reader, which builds
+   * only the event object, with all of its fields, instead of the JSON tree of the whole message. Reading stops as soon as it is
+   * clear that the message is something else.
+   *
+   * @return {@code false} if the message is not an output event and should be decoded as usual
+   */
+  boolean processOutputEvent(String jsonText) {
+    boolean streamNotify = false;
+    String streamId = null;
+    JsonObject eventJson = null;
+
+    try (JsonReader reader = new JsonReader(new StringReader(jsonText))) {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        switch (reader.nextName()) {
+          case METHOD:
+            if (!"streamNotify".equals(nextString(reader))) return false;
+            streamNotify = true;
+            break;
+          case PARAMS:
+            reader.beginObject();
+            while (reader.hasNext()) {
+              switch (reader.nextName()) {
+                case STREAM_ID:
+                  streamId = nextString(reader);
+                  if (!VmService.STDOUT_STREAM_ID.equals(streamId) && !VmService.STDERR_STREAM_ID.equals(streamId)) return false;
+                  break;
+                case EVENT:
+                  eventJson = new JsonObject();
+                  reader.beginObject();
+                  while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if ("kind".equals(name)) {
+                      final String kind = nextString(reader);
+                      if (!"WriteEvent".equals(kind)) return false;
+                      eventJson.addProperty(name, kind);
+                    }
+                    else {
+                      eventJson.add(name, new JsonParser().parse(reader));
+                    }
+                  }
+                  reader.endObject();
+                  break;
+                default:
+                  reader.skipValue();
+              }
+            }
+            reader.endObject();
+            break;
+          case ID:
+          case RESULT:
+          case ERROR:
+            return false;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IOException | IllegalStateException | JsonParseException e) {
+      // let the full decoding report the problem
+      return false;
+    }
+
+    if (!streamNotify || streamId == null || eventJson == null || !eventJson.has("kind") || !eventJson.has("bytes")) {
+      return false;
+    }
+
+    forwardEvent(streamId, new Event(eventJson));
+    return true;
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() != JsonToken.STRING) {
+      reader.skipValue();
+      return null;
+    }
+    return reader.nextString();
+  }
+
   void processRequest(JsonObject json) {
     final JsonObject response = new JsonObject();
     response.addProperty(JSONRPC, JSONRPC_VERSION);
@@ -39,6 +39,11 @@ public interface Logger {
     @Override
     public void logInformation(String message, Throwable exception) {
     }
+
+    @Override
+    public boolean isInformationEnabled() {
+      return false;
+    }
   }
 
   static final Logger NULL = new NullLogger();
@@ -72,4 +77,11 @@ public interface Logger {
    * @param exception the exception being logged
    */
   void logInformation(String message, Throwable exception);
+
+  /**
+   * Return {@code false} if informational messages are ignored, so that callers can avoid building them.
+   */
+  default boolean isInformationEnabled() {
+    return true;
+  }
 }
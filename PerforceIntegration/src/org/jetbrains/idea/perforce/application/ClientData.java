@@ -1,8 +1,11 @@
 package org.jetbrains.idea.perforce.application;
 
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.perforce.perforce.ClientViewMapper;
 import org.jetbrains.idea.perforce.perforce.PerforceRunner;
 import org.jetbrains.idea.perforce.perforce.View;
 
@@ -17,6 +20,7 @@ class ClientData {
   private final Map<String, List<String>> myData;
   private volatile List<View> myViews;
   private volatile List<String> myOptions;
+  private volatile Ref<ClientViewMapper> myViewMapper;
 
   ClientData(Map<String, List<String>> data) {
     myData = Collections.unmodifiableMap(data);
@@ -41,6 +45,15 @@ class ClientData {
     return myOptions;
   }
 
+  /**
+   * @return the client's LineEnd option, which defines how {@code p4 print} and {@code p4 sync} translate line separators
+   */
+  @NotNull
+  String getLineEnd() {
+    List<String> list = myData.getOrDefault(PerforceRunner.CLIENT_LINE_END, Collections.emptyList());
+    return !list.isEmpty() ? list.get(0).trim() : "local";
+  }
+
   @NotNull
   List<View> getViews() {
     if (myViews == null) {
@@ -48,4 +61,18 @@ class ClientData {
     }
     return myViews;
   }
+
+  /**
+   * @param caseSensitive whether the server is case-sensitive
+   */
+  @Nullable
+  ClientViewMapper getViewMapper(boolean caseSensitive) {
+    Ref<ClientViewMapper> mapper = myViewMapper;
+    if (mapper == null || mapper.get() != null && mapper.get().isCaseSensitive() != caseSensitive) {
+      List<String> names = myData.getOrDefault(PerforceRunner.CLIENT, Collections.emptyList());
+      List<String> roots = ContainerUtil.filter(getAllRoots(), root -> !"null".equals(root));
+      myViewMapper = mapper = Ref.create(names.isEmpty() ? null : ClientViewMapper.create(names.get(0).trim(), roots, getViews(), caseSensitive));
+    }
+    return mapper.get();
+  }
 }
@@ -0,0 +1,141 @@
+package org.jetbrains.idea.perforce.application;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.DumbAwareAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.ui.SimpleToolWindowPanel;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.table.TableView;
+import com.intellij.util.Alarm;
+import com.intellij.util.ThrowableConsumer;
+import com.intellij.util.ui.ColumnInfo;
+import com.intellij.util.ui.ListTableModel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.perforce.PerforceBundle;
+import org.jetbrains.idea.perforce.util.tracer.CommandMetrics;
+import org.jetbrains.idea.perforce.util.tracer.CommandMetrics.Summary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * "Perforce Metrics" tool window: the live {@link CommandMetrics} table, refreshed every couple of seconds.
+ */
+public class CommandMetricsToolWindowFactory implements ToolWindowFactory, DumbAware {
+  private static final int REFRESH_DELAY = 2000;
+
+  @Override
+  public boolean shouldBeAvailable(@NotNull Project project) {
+    return CommandMetrics.isEnabled();
+  }
+
+  @Override
+  public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+    ListTableModel<Summary> model = new ListTableModel<>(
+      column("metrics.column.command", s -> s.command),
+      column("metrics.column.connection", s -> s.server + " " + s.client + " " + s.user),
+      column("metrics.column.forks", s -> String.valueOf(s.forks)),
+      column("metrics.column.shared", s -> String.valueOf(s.shared)),
+      column("metrics.column.failures", s -> String.valueOf(s.failures)),
+      column("metrics.column.total", s -> millis(s.totalMicros)),
+      column("metrics.column.p50", s -> millis(s.p50Micros)),
+      column("metrics.column.p99", s -> millis(s.p99Micros)),
+      column("metrics.column.max", s -> millis(s.maxMicros)),
+      column("metrics.column.queue", s -> millis(s.queueTotalMicros)),
+      column("metrics.column.read", s -> StringUtil.formatFileSize(s.bytesRead)));
+    TableView<Summary> table = new TableView<>(model);
+
+    SimpleToolWindowPanel panel = new SimpleToolWindowPanel(false, true);
+    panel.setContent(ScrollPaneFactory.createScrollPane(table));
+
+    Runnable refresh = () -> model.setItems(CommandMetrics.getInstance().getSummaries());
+    DefaultActionGroup group = new DefaultActionGroup();
+    group.add(new DumbAwareAction(PerforceBundle.messagePointer("metrics.action.refresh"), AllIcons.Actions.Refresh) {
+      @Override
+      public void actionPerformed(@NotNull AnActionEvent e) {
+        refresh.run();
+      }
+    });
+    group.add(new DumbAwareAction(PerforceBundle.messagePointer("metrics.action.reset"), AllIcons.Actions.GC) {
+      @Override
+      public void actionPerformed(@NotNull AnActionEvent e) {
+        CommandMetrics.getInstance().reset();
+        refresh.run();
+      }
+    });
+    group.add(new ExportAction(project, "metrics.action.export.json", "perforce-metrics.json", CommandMetrics.getInstance()::exportJson));
+    group.add(new ExportAction(project, "metrics.action.export.openmetrics", "perforce-metrics.txt",
+                               CommandMetrics.getInstance()::exportOpenMetrics));
+    ActionToolbar toolbar = ActionManager.getInstance().createActionToolbar("PerforceMetrics", group, false);
+    toolbar.setTargetComponent(table);
+    panel.setToolbar(toolbar.getComponent());
+
+    Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+    toolWindow.getContentManager().addContent(content);
+
+    Alarm alarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, content);
+    Runnable[] schedule = new Runnable[1];
+    schedule[0] = () -> {
+      if (toolWindow.isVisible()) {
+        refresh.run();
+      }
+      if (!Disposer.isDisposed(content)) {
+        alarm.addRequest(schedule[0], REFRESH_DELAY);
+      }
+    };
+    schedule[0].run();
+  }
+
+  private static ColumnInfo<Summary, String> column(String key, Function<Summary, String> value) {
+    return new ColumnInfo<>(PerforceBundle.message(key)) {
+      @Nullable
+      @Override
+      public String valueOf(Summary summary) {
+        return value.apply(summary);
+      }
+    };
+  }
+
+  private static String millis(long micros) {
+    return String.format(Locale.US, "%.1f", micros / 1000.0);
+  }
+
+  private static final class ExportAction extends DumbAwareAction {
+    private final Project myProject;
+    private final String myFileName;
+    private final ThrowableConsumer<File, IOException> myExporter;
+
+    private ExportAction(Project project, String textKey, String fileName, ThrowableConsumer<File, IOException> exporter) {
+      super(PerforceBundle.messagePointer(textKey), AllIcons.ToolbarDecorator.Export);
+      myProject = project;
+      myFileName = fileName;
+      myExporter = exporter;
+    }
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+      File file = new File(PathManager.getLogPath(), myFileName);
+      try {
+        myExporter.consume(file);
+        Messages.showInfoMessage(myProject, PerforceBundle.message("metrics.exported", file.getPath()),
+                                 PerforceBundle.message("metrics.tool.window.title"));
+      }
+      catch (IOException ex) {
+        Messages.showErrorDialog(myProject, ex.getMessage(), PerforceBundle.message("metrics.tool.window.title"));
+      }
+    }
+  }
+}
@@ -52,6 +52,11 @@ public final class FileGrouper {
     return distributeByConnection(files, path -> connectionManager.getConnectionForFile(P4File.create(path)));
   }
 
+  public static MultiMap<P4Connection, P4File> distributeP4FilesByConnection(Collection<? extends P4File> files,
+                                                                             final PerforceConnectionManagerI connectionManager) {
+    return distributeByConnection(files, file -> connectionManager.getConnectionForFile(file));
+  }
+
   public static MultiMap<P4Connection, File> distributeIoFilesByConnection(final Collection<? extends File> files, final Project project) {
     final PerforceConnectionManagerI connectionManager = PerforceConnectionManager.getInstance(project);
     return distributeByConnection(files, file -> connectionManager.getConnectionForFile(file));
@@ -0,0 +1,138 @@
+package org.jetbrains.idea.perforce.application;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks files against the P4IGNORE files locally, without running 'p4 ignores'.
+ * Compiled ignore files are cached until they're modified.
+ */
+@Service
+public final class P4IgnoreFiles {
+  private static final Logger LOG = Logger.getInstance(P4IgnoreFiles.class);
+
+  private final Map<VirtualFile, Pair<Long, P4IgnoreMatcher>> myMatchers = new ConcurrentHashMap<>();
+
+  public static P4IgnoreFiles getInstance() {
+    return ApplicationManager.getApplication().getService(P4IgnoreFiles.class);
+  }
+
+  /**
+   * @param p4ignore the P4IGNORE value: a list of ignore file names looked up in every parent directory of a file,
+   *                 or of absolute paths to ignore files applied to the files under their directory
+   * @return the files ignored by the rules of these ignore files
+   */
+  @NotNull
+  public Set<VirtualFile> getIgnoredFiles(@Nullable String p4ignore, @NotNull Collection<VirtualFile> files) {
+    if (StringUtil.isEmptyOrSpaces(p4ignore) || files.isEmpty()) return Collections.emptySet();
+
+    List<String> names = new ArrayList<>();
+    List<Scope> absolute = new ArrayList<>();
+    for (String entry : StringUtil.tokenize(p4ignore, SystemInfo.isWindows ? ";," : ":;,")) {
+      entry = entry.trim();
+      if (entry.isEmpty()) continue;
+      if (entry.contains("/") || entry.contains("\\")) {
+        VirtualFile ignoreFile = LocalFileSystem.getInstance().findFileByPath(FileUtil.toSystemIndependentName(entry));
+        if (ignoreFile != null && !ignoreFile.isDirectory() && ignoreFile.getParent() != null) {
+          P4IgnoreMatcher matcher = getMatcher(ignoreFile);
+          if (!matcher.isEmpty()) {
+            absolute.add(new Scope(ignoreFile.getParent(), matcher));
+          }
+        }
+      }
+      else {
+        names.add(entry);
+      }
+    }
+
+    Map<VirtualFile, List<Scope>> scopesByDir = new HashMap<>();
+    Set<VirtualFile> result = new LinkedHashSet<>();
+    for (VirtualFile file : files) {
+      VirtualFile parent = file.getParent();
+      if (parent == null) continue;
+      if (isIgnored(file, absolute) || isIgnored(file, getScopes(parent, names, scopesByDir))) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isIgnored(VirtualFile file, List<Scope> scopes) {
+    Boolean ignored = null;
+    for (Scope scope : scopes) {
+      String relativePath = VfsUtilCore.getRelativePath(file, scope.myDir);
+      if (relativePath == null) continue;
+      Boolean decision = scope.myMatcher.isIgnored(relativePath, file.isDirectory());
+      if (decision != null) {
+        ignored = decision;
+      }
+    }
+    return Boolean.TRUE.equals(ignored);
+  }
+
+  /**
+   * @return the ignore files applicable to the files in the given directory, outermost first
+   */
+  private List<Scope> getScopes(VirtualFile dir, List<String> names, Map<VirtualFile, List<Scope>> cache) {
+    List<Scope> cached = cache.get(dir);
+    if (cached != null) return cached;
+
+    VirtualFile parent = dir.getParent();
+    List<Scope> result = parent == null ? Collections.emptyList() : getScopes(parent, names, cache);
+    for (String name : names) {
+      VirtualFile ignoreFile = dir.findChild(name);
+      if (ignoreFile != null && !ignoreFile.isDirectory()) {
+        P4IgnoreMatcher matcher = getMatcher(ignoreFile);
+        if (!matcher.isEmpty()) {
+          result = new ArrayList<>(result);
+          result.add(new Scope(dir, matcher));
+        }
+      }
+    }
+    cache.put(dir, result);
+    return result;
+  }
+
+  private P4IgnoreMatcher getMatcher(VirtualFile ignoreFile) {
+    long stamp = ignoreFile.getModificationStamp();
+    Pair<Long, P4IgnoreMatcher> cached = myMatchers.get(ignoreFile);
+    if (cached != null && cached.first == stamp) {
+      return cached.second;
+    }
+
+    P4IgnoreMatcher matcher;
+    try {
+      matcher = P4IgnoreMatcher.parse(VfsUtilCore.loadText(ignoreFile), SystemInfo.isFileSystemCaseSensitive);
+    }
+    catch (IOException e) {
+      LOG.info("Can't read " + ignoreFile, e);
+      matcher = P4IgnoreMatcher.parse("", true);
+    }
+    myMatchers.put(ignoreFile, Pair.create(stamp, matcher));
+    return matcher;
+  }
+
+  private static final class Scope {
+    private final VirtualFile myDir;
+    private final P4IgnoreMatcher myMatcher;
+
+    private Scope(VirtualFile dir, P4IgnoreMatcher matcher) {
+      myDir = dir;
+      myMatcher = matcher;
+    }
+  }
+}
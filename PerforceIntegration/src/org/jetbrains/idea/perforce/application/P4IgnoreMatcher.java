@@ -0,0 +1,133 @@
+package org.jetbrains.idea.perforce.application;
+
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Rules of a single P4IGNORE file compiled to regular expressions, so that files can be checked without asking the server.
+ * <p/>
+ * Supported syntax: '#' comments, '!' negation, '*' and '?' within a path segment, '**' and '...' across segments,
+ * a trailing '/' for directory-only rules, and rules containing a '/' being anchored to the directory of the ignore file.
+ * The last matching rule wins, and a file inside an ignored directory is ignored.
+ */
+public final class P4IgnoreMatcher {
+  private final List<Rule> myRules;
+
+  private P4IgnoreMatcher(List<Rule> rules) {
+    myRules = rules;
+  }
+
+  @NotNull
+  public static P4IgnoreMatcher parse(@NotNull CharSequence text, boolean caseSensitive) {
+    List<Rule> rules = new ArrayList<>();
+    for (String line : StringUtil.splitByLines(text.toString())) {
+      Rule rule = parseRule(line.trim(), caseSensitive);
+      if (rule != null) {
+        rules.add(rule);
+      }
+    }
+    return new P4IgnoreMatcher(rules);
+  }
+
+  public boolean isEmpty() {
+    return myRules.isEmpty();
+  }
+
+  /**
+   * @param relativePath '/'-separated path relative to the directory of the ignore file
+   * @return {@code true} if ignored, {@code false} if explicitly re-included by a negated rule, {@code null} if no rule applies
+   */
+  @Nullable
+  public Boolean isIgnored(@NotNull String relativePath, boolean directory) {
+    int slash = relativePath.indexOf('/');
+    while (slash > 0) {
+      if (Boolean.TRUE.equals(match(relativePath.substring(0, slash), true))) {
+        return true;
+      }
+      slash = relativePath.indexOf('/', slash + 1);
+    }
+    return match(relativePath, directory);
+  }
+
+  @Nullable
+  private Boolean match(String path, boolean directory) {
+    for (int i = myRules.size() - 1; i >= 0; i--) {
+      Rule rule = myRules.get(i);
+      if ((directory || !rule.myDirectoryOnly) && rule.myPattern.matcher(path).matches()) {
+        return !rule.myNegated;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Rule parseRule(String line, boolean caseSensitive) {
+    if (line.isEmpty() || line.startsWith("#")) return null;
+
+    boolean negated = line.startsWith("!");
+    if (negated) {
+      line = line.substring(1);
+    }
+    boolean directoryOnly = line.endsWith("/");
+    line = StringUtil.trimEnd(line, "/");
+    boolean anchored = line.contains("/");
+    line = StringUtil.trimStart(line, "/");
+    if (line.isEmpty()) return null;
+
+    String regex = (anchored ? "" : "(?:.*/)?") + toRegex(line);
+    return new Rule(Pattern.compile(regex, caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE), negated, directoryOnly);
+  }
+
+  private static String toRegex(String glob) {
+    StringBuilder sb = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        sb.append("(?:.*/)?");
+        i += 3;
+      }
+      else if (glob.startsWith("**", i)) {
+        sb.append(".*");
+        i += 2;
+      }
+      else if (glob.startsWith("...", i)) {
+        sb.append(".*");
+        i += 3;
+      }
+      else {
+        if (c == '*') {
+          sb.append("[^/]*");
+        }
+        else if (c == '?') {
+          sb.append("[^/]");
+        }
+        else {
+          if ("\\.[]{}()^$|+".indexOf(c) >= 0) {
+            sb.append('\\');
+          }
+          sb.append(c);
+        }
+        i++;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static final class Rule {
+    private final Pattern myPattern;
+    private final boolean myNegated;
+    private final boolean myDirectoryOnly;
+
+    private Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+      myPattern = pattern;
+      myNegated = negated;
+      myDirectoryOnly = directoryOnly;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package org.jetbrains.idea.perforce.application;
+
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.annotate.AnnotationProvider;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Starts computing the annotations of Perforce files as soon as they're opened in an editor.
+ */
+public class PerforceAnnotationPrefetcher implements FileEditorManagerListener {
+  private final Project myProject;
+
+  public PerforceAnnotationPrefetcher(@NotNull Project project) {
+    myProject = project;
+  }
+
+  @Override
+  public void fileOpened(@NotNull FileEditorManager source, @NotNull VirtualFile file) {
+    if (!Registry.is("p4.annotate.prefetch") || !file.isInLocalFileSystem() || file.getFileType().isBinary()) return;
+
+    AbstractVcs vcs = ProjectLevelVcsManager.getInstance(myProject).getVcsFor(file);
+    if (vcs == null || !PerforceVcs.getKey().equals(vcs.getKeyInstanceMethod())) return;
+
+    AnnotationProvider provider = vcs.getAnnotationProvider();
+    if (provider instanceof PerforceAnnotationProvider) {
+      ((PerforceAnnotationProvider)provider).prefetch(file);
+    }
+  }
+}
@@ -15,7 +15,11 @@
  */
 package org.jetbrains.idea.perforce.application;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.actions.VcsContextFactory;
@@ -26,6 +30,7 @@ import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vcs.vfs.VcsFileSystem;
 import com.intellij.openapi.vcs.vfs.VcsVirtualFile;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.vcs.AnnotationProviderEx;
 import org.jetbrains.annotations.NotNull;
@@ -39,22 +44,98 @@ import org.jetbrains.idea.perforce.perforce.PerforceRunner;
 import org.jetbrains.idea.perforce.perforce.PerforceSettings;
 import org.jetbrains.idea.perforce.perforce.connections.P4Connection;
 
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
 public class PerforceAnnotationProvider implements AnnotationProviderEx {
+  private static final Logger LOG = Logger.getInstance(PerforceAnnotationProvider.class);
+  // 'filelog -L' truncates descriptions to 250 characters, but the parsed message loses the line indents and trailing whitespace,
+  // so a truncated description may be a bit shorter than that; messages shorter than 200 characters are complete
+  private static final int TRUNCATED_DESCRIPTION_LENGTH = 200;
+  private static final int MAX_PREFETCHED = 20;
+  private static final long PREFETCH_TTL = TimeUnit.MINUTES.toMillis(5);
+
   private final Project myProject;
   private final PerforceRunner myRunner;
+  private final ExecutorService myPrefetchExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Perforce Annotation Prefetch", 1);
+  // file path -> prefetched annotation
+  private final Map<String, Prefetched> myPrefetched = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Prefetched> eldest) {
+      return size() > MAX_PREFETCHED;
+    }
+  };
+  private final Set<String> myPrefetching = new HashSet<>();
 
   public PerforceAnnotationProvider(final Project project) {
     myProject = project;
     myRunner = PerforceRunner.getInstance(project);
+    Disposer.register(myRunner, () -> myPrefetchExecutor.shutdownNow());
   }
 
   @NotNull
   @Override
   public FileAnnotation annotate(@NotNull VirtualFile file) throws VcsException {
+    Prefetched prefetched;
+    synchronized (myPrefetched) {
+      prefetched = myPrefetched.remove(file.getPath());
+    }
+    if (prefetched != null && System.currentTimeMillis() - prefetched.time < PREFETCH_TTL &&
+        prefetched.haveRevision.equals(getHaveRevision(file))) {
+      return prefetched.precursor.createAnnotation(file);
+    }
     FilePath filePath = VcsContextFactory.SERVICE.getInstance().createFilePathOn(file);
     return doAnnotate(file, ChangesUtil.getCommittedPath(myProject, filePath), -1);
   }
 
+  /**
+   * Computes the annotation of the given file in background, so that a subsequent {@link #annotate(VirtualFile)} can return it immediately.
+   */
+  public void prefetch(@NotNull VirtualFile file) {
+    String key = file.getPath();
+    synchronized (myPrefetched) {
+      Prefetched prefetched = myPrefetched.get(key);
+      if (prefetched != null && System.currentTimeMillis() - prefetched.time < PREFETCH_TTL || !myPrefetching.add(key)) return;
+    }
+    try {
+      myPrefetchExecutor.execute(() -> {
+        try {
+          if (myProject.isDisposed() || !file.isValid()) return;
+          long time = System.currentTimeMillis();
+          String haveRevision = getHaveRevision(file);
+          P4Connection connection = PerforceSettings.getSettings(myProject).getConnectionForFile(file);
+          if (connection == null) return;
+          FilePath path = ChangesUtil.getCommittedPath(myProject, VcsContextFactory.SERVICE.getInstance().createFilePathOn(file));
+          AnnotationPrecursor precursor = doAnnotate(-1, connection, P4File.create(path).getEscapedPath());
+          synchronized (myPrefetched) {
+            myPrefetched.put(key, new Prefetched(precursor, haveRevision, time));
+          }
+        }
+        catch (VcsException | ProcessCanceledException e) {
+          LOG.debug("Cannot prefetch annotation of " + file, e);
+        }
+        finally {
+          synchronized (myPrefetched) {
+            myPrefetching.remove(key);
+          }
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // the project is being closed
+      synchronized (myPrefetched) {
+        myPrefetching.remove(key);
+      }
+    }
+  }
+
+  @NotNull
+  private String getHaveRevision(@NotNull VirtualFile file) throws VcsException {
+    return P4File.create(file).getFstat(myProject, false).haveRev;
+  }
+
   @NotNull
   private FileAnnotation doAnnotate(final VirtualFile vFile, final FilePath file, final long changeNumber) throws VcsException {
     P4Connection connection = PerforceSettings.getSettings(myProject).getConnectionForFile(vFile);
@@ -67,15 +148,51 @@ public class PerforceAnnotationProvider implements AnnotationProviderEx {
 
   @NotNull
   private AnnotationPrecursor doAnnotate(final long changeNumber, P4Connection connection, @NotNull final String path) throws VcsException {
-    final P4Revision[] fileLog = myRunner.filelog(connection, path, true);
+    // with many revisions, full descriptions are the bulk of the filelog output, and only few of them are shown in the annotation
+    boolean batch = Registry.is("p4.batch.annotate");
+    final P4Revision[] fileLog = myRunner.filelog(connection, path, true, batch);
     P4Revision p4Revision = ContainerUtil.find(fileLog, p4Revision1 -> p4Revision1.getChangeNumber() == changeNumber);
     String pathAtRevision = p4Revision == null ? path : p4Revision.getDepotPath();
     long revision = p4Revision == null ? -1 : p4Revision.getRevisionNumber();
 
     final AnnotationInfo annotationInfo = myRunner.annotate(connection, pathAtRevision, revision);
+    if (batch) {
+      loadFullDescriptions(connection, annotationInfo, fileLog);
+    }
     return new AnnotationPrecursor(annotationInfo, fileLog, revision, p4Revision, connection);
   }
 
+  /**
+   * Replaces the truncated descriptions of the annotated revisions with the full ones, described all at once
+   */
+  private void loadFullDescriptions(P4Connection connection, AnnotationInfo info, P4Revision[] fileLog) throws VcsException {
+    Set<Long> annotated = new HashSet<>();
+    for (int line = 0; line < info.getLineCount(); line++) {
+      annotated.add(info.getRevision(line));
+    }
+    Map<Long, List<P4Revision>> truncated = new HashMap<>();
+    for (P4Revision revision : fileLog) {
+      long key = info.isUseChangelistNumbers() ? revision.getChangeNumber() : revision.getRevisionNumber();
+      String message = revision.getSubmitMessage();
+      if (annotated.contains(key) && message != null && message.length() >= TRUNCATED_DESCRIPTION_LENGTH) {
+        truncated.computeIfAbsent(revision.getChangeNumber(), __ -> new ArrayList<>()).add(revision);
+      }
+    }
+    if (truncated.isEmpty()) return;
+
+    Map<Long, String> descriptions = myRunner.getSubmittedDescriptions(connection, truncated.keySet());
+    for (Map.Entry<Long, List<P4Revision>> entry : truncated.entrySet()) {
+      String description = descriptions.get(entry.getKey());
+      if (description == null) continue;
+      for (P4Revision revision : entry.getValue()) {
+        String message = revision.getSubmitMessage();
+        // keep the "[... ... branch from ...]" prefix added by the filelog parser
+        int branchEnd = message.startsWith("[") ? message.indexOf(']') : -1;
+        revision.setDescription(branchEnd >= 0 ? message.substring(0, branchEnd + 1) + description : description);
+      }
+    }
+  }
+
   private class AnnotationPrecursor {
     final AnnotationInfo info;
     final P4Revision[] fileLog;
@@ -96,6 +213,18 @@ public class PerforceAnnotationProvider implements AnnotationProviderEx {
     }
   }
 
+  private static final class Prefetched {
+    final AnnotationPrecursor precursor;
+    final String haveRevision;
+    final long time;
+
+    Prefetched(AnnotationPrecursor precursor, String haveRevision, long time) {
+      this.precursor = precursor;
+      this.haveRevision = haveRevision;
+      this.time = time;
+    }
+  }
+
   @NotNull
   @Override
   public FileAnnotation annotate(@NotNull VirtualFile file, VcsFileRevision revision) throws VcsException {
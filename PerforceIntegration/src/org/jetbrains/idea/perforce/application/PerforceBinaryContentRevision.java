@@ -20,6 +20,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.BinaryContentRevision;
+import com.intellij.reference.SoftReference;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.idea.perforce.perforce.P4File;
@@ -32,7 +33,8 @@ import org.jetbrains.idea.perforce.perforce.connections.P4Connection;
  * @author yole
  */
 public class PerforceBinaryContentRevision extends PerforceContentRevision implements BinaryContentRevision {
-  private byte[] myContent = null;
+  // the content of big binaries may be re-read from the content store, so don't pin it
+  private SoftReference<byte[]> myContent = null;
 
   public PerforceBinaryContentRevision(final Project project, final FilePath path, final long revision) {
     super(project, path, revision);
@@ -47,19 +49,25 @@ public class PerforceBinaryContentRevision extends PerforceContentRevision imple
 
   @Override
   public byte @Nullable [] getContentAsBytes() throws VcsException {
-    if (myContent != null) return myContent;
+    byte[] cached = SoftReference.dereference(myContent);
+    if (cached != null) return cached;
 
-    final P4File p4File = P4File.create(myFilePath);
     final PerforceSettings settings = PerforceSettings.getSettings(myProject);
     if (!settings.ENABLED) return null;
-    String rev = myStringRevision.startsWith("@=") ? myStringRevision :
-                 "#" + (myRevision > 0 ? myRevision : p4File.getFstat(myProject, false).haveRev);
-    final byte[] bytes = PerforceRunner.getInstance(myProject).getByteContent(p4File, rev);
-    if (bytes != null) {
-      myContent = bytes;
+    final byte[] bytes;
+    P4Connection connection = getConnection();
+    if (getDepotPath() != null && connection != null && (myStringRevision.startsWith("@=") || myRevision > 0)) {
+      // print by depot path, so that the revision can be taken from the content store
+      bytes = PerforceRunner.getInstance(myProject).getByteContent(getDepotPath(), myStringRevision, connection);
     }
-
-    return myContent;
+    else {
+      final P4File p4File = P4File.create(getFile());
+      String rev = myStringRevision.startsWith("@=") ? myStringRevision :
+                   "#" + (myRevision > 0 ? myRevision : p4File.getFstat(myProject, false).haveRev);
+      bytes = PerforceRunner.getInstance(myProject).getByteContent(p4File, rev);
+    }
+    myContent = new SoftReference<>(bytes);
+    return bytes;
   }
 
   @Override
@@ -291,6 +291,7 @@ public class PerforceChangeProvider implements ChangeProvider {
   public void discardCache() {
     myPerforceReadOnlyFileStateManager.discardUnversioned();
     myAlwaysWritable.clear();
+    myRunner.discardPendingChangeListsCache();
   }
 
   @TestOnly
@@ -27,6 +27,12 @@ public interface PerforceClient {
   @Nullable
   List<String> getCachedOptions();
 
+  /**
+   * @return the LineEnd option of the cached client spec, or null if the spec isn't cached
+   */
+  @Nullable @NlsSafe
+  String getCachedLineEnd();
+
   @NlsSafe String getUserName() throws VcsException;
 
   /**
@@ -76,6 +76,18 @@ class PerforceClientImpl implements PerforceClient {
     }
   }
 
+  @Nullable
+  @Override
+  public String getCachedLineEnd() {
+    try {
+      ClientData clientSpec = PerforceManager.getInstance(myProject).getClientOnlyCached(myConnection);
+      return clientSpec == null ? null : clientSpec.getLineEnd();
+    }
+    catch (VcsException e) {
+      return null;
+    }
+  }
+
   private String getFieldValue(final String fieldName) throws VcsException {
     List<String> names = getInfo().get(fieldName);
     return names == null || names.isEmpty() ? null : names.get(0);
@@ -265,6 +265,22 @@ public final class PerforceManager  {
     });
   }
 
+  /**
+   * @return the 'p4 where' result for the given escaped local or depot path computed from the cached client spec,
+   * or {@code null} if it should be asked from the server
+   */
+  @Nullable
+  public P4WhereResult whereLocally(@NotNull String escapedPath, @NotNull P4Connection connection) throws VcsException {
+    // older servers don't report their case handling
+    List<String> caseHandling = getCachedInfo(connection).get(PerforceRunner.SERVER_CASE_HANDLING);
+    if (caseHandling == null || caseHandling.isEmpty()) return null;
+    boolean caseSensitive = !"insensitive".equals(caseHandling.get(0).trim());
+    ClientViewMapper mapper = getCachedClients(connection).getViewMapper(caseSensitive);
+    P4WhereResult result = mapper == null ? null : mapper.where(escapedPath);
+    if (result == null) return null;
+    return new P4WhereResult(convertP4ParsedPath(null, result.getLocal()), result.getLocalRootDependent(), result.getDepot());
+  }
+
   @Nullable
   private static String getRelativePath(String filePath, PerforceClient client) throws VcsException {
     return View.getRelativePath(P4File.unescapeWildcards(filePath), client.getName(), client.getViews());
@@ -93,11 +93,6 @@ public class PerforceReadOnlyFileStateManager {
     UnversionedScopeScanner.ScanResult result = rescan(scanner);
     progress.checkCanceled();
 
-    for (VirtualFile file : result.allLocalFiles) {
-      myUnversionedTracker.markUnknown(file);
-    }
-    myUnversionedTracker.markUnversioned(result.localOnly);
-
     dirtyScope.iterateExistingInsideScope(vf -> {
       progress.checkCanceled();
       if (!isKnownToPerforce(addGate, vf)) {
@@ -25,7 +25,9 @@ import org.jetbrains.idea.perforce.perforce.ExecResult;
 import org.jetbrains.idea.perforce.perforce.PerforceRunner;
 import org.jetbrains.idea.perforce.perforce.PerforceSettings;
 import org.jetbrains.idea.perforce.perforce.View;
+import org.jetbrains.idea.perforce.perforce.connections.P4ConfigHelper;
 import org.jetbrains.idea.perforce.perforce.connections.P4Connection;
+import org.jetbrains.idea.perforce.perforce.connections.P4ParametersConnection;
 
 import java.io.File;
 import java.util.*;
@@ -119,12 +121,32 @@ public class PerforceUnversionedTracker {
       return Collections.emptySet();
     }
 
+    Set<VirtualFile> ignored = new LinkedHashSet<>();
+    if (Registry.is("p4.local.ignore.matching")) {
+      // only the files not ignored by the local rules are checked on the server, as there might be ignores unknown to us
+      ignored.addAll(P4IgnoreFiles.getInstance().getIgnoredFiles(getP4Ignore(connection), toCheckIgnored));
+      toCheckIgnored = ContainerUtil.filter(toCheckIgnored, f -> !ignored.contains(f));
+      if (toCheckIgnored.isEmpty()) {
+        return ignored;
+      }
+    }
+
     ServerVersion serverVersion = PerforceManager.getInstance(project).getServerVersion(connection);
     if (serverVersion != null && serverVersion.supportsIgnoresCommand()) {
-      return getIgnoredFilesByIgnores(project, connection, toCheckIgnored);
+      ignored.addAll(getIgnoredFilesByIgnores(project, connection, toCheckIgnored));
+    }
+    else {
+      ignored.addAll(getIgnoredFilesByPreviewAdd(project, connection, toCheckIgnored));
     }
+    return ignored;
+  }
 
-    return getIgnoredFilesByPreviewAdd(project, connection, toCheckIgnored);
+  @Nullable
+  private static String getP4Ignore(P4Connection connection) {
+    if (connection instanceof P4ParametersConnection) {
+      return ((P4ParametersConnection)connection).getParameters().getIgnoreFileName();
+    }
+    return P4ConfigHelper.getP4IgnoreFileName();
   }
 
   @NotNull
@@ -193,16 +215,26 @@ public class PerforceUnversionedTracker {
     synchronized (myScannerLock) {
       if (myTotalRescanThresholdPassed) {
         myTotalRescanThresholdPassed = false;
-        return () -> scanner.doRescan(UnversionedScopeScanner.createEverythingDirtyScope(myProject), true);
+        return () -> scanner.doRescan(UnversionedScopeScanner.createEverythingDirtyScope(myProject), true, this::publish);
       }
       else {
         final Set<FilePath> dirtyFiles = new HashSet<>(myDirtyFiles);
         myDirtyFiles.clear();
-        return () -> scanner.doRescan(dirtyFiles, false);
+        return () -> scanner.doRescan(dirtyFiles, false, this::publish);
       }
     }
   }
 
+  /**
+   * Updates the unversioned and ignored files of one connection as soon as it's scanned, without waiting for the others
+   */
+  private void publish(UnversionedScopeScanner.ScanResult partialResult) throws VcsException {
+    for (VirtualFile file : partialResult.allLocalFiles) {
+      markUnknown(file);
+    }
+    markUnversioned(partialResult.localOnly);
+  }
+
   void totalRescan() {
     LOG.debug("totalRescan scheduled");
     synchronized (myScannerLock) {
@@ -1,19 +1,29 @@
 package org.jetbrains.idea.perforce.application;
 
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.VcsDirtyScopeImpl;
 import com.intellij.openapi.vcs.changes.VcsIgnoreManager;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ThrowableConsumer;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.vcsUtil.VcsUtil;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.idea.perforce.perforce.P4HaveParser;
 import org.jetbrains.idea.perforce.perforce.PathsHelper;
 import org.jetbrains.idea.perforce.perforce.PerforceRunner;
@@ -21,6 +31,8 @@ import org.jetbrains.idea.perforce.perforce.connections.P4Connection;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Irina Chernushina
@@ -28,6 +40,8 @@ import java.util.*;
  */
 public abstract class UnversionedScopeScanner {
   private static final Logger LOG = Logger.getInstance(UnversionedScopeScanner.class);
+  private static final ExecutorService ourExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Perforce Unversioned Scan", 4);
+  private static final ExecutorService ourWalkExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Perforce Local Files Walk", 4);
   private final Project myProject;
   private final PerforceRunner myRunner;
 
@@ -39,6 +53,14 @@ public abstract class UnversionedScopeScanner {
   protected abstract void checkCanceled();
 
   public ScanResult doRescan(Collection<FilePath> dirtyFiles, boolean force) throws VcsException {
+    return doRescan(dirtyFiles, force, null);
+  }
+
+  /**
+   * @param partialResults receives the result for each connection as soon as it's ready, possibly in another thread
+   */
+  public ScanResult doRescan(Collection<FilePath> dirtyFiles, boolean force,
+                             @Nullable ThrowableConsumer<? super ScanResult, ? extends VcsException> partialResults) throws VcsException {
     final ScanResult result = new ScanResult();
     if (dirtyFiles.isEmpty()) {
       return result;
@@ -47,58 +69,171 @@ public abstract class UnversionedScopeScanner {
       LOG.debug("scope=" + dirtyFiles);
     }
     MultiMap<P4Connection,FilePath> map = FileGrouper.distributePathsByConnection(dirtyFiles, myProject);
-    for (P4Connection connection : map.keySet()) {
-      Collection<FilePath> files = map.get(connection);
+    if (map.keySet().size() > 1 && isParallel()) {
+      ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+      // set when the scan fails or is canceled, so that the connections still being scanned don't publish their results
+      AtomicBoolean abandoned = new AtomicBoolean();
+      List<Future<ScanResult>> futures = new ArrayList<>();
+      for (P4Connection connection : map.keySet()) {
+        futures.add(ourExecutor.submit(underProgress(indicator, () -> {
+          if (abandoned.get()) throw new ProcessCanceledException();
+          return scanAndPublish(connection, map.get(connection), force, scanned -> {
+            if (abandoned.get()) throw new ProcessCanceledException();
+            if (partialResults != null) {
+              partialResults.consume(scanned);
+            }
+          });
+        })));
+      }
+      boolean completed = false;
+      try {
+        for (ScanResult scanned : waitForAll(futures)) {
+          result.addAll(scanned);
+        }
+        completed = true;
+      }
+      finally {
+        if (!completed) {
+          abandoned.set(true);
+        }
+      }
+    }
+    else {
+      for (P4Connection connection : map.keySet()) {
+        result.addAll(scanAndPublish(connection, map.get(connection), force, partialResults));
+      }
+    }
+    return result;
+  }
 
-      final Set<VirtualFile> localFiles = enumerateLocalFiles(files);
-      result.allLocalFiles.addAll(localFiles);
-      checkCanceled();
+  private static boolean isParallel() {
+    return Registry.is("p4.parallel.unversioned.scan");
+  }
 
-      final LocalFileSystem fs = LocalFileSystem.getInstance();
-      myRunner.haveMultiple(collectPaths(files), connection, new P4HaveParser(PerforceManager.getInstance(myProject)) {
-        @Override
-        public void consumeRevision(String path, long revision) {
-          checkCanceled();
+  /**
+   * Runs the task under the given indicator, so that the caller's cancellation reaches it in the executor thread
+   */
+  private static <T> Callable<T> underProgress(@Nullable ProgressIndicator indicator, Callable<T> task) {
+    if (indicator == null) return task;
+    return () -> {
+      Ref<T> result = new Ref<>();
+      Ref<Exception> exception = new Ref<>();
+      ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+        try {
+          result.set(task.call());
+        }
+        catch (Exception e) {
+          exception.set(e);
+        }
+      }, indicator);
+      if (!exception.isNull()) throw exception.get();
+      return result.get();
+    };
+  }
 
-          VirtualFile vFile = findVirtualFile(path);
-          if (vFile != null) {
-            localFiles.remove(vFile);
-          }
-          else {
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("locally missing file reported: " + path);
-            }
-            result.missingFiles.add(path);
-          }
+  /**
+   * Waits for all the futures in order. If waiting is canceled or one of them fails, the others are canceled.
+   */
+  private static <T> List<T> waitForAll(List<Future<T>> futures) throws VcsException {
+    List<T> results = new ArrayList<>(futures.size());
+    try {
+      for (Future<T> future : futures) {
+        results.add(waitFor(future));
+      }
+    }
+    finally {
+      if (results.size() < futures.size()) {
+        for (Future<T> future : futures) {
+          future.cancel(false);
+        }
+      }
+    }
+    return results;
+  }
+
+  private static <T> T waitFor(Future<T> future) throws VcsException {
+    try {
+      while (true) {
+        ProgressManager.checkCanceled();
+        try {
+          return future.get(10, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ignored) {
         }
+      }
+    }
+    catch (InterruptedException e) {
+      throw new ProcessCanceledException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof VcsException) throw (VcsException)cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if (cause instanceof Error) throw (Error)cause;
+      throw new VcsException(cause);
+    }
+  }
+
+  private ScanResult scanAndPublish(P4Connection connection, Collection<FilePath> files, boolean force,
+                                    @Nullable ThrowableConsumer<? super ScanResult, ? extends VcsException> partialResults)
+    throws VcsException {
+    ScanResult result = scanConnection(connection, files, force);
+    if (partialResults != null) {
+      partialResults.consume(result);
+    }
+    return result;
+  }
 
-        private VirtualFile findVirtualFile(String path) {
-          VirtualFile vFile = fs.findFileByPathIfCached(FileUtil.toSystemIndependentName(path));
-          if (vFile != null) {
-            return vFile;
+  private ScanResult scanConnection(P4Connection connection, Collection<FilePath> files, boolean force) throws VcsException {
+    final ScanResult result = new ScanResult();
+    final Set<VirtualFile> localFiles = isParallel() ? enumerateLocalFilesInParallel(files) : enumerateLocalFiles(files);
+    result.allLocalFiles.addAll(localFiles);
+    checkCanceled();
+
+    final LocalFileSystem fs = LocalFileSystem.getInstance();
+    myRunner.haveMultiple(collectPaths(files), connection, new P4HaveParser(PerforceManager.getInstance(myProject)) {
+      @Override
+      public void consumeRevision(String path, long revision) {
+        checkCanceled();
+
+        VirtualFile vFile = findVirtualFile(path);
+        if (vFile != null) {
+          localFiles.remove(vFile);
+        }
+        else {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("locally missing file reported: " + path);
           }
+          result.missingFiles.add(path);
+        }
+      }
 
-          // see https://youtrack.jetbrains.com/issue/IDEA-39796
-          File ioFile = new File(path);
-          String appleForkPath = FileUtil.toSystemIndependentName(ioFile.getParent()) + "/%" + ioFile.getName();
-          return fs.findFileByPathIfCached(FileUtil.toSystemIndependentName(appleForkPath));
+      private VirtualFile findVirtualFile(String path) {
+        VirtualFile vFile = fs.findFileByPathIfCached(FileUtil.toSystemIndependentName(path));
+        if (vFile != null) {
+          return vFile;
         }
-      });
-      checkCanceled();
 
-      if (force) {
-        result.localOnly.addAll(localFiles);
+        // see https://youtrack.jetbrains.com/issue/IDEA-39796
+        File ioFile = new File(path);
+        String appleForkPath = FileUtil.toSystemIndependentName(ioFile.getParent()) + "/%" + ioFile.getName();
+        return fs.findFileByPathIfCached(FileUtil.toSystemIndependentName(appleForkPath));
       }
-      else {
-        ChangeListManager clm = ChangeListManager.getInstance(myProject);
-        for (VirtualFile file : localFiles) {
-          boolean ignored = clm.isIgnoredFile(file);
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("localOnly reported: " + file + (ignored ? ", ignored" : ""));
-          }
-          if (!ignored) {
-            result.localOnly.add(file);
-          }
+    });
+    checkCanceled();
+
+    if (force) {
+      result.localOnly.addAll(localFiles);
+    }
+    else {
+      ChangeListManager clm = ChangeListManager.getInstance(myProject);
+      for (VirtualFile file : localFiles) {
+        boolean ignored = clm.isIgnoredFile(file);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("localOnly reported: " + file + (ignored ? ", ignored" : ""));
+        }
+        if (!ignored) {
+          result.localOnly.add(file);
         }
       }
     }
@@ -132,6 +267,12 @@ public abstract class UnversionedScopeScanner {
     final Set<String> missingFiles = new HashSet<>();
     final List<VirtualFile> localOnly = new ArrayList<>();
     final Set<VirtualFile> allLocalFiles = new HashSet<>();
+
+    void addAll(ScanResult other) {
+      missingFiles.addAll(other.missingFiles);
+      localOnly.addAll(other.localOnly);
+      allLocalFiles.addAll(other.allLocalFiles);
+    }
   }
 
   private Set<VirtualFile> enumerateLocalFiles(Collection<FilePath> roots) {
@@ -152,6 +293,74 @@ public abstract class UnversionedScopeScanner {
     return localFiles;
   }
 
+  /**
+   * Same as {@link #enumerateLocalFiles}, but lists the directories of each tree level concurrently. Every directory is listed
+   * in a non-blocking read action, which gives way to write actions and stops when the caller's progress is canceled.
+   */
+  private Set<VirtualFile> enumerateLocalFilesInParallel(Collection<FilePath> roots) throws VcsException {
+    ProgressIndicator caller = ProgressManager.getInstance().getProgressIndicator();
+    ProgressIndicator indicator = caller != null ? caller : new EmptyProgressIndicator();
+    Set<VirtualFile> localFiles = ConcurrentHashMap.newKeySet();
+    List<VirtualFile> level = ReadAction.nonBlocking(() -> {
+      List<VirtualFile> dirs = new ArrayList<>();
+      for (FilePath root : roots) {
+        VirtualFile file = root.getVirtualFile();
+        if (file == null || !file.isValid() || !isUnderPerforce(file)) continue;
+        if (file.isDirectory()) {
+          dirs.add(file);
+        }
+        else if (!skipPotentiallyIgnored(file)) {
+          localFiles.add(file);
+        }
+      }
+      return dirs;
+    }).wrapProgress(indicator).executeSynchronously();
+
+    while (!level.isEmpty()) {
+      checkCanceled();
+      List<Future<List<VirtualFile>>> futures = new ArrayList<>();
+      for (VirtualFile dir : level) {
+        futures.add(ourWalkExecutor.submit(() -> listDirectory(dir, localFiles, indicator)));
+      }
+      List<VirtualFile> next = new ArrayList<>();
+      for (List<VirtualFile> subdirectories : waitForAll(futures)) {
+        next.addAll(subdirectories);
+      }
+      level = next;
+    }
+    return localFiles;
+  }
+
+  /**
+   * Adds the files of the given directory to {@code localFiles}.
+   *
+   * @return the subdirectories to walk next
+   */
+  private List<VirtualFile> listDirectory(VirtualFile dir, Set<VirtualFile> localFiles, ProgressIndicator indicator) {
+    // not inside the read action: a cancellation from there would be taken for a write action and the listing restarted
+    checkCanceled();
+    return ReadAction.nonBlocking(() -> {
+      List<VirtualFile> subdirectories = new ArrayList<>();
+      if (!dir.isValid()) return subdirectories;
+      for (VirtualFile child : dir.getChildren()) {
+        if (child.isDirectory()) {
+          if (isUnderPerforce(child)) {
+            subdirectories.add(child);
+          }
+        }
+        else if (!skipPotentiallyIgnored(child)) {
+          localFiles.add(child);
+        }
+      }
+      return subdirectories;
+    }).wrapProgress(indicator).executeSynchronously();
+  }
+
+  private boolean isUnderPerforce(VirtualFile file) {
+    ProjectLevelVcsManager vcsManager = ProjectLevelVcsManager.getInstance(myProject);
+    return !vcsManager.isIgnored(file) && vcsManager.getVcsFor(file) == PerforceVcs.getInstance(myProject);
+  }
+
   private boolean skipPotentiallyIgnored(VirtualFile file) {
     return Registry.is("p4.ignore.all.potentially.ignored") && VcsIgnoreManager.getInstance(myProject).isPotentiallyIgnoredFile(file);
   }
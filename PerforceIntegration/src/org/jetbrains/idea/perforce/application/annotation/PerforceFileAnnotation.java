@@ -30,6 +30,8 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileListener;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import git4idea.annotate.AnnotationTooltipBuilder;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.idea.perforce.PerforceBundle;
@@ -55,7 +57,8 @@ public class PerforceFileAnnotation extends FileAnnotation {
   private final VirtualFileListener myListener;
   private final Project myProject;
   private final List<VcsFileRevision> myPerforceRevisions;
-
+  // annotated revision or changelist number -> revision; the first revision wins, as in the filelog order
+  private final Long2ObjectMap<P4Revision> myRevisionIndex = new Long2ObjectOpenHashMap<>();
 
   public PerforceFileAnnotation(final AnnotationInfo annotationInfo,
                                 final VirtualFile file,
@@ -74,6 +77,8 @@ public class PerforceFileAnnotation extends FileAnnotation {
     myPerforceRevisions = new ArrayList<>();
     for (P4Revision p4Revision : myRevisions) {
       myPerforceRevisions.add(new PerforceFileRevision(p4Revision, connection, project));
+      long key = myAnnotationInfo.isUseChangelistNumbers() ? p4Revision.getChangeNumber() : p4Revision.getRevisionNumber();
+      myRevisionIndex.putIfAbsent(key, p4Revision);
     }
     myPerforceRevisions.sort((o1, o2) -> -1 * o1.getRevisionNumber().compareTo(o2.getRevisionNumber()));
   }
@@ -162,15 +167,7 @@ public class PerforceFileAnnotation extends FileAnnotation {
   public P4Revision findRevisionForLine(final int lineNumber) {
     final long revision = myAnnotationInfo.getRevision(lineNumber);
     if (revision == -1) return null;
-    for (P4Revision p4Revision : myRevisions) {
-      if (myAnnotationInfo.isUseChangelistNumbers()) {
-        if (p4Revision.getChangeNumber() == revision) return p4Revision;
-      }
-      else {
-        if (p4Revision.getRevisionNumber() == revision) return p4Revision;
-      }
-    }
-    return null;
+    return myRevisionIndex.get(revision);
   }
 
   @Override
@@ -0,0 +1,40 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses how many files to pass to one p4 command for a server, based on how long the previous commands took per file.
+ * Fast servers get big chunks (fewer forks), slow ones get smaller chunks which can be run in parallel and cancelled sooner.
+ */
+final class AdaptiveChunkSize {
+  private static final double SMOOTHING = 0.3;
+
+  private final int myMinSize;
+  private final int myMaxSize;
+  private final long myTargetMillis;
+  private final Map<ConnectionKey, Double> myMillisPerFile = new ConcurrentHashMap<>();
+
+  AdaptiveChunkSize(int minSize, int maxSize, long targetMillis) {
+    myMinSize = minSize;
+    myMaxSize = Math.max(minSize, maxSize);
+    myTargetMillis = targetMillis;
+  }
+
+  int getChunkSize(ConnectionKey key) {
+    Double millisPerFile = myMillisPerFile.get(key);
+    if (millisPerFile == null) {
+      return myMaxSize;
+    }
+    long size = millisPerFile <= 0 ? myMaxSize : Math.round(myTargetMillis / millisPerFile);
+    return (int)Math.max(myMinSize, Math.min(myMaxSize, size));
+  }
+
+  void registerCall(ConnectionKey key, int fileCount, long millis) {
+    if (fileCount <= 0) return;
+    double sample = (double)millis / fileCount;
+    myMillisPerFile.merge(key, sample, (old, current) -> old + SMOOTHING * (current - old));
+  }
+}
@@ -0,0 +1,88 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of the descriptions of submitted changelists, shared by all projects.
+ * Submitted changelists practically never change, so the descriptions are kept until evicted.
+ */
+@Service
+public final class ChangeListDescriptionCache {
+  private static final int DEFAULT_CAPACITY = 10000;
+
+  private final Map<Key, String> myDescriptions;
+
+  public ChangeListDescriptionCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  ChangeListDescriptionCache(int capacity) {
+    myDescriptions = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  public static ChangeListDescriptionCache getInstance() {
+    return ApplicationManager.getApplication().getService(ChangeListDescriptionCache.class);
+  }
+
+  @Nullable
+  public String get(@NotNull String server, long number) {
+    synchronized (myDescriptions) {
+      return myDescriptions.get(new Key(server, number));
+    }
+  }
+
+  public void put(@NotNull String server, long number, @NotNull String description) {
+    synchronized (myDescriptions) {
+      myDescriptions.put(new Key(server, number), description);
+    }
+  }
+
+  /**
+   * @return the changelists among the given ones whose descriptions are not cached
+   */
+  @NotNull
+  public List<Long> getMissing(@NotNull String server, @NotNull Collection<Long> numbers) {
+    List<Long> result = new ArrayList<>();
+    synchronized (myDescriptions) {
+      for (Long number : numbers) {
+        if (!myDescriptions.containsKey(new Key(server, number))) {
+          result.add(number);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static final class Key {
+    private final String myServer;
+    private final long myNumber;
+
+    private Key(String server, long number) {
+      myServer = server;
+      myNumber = number;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key)o;
+      return myNumber == key.myNumber && myServer.equals(key.myServer);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myServer.hashCode() + Long.hashCode(myNumber);
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Client view compiled for answering 'p4 where' locally: every view line becomes a pair of regular expressions,
+ * indexed in tries by the literal directories their depot and client sides start with, so that only the lines which
+ * could possibly match a path are tried.
+ * <p/>
+ * Like the server, the last matching line wins. When the answer could depend on the subtleties of overlapping lines
+ * (a later line mapping something else onto the same file) or the path contains wildcards other than a trailing {@code /...},
+ * {@code null} is returned, and the caller should ask the server.
+ * <p/>
+ * Paths are compared the way the server compares them ('Case Handling' of {@code p4 info}).
+ */
+public final class ClientViewMapper {
+  private static final String ELLIPSIS = "...";
+  private static final String REFERENCE = "%%";
+
+  private final String myClientPrefix;
+  private final List<String> myRoots;
+  private final List<Line> myLines;
+  private final boolean myCaseSensitive;
+  private final PathTrie myDepotTrie;
+  private final PathTrie myClientTrie;
+
+  private ClientViewMapper(String clientName, List<String> roots, List<Line> lines, boolean caseSensitive) {
+    myClientPrefix = "//" + clientName + "/";
+    myRoots = roots;
+    myLines = lines;
+    myCaseSensitive = caseSensitive;
+    myDepotTrie = new PathTrie(caseSensitive);
+    myClientTrie = new PathTrie(caseSensitive);
+    for (int i = 0; i < lines.size(); i++) {
+      myDepotTrie.add(lines.get(i).myDepot.myLiteralDirs, i);
+      myClientTrie.add(lines.get(i).myClient.myLiteralDirs, i);
+    }
+  }
+
+  /**
+   * @param caseSensitive whether the server is case-sensitive
+   * @return the mapper, or {@code null} if the view contains lines that can't be interpreted locally
+   */
+  @Nullable
+  public static ClientViewMapper create(@NotNull String clientName, @NotNull List<String> roots, @NotNull List<View> views,
+                                        boolean caseSensitive) {
+    List<Line> lines = new ArrayList<>();
+    for (View view : views) {
+      Line line = Line.create(view, caseSensitive);
+      if (line == null) return null;
+      lines.add(line);
+    }
+    return new ClientViewMapper(clientName, ContainerUtil.map(roots, root -> StringUtil.trimEnd(FileUtil.toSystemIndependentName(root), "/")), lines,
+                                caseSensitive);
+  }
+
+  public boolean isCaseSensitive() {
+    return myCaseSensitive;
+  }
+
+  /**
+   * @param depotPath escaped depot path without wildcards, e.g. {@code //depot/dir/file.txt}
+   * @return escaped client path, e.g. {@code //client/dir/file.txt}
+   */
+  @Nullable
+  public String toClientPath(@NotNull String depotPath) {
+    return map(depotPath, true, false);
+  }
+
+  /**
+   * @param clientPath escaped client path without wildcards, e.g. {@code //client/dir/file.txt}
+   * @return escaped depot path, e.g. {@code //depot/dir/file.txt}
+   */
+  @Nullable
+  public String toDepotPath(@NotNull String clientPath) {
+    return map(clientPath, false, false);
+  }
+
+  /**
+   * The local counterpart of {@link PerforceRunner#where(String, org.jetbrains.idea.perforce.perforce.connections.P4Connection)}.
+   *
+   * @param escapedPath escaped depot path or local file path, possibly a directory followed by {@code /...}
+   * @return the mapping with a raw local path (not converted by {@code ClientRootsCache}), or {@code null} if the server should be asked
+   */
+  @Nullable
+  public P4WhereResult where(@NotNull String escapedPath) {
+    boolean recursive = escapedPath.endsWith("/" + ELLIPSIS);
+    String target = recursive ? escapedPath.substring(0, escapedPath.length() - ELLIPSIS.length() - 1) : escapedPath;
+    if (hasWildcards(target)) return null;
+    // a directory is mapped as the prefix of its files
+    String suffix = recursive ? "/" : "";
+
+    if (target.startsWith("//")) {
+      if (myRoots.size() != 1) return null;
+      String clientPath = map(target + suffix, true, recursive);
+      if (clientPath == null || !clientPath.regionMatches(!myCaseSensitive, 0, myClientPrefix, 0, myClientPrefix.length())) return null;
+      String relative = clientPath.substring(myClientPrefix.length());
+      return createResult(myRoots.get(0), relative, clientPath, target + suffix, recursive);
+    }
+
+    String path = FileUtil.toSystemIndependentName(target);
+    String root = findRoot(path);
+    if (root == null) return null;
+    String relative = StringUtil.trimStart(path.substring(root.length()), "/");
+    if (!relative.isEmpty()) {
+      relative += suffix;
+    }
+    String clientPath = myClientPrefix + relative;
+    String depotPath = map(clientPath, false, recursive);
+    if (depotPath == null) return null;
+    return createResult(root, relative, clientPath, depotPath, recursive);
+  }
+
+  private static P4WhereResult createResult(String root, String relative, String clientPath, String depotPath, boolean recursive) {
+    String tail = recursive ? ELLIPSIS : "";
+    return new P4WhereResult(toLocalPath(root, relative + tail), clientPath + tail, depotPath + tail);
+  }
+
+  @Nullable
+  private String findRoot(String path) {
+    String result = null;
+    for (String root : myRoots) {
+      if (FileUtil.startsWith(path, root, SystemInfo.isFileSystemCaseSensitive) && (result == null || root.length() > result.length())) {
+        result = root;
+      }
+    }
+    return result;
+  }
+
+  private static String toLocalPath(String root, String relative) {
+    return FileUtil.toSystemDependentName(root + "/" + P4File.unescapeWildcards(relative));
+  }
+
+  private static boolean hasWildcards(String path) {
+    return path.contains(ELLIPSIS) || path.contains("*") || path.contains(REFERENCE);
+  }
+
+  /**
+   * @param directory whether the path is a directory followed by "/", whose whole subtree should be mapped by the same line
+   */
+  @Nullable
+  private String map(String path, boolean fromDepot, boolean directory) {
+    if (hasWildcards(path)) return null;
+
+    PathTrie sourceTrie = fromDepot ? myDepotTrie : myClientTrie;
+    PathTrie targetTrie = fromDepot ? myClientTrie : myDepotTrie;
+    int[] candidates = sourceTrie.getCandidates(path);
+    for (int i = candidates.length - 1; i >= 0; i--) {
+      Line line = myLines.get(candidates[i]);
+      Mask source = fromDepot ? line.myDepot : line.myClient;
+      Mask target = fromDepot ? line.myClient : line.myDepot;
+      String mapped = source.replace(path, target);
+      if (mapped == null) {
+        // a later line might still match some of the directory's files
+        if (directory) return null;
+        continue;
+      }
+      if (line.myExclusion) return null;
+      if (directory && (!source.mapsSubtrees() || !target.mapsSubtrees() || sourceTrie.hasLinesBelow(path, candidates[i]))) {
+        return null;
+      }
+
+      // something else mapped onto the same target later in the view: leave it to the server
+      for (int later : targetTrie.getCandidates(mapped)) {
+        if (later > candidates[i] && (directory || (fromDepot ? myLines.get(later).myClient : myLines.get(later).myDepot).matches(mapped))) {
+          return null;
+        }
+      }
+      if (directory && targetTrie.hasLinesBelow(mapped, candidates[i])) {
+        return null;
+      }
+      return mapped;
+    }
+    return null;
+  }
+
+  private static final class Line {
+    private final Mask myDepot;
+    private final Mask myClient;
+    private final boolean myExclusion;
+
+    private Line(Mask depot, Mask client, boolean exclusion) {
+      myDepot = depot;
+      myClient = client;
+      myExclusion = exclusion;
+    }
+
+    @Nullable
+    static Line create(View view, boolean caseSensitive) {
+      String depot = view.getDepotPath();
+      boolean exclusion = depot.startsWith("-");
+      if (exclusion || depot.startsWith("+")) {
+        depot = depot.substring(1);
+      }
+      else if (depot.startsWith("&")) {
+        return null; // read-only mappings are not supported
+      }
+      Mask depotMask = Mask.create(depot, caseSensitive);
+      Mask clientMask = Mask.create(view.getLocalPath(), caseSensitive);
+      if (depotMask == null || clientMask == null || !depotMask.providesWildcardsOf(clientMask) || !clientMask.providesWildcardsOf(depotMask)) {
+        return null;
+      }
+      return new Line(depotMask, clientMask, exclusion);
+    }
+  }
+
+  /**
+   * One side of a view line: the literal parts and the wildcards ("...", "*" and positional "%%1"-"%%9") between them.
+   */
+  private static final class Mask {
+    private final List<String> myLiterals;
+    private final List<String> myWildcards;
+    private final List<String> myLiteralDirs;
+    private final Pattern myPattern;
+
+    private Mask(List<String> literals, List<String> wildcards, boolean caseSensitive) {
+      myLiterals = literals;
+      myWildcards = wildcards;
+
+      String prefix = literals.get(0);
+      myLiteralDirs = splitDirs(wildcards.isEmpty() ? prefix : prefix.substring(0, prefix.lastIndexOf('/') + 1), caseSensitive);
+
+      StringBuilder regex = new StringBuilder(Pattern.quote(literals.get(0)));
+      for (int i = 0; i < wildcards.size(); i++) {
+        regex.append(wildcards.get(i).equals(ELLIPSIS) ? "(.*)" : "([^/]*)");
+        regex.append(Pattern.quote(literals.get(i + 1)));
+      }
+      myPattern = caseSensitive ? Pattern.compile(regex.toString()) : Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    @Nullable
+    static Mask create(String mask, boolean caseSensitive) {
+      List<String> literals = new ArrayList<>();
+      List<String> wildcards = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+      int i = 0;
+      while (i < mask.length()) {
+        String wildcard = mask.startsWith(ELLIPSIS, i) ? ELLIPSIS :
+                          mask.charAt(i) == '*' ? "*" :
+                          mask.startsWith(REFERENCE, i) && i + 2 < mask.length() && Character.isDigit(mask.charAt(i + 2)) ?
+                          mask.substring(i, i + 3) : null;
+        if (wildcard == null) {
+          literal.append(mask.charAt(i++));
+        }
+        else {
+          if (!literals.isEmpty() && literal.length() == 0) return null; // adjacent wildcards are ambiguous
+          literals.add(literal.toString());
+          literal.setLength(0);
+          wildcards.add(wildcard);
+          i += wildcard.length();
+        }
+      }
+      literals.add(literal.toString());
+      return new Mask(literals, wildcards, caseSensitive);
+    }
+
+    /**
+     * @return whether the mask ends with its only "...", so that a directory matched by it is mapped together with all its files
+     */
+    boolean mapsSubtrees() {
+      return !myWildcards.isEmpty() && myWildcards.indexOf(ELLIPSIS) == myWildcards.size() - 1 && myLiterals.get(myLiterals.size() - 1).isEmpty();
+    }
+
+    /**
+     * @return whether every wildcard of the target mask has a counterpart in this one
+     */
+    boolean providesWildcardsOf(Mask target) {
+      Map<String, Integer> occurrences = new HashMap<>();
+      for (String wildcard : target.myWildcards) {
+        if (findGroup(wildcard, getOccurrence(wildcard, occurrences)) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * The n-th "..." or "*" corresponds to the n-th one on the other side of the line, "%%n" to "%%n".
+     */
+    private static int getOccurrence(String wildcard, Map<String, Integer> occurrences) {
+      return wildcard.startsWith(REFERENCE) ? 1 : occurrences.merge(wildcard, 1, Integer::sum);
+    }
+
+    private int findGroup(String wildcard, int occurrence) {
+      int seen = 0;
+      for (int i = 0; i < myWildcards.size(); i++) {
+        if (myWildcards.get(i).equals(wildcard) && ++seen == occurrence) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    boolean matches(String path) {
+      return myPattern.matcher(path).matches();
+    }
+
+    @Nullable
+    String replace(String path, Mask target) {
+      Matcher matcher = myPattern.matcher(path);
+      if (!matcher.matches()) return null;
+
+      StringBuilder result = new StringBuilder(target.myLiterals.get(0));
+      Map<String, Integer> occurrences = new HashMap<>();
+      for (int i = 0; i < target.myWildcards.size(); i++) {
+        String wildcard = target.myWildcards.get(i);
+        result.append(matcher.group(findGroup(wildcard, getOccurrence(wildcard, occurrences)) + 1));
+        result.append(target.myLiterals.get(i + 1));
+      }
+      return result.toString();
+    }
+  }
+
+  private static List<String> splitDirs(String path, boolean caseSensitive) {
+    List<String> result = new ArrayList<>();
+    int start = 0;
+    int slash;
+    while ((slash = path.indexOf('/', start)) >= 0) {
+      if (slash > start) {
+        String dir = path.substring(start, slash);
+        result.add(caseSensitive ? dir : StringUtil.toLowerCase(dir));
+      }
+      start = slash + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Directory trie with the indices of the view lines whose literal part ends in each node.
+   */
+  private static final class PathTrie {
+    private final boolean myCaseSensitive;
+    private final Map<String, PathTrie> myChildren = new HashMap<>();
+    private int[] myLines = new int[0];
+
+    PathTrie(boolean caseSensitive) {
+      myCaseSensitive = caseSensitive;
+    }
+
+    void add(List<String> dirs, int line) {
+      PathTrie node = this;
+      for (String dir : dirs) {
+        node = node.myChildren.computeIfAbsent(dir, __ -> new PathTrie(myCaseSensitive));
+      }
+      node.myLines = Arrays.copyOf(node.myLines, node.myLines.length + 1);
+      node.myLines[node.myLines.length - 1] = line;
+    }
+
+    /**
+     * @return ascending indices of the lines which could match the given path
+     */
+    int[] getCandidates(String path) {
+      int[] result = myLines;
+      PathTrie node = this;
+      for (String dir : splitDirs(path, myCaseSensitive)) {
+        node = node.myChildren.get(dir);
+        if (node == null) break;
+        if (node.myLines.length > 0) {
+          int[] merged = Arrays.copyOf(result, result.length + node.myLines.length);
+          System.arraycopy(node.myLines, 0, merged, result.length, node.myLines.length);
+          result = merged;
+        }
+      }
+      if (result != myLines) {
+        Arrays.sort(result);
+      }
+      return result;
+    }
+
+    /**
+     * @param dir a directory path ending with "/"
+     * @return whether any line after the given one starts with a literal subdirectory of the given directory
+     */
+    boolean hasLinesBelow(String dir, int line) {
+      PathTrie node = this;
+      for (String name : splitDirs(dir, myCaseSensitive)) {
+        node = node.myChildren.get(name);
+        if (node == null) return false;
+      }
+      for (PathTrie child : node.myChildren.values()) {
+        if (child.hasLinesAfter(line)) return true;
+      }
+      return false;
+    }
+
+    private boolean hasLinesAfter(int line) {
+      if (myLines.length > 0 && myLines[myLines.length - 1] > line) return true;
+      for (PathTrie child : myChildren.values()) {
+        if (child.hasLinesAfter(line)) return true;
+      }
+      return false;
+    }
+  }
+}
@@ -222,6 +222,28 @@ public final class FStat {
     return result;
   }
 
+  /**
+   * @param record a record of tagged output as returned by {@link ZTagParser}
+   */
+  static FStat fromTaggedRecord(Map<String, String> record) throws VcsException {
+    FStat result = new FStat();
+    result.clientFile = record.getOrDefault(CLIENT_FILE_STATUS_FIELD.trim(), "");
+    result.depotFile = record.getOrDefault(DEPOT_FILE_STATUS_FIELD.trim(), "");
+    result.headAction = record.getOrDefault(HEAD_ACTION_STATUS_FIELD.trim(), "");
+    result.headChange = record.getOrDefault(HEAD_CHANGE_STATUS_FIELD.trim(), "");
+    result.headRev = record.getOrDefault(HEAD_REV_STATUS_FIELD.trim(), "");
+    result.headType = record.getOrDefault(HEAD_TYPE_STATUS_FIELD.trim(), "");
+    result.headTime = record.getOrDefault(HEAD_TIME_STATUS_FIELD.trim(), "");
+    result.haveRev = record.getOrDefault(HAVE_REV_STATUS_FIELD.trim(), "");
+    result.action = record.getOrDefault(ACTION_STATUS_FIELD.trim(), "");
+    result.actionOwner = record.getOrDefault(ACTION_OWNER_STATUS_FIELD.trim(), "");
+    result.change = record.getOrDefault(CHANGE_STATUS_FIELD.trim(), "");
+    result.unresolved = record.get(UNRESOLVED_STATUS_FIELD.trim());
+    result.movedFile = record.getOrDefault(MOVED_FILE_STATUS_FIELD, "");
+    result.resolveStatus();
+    return result;
+  }
+
   public static Map<File, String> splitOutputForEachFile(final String stdOut) throws IOException {
     final BufferedReader reader = new BufferedReader(new StringReader(stdOut));
     String line;
@@ -1,6 +1,7 @@
 package org.jetbrains.idea.perforce.perforce;
 
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.idea.perforce.application.PerforceManager;
 
 import java.util.ArrayList;
@@ -35,6 +36,20 @@ public class PathsHelper {
     return myRecursivePaths.isEmpty() && mySimplePaths.isEmpty();
   }
 
+  /**
+   * @return local paths of the directories whose contents are requested recursively
+   */
+  public List<String> getRecursiveLocalPaths() {
+    return ContainerUtil.map(myRecursivePaths, FilePath::getPath);
+  }
+
+  /**
+   * @return local paths of the files (and directories whose immediate children are) requested
+   */
+  public List<String> getSimpleLocalPaths() {
+    return ContainerUtil.map(mySimplePaths, FilePath::getPath);
+  }
+
   public List<String> getRequestString() {
     final List<String> result = new ArrayList<>();
     for (FilePath file : myRecursivePaths) {
@@ -0,0 +1,183 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.perforce.ChangeListData;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+import org.jetbrains.idea.perforce.changesBrowser.FileChange;
+import org.jetbrains.idea.perforce.perforce.connections.AbstractP4Connection;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incremental mode of the pending changelists refresh.
+ * <p/>
+ * Describing all pending changelists is the most expensive part of the local changes refresh for workspaces with many opened files.
+ * This tracker remembers the {@code p4 describe} results of the previous refresh together with the value of {@code p4 counter change}
+ * and a fingerprint of {@code p4 opened}, and tells which changelists really need to be described again: the new ones, those whose
+ * number/date/description changed, or all of them if the change counter moved (something was submitted or created), if the opened
+ * files changed (e.g. another tool opened or reopened files into an existing changelist), if a p4 command modifying opened files
+ * was run from the IDE since then, or if the last full refresh is too old (shelved files may have been changed outside the IDE).
+ */
+public final class PendingChangeListsTracker {
+  private static final long FULL_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+  @NonNls private static final Set<String> MODIFYING_COMMANDS = Set.of(
+    "add", "edit", "delete", "revert", "reopen", "move", "rename", "integrate", "integ", "copy", "merge", "submit", "change", "shelve",
+    "unshelve", "undo", "sync", "resolve");
+  @NonNls private static final String OUTPUT_FORM_OPTION = "-o";
+
+  private final Map<ConnectionKey, State> myStates = new ConcurrentHashMap<>();
+  private final AtomicLong myModificationCount = new AtomicLong();
+
+  public static boolean affectsPendingChanges(String @NotNull [] p4cmd) {
+    String commandName = AbstractP4Connection.getCommandName(p4cmd);
+    if (commandName == null || !MODIFYING_COMMANDS.contains(commandName)) return false;
+
+    // 'change -o' (and 'shelve -o') only print the spec
+    int commandIndex = Arrays.asList(p4cmd).indexOf(commandName);
+    for (int i = commandIndex + 1; i < p4cmd.length; i++) {
+      if (OUTPUT_FORM_OPTION.equals(p4cmd[i])) return false;
+    }
+    return true;
+  }
+
+  public void modifyingCommandExecuted(@NotNull ConnectionKey key) {
+    synchronized (myStates) {
+      myModificationCount.incrementAndGet();
+      myStates.remove(key);
+    }
+  }
+
+  public void discard() {
+    synchronized (myStates) {
+      myModificationCount.incrementAndGet();
+      myStates.clear();
+    }
+  }
+
+  /**
+   * @param changeCounter     the current value of {@code p4 counter change}, or -1 if it's unknown
+   * @param openedFingerprint a hash of the current {@code p4 opened} output
+   * @param lists             the pending changelists as reported by {@code p4 changes}
+   */
+  @NotNull
+  public Refresh startRefresh(@NotNull ConnectionKey key,
+                              long changeCounter,
+                              long openedFingerprint,
+                              @NotNull Collection<? extends ChangeListData> lists,
+                              long now) {
+    long modificationCount = myModificationCount.get();
+    State state = myStates.get(key);
+    boolean full = state == null || changeCounter < 0 || state.myChangeCounter != changeCounter ||
+                   state.myOpenedFingerprint != openedFingerprint || now - state.myFullRefreshStamp > FULL_REFRESH_INTERVAL;
+
+    Map<Long, ChangeListData> listed = new HashMap<>();
+    Map<Long, Described> reused = new HashMap<>();
+    List<Long> toDescribe = new ArrayList<>();
+    for (ChangeListData data : lists) {
+      listed.put(data.NUMBER, data);
+      Described described = full || !data.equals(state.myListed.get(data.NUMBER)) ? null : state.myDescribed.get(data.NUMBER);
+      if (described != null) {
+        reused.put(data.NUMBER, described);
+      }
+      else {
+        toDescribe.add(data.NUMBER);
+      }
+    }
+    return new Refresh(key, changeCounter, openedFingerprint, modificationCount, full ? now : state.myFullRefreshStamp, listed, toDescribe,
+                       reused);
+  }
+
+  public void finishRefresh(@NotNull Refresh refresh, @NotNull Map<Long, Described> described) {
+    if (refresh.myChangeCounter < 0) return;
+
+    Map<Long, Described> all = new HashMap<>(refresh.myReused);
+    all.putAll(described);
+    State state = new State(refresh.myChangeCounter, refresh.myOpenedFingerprint, refresh.myFullRefreshStamp, refresh.myListed, all);
+    synchronized (myStates) {
+      // don't remember the results if something was modified during the refresh
+      if (myModificationCount.get() == refresh.myModificationCount) {
+        myStates.put(refresh.myKey, state);
+      }
+    }
+  }
+
+  public static final class Refresh {
+    private final ConnectionKey myKey;
+    private final long myChangeCounter;
+    private final long myOpenedFingerprint;
+    private final long myModificationCount;
+    private final long myFullRefreshStamp;
+    private final Map<Long, ChangeListData> myListed;
+    private final List<Long> myToDescribe;
+    private final Map<Long, Described> myReused;
+
+    private Refresh(ConnectionKey key, long changeCounter, long openedFingerprint, long modificationCount, long fullRefreshStamp,
+                    Map<Long, ChangeListData> listed, List<Long> toDescribe, Map<Long, Described> reused) {
+      myKey = key;
+      myChangeCounter = changeCounter;
+      myOpenedFingerprint = openedFingerprint;
+      myModificationCount = modificationCount;
+      myFullRefreshStamp = fullRefreshStamp;
+      myListed = listed;
+      myToDescribe = toDescribe;
+      myReused = reused;
+    }
+
+    /**
+     * @return the changelists which have to be described again
+     */
+    @NotNull
+    public List<Long> getListsToDescribe() {
+      return myToDescribe;
+    }
+
+    /**
+     * @return the results of the previous refresh which are still valid
+     */
+    @NotNull
+    public Map<Long, Described> getReused() {
+      return myReused;
+    }
+  }
+
+  /**
+   * The {@code p4 describe} results of one changelist
+   */
+  public static final class Described {
+    final ChangeListData myData;
+    final List<FileChange> myFiles;
+    final List<FileChange> myShelved;
+
+    public Described(@NotNull ChangeListData data, @NotNull List<FileChange> files, @NotNull List<FileChange> shelved) {
+      myData = data;
+      myFiles = files;
+      myShelved = shelved;
+    }
+  }
+
+  private static final class State {
+    private final long myChangeCounter;
+    private final long myOpenedFingerprint;
+    private final long myFullRefreshStamp;
+    private final Map<Long, ChangeListData> myListed;
+    private final Map<Long, Described> myDescribed;
+
+    private State(long changeCounter,
+                  long openedFingerprint,
+                  long fullRefreshStamp,
+                  Map<Long, ChangeListData> listed,
+                  Map<Long, Described> described) {
+      myChangeCounter = changeCounter;
+      myOpenedFingerprint = openedFingerprint;
+      myFullRefreshStamp = fullRefreshStamp;
+      myListed = listed;
+      myDescribed = described;
+    }
+  }
+}
@@ -118,6 +118,11 @@ public class PerforceContentRevision implements ByteBackedContentRevision {
     return new PerforceOnlyRevisionNumber(myRevision);
   }
 
+  @Nullable
+  protected P4Connection getConnection() {
+    return myConnection;
+  }
+
   public String getDepotPath() {
     return myDepotPath;
   }
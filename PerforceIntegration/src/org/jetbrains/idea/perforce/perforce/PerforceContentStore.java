@@ -0,0 +1,185 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Size-bounded on-disk store of file revision contents printed by {@code p4 print}.
+ * <p/>
+ * {@code p4 print -o} writes the content directly into a file of the store, so large (binary) revisions never pass through the heap
+ * on their way to the disk, and the diff/merge of a revision which was already printed doesn't need the server anymore.
+ * Only immutable revisions ({@code #<number>}) are stored; entries are keyed by {@link #getPrintOrigin origin}, depot path and revision,
+ * and the least recently used ones are deleted when the total size exceeds the limit.
+ */
+@Service
+public final class PerforceContentStore {
+  private static final Logger LOG = Logger.getInstance(PerforceContentStore.class);
+  private static final Pattern IMMUTABLE_REVISION = Pattern.compile("#[1-9]\\d*");
+  private static final String TEMP_PREFIX = "print";
+
+  private final File myDirectory;
+  private final long myMaxSize;
+  // file name -> size, in access order
+  private final LinkedHashMap<String, Long> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private long myTotalSize;
+  private boolean myLoaded;
+
+  public PerforceContentStore() {
+    this(new File(PathManager.getSystemPath(), "perforce/content"), Registry.intValue("p4.content.store.size.mb") * 1024L * 1024L);
+  }
+
+  @TestOnly
+  PerforceContentStore(@NotNull File directory, long maxSize) {
+    myDirectory = directory;
+    myMaxSize = maxSize;
+  }
+
+  public static PerforceContentStore getInstance() {
+    return ApplicationManager.getApplication().getService(PerforceContentStore.class);
+  }
+
+  public static boolean isStorable(@Nullable String revision) {
+    return revision != null && IMMUTABLE_REVISION.matcher(revision).matches();
+  }
+
+  /**
+   * The same revision is printed differently depending on the client's LineEnd option and on the charset (P4CHARSET) of the connection,
+   * so both are a part of the key along with the server.
+   */
+  @NotNull
+  public static String getPrintOrigin(@NotNull String server, @NotNull String lineEnd, @NotNull String charset) {
+    return server + "|" + lineEnd + "|" + charset;
+  }
+
+  /**
+   * @param origin see {@link #getPrintOrigin}
+   * @return the stored content of the given revision, or null if it wasn't printed yet or has been evicted
+   */
+  @Nullable
+  public File get(@NotNull String origin, @NotNull String depotPath, @NotNull String revision) {
+    String name = getFileName(origin, depotPath, revision);
+    synchronized (myEntries) {
+      ensureLoaded();
+      if (myEntries.get(name) == null) return null;
+    }
+    File file = new File(myDirectory, name);
+    if (!file.isFile()) {
+      remove(name);
+      return null;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  /**
+   * @return a new temporary file in the store directory, which {@code p4 print -o} can write to and which then can be passed to {@link #put}
+   */
+  @NotNull
+  public File createTempFile() throws IOException {
+    synchronized (myEntries) {
+      // loading deletes the leftover temporary files, so it mustn't happen after this one is created
+      ensureLoaded();
+    }
+    FileUtil.createDirectory(myDirectory);
+    return FileUtil.createTempFile(myDirectory, TEMP_PREFIX, ".tmp", true, false);
+  }
+
+  /**
+   * Moves the printed content into the store, evicting the least recently used entries if needed.
+   *
+   * @return the stored file
+   */
+  @NotNull
+  public File put(@NotNull String origin, @NotNull String depotPath, @NotNull String revision, @NotNull File printed) throws IOException {
+    String name = getFileName(origin, depotPath, revision);
+    File file = new File(myDirectory, name);
+    long size = printed.length();
+    List<String> evicted = new ArrayList<>();
+    synchronized (myEntries) {
+      ensureLoaded();
+      FileUtil.delete(file);
+      FileUtil.rename(printed, file);
+      Long old = myEntries.put(name, size);
+      myTotalSize += size - (old == null ? 0 : old);
+
+      Iterator<Map.Entry<String, Long>> iterator = myEntries.entrySet().iterator();
+      while (myTotalSize > myMaxSize && iterator.hasNext()) {
+        Map.Entry<String, Long> eldest = iterator.next();
+        if (eldest.getKey().equals(name)) continue;
+        iterator.remove();
+        myTotalSize -= eldest.getValue();
+        evicted.add(eldest.getKey());
+      }
+    }
+    for (String evictedName : evicted) {
+      FileUtil.delete(new File(myDirectory, evictedName));
+    }
+    return file;
+  }
+
+  long getTotalSize() {
+    synchronized (myEntries) {
+      ensureLoaded();
+      return myTotalSize;
+    }
+  }
+
+  private void remove(String name) {
+    synchronized (myEntries) {
+      Long size = myEntries.remove(name);
+      if (size != null) {
+        myTotalSize -= size;
+      }
+    }
+  }
+
+  private void ensureLoaded() {
+    if (myLoaded) return;
+    myLoaded = true;
+    File[] files = myDirectory.listFiles();
+    if (files == null) return;
+
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (file.getName().startsWith(TEMP_PREFIX)) {
+        // left by a print interrupted by an IDE exit
+        FileUtil.delete(file);
+        continue;
+      }
+      myEntries.put(file.getName(), file.length());
+      myTotalSize += file.length();
+    }
+    LOG.debug("Loaded " + myEntries.size() + " stored revisions, " + myTotalSize + " bytes");
+  }
+
+  private static String getFileName(String origin, String depotPath, String revision) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest((origin + "|" + depotPath + revision).getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return name.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -16,10 +16,12 @@
 package org.jetbrains.idea.perforce.perforce;
 
 import com.google.common.collect.Lists;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
@@ -27,7 +29,9 @@ import com.intellij.openapi.util.NlsSafe;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.SystemInfoRt;
+import com.intellij.openapi.util.ThrowableComputable;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.LineTokenizer;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
@@ -46,6 +50,7 @@ import com.intellij.serviceContainer.NonInjectable;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.ArrayUtilRt;
 import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.*;
 import com.intellij.util.text.SyncDateFormat;
 import com.intellij.vcsUtil.VcsUtil;
@@ -64,7 +69,10 @@ import org.jetbrains.idea.perforce.application.*;
 import org.jetbrains.idea.perforce.application.annotation.AnnotationInfo;
 import org.jetbrains.idea.perforce.changesBrowser.FileChange;
 import org.jetbrains.idea.perforce.merge.BaseRevision;
+import org.jetbrains.idea.perforce.perforce.connections.AbstractP4Connection;
+import org.jetbrains.idea.perforce.perforce.connections.P4CommandMultiplexer;
 import org.jetbrains.idea.perforce.perforce.connections.P4Connection;
+import org.jetbrains.idea.perforce.perforce.connections.P4ParametersConnection;
 import org.jetbrains.idea.perforce.perforce.connections.PerforceConnectionManager;
 import org.jetbrains.idea.perforce.perforce.connections.PerforceConnectionManagerI;
 import org.jetbrains.idea.perforce.perforce.connections.PerforceLocalConnection;
@@ -72,22 +80,27 @@ import org.jetbrains.idea.perforce.perforce.jobs.JobsSearchSpecificator;
 import org.jetbrains.idea.perforce.perforce.jobs.PerforceJob;
 import org.jetbrains.idea.perforce.perforce.login.LoginSupport;
 import org.jetbrains.idea.perforce.perforce.login.PerforceLoginManager;
+import org.jetbrains.idea.perforce.util.tracer.CommandMetrics;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 @Service
-public final class PerforceRunner implements PerforceRunnerI {
+public final class PerforceRunner implements PerforceRunnerI, Disposable {
   private final Project myProject;
   private final PerforceConnectionManagerI myConnectionManager;
   private final PerforceSettings mySettings;
@@ -140,11 +153,13 @@ public final class PerforceRunner implements PerforceRunnerI {
   @NonNls public static final String CLIENT_ADDRESS = "Client address:";
   @NonNls public static final String PEER_ADDRESS = "Client address:";
   @NonNls public static final String CLIENT_OPTIONS = "Options:";
+  @NonNls public static final String CLIENT_LINE_END = "LineEnd:";
   @NonNls public static final String SERVER_ADDRESS = "Server address:";
   @NonNls public static final String SERVER_ROOT = "Server root:";
   @NonNls public static final String SERVER_DATE = "Server date:";
   @NonNls public static final String SERVER_LICENSE = "Server license:";
   @NonNls public static final String SERVER_VERSION = "Server version:";
+  @NonNls public static final String SERVER_CASE_HANDLING = "Case Handling:";
 
   @NonNls private static final SyncDateFormat DATESPEC_DATE_FORMAT = new SyncDateFormat(new SimpleDateFormat("yyyy/MM/dd:HH:mm:ss", Locale.US));
   @NonNls private static final String NOW = "now";
@@ -153,6 +168,10 @@ public final class PerforceRunner implements PerforceRunnerI {
   @NonNls public static final String CLIENT_FILE_PREFIX = "... clientFile ";
 
   private static final int CHUNK_SIZE = SystemProperties.getIntProperty("p4.chunk.size", 2000);
+  private static final int FSTAT_PARALLELISM = SystemProperties.getIntProperty("p4.fstat.parallelism", 4);
+  private static final AdaptiveChunkSize FSTAT_CHUNK_SIZE =
+    new AdaptiveChunkSize(SystemProperties.getIntProperty("p4.fstat.min.chunk.size", 200), CHUNK_SIZE,
+                          SystemProperties.getIntProperty("p4.fstat.chunk.millis", 3000));
 
   public static final String[] CHANGE_FORM_FIELDS = new String[]{CHANGE,
     DATE,
@@ -176,7 +195,8 @@ public final class PerforceRunner implements PerforceRunnerI {
     SERVER_ROOT,
     SERVER_DATE,
     SERVER_LICENSE,
-    SERVER_VERSION};
+    SERVER_VERSION,
+    SERVER_CASE_HANDLING};
 
   private static final Logger LOG = Logger.getInstance(PerforceRunner.class);
   private static final Logger SPECIFICATION_LOG = Logger.getInstance("#PerforceJobSpecificationLogging");
@@ -187,6 +207,9 @@ public final class PerforceRunner implements PerforceRunnerI {
 
   private final PerforceManager myPerforceManager;
   private final LoginSupport myLoginManager;
+  private volatile P4CommandMultiplexer myMultiplexer;
+  private final PendingChangeListsTracker myPendingChangeListsTracker = new PendingChangeListsTracker();
+  private final Map<String, ExecutorService> myFStatExecutors = new ConcurrentHashMap<>();
 
   public static PerforceRunner getInstance(Project project) {
     return ServiceManager.getService(project, PerforceRunner.class);
@@ -208,6 +231,14 @@ public final class PerforceRunner implements PerforceRunnerI {
     myProxy = new PerforceRunnerProxy(myProject, this);
   }
 
+  @Override
+  public void dispose() {
+    for (ExecutorService executor : myFStatExecutors.values()) {
+      executor.shutdownNow();
+    }
+    myFStatExecutors.clear();
+  }
+
   public PerforceRunnerI getProxy() {
     return myProxy.getProxy();
   }
@@ -277,21 +308,113 @@ public final class PerforceRunner implements PerforceRunnerI {
   public Map<P4File, FStat> fstatBulk(final List<P4File> files) throws VcsException {
     if (files.isEmpty()) return Collections.emptyMap();
 
-    P4Connection connection = getNotNullConnection(files.get(0));
+    final Map<String, P4File> path2File = CollectionFactory.createFilePathMap();
+    for (P4File file : files) {
+      path2File.put(FileUtil.toSystemIndependentName(file.getLocalPath()), file);
+    }
+
+    MultiMap<P4Connection, P4File> byConnection = FileGrouper.distributeP4FilesByConnection(files, myConnectionManager);
+    if (byConnection.values().size() < files.size()) {
+      // report the file which has no connection the same way as before
+      for (P4File file : files) {
+        getNotNullConnection(file);
+      }
+    }
+
+    List<Pair<P4Connection, List<P4File>>> chunks = new ArrayList<>();
+    for (Map.Entry<P4Connection, Collection<P4File>> entry : byConnection.entrySet()) {
+      P4Connection connection = entry.getKey();
+      List<P4File> connectionFiles = new ArrayList<>(new LinkedHashSet<>(entry.getValue()));
+      int chunkSize = FSTAT_CHUNK_SIZE.getChunkSize(connection.getConnectionKey());
+      for (List<P4File> chunk : Lists.partition(connectionFiles, chunkSize)) {
+        chunks.add(Pair.create(connection, chunk));
+      }
+    }
+
+    final Map<P4File, FStat> result = new LinkedHashMap<>();
+    if (chunks.size() == 1) {
+      result.putAll(fstatChunk(chunks.get(0).first, chunks.get(0).second, path2File));
+      return result;
+    }
+
+    // chunks run under the caller's indicator, so that cancelling the refresh stops the worker threads at their next check
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    List<Future<Map<P4File, FStat>>> futures = new ArrayList<>();
+    for (Pair<P4Connection, List<P4File>> chunk : chunks) {
+      ExecutorService executor = getFStatExecutor(chunk.first.getConnectionKey());
+      futures.add(executor.submit(() -> computeUnderProgress(indicator, () -> fstatChunk(chunk.first, chunk.second, path2File))));
+    }
+    try {
+      for (Future<Map<P4File, FStat>> future : futures) {
+        result.putAll(waitFor(future));
+      }
+    }
+    finally {
+      for (Future<Map<P4File, FStat>> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return result;
+  }
+
+  private static <T> T waitFor(Future<T> future) throws VcsException {
+    try {
+      while (true) {
+        ProgressManager.checkCanceled();
+        try {
+          return future.get(50, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException ignore) {
+        }
+      }
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof VcsException) throw (VcsException)cause;
+      if (cause instanceof ProcessCanceledException) throw (ProcessCanceledException)cause;
+      throw new VcsException(cause);
+    }
+    catch (InterruptedException e) {
+      throw new VcsException(e);
+    }
+  }
+
+  private static <T> T computeUnderProgress(@Nullable ProgressIndicator indicator,
+                                           @NotNull ThrowableComputable<T, VcsException> computable) throws VcsException {
+    if (indicator == null) return computable.compute();
+
+    Ref<T> result = new Ref<>();
+    Ref<VcsException> exception = new Ref<>();
+    ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+      try {
+        result.set(computable.compute());
+      }
+      catch (VcsException e) {
+        exception.set(e);
+      }
+    }, indicator);
+    if (!exception.isNull()) throw exception.get();
+    return result.get();
+  }
+
+  private ExecutorService getFStatExecutor(ConnectionKey key) {
+    if (myProject.isDisposed()) throw new ProcessCanceledException();
+    return myFStatExecutors.computeIfAbsent(key.getServer(), server -> AppExecutorUtil.createBoundedApplicationPoolExecutor(
+      "Perforce fstat " + server, FSTAT_PARALLELISM));
+  }
+
+  private Map<P4File, FStat> fstatChunk(P4Connection connection, List<P4File> files, Map<String, P4File> path2File) throws VcsException {
     Set<String> p4Args = new LinkedHashSet<>();
     for (P4File file : files) {
       p4Args.add(file.getEscapedPath());
     }
+    long start = System.currentTimeMillis();
     ExecResult execResult = executeP4Command(new String[]{"fstat"}, p4Args, null, new PerforceContext(connection));
+    FSTAT_CHUNK_SIZE.registerCall(connection.getConnectionKey(), files.size(), System.currentTimeMillis() - start);
 
     final Map<P4File, FStat> result = new LinkedHashMap<>();
     String stderr = execResult.getStderr();
 
-    final Map<String, P4File> path2File = CollectionFactory.createFilePathMap();
-    for (P4File file : files) {
-      path2File.put(FileUtil.toSystemIndependentName(file.getLocalPath()), file);
-    }
-
     for (String line : StringUtil.splitByLines(stderr)) {
       int index = line.indexOf(NO_SUCH_FILE_MESSAGE);
       if (index < 0) index = line.indexOf(NOT_IN_CLIENT_VIEW_MESSAGE);
@@ -304,30 +427,10 @@ public final class PerforceRunner implements PerforceRunnerI {
       }
     }
 
-    try {
-      execResult.allowSafeStdoutUsage(stream -> {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
-        while (true) {
-          try {
-            FStat fStat = FStat.parseFStat(reader);
-            if (fStat == null) {
-              break;
-            }
-
-            result.put(getP4FileByPath(fStat.clientFile, path2File), fStat);
-          }
-          catch (VcsException e) {
-            throw new IOException(e);
-          }
-        }
-      });
-    }
-    catch (IOException e) {
-      if (e.getCause() instanceof VcsException) {
-        throw (VcsException)e.getCause();
-      }
-      throw new VcsException(e);
-    }
+    ZTagParser.parse(execResult, record -> {
+      FStat fStat = FStat.fromTaggedRecord(record);
+      result.put(getP4FileByPath(fStat.clientFile, path2File), fStat);
+    });
     return result;
   }
 
@@ -751,27 +854,91 @@ public final class PerforceRunner implements PerforceRunnerI {
                               PerforceChangeCache changeCache,
                               PerforceShelf shelf,
                               List<PerforceChangeList> lists) throws VcsException {
-    List<Long> numbers = ContainerUtil.map2List(lists, list -> list.getNumber());
-    final PerforceClient client = myPerforceManager.getClient(connection);
+    ServerVersion serverVersion = PerforceManager.getInstance(myProject).getServerVersion(connection);
+    boolean supportsShelve = serverVersion != null && serverVersion.supportsShelve();
+
+    List<ChangeListData> listed = ContainerUtil.map(lists, PerforceRunner::toChangeListData);
+    long changeCounter = Registry.is("p4.incremental.changelist.refresh") ? getChangeCounter(connection) : -1;
+    long openedFingerprint = changeCounter < 0 ? 0 : getOpenedFingerprint(connection);
+    PendingChangeListsTracker.Refresh refresh = myPendingChangeListsTracker.startRefresh(
+      connection.getConnectionKey(), openedFingerprint < 0 ? -1 : changeCounter, openedFingerprint, listed, System.currentTimeMillis());
+    List<Long> numbers = refresh.getListsToDescribe();
+
+    Map<Long, PendingChangeListsTracker.Described> described = new HashMap<>();
+    if (!numbers.isEmpty()) {
+      Map<Long, Pair<ChangeListData, List<FileChange>>> changeMap = describeAll(connection, numbers, false);
+      Map<Long, Pair<ChangeListData, List<FileChange>>> shelveMap =
+        supportsShelve ? describeAll(connection, numbers, true) : Collections.emptyMap();
+      for (Long number : changeMap.keySet()) {
+        Pair<ChangeListData, List<FileChange>> shelved = shelveMap.get(number);
+        described.put(number, new PendingChangeListsTracker.Described(changeMap.get(number).first, changeMap.get(number).second,
+                                                                      shelved == null ? Collections.emptyList() : shelved.second));
+      }
+    }
+    myPendingChangeListsTracker.finishRefresh(refresh, described);
+    described.putAll(refresh.getReused());
 
-    Map<Long, Pair<ChangeListData, List<FileChange>>> changeMap = describeAll(connection, numbers, false);
+    final PerforceClient client = myPerforceManager.getClient(connection);
     for (PerforceChangeList list : lists) {
-      Pair<ChangeListData, List<FileChange>> changes = changeMap.get(list.getNumber());
-      if (changes != null) {
-        changeCache.setChanges(connection, list.getNumber(), createPerforceChanges(client, changes.first, changes.second));
+      PendingChangeListsTracker.Described changes = described.get(list.getNumber());
+      if (changes == null) continue;
+
+      changeCache.setChanges(connection, list.getNumber(), createPerforceChanges(client, changes.myData, changes.myFiles));
+      for (FileChange c : changes.myShelved) {
+        File localFile = PerforceManager.getFileByDepotName(c.getDepotPath(), client);
+        shelf.addShelvedChange(connection, list.getNumber(),
+                               new ShelvedChange(c.getType(), c.getDepotPath(), c.getRevisionAfter(), connection, localFile, list.getNumber()));
       }
     }
+  }
 
-    ServerVersion serverVersion = PerforceManager.getInstance(myProject).getServerVersion(connection);
-    if (serverVersion != null && serverVersion.supportsShelve()) {
-      Map<Long, Pair<ChangeListData, List<FileChange>>> shelveMap = describeAll(connection, numbers, true);
-      for (final Long cl : shelveMap.keySet()) {
-        for (FileChange c : shelveMap.get(cl).second) {
-          File localFile = PerforceManager.getFileByDepotName(c.getDepotPath(), client);
-          shelf.addShelvedChange(connection, cl, new ShelvedChange(c.getType(), c.getDepotPath(), c.getRevisionAfter(), connection, localFile, cl));
-        }
-      }
+  private static ChangeListData toChangeListData(PerforceChangeList list) {
+    ChangeListData data = new ChangeListData();
+    data.NUMBER = list.getNumber();
+    data.DESCRIPTION = list.getComment();
+    data.USER = list.getCommitterName();
+    data.CLIENT = list.getClient();
+    data.DATE = list.getCommitDate() == null ? null : ChangeListData.DATE_FORMAT.format(list.getCommitDate());
+    return data;
+  }
+
+  /**
+   * @return the value of {@code p4 counter change}, which is incremented whenever a changelist is created or submitted, or -1 if unavailable
+   */
+  public long getChangeCounter(@NotNull P4Connection connection) {
+    ExecResult execResult = executeP4Command(new String[]{"counter", "change"}, connection);
+    if (execResult.getExitCode() != 0 || execResult.getException() != null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(execResult.getStdout().trim());
+    }
+    catch (NumberFormatException e) {
+      LOG.debug(e);
+      return -1;
+    }
+  }
+
+  /**
+   * @return a hash of the files opened in the client with their actions and changelists, or -1 if unavailable.
+   * It's much cheaper than describing every pending changelist, and notices files opened or reopened by other tools,
+   * which don't move {@code p4 counter change}.
+   */
+  private long getOpenedFingerprint(@NotNull P4Connection connection) {
+    ExecResult execResult = executeP4Command(new String[]{P4Command.opened.getName()}, connection);
+    boolean noFilesOpened = StringUtil.toLowerCase(execResult.getStderr()).contains(STANDARD_REVERT_UNCHANGED_ERROR_MESSAGE);
+    if (!noFilesOpened && execResult.getExitCode() != 0 || execResult.getException() != null) {
+      return -1;
     }
+    String stdout = execResult.getStdout();
+    return (long)stdout.length() << 32 | stdout.hashCode() & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Forgets the pending changelists remembered for the incremental refresh, so that the next refresh describes all of them.
+   */
+  public void discardPendingChangeListsCache() {
+    myPendingChangeListsTracker.discard();
   }
 
   private void appendTArg(final CommandArguments arguments, @Nullable final P4Connection connection) throws VcsException {
@@ -1033,7 +1200,7 @@ public final class PerforceRunner implements PerforceRunnerI {
   }
 
   public List<PerforceChange> openedInList(final P4Connection connection, final long number) throws VcsException {
-    final CommandArguments args = CommandArguments.createOn(P4Command.opened);
+    final CommandArguments args = new CommandArguments().append(ZTagParser.ZTAG).append(P4Command.opened.getName());
     args.append("-c").append(number);
     final ExecResult execResult = executeP4Command(args.getArguments(), connection);
     if (StringUtil.toLowerCase(execResult.getStderr()).contains(STANDARD_REVERT_UNCHANGED_ERROR_MESSAGE)) {
@@ -1041,12 +1208,7 @@ public final class PerforceRunner implements PerforceRunnerI {
       return new ArrayList<>();
     }
     checkError(execResult, connection);
-    try {
-      return PerforceOutputMessageParser.processOpenedOutput(execResult.getStdout());
-    }
-    catch (IOException e) {
-      throw new VcsException(e);
-    }
+    return parseTaggedOpened(execResult);
   }
 
   public List<PerforceChange> opened(final P4Connection connection, final Collection<FilePath> paths, boolean throwIfNotUnderClient) throws VcsException {
@@ -1061,7 +1223,7 @@ public final class PerforceRunner implements PerforceRunnerI {
   }
 
   private List<PerforceChange> openedImpl(final P4Connection connection, final Collection<FilePath> paths, final boolean throwIfNotUnderClient) throws VcsException {
-    final CommandArguments args = CommandArguments.createOn(P4Command.opened);
+    final CommandArguments args = new CommandArguments().append(ZTagParser.ZTAG).append(P4Command.opened.getName());
     for (FilePath path : paths) {
       args.append(P4File.create(path).getEscapedPath());
     }
@@ -1072,11 +1234,31 @@ public final class PerforceRunner implements PerforceRunnerI {
     } else {
       checkError(execResult, connection);
     }
+    return parseTaggedOpened(execResult);
+  }
+
+  private static List<PerforceChange> parseTaggedOpened(ExecResult execResult) throws VcsException {
+    List<PerforceChange> result = new ArrayList<>();
+    ZTagParser.parse(execResult, record -> {
+      String depotPath = record.get("depotFile");
+      String action = record.get("action");
+      if (depotPath == null || action == null) {
+        throw new VcsException(PerforceBundle.message("error.cannot.parse.change.line", record));
+      }
+      String change = record.get("change");
+      long changeListNumber = change == null || DEFAULT_CHANGELIST_NUMBER.equals(change) ? -1 : parseLong(change, record);
+      result.add(new PerforceChange(PerforceAbstractChange.convertToType(action), null, depotPath, parseLong(record.get("rev"), record),
+                                    changeListNumber, null));
+    });
+    return result;
+  }
+
+  private static long parseLong(@Nullable String value, Map<String, String> record) throws VcsException {
     try {
-      return PerforceOutputMessageParser.processOpenedOutput(execResult.getStdout());
+      return Long.parseLong(StringUtil.notNullize(value));
     }
-    catch (IOException e) {
-      throw new VcsException(e);
+    catch (NumberFormatException e) {
+      throw new VcsException(PerforceBundle.message("error.cannot.parse.change.line", record));
     }
   }
 
@@ -1192,7 +1374,7 @@ public final class PerforceRunner implements PerforceRunnerI {
       CLIENTSPEC_ROOT,
       CLIENTSPEC_ALTROOTS,
       CLIENT_OPTIONS,
-      "LineEnd:",
+      CLIENT_LINE_END,
       VIEW});
   }
 
@@ -1204,6 +1386,18 @@ public final class PerforceRunner implements PerforceRunnerI {
     return getByteContent(baseRevision.getDepotPath(), baseRevision.getRevisionNum(), connection);
   }
   public byte @NotNull [] getByteContent(final String depotPath, @Nullable final String revisionNumber, @NotNull P4Connection connection) throws VcsException {
+    File stored = getContentFile(depotPath, revisionNumber, connection);
+    if (stored != null) {
+      ContentRevisionCache.checkContentsSize(depotPath, stored.length());
+      try {
+        return FileUtil.loadFileBytes(stored);
+      }
+      catch (IOException e) {
+        // evicted concurrently, print it once more
+        LOG.debug(e);
+      }
+    }
+
     File tempFile = null;
     try {
       tempFile = FileUtil.createTempFile("ijP4Print", "");
@@ -1223,6 +1417,55 @@ public final class PerforceRunner implements PerforceRunnerI {
     }
   }
 
+  /**
+   * Prints the given revision into the {@link PerforceContentStore} unless it's already there.
+   *
+   * @return the stored content, or null if the store is disabled or the revision is not immutable
+   */
+  @Nullable
+  public File getContentFile(@NotNull String depotPath, @Nullable String revisionNumber, @NotNull P4Connection connection) throws VcsException {
+    // local paths may be mapped to other depot files when the client view changes
+    if (!Registry.is("p4.content.store") || connection instanceof PerforceLocalConnection ||
+        !depotPath.startsWith("//") || !PerforceContentStore.isStorable(revisionNumber)) {
+      return null;
+    }
+    // print output depends on the client's LineEnd and on the charset, so entries of different clients mustn't be shared
+    String lineEnd = myPerforceManager.getClient(connection).getCachedLineEnd();
+    if (lineEnd == null) return null;
+    PerforceContentStore store = PerforceContentStore.getInstance();
+    String origin = PerforceContentStore.getPrintOrigin(connection.getConnectionKey().getServer(), lineEnd, getCharsetName(connection));
+    File stored = store.get(origin, depotPath, revisionNumber);
+    if (stored != null) return stored;
+
+    File tempFile = null;
+    try {
+      tempFile = store.createTempFile();
+      String[] p4args = {"print", "-q", "-o", tempFile.getPath(), depotPath + revisionNumber};
+      final ExecResult execResult = executeP4Command(p4args, connection);
+      checkError(execResult, connection);
+      stored = store.put(origin, depotPath, revisionNumber, tempFile);
+      tempFile = null;
+      return stored;
+    }
+    catch (IOException e) {
+      throw new VcsException(e);
+    }
+    finally {
+      if (tempFile != null) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  @NotNull
+  private String getCharsetName(@NotNull P4Connection connection) {
+    if (connection instanceof P4ParametersConnection) {
+      String charset = ((P4ParametersConnection)connection).getParameters().getCharset();
+      if (charset != null) return charset;
+    }
+    return mySettings.getCharsetName();
+  }
+
   public byte @NotNull [] getContent(final FilePath file, final String revisionNumber) throws VcsException {
     P4File p4File = P4File.create(file);
     return getByteContent(getDepotPath(p4File), revisionNumber, getNotNullConnection(p4File));
@@ -1427,11 +1670,94 @@ public final class PerforceRunner implements PerforceRunnerI {
 
   public void haveMultiple(final PathsHelper helper, @NotNull final P4Connection connection, final P4HaveParser consumer) throws VcsException {
     if (helper.isEmpty()) return;
+    if (Registry.is("p4.persistent.have.cache") && !(connection instanceof PerforceLocalConnection)) {
+      haveMultipleCached(helper, connection, consumer);
+      return;
+    }
     final List<String> args = helper.getRequestString();
 
     doHave(args, connection, consumer, true);
   }
 
+  private void haveMultipleCached(PathsHelper helper, @NotNull P4Connection connection, P4HaveParser consumer) throws VcsException {
+    PersistentHaveCache cache = PersistentHaveCache.getInstance(myProject);
+    ConnectionKey key = connection.getConnectionKey();
+    List<String> recursive = helper.getRecursiveLocalPaths();
+    List<String> simple = helper.getSimpleLocalPaths();
+
+    long now = System.currentTimeMillis();
+    if (cache.needsValidation(key, now)) {
+      cache.validate(key, getHaveStamp(connection), now);
+    }
+    Map<String, Long> cached = cache.get(key, recursive, simple);
+    if (cached != null) {
+      LOG.debug("'have' answered from the persistent cache for " + key);
+      for (Map.Entry<String, Long> entry : cached.entrySet()) {
+        consumer.consumeRevision(entry.getKey(), entry.getValue());
+      }
+      return;
+    }
+
+    // only full recursive results can be remembered
+    long generation = cache.getGeneration(key);
+    long haveStamp = simple.isEmpty() ? getHaveStamp(connection) : -1;
+    Map<String, Long> revisions = new HashMap<>();
+    doHave(helper.getRequestString(), connection, new P4HaveParser(myPerforceManager) {
+      @Override
+      public void consumeRevision(String path, long revision) {
+        if (haveStamp >= 0) {
+          revisions.put(path, revision);
+        }
+        consumer.consumeRevision(path, revision);
+      }
+    }, true);
+    cache.update(key, haveStamp, generation, recursive, revisions, now);
+  }
+
+  /**
+   * @return a stamp of the workspace have-list, changing on syncs made outside the IDE, or -1 if unavailable: it combines the last
+   * submitted changelist the workspace has synced (at least partially) to with the number and total size of the have-revisions
+   */
+  private long getHaveStamp(@NotNull P4Connection connection) {
+    String haveSpec = "//" + connection.getConnectionKey().getClient() + "/...#have";
+    long[] change = getLongFields(connection, new String[]{ZTagParser.ZTAG, "changes", "-m1", "-s", "submitted", haveSpec}, "change");
+    long[] sizes = getLongFields(connection, new String[]{ZTagParser.ZTAG, "sizes", "-s", haveSpec}, "fileCount", "fileSize");
+    if (change == null || sizes == null) {
+      return -1;
+    }
+    return ((change[0] * 31 + sizes[0]) * 31 + sizes[1]) & Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the values of the given fields of the last record of the command's tagged output, or null if any of them is unavailable
+   */
+  private long @Nullable [] getLongFields(@NotNull P4Connection connection, String[] command, String... fields) {
+    ExecResult execResult = executeP4Command(command, connection);
+    if (execResult.getExitCode() != 0 || execResult.getException() != null) {
+      return null;
+    }
+    long[] result = new long[fields.length];
+    Arrays.fill(result, -1);
+    try {
+      ZTagParser.parse(execResult, record -> {
+        for (int i = 0; i < fields.length; i++) {
+          String value = record.get(fields[i]);
+          if (value != null) {
+            result[i] = Long.parseLong(value);
+          }
+        }
+      });
+    }
+    catch (VcsException | NumberFormatException e) {
+      LOG.debug(e);
+      return null;
+    }
+    for (long value : result) {
+      if (value < 0) return null;
+    }
+    return result;
+  }
+
   static String getP4FilePath(final P4File file, boolean isDirectory, final boolean recursively) {
     String escapedPath = file.getEscapedPath();
     return isDirectory ? escapedPath + "/" + (recursively ? "..." : "*") : escapedPath;
@@ -1486,7 +1812,16 @@ public final class PerforceRunner implements PerforceRunnerI {
   }
 
   public P4Revision[] filelog(@NotNull P4Connection connection, @NotNull String path, boolean showBranches) throws VcsException {
-    CommandArguments arguments = createFilelogArgs(showBranches, connection).append(path);
+    return filelog(connection, path, showBranches, false);
+  }
+
+  /**
+   * @param truncateDescriptions whether to request descriptions truncated to 250 characters ({@code -L}) instead of full ones,
+   *                             see {@link #getSubmittedDescriptions}
+   */
+  public P4Revision[] filelog(@NotNull P4Connection connection, @NotNull String path, boolean showBranches, boolean truncateDescriptions)
+    throws VcsException {
+    CommandArguments arguments = createFilelogArgs(showBranches, truncateDescriptions, connection).append(path);
     final ExecResult execResult = executeP4Command(arguments.getArguments(), connection);
     checkError(execResult, connection);
 
@@ -1503,12 +1838,13 @@ public final class PerforceRunner implements PerforceRunnerI {
     return new OutputMessageParser(execResult.getStdout()).myLines;
   }
 
-  private CommandArguments createFilelogArgs(boolean showBranches, @Nullable final P4Connection connection) throws VcsException {
+  private CommandArguments createFilelogArgs(boolean showBranches, boolean truncateDescriptions, @Nullable final P4Connection connection)
+    throws VcsException {
     final CommandArguments arguments = CommandArguments.createOn(P4Command.filelog);
     if (showBranches) {
       arguments.append("-i");
     }
-    arguments.append("-l");
+    arguments.append(truncateDescriptions ? "-L" : "-l");
     if (isFilelogNewDateVersion(connection)) {
       arguments.append("-t");
     }
@@ -1536,6 +1872,35 @@ public final class PerforceRunner implements PerforceRunnerI {
     }
   }
 
+  /**
+   * Returns the full descriptions of the given submitted changelists, taking them from the {@link ChangeListDescriptionCache}
+   * when possible and describing all the others with a single {@code p4 describe -s}.
+   */
+  @NotNull
+  public Map<Long, String> getSubmittedDescriptions(@NotNull P4Connection connection, @NotNull Collection<Long> numbers) throws VcsException {
+    ChangeListDescriptionCache cache = ChangeListDescriptionCache.getInstance();
+    String server = connection.getConnectionKey().getServer();
+    List<Long> missing = cache.getMissing(server, numbers);
+    Map<Long, String> result = new HashMap<>();
+    if (!missing.isEmpty()) {
+      ExecResult execResult = executeP4Command(new String[]{P4Command.describe.getName(), "-s"}, ContainerUtil.map(missing, String::valueOf),
+                                               null, new PerforceContext(connection));
+      checkError(execResult, connection);
+      ProgressManager.checkCanceled();
+      for (ChangeListData data : OutputMessageParser.processMultiDescriptionOutput(execResult.getStdout(), false).keySet()) {
+        String description = StringUtil.notNullize(data.DESCRIPTION);
+        cache.put(server, data.NUMBER, description);
+        result.put(data.NUMBER, description);
+      }
+    }
+    for (Long number : numbers) {
+      if (!result.containsKey(number)) {
+        ContainerUtil.putIfNotNull(number, cache.get(server, number), result);
+      }
+    }
+    return result;
+  }
+
   public AnnotationInfo annotate(P4Connection connection, String filePath, long revision) throws VcsException {
     if (revision != -1) {
       filePath += "#" + revision;
@@ -1641,7 +2006,7 @@ public final class PerforceRunner implements PerforceRunnerI {
 
   private ExecResult executeP4Command(@NonNls String[] p4cmd, Collection<String> args, @Nullable final StringBuffer inputStream, @NotNull PerforceContext ctx) {
     // construct the command-line
-    final ExecResult retVal = new ExecResult();
+    ExecResult retVal = new ExecResult();
     if (!mySettings.ENABLED) {
       retVal.setException(new VcsException(PerforceBundle.message("exception.text.perforce.integration.is.disabled")));
       retVal.setStderr(PerforceBundle.message("exception.text.perforce.integration.is.disabled"));
@@ -1669,16 +2034,15 @@ public final class PerforceRunner implements PerforceRunnerI {
         p4args = ArrayUtil.mergeArrays(p4cmd, ArrayUtilRt.toStringArray(args));
       }
 
-      ctx.runP4Command(mySettings, p4args, retVal, inputStream);
-    }
-    catch (PerforceTimeoutException e) {
-      retVal.setException(e);
-    }
-    catch (IOException e) {
-      retVal.setException(e);
-    }
-    catch (InterruptedException e) {
-      retVal.setException(e);
+      P4CommandMultiplexer multiplexer = getMultiplexer(ctx.connection);
+      if (multiplexer != null) {
+        List<String> commandKey = ContainerUtil.concat(Arrays.asList(p4cmd), new ArrayList<>(args));
+        retVal = multiplexer.execute(ctx.connection.getConnectionKey(), commandKey, P4CommandMultiplexer.isShareable(p4cmd, inputStream),
+                                     () -> runP4Command(ctx, p4args, inputStream));
+      }
+      else {
+        retVal = runP4Command(ctx, p4args, inputStream);
+      }
     }
     catch (VcsException e) {
       retVal.setException(e);
@@ -1693,6 +2057,15 @@ public final class PerforceRunner implements PerforceRunnerI {
       logMessage("\n" + retVal);
     }
 
+    if (!(ctx.connection instanceof PerforceLocalConnection)) {
+      if (PendingChangeListsTracker.affectsPendingChanges(p4cmd)) {
+        myPendingChangeListsTracker.modifyingCommandExecuted(ctx.connection.getConnectionKey());
+      }
+      if (PersistentHaveCache.affectsHave(p4cmd)) {
+        PersistentHaveCache.getInstance(myProject).invalidate(ctx.connection.getConnectionKey());
+      }
+    }
+
     if (mySettings.USE_LOGIN && (retVal.getStderr().contains(SESSION_EXPIRED_MESSAGE) || retVal.getStderr().contains(PASSWORD_INVALID_MESSAGE))) {
       myLoginManager.notLogged(ctx.connection);
       try {
@@ -1716,6 +2089,52 @@ public final class PerforceRunner implements PerforceRunnerI {
     return retVal;
   }
 
+  private ExecResult runP4Command(@NotNull PerforceContext ctx, String[] p4args, @Nullable StringBuffer inputStream) {
+    final ExecResult retVal = new ExecResult();
+    try {
+      ctx.runP4Command(mySettings, p4args, retVal, inputStream);
+    }
+    catch (PerforceTimeoutException e) {
+      retVal.setException(e);
+    }
+    catch (IOException e) {
+      retVal.setException(e);
+    }
+    catch (InterruptedException e) {
+      retVal.setException(e);
+    }
+    catch (VcsException e) {
+      retVal.setException(e);
+    }
+    return retVal;
+  }
+
+  @Nullable
+  private P4CommandMultiplexer getMultiplexer(@NotNull P4Connection connection) {
+    if (connection instanceof PerforceLocalConnection || !Registry.is("p4.pooled.connections")) {
+      return null;
+    }
+    P4CommandMultiplexer multiplexer = myMultiplexer;
+    if (multiplexer == null) {
+      synchronized (this) {
+        multiplexer = myMultiplexer;
+        if (multiplexer == null) {
+          myMultiplexer = multiplexer = new P4CommandMultiplexer(Registry.intValue("p4.pooled.connections.size"),
+                                                                 CommandMetrics.getInstance());
+        }
+      }
+    }
+    return multiplexer;
+  }
+
+  /**
+   * @return the pooled connection mode statistics, or null if the mode hasn't been used yet
+   */
+  @Nullable
+  public P4CommandMultiplexer getMultiplexer() {
+    return myMultiplexer;
+  }
+
   private static File createArgumentFile(Collection<String> args) throws VcsException {
     try {
       File tempFile = FileUtil.createTempFile("p4batch", ".txt");
@@ -1859,30 +2278,30 @@ public final class PerforceRunner implements PerforceRunnerI {
 
   @NotNull
   public P4WhereResult where(final String escapedPath, final P4Connection connection) throws VcsException {
-    final ExecResult execResult = executeP4Command(new String[]{"where", escapedPath}, connection);
-    checkError(execResult, connection);
-
-    String out = getLastLine(execResult);
-
-    final PerforceClient client = myPerforceManager.getClient(connection);
+    if (Registry.is("p4.local.where")) {
+      P4WhereResult result = myPerforceManager.whereLocally(escapedPath, connection);
+      if (result != null) {
+        return result;
+      }
+    }
 
-    List<String> roots = ContainerUtil.map(client.getRoots(), root -> myPerforceManager.getRawRoot(root).replace('\\', '/'));
-    WhereParser parser = new WhereParser(out, roots, client.getName(), escapedPath);
-    parser.execute();
+    final ExecResult execResult = executeP4Command(new String[]{ZTagParser.ZTAG, "where", escapedPath}, connection);
+    checkError(execResult, connection);
 
-    return new P4WhereResult(myPerforceManager.convertP4ParsedPath(null, parser.getLocal()), parser.getLocalRootRelative(),
-                             parser.getDepot());
-  }
+    // the last mapping wins, the "unmap" ones come from exclusion lines of the client view
+    Ref<Map<String, String>> mapping = Ref.create();
+    ZTagParser.parse(execResult, record -> {
+      if (!record.containsKey("unmap")) {
+        mapping.set(record);
+      }
+    });
 
-  private static String getLastLine(ExecResult execResult) throws VcsException {
-    final String result = execResult.getStdout();
-    final String[] lines = result.trim().split("\n");
-    for (int i = lines.length - 1; i >= 0; i--) {
-      String line = lines[i];
-      if (line.startsWith("-")) continue;
-      return line;
+    Map<String, String> record = mapping.get();
+    if (record == null || !record.containsKey("path") || !record.containsKey("clientFile") || !record.containsKey("depotFile")) {
+      throw new VcsException(PerforceBundle.message("error.p4.where.wrong.result", record));
     }
-    throw new VcsException(PerforceBundle.message("error.p4.where.wrong.result", result));
+    return new P4WhereResult(myPerforceManager.convertP4ParsedPath(null, record.get("path")), record.get("clientFile"),
+                             record.get("depotFile"));
   }
 
   public ClientVersion getClientVersion() {
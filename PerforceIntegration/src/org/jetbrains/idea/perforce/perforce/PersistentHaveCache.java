@@ -0,0 +1,365 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfoRt;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+import org.jetbrains.idea.perforce.perforce.connections.AbstractP4Connection;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of {@code p4 have} results, so that the unversioned files scan after an IDE restart doesn't have to
+ * ask the server for the have-revisions of the whole workspace.
+ * <p/>
+ * The cache is kept per {@link ConnectionKey} as sorted arrays of paths and revisions, together with the directories whose
+ * contents were fully reported by {@code p4 have} ("covered roots"), and a validation stamp of the workspace have-list: while the
+ * stamp doesn't change and no p4 command changing have-revisions was run from the IDE, the cached results are used instead of
+ * running {@code p4 have}. The stamp is re-checked at most every {@link #VALIDATION_INTERVAL} ms.
+ * <p/>
+ * The stamp combines the highest changelist the workspace has synced to with the number and total size of the have-revisions
+ * ({@code p4 sizes -s //client/...#have}), so that syncing a part of the workspace back to an older revision or to {@code #none}
+ * outside the IDE changes it too. A sync that happens to keep both the file count and the total size is still not detected,
+ * so results older than {@link #MAX_AGE} ms are dropped regardless of the stamp.
+ * <p/>
+ * Files are kept per project: the in-memory state of another project wouldn't see an invalidation done here.
+ */
+@Service
+public final class PersistentHaveCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance(PersistentHaveCache.class);
+  private static final int VERSION = 2;
+  private static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+  private static final long MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+  @NonNls private static final Set<String> HAVE_MODIFYING_COMMANDS = Set.of(
+    "sync", "flush", "submit", "revert", "delete", "move", "rename", "unshelve", "integrate", "integ", "copy", "merge", "undo", "clean",
+    "reconcile", "add");
+  @NonNls private static final String PREVIEW_OPTION = "-n";
+
+  private final File myDirectory;
+  private final Map<ConnectionKey, Snapshot> mySnapshots = new ConcurrentHashMap<>();
+  private final Set<ConnectionKey> myLoaded = ConcurrentHashMap.newKeySet();
+  // incremented by every invalidation, guarded by mySnapshots
+  private final Map<ConnectionKey, Long> myGenerations = new HashMap<>();
+
+  public PersistentHaveCache(@NotNull Project project) {
+    this(new File(PathManager.getSystemPath(), "perforce/have/" + project.getLocationHash()));
+  }
+
+  @TestOnly
+  PersistentHaveCache(@NotNull File directory) {
+    myDirectory = directory;
+  }
+
+  public static PersistentHaveCache getInstance(@NotNull Project project) {
+    return project.getService(PersistentHaveCache.class);
+  }
+
+  public static boolean affectsHave(String @NotNull [] p4cmd) {
+    String commandName = AbstractP4Connection.getCommandName(p4cmd);
+    if (commandName == null || !HAVE_MODIFYING_COMMANDS.contains(commandName)) return false;
+
+    // options of the command itself, up to the first file argument
+    for (int i = Arrays.asList(p4cmd).indexOf(commandName) + 1; i < p4cmd.length && p4cmd[i].startsWith("-"); i++) {
+      if (PREVIEW_OPTION.equals(p4cmd[i])) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the value to pass to {@link #update} for the results of {@code p4 have} which is about to be run
+   */
+  long getGeneration(@NotNull ConnectionKey key) {
+    synchronized (mySnapshots) {
+      return myGenerations.getOrDefault(key, 0L);
+    }
+  }
+
+  /**
+   * @return the cached have-revisions, or null if the cache can't answer the request and {@code p4 have} has to be run
+   */
+  @Nullable
+  Map<String, Long> get(@NotNull ConnectionKey key, @NotNull Collection<String> recursiveDirs, @NotNull Collection<String> simplePaths) {
+    Snapshot snapshot = getSnapshot(key);
+    if (snapshot == null || !snapshot.covers(recursiveDirs) || !snapshot.covers(simplePaths)) {
+      return null;
+    }
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (String dir : recursiveDirs) {
+      snapshot.collectUnder(dir, true, result);
+    }
+    for (String path : simplePaths) {
+      snapshot.collectExact(path, result);
+      snapshot.collectUnder(path, false, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return whether the validation stamp of the cached results has to be re-checked before they're used
+   */
+  boolean needsValidation(@NotNull ConnectionKey key, long now) {
+    Snapshot snapshot = getSnapshot(key);
+    return snapshot != null && (snapshot.myValidatedAt < 0 || now - snapshot.myValidatedAt > VALIDATION_INTERVAL);
+  }
+
+  void validate(@NotNull ConnectionKey key, long haveStamp, long now) {
+    Snapshot snapshot = getSnapshot(key);
+    if (snapshot == null) return;
+    if (haveStamp < 0 || snapshot.myHaveStamp != haveStamp) {
+      LOG.debug("have cache for " + key + " is outdated: " + snapshot.myHaveStamp + " vs " + haveStamp);
+      invalidate(key);
+    }
+    else if (now - snapshot.myCreatedAt > MAX_AGE) {
+      LOG.debug("have cache for " + key + " has expired");
+      invalidate(key);
+    }
+    else {
+      snapshot.myValidatedAt = now;
+    }
+  }
+
+  /**
+   * Merges the results of {@code p4 have} run for the given recursive directories into the cache.
+   *
+   * @param haveStamp  the validation stamp obtained before running {@code p4 have}
+   * @param generation the result of {@link #getGeneration} obtained before running {@code p4 have}; the results are dropped
+   *                   if the cache was invalidated since then, as they may predate a sync
+   */
+  void update(@NotNull ConnectionKey key,
+              long haveStamp,
+              long generation,
+              @NotNull Collection<String> recursiveDirs,
+              @NotNull Map<String, Long> revisions,
+              long now) {
+    if (haveStamp < 0 || recursiveDirs.isEmpty()) return;
+    synchronized (mySnapshots) {
+      if (getGeneration(key) != generation) {
+        LOG.debug("have cache for " + key + " was invalidated while 'p4 have' was running");
+        return;
+      }
+      Snapshot old = getSnapshot(key);
+      if (old != null && old.myHaveStamp != haveStamp) {
+        old = null;
+      }
+      mySnapshots.put(key, Snapshot.merge(old, haveStamp, recursiveDirs, revisions, now));
+    }
+  }
+
+  public void invalidate(@NotNull ConnectionKey key) {
+    synchronized (mySnapshots) {
+      myGenerations.merge(key, 1L, Long::sum);
+      myLoaded.add(key);
+      mySnapshots.remove(key);
+      FileUtil.delete(getFile(key));
+    }
+  }
+
+  @Nullable
+  private Snapshot getSnapshot(@NotNull ConnectionKey key) {
+    if (myLoaded.add(key)) {
+      Snapshot loaded = load(getFile(key), key);
+      if (loaded != null) {
+        mySnapshots.putIfAbsent(key, loaded);
+      }
+    }
+    return mySnapshots.get(key);
+  }
+
+  @Override
+  public void dispose() {
+    save();
+  }
+
+  void save() {
+    for (Map.Entry<ConnectionKey, Snapshot> entry : mySnapshots.entrySet()) {
+      File file = getFile(entry.getKey());
+      try {
+        entry.getValue().write(file, entry.getKey());
+      }
+      catch (IOException e) {
+        LOG.info("Cannot save have cache to " + file, e);
+        FileUtil.delete(file);
+      }
+    }
+  }
+
+  private File getFile(ConnectionKey key) {
+    String name = Integer.toHexString((key.getServer() + "|" + key.getClient() + "|" + key.getUser()).hashCode());
+    return new File(myDirectory, FileUtil.sanitizeFileName(key.getClient()) + "-" + name + ".bin");
+  }
+
+  @Nullable
+  private static Snapshot load(File file, ConnectionKey key) {
+    if (!file.isFile()) return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+      if (in.readInt() != VERSION) return null;
+      if (!key.getServer().equals(in.readUTF()) || !key.getClient().equals(in.readUTF()) || !key.getUser().equals(in.readUTF())) {
+        return null;
+      }
+      long haveStamp = in.readLong();
+      long createdAt = in.readLong();
+      int rootCount = in.readInt();
+      List<String> roots = new ArrayList<>(rootCount);
+      for (int i = 0; i < rootCount; i++) {
+        roots.add(in.readUTF());
+      }
+      int size = in.readInt();
+      String[] paths = new String[size];
+      long[] revisions = new long[size];
+      for (int i = 0; i < size; i++) {
+        paths[i] = in.readUTF();
+        revisions[i] = in.readLong();
+      }
+      // loaded from disk: validate before the first use
+      return new Snapshot(haveStamp, createdAt, roots, paths, revisions, -1);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load have cache from " + file, e);
+      FileUtil.delete(file);
+      return null;
+    }
+  }
+
+  static String normalize(String path) {
+    String independent = StringUtil.trimEnd(FileUtil.toSystemIndependentName(path), "/");
+    return SystemInfoRt.isFileSystemCaseSensitive ? independent : StringUtil.toLowerCase(independent);
+  }
+
+  private static final class Snapshot {
+    private final long myHaveStamp;
+    // when the oldest of the results was obtained from the server
+    private final long myCreatedAt;
+    private final List<String> myCoveredRoots;
+    // sorted by normalized path
+    private final String[] myPaths;
+    private final String[] myKeys;
+    private final long[] myRevisions;
+    private volatile long myValidatedAt;
+
+    private Snapshot(long haveStamp, long createdAt, List<String> coveredRoots, String[] paths, long[] revisions, long validatedAt) {
+      myHaveStamp = haveStamp;
+      myCreatedAt = createdAt;
+      myCoveredRoots = coveredRoots;
+      myPaths = paths;
+      myRevisions = revisions;
+      myValidatedAt = validatedAt;
+      myKeys = new String[paths.length];
+      for (int i = 0; i < paths.length; i++) {
+        String key = normalize(paths[i]);
+        myKeys[i] = key.equals(paths[i]) ? paths[i] : key;
+      }
+    }
+
+    static Snapshot merge(@Nullable Snapshot old, long haveStamp, Collection<String> recursiveDirs, Map<String, Long> revisions, long now) {
+      List<String> dirs = new ArrayList<>();
+      for (String dir : recursiveDirs) {
+        dirs.add(normalize(dir));
+      }
+
+      TreeMap<String, Entry> merged = new TreeMap<>();
+      List<String> roots = new ArrayList<>(dirs);
+      if (old != null) {
+        for (int i = 0; i < old.myPaths.length; i++) {
+          if (!isUnderAny(old.myKeys[i], dirs)) {
+            merged.put(old.myKeys[i], new Entry(old.myPaths[i], old.myRevisions[i]));
+          }
+        }
+        for (String root : old.myCoveredRoots) {
+          if (!isUnderAny(root, dirs)) {
+            roots.add(root);
+          }
+        }
+      }
+      for (Map.Entry<String, Long> entry : revisions.entrySet()) {
+        merged.put(normalize(entry.getKey()), new Entry(entry.getKey(), entry.getValue()));
+      }
+
+      String[] paths = new String[merged.size()];
+      long[] revs = new long[merged.size()];
+      int i = 0;
+      for (Entry entry : merged.values()) {
+        paths[i] = entry.path;
+        revs[i] = entry.revision;
+        i++;
+      }
+      return new Snapshot(haveStamp, old != null ? Math.min(old.myCreatedAt, now) : now, roots, paths, revs, now);
+    }
+
+    boolean covers(Collection<String> paths) {
+      for (String path : paths) {
+        if (!isUnderAny(normalize(path), myCoveredRoots)) return false;
+      }
+      return true;
+    }
+
+    void collectExact(String path, Map<String, Long> result) {
+      int index = Arrays.binarySearch(myKeys, normalize(path));
+      if (index >= 0) {
+        result.put(myPaths[index], myRevisions[index]);
+      }
+    }
+
+    void collectUnder(String dir, boolean recursive, Map<String, Long> result) {
+      String prefix = normalize(dir) + "/";
+      int index = Arrays.binarySearch(myKeys, prefix);
+      for (int i = index >= 0 ? index : -index - 1; i < myKeys.length && myKeys[i].startsWith(prefix); i++) {
+        if (recursive || myKeys[i].indexOf('/', prefix.length()) < 0) {
+          result.put(myPaths[i], myRevisions[i]);
+        }
+      }
+    }
+
+    void write(File file, ConnectionKey key) throws IOException {
+      FileUtil.createParentDirs(file);
+      File temp = new File(file.getPath() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+        out.writeInt(VERSION);
+        out.writeUTF(key.getServer());
+        out.writeUTF(key.getClient());
+        out.writeUTF(key.getUser());
+        out.writeLong(myHaveStamp);
+        out.writeLong(myCreatedAt);
+        out.writeInt(myCoveredRoots.size());
+        for (String root : myCoveredRoots) {
+          out.writeUTF(root);
+        }
+        out.writeInt(myPaths.length);
+        for (int i = 0; i < myPaths.length; i++) {
+          out.writeUTF(myPaths[i]);
+          out.writeLong(myRevisions[i]);
+        }
+      }
+      FileUtil.rename(temp, file);
+    }
+
+    private static boolean isUnderAny(String key, Collection<String> dirs) {
+      for (String dir : dirs) {
+        if (key.equals(dir) || key.startsWith(dir + "/")) return true;
+      }
+      return false;
+    }
+  }
+
+  private static final class Entry {
+    final String path;
+    final long revision;
+
+    Entry(String path, long revision) {
+      this.path = path;
+      this.revision = revision;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.util.ThrowableConsumer;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming reader of p4 tagged output ({@code p4 -ztag <command>}, also the native format of {@code p4 fstat}).
+ * <p/>
+ * The output is a sequence of records separated by empty lines, each record consisting of {@code ... key value} lines.
+ * Nested fields ({@code ... ... otherOpen0 user@client}) are flattened, and lines which don't start with {@code ... }
+ * are treated as continuations of the previous multi-line value (e.g. {@code desc} of {@code p4 describe}).
+ * <p/>
+ * Records are decoded directly from the process output stream one by one, so only a single record is held in memory at a time.
+ */
+public final class ZTagParser {
+  @NonNls public static final String ZTAG = "-ztag";
+  @NonNls private static final String FIELD_PREFIX = "... ";
+
+  private final InputStream myStream;
+  private final ByteArrayOutputStream myLineBuffer = new ByteArrayOutputStream(256);
+  private String myPeekedLine;
+  private boolean myEof;
+
+  public ZTagParser(@NotNull InputStream stream) {
+    myStream = stream;
+  }
+
+  /**
+   * @return the next record with fields in output order, or null if the output is over
+   */
+  @Nullable
+  public Map<String, String> nextRecord() throws IOException {
+    Map<String, String> record = null;
+    String lastKey = null;
+    String line;
+    while ((line = readLine()) != null) {
+      if (line.isEmpty()) {
+        if (record == null) continue;
+        String next = peekLine();
+        if (next == null || next.startsWith(FIELD_PREFIX)) break;
+        // an empty line inside a multi-line value
+        record.computeIfPresent(lastKey, (k, v) -> v + "\n");
+        continue;
+      }
+      if (!line.startsWith(FIELD_PREFIX)) {
+        if (lastKey != null) {
+          String continuation = line;
+          record.computeIfPresent(lastKey, (k, v) -> v + "\n" + continuation);
+        }
+        continue;
+      }
+
+      String field = line;
+      while (field.startsWith(FIELD_PREFIX)) {
+        field = field.substring(FIELD_PREFIX.length());
+      }
+      int space = field.indexOf(' ');
+      String key = space < 0 ? field : field.substring(0, space);
+      String value = space < 0 ? "" : field.substring(space + 1);
+      if (record == null) {
+        record = new LinkedHashMap<>();
+      }
+      record.put(key, value);
+      lastKey = key;
+    }
+    return record;
+  }
+
+  public static void parse(@NotNull InputStream stream, @NotNull ThrowableConsumer<? super Map<String, String>, ? extends VcsException> consumer)
+    throws IOException, VcsException {
+    ZTagParser parser = new ZTagParser(stream);
+    Map<String, String> record;
+    while ((record = parser.nextRecord()) != null) {
+      consumer.consume(record);
+    }
+  }
+
+  /**
+   * Parses the stdout of the given result record by record, without converting the whole output to a string.
+   */
+  public static void parse(@NotNull ExecResult result, @NotNull ThrowableConsumer<? super Map<String, String>, ? extends VcsException> consumer)
+    throws VcsException {
+    try {
+      result.allowSafeStdoutUsage(stream -> {
+        try {
+          parse(stream, consumer);
+        }
+        catch (VcsException e) {
+          throw new IOException(e);
+        }
+      });
+    }
+    catch (IOException e) {
+      if (e.getCause() instanceof VcsException) {
+        throw (VcsException)e.getCause();
+      }
+      throw new VcsException(e);
+    }
+  }
+
+  @Nullable
+  private String peekLine() throws IOException {
+    if (myPeekedLine == null) {
+      myPeekedLine = doReadLine();
+    }
+    return myPeekedLine;
+  }
+
+  @Nullable
+  private String readLine() throws IOException {
+    if (myPeekedLine != null) {
+      String line = myPeekedLine;
+      myPeekedLine = null;
+      return line;
+    }
+    return doReadLine();
+  }
+
+  @Nullable
+  private String doReadLine() throws IOException {
+    if (myEof) return null;
+    myLineBuffer.reset();
+    int b;
+    while ((b = myStream.read()) != -1) {
+      if (b == '\n') break;
+      myLineBuffer.write(b);
+    }
+    if (b == -1) {
+      myEof = true;
+      if (myLineBuffer.size() == 0) return null;
+    }
+    String line = myLineBuffer.toString(StandardCharsets.UTF_8);
+    return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+  }
+}
@@ -35,10 +35,14 @@ import com.intellij.util.EmptyConsumer;
 import com.intellij.util.MemoryDumpHelper;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.idea.perforce.PerforceBundle;
+import org.jetbrains.idea.perforce.StreamGobbler;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
 import org.jetbrains.idea.perforce.application.PerforceManager;
 import org.jetbrains.idea.perforce.perforce.*;
+import org.jetbrains.idea.perforce.util.tracer.CommandMetrics;
 
 import javax.swing.*;
 import java.io.File;
@@ -137,7 +141,7 @@ public abstract class AbstractP4Connection implements P4Connection {
     setEnvironment(cwd, cmd.getEnvironment());
 
     final CommandDebugInfoWrapper debugInfoWrapper = new CommandDebugInfoWrapper(cmd);
-    final Tracer tracer = new Tracer(perforceSettings.getProject(), p4args.length > 0 ? p4args[0] : "", debugInfoWrapper);
+    final Tracer tracer = new Tracer(perforceSettings.getProject(), StringUtil.notNullize(getCommandName(p4args)), debugInfoWrapper);
 
     debugCmd(cwd, debugInfoWrapper, cmd.getEnvironment());
 
@@ -146,6 +150,7 @@ public abstract class AbstractP4Connection implements P4Connection {
     MyInterruptibleProcess worker = null;
     PerforceProcessWaiter processWaiter = null;
     String processList = null;
+    long started = System.nanoTime();
     try {
       tracer.start();
       proc = cmd.createProcess();
@@ -171,6 +176,7 @@ public abstract class AbstractP4Connection implements P4Connection {
       }
 
       tracer.stop();
+      registerMetrics(p4args, System.nanoTime() - started, rc, processWaiter);
       if (worker != null) {
         worker.closeProcess();
       } else if (proc != null) {
@@ -265,7 +271,7 @@ public abstract class AbstractP4Connection implements P4Connection {
 
   private static GeneralCommandLine fillCmdLine(PerforcePhysicalConnectionParametersI perforceSettings, String[] connArgs, String[] p4args) {
     GeneralCommandLine cmd = new GeneralCommandLine(perforceSettings.getPathToExec());
-    String cmdName = p4args.length == 0 ? null : p4args[0];
+    String cmdName = getCommandName(p4args);
     if (ourCommandCallback != EmptyConsumer.getInstance()) {
       ourCommandCallback.consume(StringUtil.join(p4args, " "));
     }
@@ -278,6 +284,23 @@ public abstract class AbstractP4Connection implements P4Connection {
     return cmd;
   }
 
+  /**
+   * @return the p4 command name skipping global options like {@code -x <file>} or {@code -ztag}
+   */
+  @Nullable
+  public static String getCommandName(String @NotNull [] p4args) {
+    for (int i = 0; i < p4args.length; i++) {
+      String arg = p4args[i];
+      if ("-x".equals(arg)) {
+        i++;
+      }
+      else if (!arg.startsWith("-")) {
+        return arg;
+      }
+    }
+    return p4args.length == 0 ? null : p4args[0];
+  }
+
   private static void setEnvironment(File cwd, Map<String, String> env) {
     // On Unix, Perforce relies on the "PWD" variable to determine its current working directory
     // for finding .p4config.  We need to make sure it matches the directory we want to use.
@@ -392,6 +415,14 @@ public abstract class AbstractP4Connection implements P4Connection {
     }
   }
 
+  private void registerMetrics(String[] p4args, long nanos, int rc, @Nullable PerforceProcessWaiter processWaiter) {
+    if (!CommandMetrics.isEnabled()) return;
+    StreamGobbler output = rc == 0 && processWaiter != null ? processWaiter.getInStreamListener() : null;
+    ConnectionKey key = this instanceof PerforceLocalConnection ? null : getConnectionKey();
+    CommandMetrics.getInstance().registerFork(StringUtil.notNullize(getCommandName(p4args)), key, nanos,
+                                              output == null ? 0 : output.getResultLength(), rc != 0);
+  }
+
   private static class Tracer {
     private final PerforceManager myPm;
     @NotNull
@@ -0,0 +1,304 @@
+package org.jetbrains.idea.perforce.perforce.connections;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.util.ArrayUtilRt;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+import org.jetbrains.idea.perforce.perforce.ExecResult;
+import org.jetbrains.idea.perforce.util.tracer.CommandMetrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pooled connection mode for p4 commands.
+ * <p/>
+ * p4 has no long-living session that several commands could be sent through, so every command still costs a process fork.
+ * What can be saved is the forks themselves: read-only commands which are issued for the same {@link ConnectionKey} with the same
+ * arguments while an identical command is still running are attached to that running command and receive a copy of its output.
+ * A command is attached only if no modifying command for the same key has finished since the running one was started, so a caller
+ * never receives output which predates its own edit, sync or revert.
+ * Additionally, the number of p4 processes running simultaneously against one server/client/user is limited by a per-key pool,
+ * so that bursts of refreshes queue up instead of flooding the server (or proxy) with parallel forks.
+ */
+public final class P4CommandMultiplexer {
+  private static final Logger LOG = Logger.getInstance(P4CommandMultiplexer.class);
+
+  @NonNls private static final Set<String> SHAREABLE_COMMANDS = Set.of(
+    "fstat", "opened", "where", "have", "filelog", "describe", "changes", "files", "dirs", "info", "annotate", "resolved", "counter");
+
+  private final int myPoolSize;
+  @Nullable private final CommandMetrics myMetrics;
+  private final Map<ConnectionKey, Semaphore> myPools = new ConcurrentHashMap<>();
+  private final Map<ConnectionKey, AtomicLong> myFinishedWrites = new ConcurrentHashMap<>();
+  private final Map<CommandKey, InFlight> myInFlight = new HashMap<>();
+
+  private final AtomicLong myForks = new AtomicLong();
+  private final AtomicLong mySavedForks = new AtomicLong();
+  private final AtomicInteger myWaitingFollowers = new AtomicInteger();
+
+  public P4CommandMultiplexer(int poolSize) {
+    this(poolSize, null);
+  }
+
+  /**
+   * @param metrics receives the time commands wait for a free connection of the pool, and the number of shared results,
+   *                while {@link CommandMetrics#isEnabled()}
+   */
+  public P4CommandMultiplexer(int poolSize, @Nullable CommandMetrics metrics) {
+    myPoolSize = Math.max(1, poolSize);
+    myMetrics = metrics;
+  }
+
+  public static boolean isShareable(@NotNull String[] p4cmd, @Nullable StringBuffer inputStream) {
+    String name = AbstractP4Connection.getCommandName(p4cmd);
+    return inputStream == null && name != null && SHAREABLE_COMMANDS.contains(name);
+  }
+
+  /**
+   * Runs the command through the pool of the given connection key, or joins an identical command which is already running.
+   *
+   * @param shareable whether the command is read-only and its output may be handed out to other callers
+   * @param runner    actually forks p4; called at most once per distinct in-flight command
+   */
+  @NotNull
+  public ExecResult execute(@NotNull ConnectionKey connectionKey,
+                            @NotNull List<String> command,
+                            boolean shareable,
+                            @NotNull Computable<? extends ExecResult> runner) {
+    AtomicLong finishedWrites = myFinishedWrites.computeIfAbsent(connectionKey, __ -> new AtomicLong());
+    if (!shareable) {
+      try {
+        return runPooled(connectionKey, command, runner);
+      }
+      finally {
+        finishedWrites.incrementAndGet();
+      }
+    }
+
+    CommandKey key = new CommandKey(connectionKey, command);
+    InFlight inFlight;
+    synchronized (myInFlight) {
+      inFlight = myInFlight.get(key);
+      if (inFlight != null && inFlight.myLeader == Thread.currentThread()) {
+        // re-entrant call, e.g. a retry after a silent re-login
+        inFlight = null;
+      }
+      else if (inFlight != null && inFlight.myFinishedWrites == finishedWrites.get()) {
+        inFlight.myFollowers++;
+      }
+      else {
+        // the running command (if any) may have been started before a modification this caller relies on
+        myInFlight.put(key, inFlight = new InFlight(finishedWrites.get()));
+      }
+    }
+    if (inFlight == null) {
+      return runPooled(connectionKey, command, runner);
+    }
+    if (inFlight.myLeader != Thread.currentThread()) {
+      ExecResult shared;
+      myWaitingFollowers.incrementAndGet();
+      try {
+        shared = inFlight.await();
+      }
+      finally {
+        myWaitingFollowers.decrementAndGet();
+      }
+      if (shared != null) {
+        mySavedForks.incrementAndGet();
+        if (myMetrics != null && CommandMetrics.isEnabled()) {
+          myMetrics.registerSharedResult(getCommandName(command), connectionKey);
+        }
+        return shared;
+      }
+      // the leader failed with an exception: fall back to running the command ourselves
+      return runPooled(connectionKey, command, runner);
+    }
+
+    ExecResult result = null;
+    try {
+      result = runPooled(connectionKey, command, runner);
+    }
+    finally {
+      int followers;
+      synchronized (myInFlight) {
+        myInFlight.remove(key, inFlight);
+        followers = inFlight.myFollowers;
+      }
+      if (followers > 0 && result != null) {
+        result = inFlight.publish(result);
+      }
+      else {
+        inFlight.publish(null);
+      }
+    }
+    return result;
+  }
+
+  private ExecResult runPooled(@NotNull ConnectionKey connectionKey,
+                               @NotNull List<String> command,
+                               @NotNull Computable<? extends ExecResult> runner) {
+    Semaphore pool = myPools.computeIfAbsent(connectionKey, __ -> new Semaphore(myPoolSize, true));
+    long started = System.nanoTime();
+    acquire(pool);
+    if (myMetrics != null && CommandMetrics.isEnabled()) {
+      myMetrics.registerQueueTime(getCommandName(command), connectionKey, System.nanoTime() - started);
+    }
+    try {
+      myForks.incrementAndGet();
+      return runner.compute();
+    }
+    finally {
+      pool.release();
+    }
+  }
+
+  private static String getCommandName(List<String> command) {
+    String name = AbstractP4Connection.getCommandName(ArrayUtilRt.toStringArray(command));
+    return name == null ? "" : name;
+  }
+
+  private static void acquire(Semaphore pool) {
+    try {
+      while (!pool.tryAcquire(50, TimeUnit.MILLISECONDS)) {
+        ProgressManager.checkCanceled();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+  }
+
+  /**
+   * @return the number of p4 processes actually started through this multiplexer
+   */
+  public long getForkCount() {
+    return myForks.get();
+  }
+
+  /**
+   * @return the number of commands which were answered with the output of an identical concurrently running command
+   */
+  public long getSavedForkCount() {
+    return mySavedForks.get();
+  }
+
+  /**
+   * @return the number of commands currently waiting for the output of an identical running command
+   */
+  @TestOnly
+  public int getWaitingFollowerCount() {
+    return myWaitingFollowers.get();
+  }
+
+  private static final class InFlight {
+    private final CountDownLatch myDone = new CountDownLatch(1);
+    private final Thread myLeader = Thread.currentThread();
+    private final long myFinishedWrites;
+    private int myFollowers; // guarded by myInFlight
+    private volatile Snapshot mySnapshot;
+
+    private InFlight(long finishedWrites) {
+      myFinishedWrites = finishedWrites;
+    }
+
+    @Nullable
+    ExecResult await() {
+      try {
+        while (!myDone.await(50, TimeUnit.MILLISECONDS)) {
+          ProgressManager.checkCanceled();
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProcessCanceledException(e);
+      }
+      Snapshot snapshot = mySnapshot;
+      return snapshot == null ? null : snapshot.toExecResult();
+    }
+
+    /**
+     * Output gobblers may be backed by temporary files which can be read only once,
+     * so the leader's result is materialized before being shared.
+     */
+    @Nullable
+    ExecResult publish(@Nullable ExecResult result) {
+      try {
+        if (result == null) return null;
+        if (result.getException() != null) {
+          // don't share failures, let the followers retry on their own
+          return result;
+        }
+        Snapshot snapshot;
+        try {
+          snapshot = new Snapshot(result.getExitCode(), result.getStdout(), result.getStderr());
+        }
+        catch (RuntimeException e) {
+          LOG.info(e);
+          return result;
+        }
+        result.cleanup();
+        mySnapshot = snapshot;
+        return snapshot.toExecResult();
+      }
+      finally {
+        myDone.countDown();
+      }
+    }
+  }
+
+  private static final class Snapshot {
+    private final int myExitCode;
+    private final String myStdout;
+    private final String myStderr;
+
+    private Snapshot(int exitCode, String stdout, String stderr) {
+      myExitCode = exitCode;
+      myStdout = stdout;
+      myStderr = stderr;
+    }
+
+    ExecResult toExecResult() {
+      ExecResult result = new ExecResult();
+      result.setExitCode(myExitCode);
+      result.setStdout(myStdout);
+      result.setStderr(myStderr);
+      return result;
+    }
+  }
+
+  private static final class CommandKey {
+    private final ConnectionKey myConnectionKey;
+    private final List<String> myCommand;
+
+    private CommandKey(ConnectionKey connectionKey, List<String> command) {
+      myConnectionKey = connectionKey;
+      myCommand = new ArrayList<>(command);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      CommandKey key = (CommandKey)o;
+      return myConnectionKey.equals(key.myConnectionKey) && myCommand.equals(key.myCommand);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myConnectionKey.hashCode() + myCommand.hashCode();
+    }
+  }
+}
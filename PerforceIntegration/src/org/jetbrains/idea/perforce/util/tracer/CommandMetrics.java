@@ -0,0 +1,279 @@
+package org.jetbrains.idea.perforce.util.tracer;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Live metrics of the p4 processes started by the IDE, by command name and {@link ConnectionKey}:
+ * latency and pool queueing time histograms, the number of forks, failures, commands answered by the output of
+ * an identical concurrent command, and the number of bytes read from p4 stdout.
+ * <p/>
+ * Unlike {@link TracerManager}, which periodically dumps averages to the log, the metrics are always up to date and can be
+ * exported as JSON or in the OpenMetrics text format, or inspected in the "Perforce Metrics" tool window.
+ * Collected only while the {@code p4.command.metrics} registry key is on.
+ */
+@Service
+public final class CommandMetrics {
+  @NonNls private static final String LOCAL = "local";
+  private static final long[] BUCKET_BOUNDS_MICROS = {
+    1_000, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000, 60_000_000};
+
+  private final Map<SeriesKey, Series> mySeries = new ConcurrentHashMap<>();
+
+  public static boolean isEnabled() {
+    return Registry.is("p4.command.metrics");
+  }
+
+  public static CommandMetrics getInstance() {
+    return ApplicationManager.getApplication().getService(CommandMetrics.class);
+  }
+
+  public void registerFork(@NotNull String command, @Nullable ConnectionKey key, long nanos, long bytesRead, boolean failed) {
+    Series series = getSeries(command, key);
+    series.myLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    series.myForks.incrementAndGet();
+    series.myBytesRead.addAndGet(bytesRead);
+    if (failed) {
+      series.myFailures.incrementAndGet();
+    }
+  }
+
+  public void registerQueueTime(@NotNull String command, @Nullable ConnectionKey key, long nanos) {
+    getSeries(command, key).myQueueTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+  }
+
+  public void registerSharedResult(@NotNull String command, @Nullable ConnectionKey key) {
+    getSeries(command, key).myShared.incrementAndGet();
+  }
+
+  public void reset() {
+    mySeries.clear();
+  }
+
+  private Series getSeries(String command, @Nullable ConnectionKey key) {
+    return mySeries.computeIfAbsent(new SeriesKey(command, key == null ? LOCAL : key.getServer(),
+                                                  key == null ? LOCAL : key.getClient(), key == null ? LOCAL : key.getUser()),
+                                    __ -> new Series());
+  }
+
+  /**
+   * @return the current values, sorted by the total time spent in the command
+   */
+  @NotNull
+  public List<Summary> getSummaries() {
+    List<Summary> result = new ArrayList<>();
+    for (Map.Entry<SeriesKey, Series> entry : mySeries.entrySet()) {
+      result.add(new Summary(entry.getKey(), entry.getValue()));
+    }
+    result.sort(Comparator.comparingLong((Summary s) -> s.totalMicros).reversed().thenComparing(s -> s.command));
+    return result;
+  }
+
+  @NotNull
+  public String toJson() {
+    StringBuilder sb = new StringBuilder("{\n  \"commands\": [");
+    List<Summary> summaries = getSummaries();
+    for (int i = 0; i < summaries.size(); i++) {
+      Summary s = summaries.get(i);
+      sb.append(i == 0 ? "\n" : ",\n");
+      sb.append("    {\"command\": ").append(quote(s.command))
+        .append(", \"server\": ").append(quote(s.server))
+        .append(", \"client\": ").append(quote(s.client))
+        .append(", \"user\": ").append(quote(s.user))
+        .append(", \"forks\": ").append(s.forks)
+        .append(", \"failures\": ").append(s.failures)
+        .append(", \"shared\": ").append(s.shared)
+        .append(", \"bytesRead\": ").append(s.bytesRead)
+        .append(", \"totalMs\": ").append(toMillis(s.totalMicros))
+        .append(", \"latencyMs\": {\"p50\": ").append(toMillis(s.p50Micros))
+        .append(", \"p90\": ").append(toMillis(s.p90Micros))
+        .append(", \"p99\": ").append(toMillis(s.p99Micros))
+        .append(", \"max\": ").append(toMillis(s.maxMicros))
+        .append("}, \"queueMs\": {\"count\": ").append(s.queued)
+        .append(", \"total\": ").append(toMillis(s.queueTotalMicros))
+        .append(", \"p99\": ").append(toMillis(s.queueP99Micros))
+        .append(", \"max\": ").append(toMillis(s.queueMaxMicros))
+        .append("}}");
+    }
+    return sb.append(summaries.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+  }
+
+  /**
+   * @return the metrics in the OpenMetrics text exposition format
+   */
+  @NotNull
+  public String toOpenMetrics() {
+    StringBuilder sb = new StringBuilder();
+    List<Map.Entry<SeriesKey, Series>> entries = new ArrayList<>(mySeries.entrySet());
+    entries.sort(Comparator.comparing(e -> e.getKey().toString()));
+
+    appendHistogram(sb, "p4_command_duration_seconds", "Duration of p4 processes", entries, false);
+    appendHistogram(sb, "p4_command_queue_seconds", "Time p4 commands waited for a free connection in the pool", entries, true);
+    appendCounter(sb, "p4_command_forks", "Number of started p4 processes", entries, s -> s.myForks.get());
+    appendCounter(sb, "p4_command_failures", "Number of p4 processes which failed to run", entries, s -> s.myFailures.get());
+    appendCounter(sb, "p4_command_shared", "Number of commands answered with the output of an identical running command", entries,
+                  s -> s.myShared.get());
+    appendCounter(sb, "p4_command_read_bytes", "Number of bytes read from p4 stdout", entries, s -> s.myBytesRead.get());
+    return sb.append("# EOF\n").toString();
+  }
+
+  public void exportJson(@NotNull File file) throws IOException {
+    FileUtil.writeToFile(file, toJson());
+  }
+
+  public void exportOpenMetrics(@NotNull File file) throws IOException {
+    FileUtil.writeToFile(file, toOpenMetrics());
+  }
+
+  private static void appendHistogram(StringBuilder sb, String name, String help, List<Map.Entry<SeriesKey, Series>> entries, boolean queue) {
+    sb.append("# TYPE ").append(name).append(" histogram\n");
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    for (Map.Entry<SeriesKey, Series> entry : entries) {
+      LatencyHistogram histogram = queue ? entry.getValue().myQueueTime : entry.getValue().myLatency;
+      if (histogram.getCount() == 0) continue;
+      String labels = entry.getKey().toLabels();
+      long[] counts = histogram.getCumulativeCounts(BUCKET_BOUNDS_MICROS);
+      for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"").append(toSeconds(BUCKET_BOUNDS_MICROS[i])).append("\"} ")
+          .append(counts[i]).append('\n');
+      }
+      sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(histogram.getCount()).append('\n');
+      sb.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+      sb.append(name).append("_sum{").append(labels).append("} ").append(toSeconds(histogram.getSum())).append('\n');
+    }
+  }
+
+  private static void appendCounter(StringBuilder sb, String name, String help, List<Map.Entry<SeriesKey, Series>> entries,
+                                    ToLongFunction<Series> value) {
+    sb.append("# TYPE ").append(name).append(" counter\n");
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    for (Map.Entry<SeriesKey, Series> entry : entries) {
+      sb.append(name).append("_total{").append(entry.getKey().toLabels()).append("} ").append(value.applyAsLong(entry.getValue())).append('\n');
+    }
+  }
+
+  private static String toMillis(long micros) {
+    return String.format(Locale.US, "%.3f", micros / 1000.0);
+  }
+
+  private static String toSeconds(long micros) {
+    return String.format(Locale.US, "%.6f", micros / 1_000_000.0);
+  }
+
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      }
+      else if (c < ' ') {
+        sb.append(String.format(Locale.US, "\\u%04x", (int)c));
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  private static final class Series {
+    private final LatencyHistogram myLatency = new LatencyHistogram();
+    private final LatencyHistogram myQueueTime = new LatencyHistogram();
+    private final AtomicLong myForks = new AtomicLong();
+    private final AtomicLong myFailures = new AtomicLong();
+    private final AtomicLong myShared = new AtomicLong();
+    private final AtomicLong myBytesRead = new AtomicLong();
+  }
+
+  private static final class SeriesKey {
+    private final String myCommand;
+    private final String myServer;
+    private final String myClient;
+    private final String myUser;
+
+    private SeriesKey(String command, String server, String client, String user) {
+      myCommand = command;
+      myServer = server;
+      myClient = client;
+      myUser = user;
+    }
+
+    String toLabels() {
+      return "command=" + quote(myCommand) + ",server=" + quote(myServer) + ",client=" + quote(myClient) + ",user=" + quote(myUser);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      SeriesKey key = (SeriesKey)o;
+      return myCommand.equals(key.myCommand) && myServer.equals(key.myServer) && myClient.equals(key.myClient) && myUser.equals(key.myUser);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myCommand, myServer, myClient, myUser);
+    }
+
+    @Override
+    public String toString() {
+      return StringUtil.join(new String[]{myCommand, myServer, myClient, myUser}, "|");
+    }
+  }
+
+  public static final class Summary {
+    public final String command;
+    public final String server;
+    public final String client;
+    public final String user;
+    public final long forks;
+    public final long failures;
+    public final long shared;
+    public final long bytesRead;
+    public final long totalMicros;
+    public final long p50Micros;
+    public final long p90Micros;
+    public final long p99Micros;
+    public final long maxMicros;
+    public final long queued;
+    public final long queueTotalMicros;
+    public final long queueP99Micros;
+    public final long queueMaxMicros;
+
+    private Summary(SeriesKey key, Series series) {
+      command = key.myCommand;
+      server = key.myServer;
+      client = key.myClient;
+      user = key.myUser;
+      forks = series.myForks.get();
+      failures = series.myFailures.get();
+      shared = series.myShared.get();
+      bytesRead = series.myBytesRead.get();
+      totalMicros = series.myLatency.getSum();
+      p50Micros = series.myLatency.getValueAtQuantile(0.5);
+      p90Micros = series.myLatency.getValueAtQuantile(0.9);
+      p99Micros = series.myLatency.getValueAtQuantile(0.99);
+      maxMicros = series.myLatency.getMax();
+      queued = series.myQueueTime.getCount();
+      queueTotalMicros = series.myQueueTime.getSum();
+      queueP99Micros = series.myQueueTime.getValueAtQuantile(0.99);
+      queueMaxMicros = series.myQueueTime.getMax();
+    }
+  }
+}
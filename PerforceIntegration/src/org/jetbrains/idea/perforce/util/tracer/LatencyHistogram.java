@@ -0,0 +1,103 @@
+package org.jetbrains.idea.perforce.util.tracer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non-negative values (HDR-style): every power of two is split into {@link #SUB_BUCKETS} buckets,
+ * so that percentiles are reported with a relative error below 1/{@link #SUB_BUCKETS}, whatever the range of the values.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values below 2 * SUB_BUCKETS have a bucket each
+  private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+  private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+  private final AtomicLongArray myCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong myCount = new AtomicLong();
+  private final AtomicLong mySum = new AtomicLong();
+  private final AtomicLong myMax = new AtomicLong();
+
+  void record(long value) {
+    long v = Math.max(0, value);
+    myCounts.incrementAndGet(getBucket(v));
+    myCount.incrementAndGet();
+    mySum.addAndGet(v);
+    myMax.accumulateAndGet(v, Math::max);
+  }
+
+  long getCount() {
+    return myCount.get();
+  }
+
+  long getSum() {
+    return mySum.get();
+  }
+
+  long getMax() {
+    return myMax.get();
+  }
+
+  /**
+   * @param quantile a value in [0, 1]
+   * @return the upper bound of the bucket containing the given quantile, or 0 if nothing was recorded
+   */
+  long getValueAtQuantile(double quantile) {
+    long count = myCount.get();
+    if (count == 0) return 0;
+    long target = Math.max(1, (long)Math.ceil(quantile * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += myCounts.get(i);
+      if (seen >= target) {
+        return Math.min(getUpperBound(i), myMax.get());
+      }
+    }
+    return myMax.get();
+  }
+
+  /**
+   * Values of the bucket which contains a bound are assumed to be spread uniformly over the bucket, so each count may be off
+   * by a part of that bucket, in either direction, but never by values which differ from the bound by more than 1/{@link #SUB_BUCKETS}.
+   *
+   * @return cumulative counts of values not greater than each of the given (ascending) bounds
+   */
+  long[] getCumulativeCounts(long[] bounds) {
+    long[] result = new long[bounds.length];
+    long seen = 0;
+    int bound = 0;
+    for (int i = 0; i < BUCKET_COUNT && bound < bounds.length; i++) {
+      long count = myCounts.get(i);
+      long lower = getLowerBound(i);
+      long upper = getUpperBound(i);
+      while (bound < bounds.length && upper > bounds[bound]) {
+        long below = bounds[bound] < lower ? 0 : Math.round((double)count * (bounds[bound] - lower + 1) / ((double)upper - lower + 1));
+        result[bound++] = seen + below;
+      }
+      seen += count;
+    }
+    while (bound < bounds.length) {
+      result[bound++] = seen;
+    }
+    return result;
+  }
+
+  static int getBucket(long value) {
+    if (value < LINEAR_BUCKETS) return (int)value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long getLowerBound(int bucket) {
+    if (bucket < LINEAR_BUCKETS) return bucket;
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    return (long)(SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  static long getUpperBound(int bucket) {
+    return bucket + 1 < BUCKET_COUNT ? getLowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,57 @@
+package org.jetbrains.idea.perforce;
+
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.application.P4IgnoreMatcher;
+
+public class P4IgnoreMatcherTest extends TestCase {
+  public void testUnanchoredRulesMatchAtAnyDepth() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("# comment\n\n*.class\nbuild/\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("A.class", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("src/pkg/A.class", false));
+    assertNull(matcher.isIgnored("src/pkg/A.java", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("module/build/classes/A.txt", false));
+    assertNull(matcher.isIgnored("module/build", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("module/build", true));
+  }
+
+  public void testAnchoredRules() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("/out\ndocs/*.html\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("out", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("out/production/A.class", false));
+    assertNull(matcher.isIgnored("module/out/A.class", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("docs/index.html", false));
+    assertNull(matcher.isIgnored("docs/api/index.html", false));
+    assertNull(matcher.isIgnored("module/docs/index.html", false));
+  }
+
+  public void testRecursiveWildcards() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("gen/**/*.java\nlogs/...\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("gen/A.java", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("gen/a/b/A.java", false));
+    assertNull(matcher.isIgnored("src/gen/A.java", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("logs/2020/01/x.log", false));
+  }
+
+  public void testLastMatchingRuleWins() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("*.log\n!keep.log\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("a/debug.log", false));
+    assertEquals(Boolean.FALSE, matcher.isIgnored("a/keep.log", false));
+
+    matcher = P4IgnoreMatcher.parse("!keep.log\n*.log\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("a/keep.log", false));
+  }
+
+  public void testFilesInIgnoredDirectoriesCannotBeReincluded() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("tmp/\n!tmp/keep.txt\n", true);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("tmp/keep.txt", false));
+  }
+
+  public void testSpecialCharactersAndCase() {
+    P4IgnoreMatcher matcher = P4IgnoreMatcher.parse("file(1).txt\n?.tmp\n", false);
+    assertEquals(Boolean.TRUE, matcher.isIgnored("dir/FILE(1).TXT", false));
+    assertNull(matcher.isIgnored("dir/file1.txt", false));
+    assertEquals(Boolean.TRUE, matcher.isIgnored("a.tmp", false));
+    assertNull(matcher.isIgnored("ab.tmp", false));
+    assertTrue(P4IgnoreMatcher.parse("# only comments\n!\n/\n", true).isEmpty());
+  }
+}
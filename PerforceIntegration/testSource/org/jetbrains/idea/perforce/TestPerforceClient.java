@@ -65,6 +65,12 @@ public class TestPerforceClient implements PerforceClient {
     return Collections.emptyList();
   }
 
+  @Nullable
+  @Override
+  public String getCachedLineEnd() {
+    return "local";
+  }
+
   @Override
   public String getUserName() {
     return myUserName;
@@ -0,0 +1,33 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+public class AdaptiveChunkSizeTest extends TestCase {
+  private static final ConnectionKey FAST = new ConnectionKey("fast:1666", "client", "user");
+  private static final ConnectionKey SLOW = new ConnectionKey("slow:1666", "client", "user");
+
+  public void testUnknownServerGetsMaximumChunk() {
+    AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 2000, 1000);
+    assertEquals(2000, chunkSize.getChunkSize(FAST));
+  }
+
+  public void testChunkFollowsMeasuredLatency() {
+    AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 2000, 1000);
+    chunkSize.registerCall(FAST, 1000, 100);
+    chunkSize.registerCall(SLOW, 1000, 4000);
+
+    assertEquals(2000, chunkSize.getChunkSize(FAST));
+    assertEquals(250, chunkSize.getChunkSize(SLOW));
+  }
+
+  public void testChunkIsClampedAndSmoothed() {
+    AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(100, 2000, 1000);
+    chunkSize.registerCall(SLOW, 10, 10000);
+    assertEquals(100, chunkSize.getChunkSize(SLOW));
+
+    // a single fast call doesn't make the server look fast at once
+    chunkSize.registerCall(SLOW, 1000, 10);
+    assertEquals(100, chunkSize.getChunkSize(SLOW));
+  }
+}
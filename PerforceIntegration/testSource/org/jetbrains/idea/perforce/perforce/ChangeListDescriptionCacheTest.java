@@ -0,0 +1,31 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class ChangeListDescriptionCacheTest extends TestCase {
+  public void testDescriptionsAreKeptPerServer() {
+    ChangeListDescriptionCache cache = new ChangeListDescriptionCache(10);
+    cache.put("a:1666", 1, "first");
+    cache.put("b:1666", 1, "other server");
+
+    assertEquals("first", cache.get("a:1666", 1));
+    assertEquals("other server", cache.get("b:1666", 1));
+    assertNull(cache.get("a:1666", 2));
+    assertEquals(List.of(2L, 3L), cache.getMissing("a:1666", List.of(1L, 2L, 3L)));
+  }
+
+  public void testLeastRecentlyUsedDescriptionsAreEvicted() {
+    ChangeListDescriptionCache cache = new ChangeListDescriptionCache(2);
+    cache.put("a:1666", 1, "one");
+    cache.put("a:1666", 2, "two");
+    assertEquals("one", cache.get("a:1666", 1));
+
+    cache.put("a:1666", 3, "three");
+
+    assertEquals("one", cache.get("a:1666", 1));
+    assertNull(cache.get("a:1666", 2));
+    assertEquals("three", cache.get("a:1666", 3));
+  }
+}
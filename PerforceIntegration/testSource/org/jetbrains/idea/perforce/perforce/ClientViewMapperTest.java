@@ -0,0 +1,122 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ClientViewMapperTest extends TestCase {
+  private static final List<String> ROOTS = Collections.singletonList("/home/user/ws");
+
+  public void testRecursiveMappings() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...",
+                                     "//depot/lib/... //ws/third-party/lib/...");
+    assertEquals("//ws/src/A.java", mapper.toClientPath("//depot/main/src/A.java"));
+    assertEquals("//ws/third-party/lib/x.jar", mapper.toClientPath("//depot/lib/x.jar"));
+    assertEquals("//depot/lib/x.jar", mapper.toDepotPath("//ws/third-party/lib/x.jar"));
+    assertNull(mapper.toClientPath("//depot/other/A.java"));
+  }
+
+  public void testExclusions() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...",
+                                     "-//depot/main/generated/... //ws/generated/...");
+    assertEquals("//ws/src/A.java", mapper.toClientPath("//depot/main/src/A.java"));
+    assertNull(mapper.toClientPath("//depot/main/generated/B.java"));
+    assertNull(mapper.toDepotPath("//ws/generated/B.java"));
+  }
+
+  public void testLaterLineWins() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...",
+                                     "//depot/patched/docs/... //ws/docs/...");
+    assertEquals("//depot/patched/docs/a.txt", mapper.toDepotPath("//ws/docs/a.txt"));
+    assertEquals("//ws/docs/a.txt", mapper.toClientPath("//depot/patched/docs/a.txt"));
+    // hidden by the later line: the server knows better
+    assertNull(mapper.toClientPath("//depot/main/docs/a.txt"));
+  }
+
+  public void testOverlay() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...",
+                                     "+//depot/overlay/... //ws/...");
+    assertEquals("//depot/overlay/a.txt", mapper.toDepotPath("//ws/a.txt"));
+  }
+
+  public void testSegmentWildcardsAndPositionalReferences() {
+    ClientViewMapper mapper = create("//depot/main/*.java //ws/java/*.java",
+                                     "//depot/%%1/%%2.txt //ws/text/%%2/%%1.txt");
+    assertEquals("//ws/java/A.java", mapper.toClientPath("//depot/main/A.java"));
+    assertNull(mapper.toClientPath("//depot/main/sub/A.java"));
+    assertEquals("//ws/text/readme/docs.txt", mapper.toClientPath("//depot/docs/readme.txt"));
+    assertEquals("//depot/docs/readme.txt", mapper.toDepotPath("//ws/text/readme/docs.txt"));
+  }
+
+  public void testCaseInsensitiveAndQuoted() {
+    ClientViewMapper mapper = create("\"//depot/My Project/...\" \"//ws/My Project/...\"");
+    assertEquals("//ws/My Project/Src/A.java", mapper.toClientPath("//DEPOT/my project/Src/A.java"));
+  }
+
+  public void testWhere() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...");
+    P4WhereResult result = mapper.where("//depot/main/src/a%40b.txt");
+    assertNotNull(result);
+    assertEquals(FileUtil.toSystemDependentName("/home/user/ws/src/a@b.txt"), result.getLocal());
+    assertEquals("//ws/src/a%40b.txt", result.getLocalRootDependent());
+
+    result = mapper.where(FileUtil.toSystemDependentName("/home/user/ws/src/A.java"));
+    assertNotNull(result);
+    assertEquals("//depot/main/src/A.java", result.getDepot());
+
+    assertNull(mapper.where("/home/user/elsewhere/A.java"));
+    assertNull(mapper.where("//depot/main/*/A.java"));
+  }
+
+  public void testCaseSensitiveServer() {
+    ClientViewMapper mapper = ClientViewMapper.create("ws", ROOTS, views("//depot/Main/... //ws/...", "//depot/main/... //ws/lower/..."), true);
+    assertNotNull(mapper);
+    assertEquals("//ws/src/A.java", mapper.toClientPath("//depot/Main/src/A.java"));
+    assertEquals("//ws/lower/src/A.java", mapper.toClientPath("//depot/main/src/A.java"));
+    assertNull(mapper.toClientPath("//depot/MAIN/src/A.java"));
+    assertNull(mapper.where("//DEPOT/Main/src/A.java"));
+  }
+
+  public void testWhereDirectory() {
+    ClientViewMapper mapper = create("//depot/main/... //ws/...",
+                                     "-//depot/main/generated/... //ws/generated/...");
+    P4WhereResult result = mapper.where("//depot/main/src/...");
+    assertNotNull(result);
+    assertEquals("//ws/src/...", result.getLocalRootDependent());
+    assertEquals(FileUtil.toSystemDependentName("/home/user/ws/src/..."), result.getLocal());
+
+    result = mapper.where("/home/user/ws/src/...");
+    assertNotNull(result);
+    assertEquals("//depot/main/src/...", result.getDepot());
+
+    result = create("//depot/main/... //ws/...").where("/home/user/ws/...");
+    assertNotNull(result);
+    assertEquals("//depot/main/...", result.getDepot());
+
+    // partially excluded or remapped below: the server knows better
+    assertNull(mapper.where("//depot/main/..."));
+    assertNull(mapper.where("/home/user/ws/..."));
+    assertNull(mapper.where("/home/user/ws/generated/..."));
+    assertNull(create("//depot/main/... //ws/...", "//depot/main/src/*.txt //ws/text/*.txt").where("//depot/main/src/..."));
+    assertNull(create("//depot/main/*.java //ws/*.java").where("//depot/main/..."));
+  }
+
+  public void testUnsupportedViews() {
+    assertNull(ClientViewMapper.create("ws", ROOTS, views("//depot/... //ws/...", "&//depot/ro/... //ws/ro/..."), false));
+    assertNull(ClientViewMapper.create("ws", ROOTS, views("//depot/.../* //ws/..."), false));
+  }
+
+  private static ClientViewMapper create(String... lines) {
+    ClientViewMapper mapper = ClientViewMapper.create("ws", ROOTS, views(lines), false);
+    assertNotNull(mapper);
+    return mapper;
+  }
+
+  private static List<View> views(String... lines) {
+    return ContainerUtil.mapNotNull(Arrays.asList(lines), View::create);
+  }
+}
@@ -0,0 +1,171 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+import org.jetbrains.idea.perforce.perforce.connections.P4CommandMultiplexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class P4CommandMultiplexerTest extends TestCase {
+  private static final ConnectionKey KEY = new ConnectionKey("server:1666", "client", "user");
+  private static final List<String> OPENED = List.of("opened", "//client/...");
+
+  private final ExecutorService myExecutor = Executors.newCachedThreadPool();
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIdenticalConcurrentCommandsShareOneFork() throws Exception {
+    P4CommandMultiplexer multiplexer = new P4CommandMultiplexer(4);
+    FakeP4Server server = new FakeP4Server();
+
+    List<Future<ExecResult>> futures = new ArrayList<>();
+    futures.add(myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, server::run)));
+    assertTrue(server.myStarted.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < 5; i++) {
+      futures.add(myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, server::run)));
+    }
+    waitForFollowers(multiplexer, 5);
+    assertEquals(0, multiplexer.getSavedForkCount());
+    server.myRelease.countDown();
+
+    for (Future<ExecResult> future : futures) {
+      ExecResult result = future.get(10, TimeUnit.SECONDS);
+      assertEquals(0, result.getExitCode());
+      assertEquals("... depotFile //depot/a.txt\n", result.getStdout());
+    }
+    assertEquals(1, server.myForks.get());
+    assertEquals(1, multiplexer.getForkCount());
+    assertEquals(5, multiplexer.getSavedForkCount());
+  }
+
+  public void testCommandStartedBeforeModificationIsNotJoined() throws Exception {
+    P4CommandMultiplexer multiplexer = new P4CommandMultiplexer(4);
+    FakeP4Server server = new FakeP4Server();
+
+    Future<ExecResult> stale = myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, server::run));
+    assertTrue(server.myStarted.await(10, TimeUnit.SECONDS));
+
+    multiplexer.execute(KEY, List.of("edit", "//depot/b.txt"), false, () -> new ExecResult());
+    Future<ExecResult> fresh = myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, server::run));
+    Future<ExecResult> follower = myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, server::run));
+    waitForFollowers(multiplexer, 1);
+    server.myRelease.countDown();
+
+    assertEquals(0, stale.get(10, TimeUnit.SECONDS).getExitCode());
+    assertEquals(0, fresh.get(10, TimeUnit.SECONDS).getExitCode());
+    assertEquals(0, follower.get(10, TimeUnit.SECONDS).getExitCode());
+    assertEquals(2, server.myForks.get());
+    assertEquals(1, multiplexer.getSavedForkCount());
+  }
+
+  public void testFailedLeaderIsNotCountedAsSavedFork() throws Exception {
+    P4CommandMultiplexer multiplexer = new P4CommandMultiplexer(4);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<ExecResult> leader = myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, () -> {
+      started.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      throw new IllegalStateException("p4 crashed");
+    }));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    Future<ExecResult> follower = myExecutor.submit(() -> multiplexer.execute(KEY, OPENED, true, () -> new ExecResult()));
+    waitForFollowers(multiplexer, 1);
+    release.countDown();
+
+    try {
+      leader.get(10, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertNotNull(follower.get(10, TimeUnit.SECONDS));
+    assertEquals(2, multiplexer.getForkCount());
+    assertEquals(0, multiplexer.getSavedForkCount());
+  }
+
+  public void testNonShareableCommandsAreNotCoalesced() throws Exception {
+    P4CommandMultiplexer multiplexer = new P4CommandMultiplexer(4);
+    FakeP4Server server = new FakeP4Server();
+    server.myRelease.countDown();
+
+    for (int i = 0; i < 3; i++) {
+      multiplexer.execute(KEY, List.of("edit", "//depot/a.txt"), false, server::run);
+    }
+    assertEquals(3, server.myForks.get());
+    assertEquals(0, multiplexer.getSavedForkCount());
+  }
+
+  public void testPoolLimitsParallelProcessesPerKey() throws Exception {
+    P4CommandMultiplexer multiplexer = new P4CommandMultiplexer(2);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<Future<ExecResult>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      List<String> command = List.of("fstat", "//depot/file" + i);
+      futures.add(myExecutor.submit(() -> multiplexer.execute(KEY, command, true, () -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        running.decrementAndGet();
+        return new ExecResult();
+      })));
+    }
+    for (Future<ExecResult> future : futures) {
+      future.get(10, TimeUnit.SECONDS);
+    }
+    assertTrue(String.valueOf(maxRunning.get()), maxRunning.get() <= 2);
+    assertEquals(8, multiplexer.getForkCount());
+  }
+
+  private static void waitForFollowers(P4CommandMultiplexer multiplexer, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (multiplexer.getWaitingFollowerCount() < count) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  private static class FakeP4Server {
+    private final AtomicInteger myForks = new AtomicInteger();
+    private final CountDownLatch myStarted = new CountDownLatch(1);
+    private final CountDownLatch myRelease = new CountDownLatch(1);
+
+    ExecResult run() {
+      myForks.incrementAndGet();
+      myStarted.countDown();
+      try {
+        myRelease.await(10, TimeUnit.SECONDS);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      ExecResult result = new ExecResult();
+      result.setExitCode(0);
+      result.setStdout("... depotFile //depot/a.txt\n");
+      return result;
+    }
+  }
+}
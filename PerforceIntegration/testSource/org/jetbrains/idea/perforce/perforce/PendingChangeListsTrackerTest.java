@@ -0,0 +1,111 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.ChangeListData;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+import java.util.*;
+
+public class PendingChangeListsTrackerTest extends TestCase {
+  private static final ConnectionKey KEY = new ConnectionKey("server:1666", "client", "user");
+  private final PendingChangeListsTracker myTracker = new PendingChangeListsTracker();
+
+  public void testBurstOfRefreshesDescribesListsOnce() {
+    List<ChangeListData> lists = createLists(1, 2, 3);
+    int described = 0;
+    for (int i = 0; i < 20; i++) {
+      described += refresh(100, lists, 1000 + i).size();
+    }
+    assertEquals(3, described);
+  }
+
+  public void testOnlyChangedListIsDescribed() {
+    List<ChangeListData> lists = createLists(1, 2, 3);
+    refresh(100, lists, 1000);
+
+    List<ChangeListData> updated = createLists(1, 2, 3, 4);
+    updated.get(1).DESCRIPTION = "renamed";
+    assertEquals(Arrays.asList(2L, 4L), refresh(100, updated, 2000));
+  }
+
+  public void testCounterChangeCausesFullRefresh() {
+    List<ChangeListData> lists = createLists(1, 2);
+    refresh(100, lists, 1000);
+    assertEquals(Arrays.asList(1L, 2L), refresh(101, lists, 2000));
+    assertEquals(Collections.emptyList(), refresh(101, lists, 3000));
+  }
+
+  public void testModifyingCommandCausesFullRefresh() {
+    List<ChangeListData> lists = createLists(1, 2);
+    refresh(100, lists, 1000);
+    myTracker.modifyingCommandExecuted(KEY);
+    assertEquals(Arrays.asList(1L, 2L), refresh(100, lists, 2000));
+  }
+
+  public void testModificationDuringRefreshIsNotLost() {
+    List<ChangeListData> lists = createLists(1);
+    PendingChangeListsTracker.Refresh refresh = myTracker.startRefresh(KEY, 100, 7, lists, 1000);
+    myTracker.modifyingCommandExecuted(KEY);
+    myTracker.finishRefresh(refresh, describe(lists, refresh.getListsToDescribe()));
+    assertEquals(Collections.singletonList(1L), refresh(100, lists, 2000));
+  }
+
+  public void testFilesOpenedOutsideOfIdeCauseFullRefresh() {
+    List<ChangeListData> lists = createLists(1, 2);
+    refresh(100, 7, lists, 1000);
+    assertEquals(Collections.emptyList(), refresh(100, 7, lists, 2000));
+    assertEquals(Arrays.asList(1L, 2L), refresh(100, 8, lists, 3000));
+  }
+
+  public void testChangeSpecOutputIsNotModification() {
+    assertTrue(PendingChangeListsTracker.affectsPendingChanges(new String[]{"change", "-i"}));
+    assertTrue(PendingChangeListsTracker.affectsPendingChanges(new String[]{"change", "-d", "12"}));
+    assertTrue(PendingChangeListsTracker.affectsPendingChanges(new String[]{"edit", "//depot/a.txt"}));
+    assertFalse(PendingChangeListsTracker.affectsPendingChanges(new String[]{"change", "-o", "12"}));
+    assertFalse(PendingChangeListsTracker.affectsPendingChanges(new String[]{"-x", "args.txt", "change", "-o"}));
+    assertFalse(PendingChangeListsTracker.affectsPendingChanges(new String[]{"counter", "change"}));
+  }
+
+  public void testUnknownCounterAndOldStateCauseFullRefresh() {
+    List<ChangeListData> lists = createLists(1);
+    assertEquals(Collections.singletonList(1L), refresh(-1, lists, 1000));
+    assertEquals(Collections.singletonList(1L), refresh(-1, lists, 1001));
+
+    refresh(100, lists, 2000);
+    assertEquals(Collections.singletonList(1L), refresh(100, lists, 2000 + 60 * 60 * 1000));
+  }
+
+  private List<Long> refresh(long counter, List<ChangeListData> lists, long now) {
+    return refresh(counter, 7, lists, now);
+  }
+
+  private List<Long> refresh(long counter, long openedFingerprint, List<ChangeListData> lists, long now) {
+    PendingChangeListsTracker.Refresh refresh = myTracker.startRefresh(KEY, counter, openedFingerprint, lists, now);
+    myTracker.finishRefresh(refresh, describe(lists, refresh.getListsToDescribe()));
+    return refresh.getListsToDescribe();
+  }
+
+  private static Map<Long, PendingChangeListsTracker.Described> describe(List<ChangeListData> lists, List<Long> numbers) {
+    Map<Long, PendingChangeListsTracker.Described> result = new HashMap<>();
+    for (ChangeListData data : lists) {
+      if (numbers.contains(data.NUMBER)) {
+        result.put(data.NUMBER, new PendingChangeListsTracker.Described(data, Collections.emptyList(), Collections.emptyList()));
+      }
+    }
+    return result;
+  }
+
+  private static List<ChangeListData> createLists(long... numbers) {
+    List<ChangeListData> result = new ArrayList<>();
+    for (long number : numbers) {
+      ChangeListData data = new ChangeListData();
+      data.NUMBER = number;
+      data.DESCRIPTION = "list " + number;
+      data.USER = "user";
+      data.CLIENT = "client";
+      data.DATE = "2020/01/01 10:00:00";
+      result.add(data);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,140 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Random;
+
+public class PerforceContentStoreTest extends TestCase {
+  private static final String SERVER = PerforceContentStore.getPrintOrigin("server:1666", "local", "none");
+  private static final int MB = 1024 * 1024;
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("p4", "content");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testStoresOnlyImmutableRevisions() {
+    assertTrue(PerforceContentStore.isStorable("#1"));
+    assertTrue(PerforceContentStore.isStorable("#123"));
+    assertFalse(PerforceContentStore.isStorable(null));
+    assertFalse(PerforceContentStore.isStorable("#0"));
+    assertFalse(PerforceContentStore.isStorable("#have"));
+    assertFalse(PerforceContentStore.isStorable("#head"));
+    assertFalse(PerforceContentStore.isStorable("@=123"));
+    assertFalse(PerforceContentStore.isStorable("@123"));
+  }
+
+  public void testLargeRevisionIsStoredWithoutCopying() throws IOException {
+    PerforceContentStore store = new PerforceContentStore(myDir, 64 * MB);
+    File printed = print(store, 40 * MB, 1);
+
+    File stored = store.put(SERVER, "//depot/big.bin", "#3", printed);
+    assertFalse(printed.exists());
+    assertEquals(40 * MB, stored.length());
+    assertEquals(stored, store.get(SERVER, "//depot/big.bin", "#3"));
+    assertNull(store.get(SERVER, "//depot/big.bin", "#2"));
+    assertNull(store.get(PerforceContentStore.getPrintOrigin("other:1666", "local", "none"), "//depot/big.bin", "#3"));
+    assertContent(stored, 40 * MB, 1);
+  }
+
+  public void testLineEndAndCharsetArePartOfKey() throws IOException {
+    PerforceContentStore store = new PerforceContentStore(myDir, 64 * MB);
+    store.put(SERVER, "//depot/a.txt", "#1", print(store, MB, 1));
+
+    assertNotNull(store.get(PerforceContentStore.getPrintOrigin("server:1666", "local", "none"), "//depot/a.txt", "#1"));
+    assertNull(store.get(PerforceContentStore.getPrintOrigin("server:1666", "win", "none"), "//depot/a.txt", "#1"));
+    assertNull(store.get(PerforceContentStore.getPrintOrigin("server:1666", "local", "utf16"), "//depot/a.txt", "#1"));
+
+    File utf16 = store.put(PerforceContentStore.getPrintOrigin("server:1666", "local", "utf16"), "//depot/a.txt", "#1", print(store, 2 * MB, 2));
+    assertContent(utf16, 2 * MB, 2);
+    assertContent(store.get(SERVER, "//depot/a.txt", "#1"), MB, 1);
+  }
+
+  public void testLeastRecentlyUsedRevisionsAreEvicted() throws IOException {
+    PerforceContentStore store = new PerforceContentStore(myDir, 25 * MB);
+    store.put(SERVER, "//depot/a.bin", "#1", print(store, 10 * MB, 1));
+    store.put(SERVER, "//depot/b.bin", "#1", print(store, 10 * MB, 2));
+    assertNotNull(store.get(SERVER, "//depot/a.bin", "#1"));
+
+    store.put(SERVER, "//depot/c.bin", "#1", print(store, 10 * MB, 3));
+
+    assertNotNull(store.get(SERVER, "//depot/a.bin", "#1"));
+    assertNull(store.get(SERVER, "//depot/b.bin", "#1"));
+    assertNotNull(store.get(SERVER, "//depot/c.bin", "#1"));
+    assertEquals(20 * MB, store.getTotalSize());
+    assertEquals(2, myDir.list().length);
+  }
+
+  public void testRevisionBiggerThanLimitIsKeptUntilNextPut() throws IOException {
+    PerforceContentStore store = new PerforceContentStore(myDir, 5 * MB);
+    store.put(SERVER, "//depot/a.bin", "#1", print(store, 2 * MB, 1));
+    File huge = store.put(SERVER, "//depot/huge.bin", "#1", print(store, 8 * MB, 2));
+
+    assertNull(store.get(SERVER, "//depot/a.bin", "#1"));
+    assertContent(huge, 8 * MB, 2);
+
+    store.put(SERVER, "//depot/b.bin", "#1", print(store, 1 * MB, 3));
+    assertNull(store.get(SERVER, "//depot/huge.bin", "#1"));
+    assertEquals(1 * MB, store.getTotalSize());
+  }
+
+  public void testSurvivesRestart() throws IOException {
+    PerforceContentStore store = new PerforceContentStore(myDir, 64 * MB);
+    store.put(SERVER, "//depot/a.bin", "#1", print(store, 3 * MB, 1));
+    File interrupted = print(store, MB, 2);
+
+    PerforceContentStore restarted = new PerforceContentStore(myDir, 64 * MB);
+    File stored = restarted.get(SERVER, "//depot/a.bin", "#1");
+    assertNotNull(stored);
+    assertContent(stored, 3 * MB, 1);
+    assertEquals(3 * MB, restarted.getTotalSize());
+    assertFalse(interrupted.exists());
+  }
+
+  /**
+   * Imitates {@code p4 print -o} of a large file into a temporary file of the store.
+   */
+  private static File print(PerforceContentStore store, int size, long seed) throws IOException {
+    File file = store.createTempFile();
+    byte[] buffer = new byte[64 * 1024];
+    Random random = new Random(seed);
+    try (OutputStream out = new FileOutputStream(file)) {
+      for (int written = 0; written < size; written += buffer.length) {
+        random.nextBytes(buffer);
+        out.write(buffer, 0, Math.min(buffer.length, size - written));
+      }
+    }
+    return file;
+  }
+
+  private static void assertContent(File file, int size, long seed) throws IOException {
+    assertEquals(size, file.length());
+    byte[] expected = new byte[64 * 1024];
+    byte[] actual = new byte[expected.length];
+    Random random = new Random(seed);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      for (int read = 0; read < size; read += expected.length) {
+        random.nextBytes(expected);
+        int length = Math.min(expected.length, size - read);
+        in.readFully(actual, 0, length);
+        for (int i = 0; i < length; i++) {
+          assertEquals(expected[i], actual[i]);
+        }
+      }
+    }
+  }
+}
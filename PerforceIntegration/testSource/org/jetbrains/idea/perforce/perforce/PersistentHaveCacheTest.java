@@ -0,0 +1,120 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class PersistentHaveCacheTest extends TestCase {
+  private static final ConnectionKey KEY = new ConnectionKey("server:1666", "client", "user");
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("have", "cache");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testAnswersOnlyCoveredRequests() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    assertNull(cache.get(KEY, List.of("/ws/src"), List.of()));
+
+    cache.update(KEY, 10, 0, List.of("/ws/src"), revisions("/ws/src/a.txt", 1, "/ws/src/sub/b.txt", 2), 0);
+
+    assertEquals(revisions("/ws/src/a.txt", 1, "/ws/src/sub/b.txt", 2), cache.get(KEY, List.of("/ws/src"), List.of()));
+    assertEquals(revisions("/ws/src/sub/b.txt", 2), cache.get(KEY, List.of("/ws/src/sub"), List.of()));
+    assertEquals(revisions("/ws/src/a.txt", 1), cache.get(KEY, List.of(), List.of("/ws/src/a.txt")));
+    // non-recursive directory request returns only immediate children
+    assertEquals(revisions("/ws/src/a.txt", 1), cache.get(KEY, List.of(), List.of("/ws/src")));
+    assertEquals(Collections.emptyMap(), cache.get(KEY, List.of(), List.of("/ws/src/unversioned.txt")));
+    assertNull(cache.get(KEY, List.of("/ws"), List.of()));
+    assertNull(cache.get(KEY, List.of(), List.of("/ws/other/c.txt")));
+  }
+
+  public void testUpdateReplacesContentsOfRefreshedDirectory() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    cache.update(KEY, 10, 0, List.of("/ws"), revisions("/ws/a.txt", 1, "/ws/src/b.txt", 2), 0);
+    cache.update(KEY, 10, 0, List.of("/ws/src"), revisions("/ws/src/c.txt", 3), 0);
+
+    assertEquals(revisions("/ws/a.txt", 1, "/ws/src/c.txt", 3), cache.get(KEY, List.of("/ws"), List.of()));
+  }
+
+  public void testSurvivesRestartAndIsValidatedByStamp() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    cache.update(KEY, 10, 0, List.of("/ws"), revisions("/ws/a.txt", 1), 0);
+    cache.save();
+
+    PersistentHaveCache restarted = new PersistentHaveCache(myDir);
+    assertTrue(restarted.needsValidation(KEY, 1000));
+    restarted.validate(KEY, 10, 1000);
+    assertFalse(restarted.needsValidation(KEY, 1000));
+    assertEquals(revisions("/ws/a.txt", 1), restarted.get(KEY, List.of("/ws"), List.of()));
+
+    PersistentHaveCache synced = new PersistentHaveCache(myDir);
+    synced.validate(KEY, 11, 1000);
+    assertNull(synced.get(KEY, List.of("/ws"), List.of()));
+  }
+
+  public void testExpiresRegardlessOfStamp() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    cache.update(KEY, 10, 0, List.of("/ws"), revisions("/ws/a.txt", 1), 0);
+    long later = TimeUnit.MINUTES.toMillis(50);
+    cache.validate(KEY, 10, later);
+    // refreshing a part of the workspace doesn't renew the results of the rest
+    cache.update(KEY, 10, cache.getGeneration(KEY), List.of("/ws/src"), revisions("/ws/src/b.txt", 2), later);
+    assertEquals(revisions("/ws/a.txt", 1, "/ws/src/b.txt", 2), cache.get(KEY, List.of("/ws"), List.of()));
+
+    cache.validate(KEY, 10, TimeUnit.MINUTES.toMillis(70));
+    assertNull(cache.get(KEY, List.of("/ws"), List.of()));
+  }
+
+  public void testInvalidation() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    cache.update(KEY, 10, 0, List.of("/ws"), revisions("/ws/a.txt", 1), 0);
+    cache.save();
+    cache.invalidate(KEY);
+    assertNull(cache.get(KEY, List.of("/ws"), List.of()));
+    assertNull(new PersistentHaveCache(myDir).get(KEY, List.of("/ws"), List.of()));
+  }
+
+  public void testInvalidationDuringHaveDropsResults() {
+    PersistentHaveCache cache = new PersistentHaveCache(myDir);
+    long generation = cache.getGeneration(KEY);
+    // 'p4 sync' finishes while 'p4 have' is running
+    cache.invalidate(KEY);
+    cache.update(KEY, 10, generation, List.of("/ws"), revisions("/ws/a.txt", 1), 0);
+    assertNull(cache.get(KEY, List.of("/ws"), List.of()));
+
+    cache.update(KEY, 11, cache.getGeneration(KEY), List.of("/ws"), revisions("/ws/a.txt", 2), 0);
+    assertEquals(revisions("/ws/a.txt", 2), cache.get(KEY, List.of("/ws"), List.of()));
+  }
+
+  public void testPreviewCommandsDontAffectHave() {
+    assertTrue(PersistentHaveCache.affectsHave(new String[]{"sync", "//ws/..."}));
+    assertTrue(PersistentHaveCache.affectsHave(new String[]{"sync", "-f", "//ws/-n/..."}));
+    assertFalse(PersistentHaveCache.affectsHave(new String[]{"sync", "-n", "//ws/..."}));
+    assertFalse(PersistentHaveCache.affectsHave(new String[]{"-x", "args.txt", "reconcile", "-a", "-n"}));
+    assertFalse(PersistentHaveCache.affectsHave(new String[]{"have", "//ws/..."}));
+  }
+
+  private static Map<String, Long> revisions(Object... pathsAndRevisions) {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < pathsAndRevisions.length; i += 2) {
+      result.put((String)pathsAndRevisions[i], ((Integer)pathsAndRevisions[i + 1]).longValue());
+    }
+    return result;
+  }
+}
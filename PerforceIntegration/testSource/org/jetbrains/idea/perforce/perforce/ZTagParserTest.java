@@ -0,0 +1,85 @@
+package org.jetbrains.idea.perforce.perforce;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@NonNls
+public class ZTagParserTest extends TestCase {
+  public void testSeveralRecords() throws Exception {
+    List<Map<String, String>> records = parse("... depotFile //depot/a.txt\n" +
+                                              "... clientFile /home/user/ws/a.txt\n" +
+                                              "... headRev 3\n" +
+                                              "... haveRev 3\n" +
+                                              "\n" +
+                                              "... depotFile //depot/b b.txt\n" +
+                                              "... clientFile /home/user/ws/b b.txt\n" +
+                                              "... action add\n" +
+                                              "... change 12\n" +
+                                              "\n");
+    assertEquals(2, records.size());
+    assertEquals("//depot/a.txt", records.get(0).get("depotFile"));
+    assertEquals("3", records.get(0).get("haveRev"));
+    assertEquals("/home/user/ws/b b.txt", records.get(1).get("clientFile"));
+    assertEquals("add", records.get(1).get("action"));
+  }
+
+  public void testNestedFieldsAndWindowsLineSeparators() throws Exception {
+    List<Map<String, String>> records = parse("... depotFile //depot/a.txt\r\n" +
+                                              "... ... otherOpen0 user@other\r\n" +
+                                              "... ... otherAction0 edit\r\n" +
+                                              "... otherOpen 1\r\n");
+    assertEquals(1, records.size());
+    assertEquals("user@other", records.get(0).get("otherOpen0"));
+    assertEquals("edit", records.get(0).get("otherAction0"));
+    assertEquals("1", records.get(0).get("otherOpen"));
+  }
+
+  public void testMultiLineValueWithEmptyLines() throws Exception {
+    List<Map<String, String>> records = parse("... change 42\n" +
+                                              "... desc first line\n" +
+                                              "\n" +
+                                              "third line\n" +
+                                              "\n" +
+                                              "... change 43\n" +
+                                              "... desc single\n");
+    assertEquals(2, records.size());
+    assertEquals("first line\n\nthird line", records.get(0).get("desc"));
+    assertEquals("43", records.get(1).get("change"));
+  }
+
+  public void testFStatFromRecord() throws Exception {
+    List<Map<String, String>> records = parse("... depotFile //depot/a.txt\n" +
+                                              "... clientFile /ws/a.txt\n" +
+                                              "... headAction edit\n" +
+                                              "... headRev 2\n" +
+                                              "... haveRev 2\n" +
+                                              "... action edit\n" +
+                                              "... change default\n");
+    FStat fStat = FStat.fromTaggedRecord(records.get(0));
+    assertEquals("/ws/a.txt", fStat.clientFile);
+    assertEquals(FStat.STATUS_ON_SERVER_AND_LOCAL, fStat.status);
+    assertEquals(FStat.LOCAL_CHECKED_OUT, fStat.local);
+  }
+
+  public void testEmptyOutput() throws Exception {
+    assertTrue(parse("").isEmpty());
+    assertTrue(parse("\n\n").isEmpty());
+  }
+
+  private static List<Map<String, String>> parse(String output) throws IOException {
+    ZTagParser parser = new ZTagParser(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)));
+    List<Map<String, String>> result = new ArrayList<>();
+    Map<String, String> record;
+    while ((record = parser.nextRecord()) != null) {
+      result.add(record);
+    }
+    return result;
+  }
+}
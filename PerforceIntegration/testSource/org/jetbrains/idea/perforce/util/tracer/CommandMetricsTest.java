@@ -0,0 +1,130 @@
+package org.jetbrains.idea.perforce.util.tracer;
+
+import junit.framework.TestCase;
+import org.jetbrains.idea.perforce.application.ConnectionKey;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CommandMetricsTest extends TestCase {
+  private static final ConnectionKey KEY = new ConnectionKey("proxy:1666", "client", "user");
+
+  public void testHistogramBucketsAreContiguous() {
+    assertEquals(0, LatencyHistogram.getLowerBound(0));
+    for (int bucket = 0; bucket < 400; bucket++) {
+      long lower = LatencyHistogram.getLowerBound(bucket);
+      assertEquals(bucket, LatencyHistogram.getBucket(lower));
+      assertEquals(bucket, LatencyHistogram.getBucket(LatencyHistogram.getUpperBound(bucket)));
+      if (bucket > 0) {
+        assertEquals(LatencyHistogram.getUpperBound(bucket - 1) + 1, lower);
+      }
+    }
+  }
+
+  public void testHistogramQuantilesHaveBoundedRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i * 100L);
+    }
+    assertEquals(10000, histogram.getCount());
+    assertEquals(1_000_000, histogram.getMax());
+    assertWithin(500_000, histogram.getValueAtQuantile(0.5));
+    assertWithin(990_000, histogram.getValueAtQuantile(0.99));
+    assertEquals(1_000_000, histogram.getValueAtQuantile(1));
+    assertEquals(0, new LatencyHistogram().getValueAtQuantile(0.5));
+  }
+
+  public void testCumulativeCounts() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(500);
+    histogram.record(3_000);
+    histogram.record(3_000);
+    histogram.record(2_000_000);
+    long[] counts = histogram.getCumulativeCounts(new long[]{1_000, 5_000, 1_000_000, 10_000_000});
+    assertEquals(1, counts[0]);
+    assertEquals(3, counts[1]);
+    assertEquals(3, counts[2]);
+    assertEquals(4, counts[3]);
+  }
+
+  public void testCumulativeCountsInterpolateWithinBucket() {
+    int bucket = LatencyHistogram.getBucket(1_000);
+    long lower = LatencyHistogram.getLowerBound(bucket);
+    long upper = LatencyHistogram.getUpperBound(bucket);
+    assertTrue(lower < 1_000 && upper > 1_000);
+
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = lower; value <= upper; value++) {
+      histogram.record(value);
+    }
+    long middle = (lower + upper) / 2;
+    long[] counts = histogram.getCumulativeCounts(new long[]{lower - 1, lower, middle, upper});
+    assertEquals(0, counts[0]);
+    assertEquals(1, counts[1]);
+    assertEquals(middle - lower + 1, counts[2]);
+    assertEquals(upper - lower + 1, counts[3]);
+
+    LatencyHistogram single = new LatencyHistogram();
+    single.record(1_000);
+    assertEquals(1, single.getCumulativeCounts(new long[]{1_000})[0]);
+  }
+
+  public void testSummariesAreSortedByTotalTime() {
+    CommandMetrics metrics = new CommandMetrics();
+    metrics.registerFork("fstat", KEY, millis(100), 5000, false);
+    metrics.registerFork("fstat", KEY, millis(300), 7000, false);
+    metrics.registerFork("opened", KEY, millis(50), 100, true);
+    metrics.registerFork("info", null, millis(1000), 10, false);
+    metrics.registerQueueTime("fstat", KEY, millis(20));
+    metrics.registerSharedResult("fstat", KEY);
+
+    List<CommandMetrics.Summary> summaries = metrics.getSummaries();
+    assertEquals(3, summaries.size());
+    assertEquals("info", summaries.get(0).command);
+    assertEquals("local", summaries.get(0).server);
+
+    CommandMetrics.Summary fstat = summaries.get(1);
+    assertEquals("fstat", fstat.command);
+    assertEquals("proxy:1666", fstat.server);
+    assertEquals(2, fstat.forks);
+    assertEquals(1, fstat.shared);
+    assertEquals(12000, fstat.bytesRead);
+    assertEquals(1, fstat.queued);
+    assertWithin(300_000, fstat.maxMicros);
+
+    assertEquals(1, summaries.get(2).failures);
+
+    metrics.reset();
+    assertTrue(metrics.getSummaries().isEmpty());
+  }
+
+  public void testExportFormats() {
+    CommandMetrics metrics = new CommandMetrics();
+    assertEquals("{\n  \"commands\": []\n}\n", metrics.toJson());
+
+    metrics.registerFork("fstat", KEY, millis(3), 42, false);
+    metrics.registerQueueTime("fstat", KEY, millis(2));
+
+    String json = metrics.toJson();
+    assertTrue(json, json.contains("{\"command\": \"fstat\", \"server\": \"proxy:1666\", \"client\": \"client\", \"user\": \"user\", " +
+                                   "\"forks\": 1, \"failures\": 0, \"shared\": 0, \"bytesRead\": 42, \"totalMs\": 3.000"));
+
+    String openMetrics = metrics.toOpenMetrics();
+    String labels = "command=\"fstat\",server=\"proxy:1666\",client=\"client\",user=\"user\"";
+    assertTrue(openMetrics, openMetrics.contains("# TYPE p4_command_duration_seconds histogram\n"));
+    assertTrue(openMetrics, openMetrics.contains("p4_command_duration_seconds_bucket{" + labels + ",le=\"0.001000\"} 0\n"));
+    assertTrue(openMetrics, openMetrics.contains("p4_command_duration_seconds_bucket{" + labels + ",le=\"0.005000\"} 1\n"));
+    assertTrue(openMetrics, openMetrics.contains("p4_command_duration_seconds_count{" + labels + "} 1\n"));
+    assertTrue(openMetrics, openMetrics.contains("p4_command_queue_seconds_sum{" + labels + "} 0.002000\n"));
+    assertTrue(openMetrics, openMetrics.contains("p4_command_read_bytes_total{" + labels + "} 42\n"));
+    assertTrue(openMetrics, openMetrics.endsWith("# EOF\n"));
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 8);
+  }
+}
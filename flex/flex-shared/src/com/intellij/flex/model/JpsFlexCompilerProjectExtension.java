@@ -17,6 +17,8 @@ public class JpsFlexCompilerProjectExtension extends JpsElementBase<JpsFlexCompi
   public boolean GENERATE_FLEXMOJOS_CONFIGS = true;
 
   public boolean USE_BUILT_IN_COMPILER = true;
+  // opt-in: only JVM start and SDK class loading are saved, the compiler keeps no caches between builds
+  public boolean KEEP_BUILT_IN_COMPILER_RUNNING = false;
   public boolean USE_FCSH = false;
   public boolean USE_MXMLC_COMPC = false;
   public boolean PREFER_ASC_20 = true;
@@ -31,6 +33,7 @@ public class JpsFlexCompilerProjectExtension extends JpsElementBase<JpsFlexCompi
     GENERATE_FLEXMOJOS_CONFIGS = original.GENERATE_FLEXMOJOS_CONFIGS;
 
     USE_BUILT_IN_COMPILER = original.USE_BUILT_IN_COMPILER;
+    KEEP_BUILT_IN_COMPILER_RUNNING = original.KEEP_BUILT_IN_COMPILER_RUNNING;
     USE_FCSH = original.USE_FCSH;
     USE_MXMLC_COMPC = original.USE_MXMLC_COMPC;
     PREFER_ASC_20 = original.PREFER_ASC_20;
@@ -50,6 +53,7 @@ public class JpsFlexCompilerProjectExtension extends JpsElementBase<JpsFlexCompi
     GENERATE_FLEXMOJOS_CONFIGS = modified.GENERATE_FLEXMOJOS_CONFIGS;
 
     USE_BUILT_IN_COMPILER = modified.USE_BUILT_IN_COMPILER;
+    KEEP_BUILT_IN_COMPILER_RUNNING = modified.KEEP_BUILT_IN_COMPILER_RUNNING;
     USE_FCSH = modified.USE_FCSH;
     USE_MXMLC_COMPC = modified.USE_MXMLC_COMPC;
     PREFER_ASC_20 = modified.PREFER_ASC_20;
@@ -20,6 +20,7 @@ import com.intellij.flex.imports.FlexOptimizeImportsTest;
 import com.intellij.flex.intentions.*;
 import com.intellij.flex.parser.ActionScriptParsingTest;
 import com.intellij.flex.parser.FlexImporterTest;
+import com.intellij.flex.parser.SwfInterfaceCacheTest;
 import com.intellij.flex.projectView.FlexProjectViewTest;
 import com.intellij.flex.refactoring.*;
 import com.intellij.flex.resolver.ActionScriptResolveTest;
@@ -108,6 +109,7 @@ public final class FlexTestSuite {
     //com.intellij.flex.parser.*
     testSuite.addTestSuite(ActionScriptParsingTest.class);
     testSuite.addTestSuite(FlexImporterTest.class);
+    testSuite.addTestSuite(SwfInterfaceCacheTest.class);
 
     //com.intellij.flex.projectView.*
     testSuite.addTestSuite(FlexProjectViewTest.class);
@@ -12,6 +12,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -69,25 +72,53 @@ public class FlexImporterTest extends TestCase {
     doTestFor("hotbook.swf");
   }
 
-  private void doTestFor(final String fileName) throws IOException {
-    final File file = new File(getTestDataPath() + fileName);
-    final byte[] contents;
-
-    if (file.getName().endsWith(".swc")) {
-      final ZipFile zipFile = new ZipFile(file);
-      try {
-        final ZipEntry zipEntry = zipFile.getEntry("library.swf");
-        final InputStream inputStream = zipFile.getInputStream(zipEntry);
-        contents = FileUtil.loadBytes(inputStream, (int)zipEntry.getSize());
-        inputStream.close();
-      }
-      finally {
-        zipFile.close();
+  /**
+   * The uncompressed length from the SWF header is only a hint, the result doesn't depend on it.
+   */
+  public final void testWrongSwfLength() throws IOException {
+    final byte[] contents = loadContents(new File(getTestDataPath() + "employeedirectory.swf"));
+    final String expected = FlexImporter.buildInterfaceFromStream(new ByteArrayInputStream(contents));
+    assertTrue(expected.contains("class "));
+
+    for (int length : new int[]{Integer.MAX_VALUE, 9, 0, -1}) {
+      final byte[] damaged = contents.clone();
+      damaged[4] = (byte)length;
+      damaged[5] = (byte)(length >> 8);
+      damaged[6] = (byte)(length >> 16);
+      damaged[7] = (byte)(length >> 24);
+      assertEquals(String.valueOf(length), expected, FlexImporter.buildInterfaceFromStream(new ByteArrayInputStream(damaged)));
+    }
+  }
+
+  /**
+   * Decoding of all SWCs from frameworks/libs of the bundled Flex SDK. ABC blocks of a SWC are parsed concurrently, the result must
+   * be the same as when they are parsed one by one in a single-thread pool.
+   */
+  public final void testFrameworkLibsParallelDecoding() throws Exception {
+    final File libs = new File(FlexTestUtils.getPathToCompleteFlexSdk("4.6") + "/frameworks/libs");
+    final List<File> files = new ArrayList<>();
+    FileUtil.processFilesRecursively(libs, file -> {
+      if (file.getName().endsWith(".swc")) files.add(file);
+      return true;
+    });
+    assertTrue(files.size() > 5);
+
+    final ForkJoinPool sequentialPool = new ForkJoinPool(1);
+    try {
+      for (File file : files) {
+        final byte[] swf = loadContents(file);
+        final String expected =
+          sequentialPool.submit(() -> FlexImporter.buildInterfaceFromStream(new ByteArrayInputStream(swf))).get();
+        assertEquals(file.getName(), expected, FlexImporter.buildInterfaceFromStream(new ByteArrayInputStream(swf)));
       }
     }
-    else {
-      contents = FileUtil.loadFileBytes(file);
+    finally {
+      sequentialPool.shutdownNow();
     }
+  }
+
+  private void doTestFor(final String fileName) throws IOException {
+    final byte[] contents = loadContents(new File(getTestDataPath() + fileName));
 
     String result = FlexImporter.buildInterfaceFromStream(new ByteArrayInputStream(contents));
     String resultFileName = getTestDataPath() + fileName + ".txt";
@@ -114,6 +145,24 @@ public class FlexImporterTest extends TestCase {
     }
   }
 
+  private static byte[] loadContents(final File file) throws IOException {
+    if (!file.getName().endsWith(".swc")) {
+      return FileUtil.loadFileBytes(file);
+    }
+
+    final ZipFile zipFile = new ZipFile(file);
+    try {
+      final ZipEntry zipEntry = zipFile.getEntry("library.swf");
+      final InputStream inputStream = zipFile.getInputStream(zipEntry);
+      final byte[] contents = FileUtil.loadBytes(inputStream, (int)zipEntry.getSize());
+      inputStream.close();
+      return contents;
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+
   public static String getTestDataPath() {
     return FlexTestUtils.getTestDataPath("flex_importer") + "/";
   }
@@ -0,0 +1,125 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.intellij.flex.parser;
+
+import com.intellij.javascript.flex.compiled.SwfInterfaceCache;
+import com.intellij.lang.javascript.flex.importer.FlexImporter;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+public class SwfInterfaceCacheTest extends TestCase {
+  private static final String VERSION = "1.0";
+
+  private Path myDirectory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDirectory = FileUtil.createTempDirectory("swf-interfaces", null).toPath();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDirectory.toFile());
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testInterfaceIsReadFromCache() throws IOException {
+    final byte[] content = loadSwf("Assets.swf");
+    final String expected = FlexImporter.buildInterface(content);
+    assertEquals(expected, new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION).getInterface(content));
+
+    final Path entry = assertOneEntry();
+    writeEntry(entry, "cached");
+    assertEquals("cached", new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION).getInterface(content));
+  }
+
+  public void testDamagedEntryIsRebuilt() throws IOException {
+    final byte[] content = loadSwf("Assets.swf");
+    final SwfInterfaceCache cache = new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION);
+    final String expected = cache.getInterface(content);
+
+    Files.write(assertOneEntry(), new byte[]{1, 2, 3});
+    assertEquals(expected, cache.getInterface(content));
+    assertEquals(expected, new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION).getInterface(content));
+  }
+
+  public void testImporterVersionIsPartOfKey() throws IOException {
+    final byte[] content = loadSwf("Assets.swf");
+    final String expected = new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION).getInterface(content);
+    writeEntry(assertOneEntry(), "cached");
+
+    assertEquals(expected, new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION + ".1").getInterface(content));
+    assertEquals(2, listEntries().size());
+    assertEquals("cached", new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION).getInterface(content));
+  }
+
+  public void testLeastRecentlyUsedEntriesRemoved() throws IOException {
+    final SwfInterfaceCache unlimited = new SwfInterfaceCache(myDirectory, Long.MAX_VALUE, VERSION);
+    final byte[] older = loadSwf("Assets.swf");
+    final byte[] newer = loadSwf("employeedirectory.swf");
+    final byte[] added = loadSwf("hotbook.swf");
+    final Path olderEntry = addEntry(unlimited, older);
+    final Path newerEntry = addEntry(unlimited, newer);
+    final Path addedEntry = addEntry(unlimited, added);
+    Files.setLastModifiedTime(olderEntry, FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(newerEntry, FileTime.fromMillis(2000));
+    final long addedSize = Files.size(addedEntry);
+    Files.delete(addedEntry);
+
+    // besides the added entry, there's room for one more
+    final SwfInterfaceCache cache = new SwfInterfaceCache(myDirectory, Files.size(olderEntry) + addedSize, VERSION);
+    assertEquals(FlexImporter.buildInterface(older), cache.getInterface(older));
+    // cleanup happens on the first write of a session
+    assertEquals(FlexImporter.buildInterface(added), cache.getInterface(added));
+    assertEquals(Set.of(olderEntry, addedEntry), new HashSet<>(listEntries()));
+  }
+
+  private Path addEntry(SwfInterfaceCache cache, byte[] content) throws IOException {
+    final List<Path> before = listEntries();
+    cache.getInterface(content);
+    final List<Path> entries = listEntries();
+    entries.removeAll(before);
+    assertEquals(entries.toString(), 1, entries.size());
+    return entries.get(0);
+  }
+
+  private Path assertOneEntry() throws IOException {
+    final List<Path> entries = listEntries();
+    assertEquals(entries.toString(), 1, entries.size());
+    return entries.get(0);
+  }
+
+  private List<Path> listEntries() throws IOException {
+    try (Stream<Path> stream = Files.list(myDirectory)) {
+      return stream.collect(Collectors.toList());
+    }
+  }
+
+  private static void writeEntry(Path entry, String text) throws IOException {
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(entry))) {
+      out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static byte[] loadSwf(String fileName) throws IOException {
+    return FileUtil.loadFileBytes(new File(FlexImporterTest.getTestDataPath() + fileName));
+  }
+}
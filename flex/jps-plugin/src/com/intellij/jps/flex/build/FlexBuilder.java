@@ -21,12 +21,14 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.PathUtilRt;
 import com.intellij.util.concurrency.Semaphore;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.builders.FileProcessor;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.StopBuildException;
 import org.jetbrains.jps.incremental.TargetBuilder;
@@ -36,6 +38,7 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import org.jetbrains.jps.model.JpsProject;
 import org.jetbrains.jps.model.library.sdk.JpsSdk;
 import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,11 +46,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTarget> {
 
   private static final Logger LOG = Logger.getInstance(FlexBuilder.class.getName());
   private JpsBuiltInFlexCompilerHandler myBuiltInCompilerHandler;
+  // shared by all targets, JPS builds independent targets in parallel if 'Compile independent modules in parallel' is on
+  private java.util.concurrent.Semaphore myCompilationPermits;
 
   private enum Status {Ok, Failed, Cancelled}
 
@@ -64,7 +74,10 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
   @Override
   public void buildStarted(final CompileContext context) {
     super.buildStarted(context);
-    myBuiltInCompilerHandler = new JpsBuiltInFlexCompilerHandler(context.getProjectDescriptor().getProject());
+    final JpsProject project = context.getProjectDescriptor().getProject();
+    myBuiltInCompilerHandler = new JpsBuiltInFlexCompilerHandler(project);
+    myCompilationPermits =
+      new java.util.concurrent.Semaphore(Math.max(1, JpsFlexCompilerProjectExtension.getInstance(project).MAX_PARALLEL_COMPILATIONS));
   }
 
   @Override
@@ -73,6 +86,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
                    myBuiltInCompilerHandler.getActiveCompilationsNumber() + " Flex compilation(s) are not finished!");
     myBuiltInCompilerHandler.stopCompilerProcess();
     myBuiltInCompilerHandler = null;
+    myCompilationPermits = null;
 
     FlexCommonUtils.deleteTempFlexConfigFiles(context.getProjectDescriptor().getProject().getName());
 
@@ -135,8 +149,15 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
       }
     }
 
-    for (JpsFlexBuildConfiguration bc : bcsToCompile) {
-      final Status status = compileBuildConfiguration(context, bc, myBuiltInCompilerHandler);
+    final List<Status> statuses = compileBuildConfigurations(context, bcsToCompile);
+
+    for (int i = 0; i < bcsToCompile.size(); i++) {
+      final JpsFlexBuildConfiguration bc = bcsToCompile.get(i);
+      final Status status = statuses.get(i);
+      if (status == null) {
+        // skipped because a preceding BC failed, the loop has already stopped at that BC
+        break;
+      }
 
       switch (status) {
         case Ok:
@@ -281,7 +302,133 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
     return cssBC;
   }
 
+  /**
+   * Compiles the main BC together with its runtime style sheets and not optimized RLMs. Optimized RLMs load the link report of the main BC,
+   * so they are compiled after it. Like in sequential compilation, BCs that follow a failed one are skipped if they haven't started yet,
+   * and the messages of those that have started are not reported. Messages of the BCs other than the main one are reported when their
+   * compilation finishes, in the order of {@code bcs}. Returned statuses are in the order of {@code bcs}, {@code null} stands for
+   * a skipped BC.
+   */
+  private List<Status> compileBuildConfigurations(final CompileContext context,
+                                                  final List<JpsFlexBuildConfiguration> bcs) throws ProjectBuildException {
+    if (bcs.size() == 1) {
+      return Collections.singletonList(compileWhenPermitted(context, context, bcs.get(0), () -> false));
+    }
+
+    final AtomicInteger firstFailedIndex = new AtomicInteger(Integer.MAX_VALUE);
+    final List<List<BuildMessage>> deferredMessages = new ArrayList<>(bcs.size());
+    final List<Future<Status>> futures = new ArrayList<>(bcs.size());
+    for (int i = 0; i < bcs.size(); i++) {
+      final List<BuildMessage> messages = i == 0 ? null : Collections.synchronizedList(new ArrayList<>());
+      deferredMessages.add(messages);
+      futures.add(needsMainBCOutput(bcs.get(i)) ? null : submitCompilation(context, bcs, i, messages, firstFailedIndex));
+    }
+
+    final List<Status> result = new ArrayList<>(bcs.size());
+    boolean allOk = true;
+    Throwable error = null;
+
+    for (int i = 0; i < bcs.size(); i++) {
+      Future<Status> future = futures.get(i);
+
+      if (future == null && allOk) {
+        future = submitCompilation(context, bcs, i, deferredMessages.get(i), firstFailedIndex);
+      }
+
+      Status status;
+      try {
+        status = future == null ? null : future.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        status = Status.Cancelled;
+      }
+      catch (ExecutionException e) {
+        // wait for the rest of compilations anyway, otherwise they would outlive the build
+        if (error == null) error = e.getCause();
+        status = Status.Failed;
+      }
+
+      if (!allOk) {
+        // the result of a BC that follows a failed one is discarded
+        status = null;
+      }
+      else if (deferredMessages.get(i) != null) {
+        for (BuildMessage message : deferredMessages.get(i)) {
+          context.processMessage(message);
+        }
+      }
+
+      result.add(status);
+      if (allOk && status != Status.Ok) {
+        allOk = false;
+        firstFailedIndex.accumulateAndGet(i, Math::min);
+      }
+    }
+
+    if (error != null) {
+      throw new ProjectBuildException(error);
+    }
+
+    return result;
+  }
+
+  private Future<Status> submitCompilation(final CompileContext context,
+                                           final List<JpsFlexBuildConfiguration> bcs,
+                                           final int index,
+                                           @Nullable final List<BuildMessage> deferredMessages,
+                                           final AtomicInteger firstFailedIndex) {
+    final MessageHandler messageHandler = deferredMessages == null ? context : deferredMessages::add;
+    return SharedThreadPool.getInstance().submit(() -> {
+      final Status status = compileWhenPermitted(context, messageHandler, bcs.get(index), () -> firstFailedIndex.get() < index);
+      if (status != null && status != Status.Ok) {
+        firstFailedIndex.accumulateAndGet(index, Math::min);
+      }
+      return status;
+    });
+  }
+
+  private static boolean needsMainBCOutput(final JpsFlexBuildConfiguration bc) {
+    return FlexCommonUtils.isRLMTemporaryBC(bc) && !bc.getOptimizeFor().isEmpty();
+  }
+
+  /**
+   * @param messageHandler receives the compiler messages of the BC
+   * @param skip           checked while waiting for a permit, the BC is not compiled and {@code null} is returned if it becomes {@code true}
+   */
+  @Nullable
+  private Status compileWhenPermitted(final CompileContext context,
+                                      final MessageHandler messageHandler,
+                                      final JpsFlexBuildConfiguration bc,
+                                      final BooleanSupplier skip) {
+    try {
+      while (!myCompilationPermits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+        if (context.getCancelStatus().isCanceled()) {
+          return Status.Cancelled;
+        }
+        if (skip.getAsBoolean()) {
+          return null;
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Status.Cancelled;
+    }
+
+    try {
+      if (skip.getAsBoolean()) {
+        return null;
+      }
+      return compileBuildConfiguration(context, messageHandler, bc, myBuiltInCompilerHandler);
+    }
+    finally {
+      myCompilationPermits.release();
+    }
+  }
+
   private static Status compileBuildConfiguration(final CompileContext context,
+                                                  final MessageHandler messageHandler,
                                                   final JpsFlexBuildConfiguration bc,
                                                   final JpsBuiltInFlexCompilerHandler builtInCompilerHandler) {
     setProgressMessage(context, bc);
@@ -293,15 +440,15 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
       final String outputFilePath = bc.getActualOutputFilePath();
 
       if (!ensureCanCreateFile(new File(outputFilePath))) {
-        context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR,
-                                                   FlexCommonBundle.message("failed.to.create.file", bc.getActualOutputFilePath())));
+        messageHandler.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR,
+                                                          FlexCommonBundle.message("failed.to.create.file", bc.getActualOutputFilePath())));
         return Status.Failed;
       }
 
-      return doCompile(context, bc, configFiles, compilerName, builtInCompilerHandler);
+      return doCompile(context, messageHandler, bc, configFiles, compilerName, builtInCompilerHandler);
     }
     catch (IOException e) {
-      context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.getMessage()));
+      messageHandler.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.getMessage()));
       return Status.Failed;
     }
   }
@@ -348,6 +495,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
   }
 
   private static Status doCompile(final CompileContext context,
+                                  final MessageHandler messageHandler,
                                   final JpsFlexBuildConfiguration bc,
                                   final List<File> configFiles,
                                   final String compilerName,
@@ -365,7 +513,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
                             builtInCompilerHandler.canBeUsedForSdk(sdk.getHomePath());
 
     if (builtIn) {
-      return doCompileWithBuiltInCompiler(context, bc, configFiles, compilerName, builtInCompilerHandler);
+      return doCompileWithBuiltInCompiler(context, messageHandler, bc, configFiles, compilerName, builtInCompilerHandler);
     }
 
     final List<String> compilerCommand = asc20 ? getASC20Command(bc.getModule().getProject(), sdk, app)
@@ -380,7 +528,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
       final Process process = processBuilder.start();
 
       final FlexCompilerProcessHandler processHandler =
-        new FlexCompilerProcessHandler(context, process, asc20, compilerName, StringUtil.join(command, " "));
+        new FlexCompilerProcessHandler(context, messageHandler, process, asc20, compilerName, StringUtil.join(command, " "));
       processHandler.startNotify();
       processHandler.waitFor();
 
@@ -390,12 +538,13 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
                                             : Status.Ok;
     }
     catch (IOException e) {
-      context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.getMessage()));
+      messageHandler.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.getMessage()));
       return Status.Failed;
     }
   }
 
   private static Status doCompileWithBuiltInCompiler(final CompileContext context,
+                                                     final MessageHandler messageHandler,
                                                      final JpsFlexBuildConfiguration bc,
                                                      final List<File> configFiles,
                                                      final String compilerName,
@@ -404,7 +553,7 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
       builtInCompilerHandler.startCompilerIfNeeded(bc.getSdk(), context, compilerName);
     }
     catch (IOException e) {
-      context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.toString()));
+      messageHandler.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR, e.toString()));
       return Status.Failed;
     }
 
@@ -416,15 +565,21 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
     final Semaphore semaphore = new Semaphore();
     semaphore.down();
 
-    context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO, plainCommand));
+    messageHandler.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO, plainCommand));
 
-    final BuiltInCompilerListener listener = new BuiltInCompilerListener(context, compilerName, () -> semaphore.up());
+    final BuiltInCompilerListener listener = new BuiltInCompilerListener(context, messageHandler, compilerName, () -> semaphore.up());
 
+    final long start = System.currentTimeMillis();
     builtInCompilerHandler.sendCompilationCommand(plainCommand, listener);
 
     semaphore.waitFor();
     builtInCompilerHandler.removeListener(listener);
 
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(compilerName + ": compilation took " + (System.currentTimeMillis() - start) + " ms" +
+                (builtInCompilerHandler.isRunningDaemonUsed() ? " (running compiler)" : ""));
+    }
+
     return listener.isCompilationCancelled() ? Status.Cancelled
                                              : listener.isCompilationFailed()
                                                ? Status.Failed
@@ -488,8 +643,11 @@ public class FlexBuilder extends TargetBuilder<BuildRootDescriptor, FlexBuildTar
   private static class BuiltInCompilerListener extends CompilerMessageHandlerBase implements JpsBuiltInFlexCompilerHandler.Listener {
     private final Runnable myOnCompilationFinishedRunnable;
 
-    BuiltInCompilerListener(final CompileContext context, final String compilerName, final Runnable onCompilationFinishedRunnable) {
-      super(context, false, compilerName);
+    BuiltInCompilerListener(final CompileContext context,
+                            final MessageHandler messageHandler,
+                            final String compilerName,
+                            final Runnable onCompilationFinishedRunnable) {
+      super(context, messageHandler, false, compilerName);
       myOnCompilationFinishedRunnable = onCompilationFinishedRunnable;
     }
 
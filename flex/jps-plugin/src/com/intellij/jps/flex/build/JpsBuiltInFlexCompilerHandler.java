@@ -2,11 +2,14 @@
 package com.intellij.jps.flex.build;
 
 import com.intellij.flex.FlexCommonUtils;
+import com.intellij.flex.model.JpsFlexCompilerProjectExtension;
 import com.intellij.flex.model.sdk.JpsFlexSdkType;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.TimeoutUtil;
 import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.Utils;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.model.JpsProject;
@@ -14,8 +17,15 @@ import org.jetbrains.jps.model.library.sdk.JpsSdk;
 import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,11 +36,18 @@ public final class JpsBuiltInFlexCompilerHandler {
   private static final String CONNECTION_SUCCESSFUL = "Connection successful";
   public static final String COMPILATION_FINISHED = "Compilation finished";
 
+  private static final String DAEMON_OPTION = "-daemon";
+  private static final int DAEMON_IDLE_TIMEOUT_MINUTES = 30;
+  private static final int DAEMON_MAX_HEAP_USAGE_PERCENT = 70;
+  private static final int DAEMON_START_TIMEOUT_MS = 60000;
+
   private final JpsProject myProject;
 
   private String mySdkHome;
 
   private ServerSocket myServerSocket;
+  private Socket myDaemonSocket;
+  private boolean myRunningDaemonUsed;
   private DataInputStream myDataInputStream;
   private DataOutputStream myDataOutputStream;
 
@@ -58,18 +75,23 @@ public final class JpsBuiltInFlexCompilerHandler {
       stopCompilerProcess();
     }
 
-    if (myServerSocket == null) {
+    if (myServerSocket == null && myDaemonSocket == null) {
       try {
-        //context.processMessage(new ProgressMessage("Starting Flex compiler"));
-        myServerSocket = new ServerSocket(0);
-        myServerSocket.setSoTimeout(10000);
-        final int port = myServerSocket.getLocalPort();
+        if (JpsFlexCompilerProjectExtension.getInstance(myProject).KEEP_BUILT_IN_COMPILER_RUNNING) {
+          connectToDaemon(sdk, context, compilerName);
+        }
+        else {
+          //context.processMessage(new ProgressMessage("Starting Flex compiler"));
+          myServerSocket = new ServerSocket(0);
+          myServerSocket.setSoTimeout(10000);
+          final int port = myServerSocket.getLocalPort();
 
-        startCompilerProcess(sdk, port, context, compilerName);
+          startCompilerProcess(sdk, port, context, compilerName);
 
-        final Socket socket = myServerSocket.accept();
-        myDataInputStream = new DataInputStream(socket.getInputStream());
-        myDataOutputStream = new DataOutputStream(socket.getOutputStream());
+          final Socket socket = myServerSocket.accept();
+          myDataInputStream = new DataInputStream(socket.getInputStream());
+          myDataOutputStream = new DataOutputStream(socket.getOutputStream());
+        }
         mySdkHome = sdk.getHomePath();
         scheduleInputReading();
       }
@@ -80,10 +102,14 @@ public final class JpsBuiltInFlexCompilerHandler {
     }
   }
 
-  private void startCompilerProcess(final JpsSdk<?> sdk,
-                                    final int port,
-                                    final CompileContext context,
-                                    final String compilerName) throws IOException {
+  /**
+   * @return {@code true} if compilations of this build session are done by a compiler process started by one of the previous sessions
+   */
+  public synchronized boolean isRunningDaemonUsed() {
+    return myRunningDaemonUsed;
+  }
+
+  private List<String> getCompilerCommandLine(final JpsSdk<?> sdk) {
     final StringBuilder classpath = new StringBuilder();
 
     classpath.append(FlexCommonUtils.getPathToBundledJar("idea-flex-compiler-fix.jar"));
@@ -94,21 +120,146 @@ public final class JpsBuiltInFlexCompilerHandler {
       classpath.append(File.pathSeparator).append(FileUtil.toSystemDependentName(sdk.getHomePath() + "/lib/flex-compiler-oem.jar"));
     }
 
-    final List<String> commandLine =
-      FlexCommonUtils.getCommandLineForSdkTool(myProject, sdk, classpath.toString(), "com.intellij.flex.compiler.FlexCompiler");
+    return FlexCommonUtils.getCommandLineForSdkTool(myProject, sdk, classpath.toString(), "com.intellij.flex.compiler.FlexCompiler");
+  }
+
+  private void startCompilerProcess(final JpsSdk<?> sdk,
+                                    final int port,
+                                    final CompileContext context,
+                                    final String compilerName) throws IOException {
+    final List<String> commandLine = getCompilerCommandLine(sdk);
     commandLine.add(String.valueOf(port));
 
     final ProcessBuilder processBuilder = new ProcessBuilder(commandLine);
     processBuilder.redirectErrorStream(true);
     processBuilder.directory(new File(FlexCommonUtils.getFlexCompilerWorkDirPath(myProject)));
 
-    final String plainCommand = StringUtil.join(processBuilder.command(), s -> s.contains(" ") ? "\"" + s + "\"" : s, " ");
-    context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO, "Starting Flex compiler:\n" + plainCommand));
+    context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO,
+                                               "Starting Flex compiler:\n" + toPlainCommand(processBuilder)));
 
     final Process process = processBuilder.start();
     readInputStreamUntilConnected(process, context, compilerName);
   }
 
+  /**
+   * Connects to the compiler daemon that was started for the same project, SDK and compiler options by one of the previous build
+   * sessions, or starts a new one. The daemon doesn't exit when the build session finishes, see CompilerDaemon in the compiler sources
+   */
+  private void connectToDaemon(final JpsSdk<?> sdk, final CompileContext context, final String compilerName) throws IOException {
+    final long start = System.currentTimeMillis();
+    final List<String> commandLine = getCompilerCommandLine(sdk);
+    final String workDir = FlexCommonUtils.getFlexCompilerWorkDirPath(myProject);
+
+    final File daemonsDir = new File(Utils.getSystemRoot(), "flex-compiler-daemons");
+    // a daemon started by the previous version of the plugin has outdated classes
+    final long compilerJarTimestamp = new File(FlexCommonUtils.getPathToBundledJar("flex-compiler.jar")).lastModified();
+    final String key = sha256(workDir + "\n" + compilerJarTimestamp + "\n" + StringUtil.join(commandLine, "\n"));
+    final File infoFile = new File(daemonsDir, key + ".txt");
+    final File logFile = new File(daemonsDir, key + ".log");
+
+    if (tryConnectToDaemon(infoFile)) {
+      myRunningDaemonUsed = true;
+      LOG.debug("Connected to running Flex compiler in " + (System.currentTimeMillis() - start) + " ms");
+      return;
+    }
+
+    createPrivateDirectory(daemonsDir);
+    FileUtil.delete(infoFile);
+
+    commandLine.add(DAEMON_OPTION);
+    commandLine.add(infoFile.getPath());
+    commandLine.add(String.valueOf(DAEMON_IDLE_TIMEOUT_MINUTES));
+    commandLine.add(String.valueOf(DAEMON_MAX_HEAP_USAGE_PERCENT));
+
+    final ProcessBuilder processBuilder = new ProcessBuilder(commandLine);
+    processBuilder.redirectErrorStream(true);
+    // the daemon outlives this build process, so its output can't go to a pipe
+    processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(logFile));
+    processBuilder.directory(new File(workDir));
+
+    context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.INFO,
+                                               "Starting Flex compiler:\n" + toPlainCommand(processBuilder)));
+
+    final Process process = processBuilder.start();
+    while (!tryConnectToDaemon(infoFile)) {
+      if (!process.isAlive()) {
+        throw new IOException("Flex compiler exited with code " + process.exitValue() + ", see " + logFile.getPath());
+      }
+      if (System.currentTimeMillis() - start > DAEMON_START_TIMEOUT_MS) {
+        process.destroy();
+        throw new IOException("Flex compiler hasn't started in " + DAEMON_START_TIMEOUT_MS / 1000 + " seconds, see " + logFile.getPath());
+      }
+      TimeoutUtil.sleep(100);
+    }
+
+    LOG.debug("Flex compiler started in " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  private static String sha256(final String text) throws IOException {
+    try {
+      return StringUtil.toHexString(MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Info files of the daemons contain tokens that let only the owner connect, so other users can't even list the directory.
+   */
+  private static void createPrivateDirectory(final File dir) throws IOException {
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      FileUtil.createDirectory(dir);
+      return;
+    }
+    Files.createDirectories(dir.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    // the directory may have been created by an older version
+    Files.setPosixFilePermissions(dir.toPath(), PosixFilePermissions.fromString("rwx------"));
+  }
+
+  private boolean tryConnectToDaemon(final File infoFile) {
+    if (!infoFile.isFile()) return false;
+
+    Socket socket = null;
+    try {
+      // port and token, see CompilerDaemon.writeInfoFile()
+      final List<String> lines = FileUtil.loadLines(infoFile);
+      if (lines.size() < 2) return false;
+
+      socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(lines.get(0)));
+      // a daemon that serves another build session doesn't answer
+      socket.setSoTimeout(10000);
+      final DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+      final DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+      dataOutputStream.writeUTF(lines.get(1));
+
+      final String response = dataInputStream.readUTF();
+      if (!response.startsWith(CONNECTION_SUCCESSFUL)) {
+        throw new IOException("Unexpected response: " + response);
+      }
+      socket.setSoTimeout(0);
+
+      myDaemonSocket = socket;
+      myDataInputStream = dataInputStream;
+      myDataOutputStream = dataOutputStream;
+      return true;
+    }
+    catch (IOException | NumberFormatException e) {
+      LOG.debug("Can't connect to Flex compiler daemon: " + e);
+      if (socket != null) {
+        try {
+          socket.close();
+        }
+        catch (IOException ignored) {/**/}
+      }
+      return false;
+    }
+  }
+
+  private static String toPlainCommand(final ProcessBuilder processBuilder) {
+    return StringUtil.join(processBuilder.command(), s -> s.contains(" ") ? "\"" + s + "\"" : s, " ");
+  }
+
   private void readInputStreamUntilConnected(final Process process, final CompileContext context, final String compilerName) {
     SharedThreadPool.getInstance().execute(() -> {
       final InputStreamReader reader = FlexCommonUtils.createInputStreamReader(process.getInputStream());
@@ -233,7 +384,7 @@ public final class JpsBuiltInFlexCompilerHandler {
   }
 
   private synchronized void closeSocket() {
-    // compiler process exits when socket closes, so it's enough just to close streams
+    // compiler process exits when socket closes (daemon waits for the next build session), so it's enough just to close streams
 
     if (myDataInputStream != null) {
       try {
@@ -256,7 +407,16 @@ public final class JpsBuiltInFlexCompilerHandler {
       catch (IOException ignored) {/**/}
     }
 
+    if (myDaemonSocket != null) {
+      try {
+        myDaemonSocket.close();
+      }
+      catch (IOException ignored) {/**/}
+    }
+
     myServerSocket = null;
+    myDaemonSocket = null;
+    myRunningDaemonUsed = false;
     myDataInputStream = null;
     myDataOutputStream = null;
   }
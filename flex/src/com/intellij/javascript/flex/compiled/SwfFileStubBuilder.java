@@ -17,7 +17,6 @@ import com.intellij.psi.stubs.StubElement;
 import com.intellij.util.indexing.FileContent;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
 
 /**
  * @author Maxim.Mossienko
@@ -40,10 +39,7 @@ public class SwfFileStubBuilder implements BinaryFileStubBuilder {
     PsiFileStubImpl stub = new JSFileStubImpl(JavaScriptSupportLoader.ECMA_SCRIPT_L4, new JSFileCachedData());
     try {
 
-      FlexImporter.buildStubsInterfaceFromStream(
-        new ByteArrayInputStream(content),
-        stub
-      );
+      FlexImporter.buildStubsInterface(content, stub);
 
     } catch (Exception ex) {
       Logger.getInstance(SwfFileStubBuilder.class.getName()).warn(file.getPath(), ex);
@@ -0,0 +1,206 @@
+// Copyright 2000-2021 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+package com.intellij.javascript.flex.compiled;
+
+import com.intellij.ide.plugins.IdeaPluginDescriptor;
+import com.intellij.ide.plugins.PluginManagerCore;
+import com.intellij.lang.javascript.flex.importer.FlexImporter;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.PluginId;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Interfaces decompiled from SWF files by {@link FlexImporter}, kept on disk and shared by all projects. Flex SDK and library SWCs
+ * almost never change, so an interface is looked up by the SHA-256 of the plugin version and the SWF content, and the importer runs
+ * only for content that hasn't been seen before. Least recently used entries are removed when the cache grows over
+ * {@link #MAX_TOTAL_SIZE}, including the entries of other plugin versions, which are never read.
+ */
+public final class SwfInterfaceCache {
+  private static final Logger LOG = Logger.getInstance(SwfInterfaceCache.class);
+
+  private static final String PLUGIN_ID = "com.intellij.flex";
+  private static final String EXTENSION = ".as.gz";
+  private static final long MAX_TOTAL_SIZE = 200L * 1024 * 1024;
+  private static final int WRITES_BETWEEN_CLEANUPS = 20;
+
+  private final Path myDirectory;
+  private final long myMaxTotalSize;
+  private final String myImporterVersion;
+  private final AtomicInteger myWritesBeforeCleanup = new AtomicInteger();
+
+  public static SwfInterfaceCache getInstance() {
+    return ApplicationManager.getApplication().getService(SwfInterfaceCache.class);
+  }
+
+  public SwfInterfaceCache() {
+    this(Paths.get(PathManager.getSystemPath(), "flex-swf-interfaces"), MAX_TOTAL_SIZE, getPluginVersion());
+  }
+
+  @TestOnly
+  public SwfInterfaceCache(@NotNull Path directory, long maxTotalSize, @NotNull String importerVersion) {
+    myDirectory = directory;
+    myMaxTotalSize = maxTotalSize;
+    myImporterVersion = importerVersion;
+  }
+
+  @NotNull
+  private static String getPluginVersion() {
+    final IdeaPluginDescriptor plugin = PluginManagerCore.getPlugin(PluginId.getId(PLUGIN_ID));
+    final String version = plugin == null ? null : plugin.getVersion();
+    return StringUtil.notNullize(version);
+  }
+
+  /**
+   * @return the same text as {@link FlexImporter#buildInterface(byte[])}
+   */
+  @NotNull
+  public String getInterface(byte @NotNull [] swfContent) {
+    final String key = computeKey(swfContent);
+    if (key == null) return FlexImporter.buildInterface(swfContent);
+
+    final Path file = myDirectory.resolve(key + EXTENSION);
+    final String cached = read(file);
+    if (cached != null) return cached;
+
+    final String result = FlexImporter.buildInterface(swfContent);
+    write(file, result);
+    return result;
+  }
+
+  @Nullable
+  private String computeKey(byte @NotNull [] content) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      // FlexImporter output may change in any plugin update
+      digest.update(myImporterVersion.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte)0);
+      return StringUtil.toHexString(digest.digest(content));
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.warn(e);
+      return null;
+    }
+  }
+
+  @Nullable
+  private static String read(@NotNull Path file) {
+    if (!Files.isRegularFile(file)) return null;
+
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+      final String result = new String(FileUtil.loadBytes(in), StandardCharsets.UTF_8);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return result;
+    }
+    catch (NoSuchFileException e) {
+      // removed by the cleanup in another IDE instance
+      return null;
+    }
+    catch (IOException e) {
+      LOG.info("Damaged entry " + file + ": " + e.getMessage());
+      try {
+        Files.deleteIfExists(file);
+      }
+      catch (IOException ignored) {
+      }
+      return null;
+    }
+  }
+
+  private void write(@NotNull Path file, @NotNull String text) {
+    Path tempFile = null;
+    try {
+      Files.createDirectories(myDirectory);
+      // several IDE instances may share the directory, so the entry appears at once or not at all
+      tempFile = Files.createTempFile(myDirectory, "swf", ".tmp");
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+      }
+      Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      tempFile = null;
+    }
+    catch (IOException e) {
+      LOG.info("Failed to save " + file + ": " + e.getMessage());
+    }
+    finally {
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        }
+        catch (IOException ignored) {
+        }
+      }
+    }
+
+    if (myWritesBeforeCleanup.getAndDecrement() <= 0) {
+      myWritesBeforeCleanup.set(WRITES_BETWEEN_CLEANUPS);
+      cleanup();
+    }
+  }
+
+  private void cleanup() {
+    final List<Path> files = new ArrayList<>();
+    try (Stream<Path> stream = Files.list(myDirectory)) {
+      stream.forEach(files::add);
+    }
+    catch (IOException e) {
+      return;
+    }
+
+    final List<Entry> entries = new ArrayList<>(files.size());
+    long totalSize = 0;
+    for (Path file : files) {
+      try {
+        final Entry entry = new Entry(file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+        entries.add(entry);
+        totalSize += entry.size;
+      }
+      catch (IOException ignored) {
+      }
+    }
+    if (totalSize <= myMaxTotalSize) return;
+
+    entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+    for (Entry entry : entries) {
+      if (totalSize <= myMaxTotalSize) break;
+      try {
+        Files.deleteIfExists(entry.file);
+        totalSize -= entry.size;
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final Path file;
+    private final long size;
+    private final long lastModified;
+
+    private Entry(@NotNull Path file, long size, long lastModified) {
+      this.file = file;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -27,10 +27,12 @@ public class FlexCompilerProjectConfigurable implements SearchableConfigurable,
 
   private JPanel myMainPanel;
   private JRadioButton myBuiltInCompilerRadioButton;
+  private JCheckBox myKeepCompilerRunningCheckBox;
   private JRadioButton myMxmlcCompcRadioButton;
   private JCheckBox myPreferASC20CheckBox;
 
   private JTextField myHeapSizeTextField;
+  private JTextField myParallelCompilationsTextField;
   private RawCommandLineEditor myVMOptionsEditor;
 
   private final Project myProject;
@@ -41,6 +43,8 @@ public class FlexCompilerProjectConfigurable implements SearchableConfigurable,
     myConfig = FlexCompilerProjectConfiguration.getInstance(project);
 
     myVMOptionsEditor.setDialogCaption(FlexBundle.message("flex.compiler.vm.options.title"));
+    myBuiltInCompilerRadioButton.addChangeListener(
+      e -> myKeepCompilerRunningCheckBox.setEnabled(myBuiltInCompilerRadioButton.isSelected()));
   }
 
   @Override
@@ -68,14 +72,17 @@ public class FlexCompilerProjectConfigurable implements SearchableConfigurable,
   public boolean isModified() {
     return myConfig.USE_MXMLC_COMPC != myMxmlcCompcRadioButton.isSelected() ||
            myConfig.USE_BUILT_IN_COMPILER != myBuiltInCompilerRadioButton.isSelected() ||
+           myConfig.KEEP_BUILT_IN_COMPILER_RUNNING != myKeepCompilerRunningCheckBox.isSelected() ||
            myConfig.PREFER_ASC_20 != myPreferASC20CheckBox.isSelected() ||
            !myHeapSizeTextField.getText().trim().equals(String.valueOf(myConfig.HEAP_SIZE_MB)) ||
+           !myParallelCompilationsTextField.getText().trim().equals(String.valueOf(myConfig.MAX_PARALLEL_COMPILATIONS)) ||
            !myVMOptionsEditor.getText().trim().equals(myConfig.VM_OPTIONS);
   }
 
   @Override
   public void apply() throws ConfigurationException {
     myConfig.USE_BUILT_IN_COMPILER = myBuiltInCompilerRadioButton.isSelected();
+    myConfig.KEEP_BUILT_IN_COMPILER_RUNNING = myKeepCompilerRunningCheckBox.isSelected();
     myConfig.USE_MXMLC_COMPC = myMxmlcCompcRadioButton.isSelected();
     myConfig.PREFER_ASC_20 = myPreferASC20CheckBox.isSelected();
 
@@ -92,15 +99,31 @@ public class FlexCompilerProjectConfigurable implements SearchableConfigurable,
       throw new ConfigurationException(FlexBundle.message("invalid.flex.compiler.heap.size"));
     }
 
+    try {
+      final int parallelCompilations = Integer.parseInt(myParallelCompilationsTextField.getText().trim());
+      if (parallelCompilations > 0) {
+        myConfig.MAX_PARALLEL_COMPILATIONS = parallelCompilations;
+      }
+      else {
+        throw new ConfigurationException(FlexBundle.message("invalid.flex.compiler.parallel.compilations"));
+      }
+    }
+    catch (NumberFormatException e) {
+      throw new ConfigurationException(FlexBundle.message("invalid.flex.compiler.parallel.compilations"));
+    }
+
     myConfig.VM_OPTIONS = myVMOptionsEditor.getText().trim();
   }
 
   @Override
   public void reset() {
     myBuiltInCompilerRadioButton.setSelected(myConfig.USE_BUILT_IN_COMPILER);
+    myKeepCompilerRunningCheckBox.setSelected(myConfig.KEEP_BUILT_IN_COMPILER_RUNNING);
+    myKeepCompilerRunningCheckBox.setEnabled(myConfig.USE_BUILT_IN_COMPILER);
     myMxmlcCompcRadioButton.setSelected(myConfig.USE_MXMLC_COMPC);
     myPreferASC20CheckBox.setSelected(myConfig.PREFER_ASC_20);
     myHeapSizeTextField.setText(String.valueOf(myConfig.HEAP_SIZE_MB));
+    myParallelCompilationsTextField.setText(String.valueOf(myConfig.MAX_PARALLEL_COMPILATIONS));
     myVMOptionsEditor.setText(myConfig.VM_OPTIONS);
   }
 
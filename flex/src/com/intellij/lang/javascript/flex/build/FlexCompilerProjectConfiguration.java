@@ -15,6 +15,8 @@ public class FlexCompilerProjectConfiguration implements PersistentStateComponen
   public boolean GENERATE_FLEXMOJOS_CONFIGS = true;
 
   public boolean USE_BUILT_IN_COMPILER = true;
+  // opt-in: only JVM start and SDK class loading are saved, the compiler keeps no caches between builds
+  public boolean KEEP_BUILT_IN_COMPILER_RUNNING = false;
   public boolean USE_FCSH = false;
   public boolean USE_MXMLC_COMPC = false;
   public boolean PREFER_ASC_20 = true;
@@ -36,6 +38,7 @@ public class FlexCompilerProjectConfiguration implements PersistentStateComponen
     GENERATE_FLEXMOJOS_CONFIGS = state.GENERATE_FLEXMOJOS_CONFIGS;
 
     USE_BUILT_IN_COMPILER = state.USE_BUILT_IN_COMPILER;
+    KEEP_BUILT_IN_COMPILER_RUNNING = state.KEEP_BUILT_IN_COMPILER_RUNNING;
     USE_FCSH = state.USE_FCSH;
     USE_MXMLC_COMPC = state.USE_MXMLC_COMPC;
 
@@ -47,7 +50,7 @@ public class FlexCompilerProjectConfiguration implements PersistentStateComponen
       USE_BUILT_IN_COMPILER = true;
     }
 
-    //  MAX_PARALLEL_COMPILATIONS = state.MAX_PARALLEL_COMPILATIONS;
+    MAX_PARALLEL_COMPILATIONS = state.MAX_PARALLEL_COMPILATIONS;
     HEAP_SIZE_MB = state.HEAP_SIZE_MB;
     VM_OPTIONS = state.VM_OPTIONS;
   }
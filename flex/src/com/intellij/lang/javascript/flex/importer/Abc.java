@@ -289,6 +289,8 @@ class Abc {
   static final Multiname OpaqueAssetsType = new Multiname(null, "Class");
 
   private final FlexByteCodeInformationProcessor processor;
+  // the processor gets the messages of parsing in dump(), so that blocks of a SWF can be parsed concurrently, see Swf
+  private final List<Runnable> reports = new ArrayList<>();
   int totalSize;
   final int opSizes[] = new int[256];
 
@@ -299,7 +301,7 @@ class Abc {
     data.setPosition(0);
     magic = data.readInt();
 
-    _processor.dumpStat("magic " + Integer.toString(magic, 16) + "\n");
+    reportStat("magic " + Integer.toString(magic, 16) + "\n");
 
     if (magic != (46 << 16 | 14) && magic != (46 << 16 | 15) && magic != (46 << 16 | 16)) {
       throw new Error("not an abc file.  magic=" + Integer.toString(magic, 16));
@@ -338,6 +340,11 @@ class Abc {
   }
 
   public void dump(String indent) {
+    for (Runnable report : reports) {
+      report.run();
+    }
+    reports.clear();
+
     for (Traits t : scripts) {
       processor.dumpTopLevelTraits(this, t, indent);
     }
@@ -370,7 +377,10 @@ class Abc {
   Integer[] ints;
   Integer[] uints;
   Double[] doubles;
-  @NonNls String[] strings;
+  // decoded strings, see string()
+  private @NonNls String[] strings;
+  private int[] stringOffsets;
+  private int[] stringLengths;
   @NonNls String[] namespaces;
   @NonNls String[][] nssets;
   Multiname[] names;
@@ -389,6 +399,18 @@ class Abc {
     return data.readU32();
   }
 
+  @NonNls String string(int index) {
+    String result = strings[index];
+    if (result == null) {
+      result = strings[index] = data.getUTFBytes(stringOffsets[index], stringLengths[index]);
+    }
+    return result;
+  }
+
+  private Object getDefault(int kind, int index) {
+    return kind == CONSTANT_Utf8 ? string(index) : defaults[kind][index];
+  }
+
   void parseCpool() {
     int i, j;
     int n;
@@ -418,18 +440,22 @@ class Abc {
       doubles[i] = data.readDouble();
     }
 
-    reportAboutPercentage("Cpool numbers size ", data, start, processor);
+    reportAboutPercentage("Cpool numbers size ", start);
     start = data.getPosition();
 
-    // strings
+    // strings, decoded on first access: many of them are used only by method bodies
     n = readU32();
     strings = new String[n];
+    stringOffsets = new int[n];
+    stringLengths = new int[n];
     strings[0] = "";
     for (i = 1; i < n; i++) {
-      strings[i] = data.readUTFBytes(readU32());
+      stringLengths[i] = readU32();
+      stringOffsets[i] = data.getPosition();
+      data.incPosition(stringLengths[i]);
     }
 
-    reportAboutPercentage("Cpool strings count " + n + " size ", data, start, processor);
+    reportAboutPercentage("Cpool strings count " + n + " size ", start);
     start = data.getPosition();
 
     // namespaces
@@ -444,7 +470,7 @@ class Abc {
         case CONSTANT_ProtectedNs:
         case CONSTANT_StaticProtectedNs:
         case CONSTANT_StaticProtectedNs2: {
-          namespaces[i] = strings[readU32()];
+          namespaces[i] = string(readU32());
           // todo mark kind of namespace.
           break;
         }
@@ -455,7 +481,7 @@ class Abc {
       }
     }
 
-    reportAboutPercentage("Cpool namespaces count " + n + " size ", data, start, processor);
+    reportAboutPercentage("Cpool namespaces count " + n + " size ", start);
     start = data.getPosition();
 
     // namespace sets
@@ -469,7 +495,7 @@ class Abc {
       }
     }
 
-    reportAboutPercentage("Cpool nssets count " + n + " size ", data, start, processor);
+    reportAboutPercentage("Cpool nssets count " + n + " size ", start);
     start = data.getPosition();
 
     // multinames
@@ -490,12 +516,12 @@ class Abc {
       switch (data.readByte()) {
         case CONSTANT_Qname:
         case CONSTANT_QnameA:
-          names[i] = new Multiname(new String[]{namespaces[readU32()]}, strings[readU32()]);
+          names[i] = new Multiname(new String[]{namespaces[readU32()]}, string(readU32()));
           break;
 
         case CONSTANT_RTQname:
         case CONSTANT_RTQnameA:
-          names[i] = new Multiname(new String[]{strings[readU32()]}, null);
+          names[i] = new Multiname(new String[]{string(readU32())}, null);
           break;
 
         case CONSTANT_RTQnameL:
@@ -510,7 +536,7 @@ class Abc {
 
         case CONSTANT_Multiname:
         case CONSTANT_MultinameA:
-          String name = strings[readU32()];
+          String name = string(readU32());
           names[i] = new Multiname(nssets[readU32()], name);
           break;
 
@@ -590,7 +616,7 @@ class Abc {
       }
     } while (hasSomething && doneSomething);
 
-    reportAboutPercentage("Cpool names count " + n + " size ", data, start, processor);
+    reportAboutPercentage("Cpool names count " + n + " size ", start);
     start = data.getPosition();
 
     namespaces[0] = PUBLIC_NS;
@@ -614,7 +640,7 @@ class Abc {
         m.paramTypes[j] = names[readU32()];
         if (m.paramTypes[j] == null) m.paramTypes[j] = OpaqueAssetsType;
       }
-      m.debugName = strings[readU32()];
+      m.debugName = string(readU32());
       m.flags = data.readByte();
 
       if ((m.flags & HAS_OPTIONAL) != 0) {
@@ -646,10 +672,10 @@ class Abc {
           }
           else {
             if (defaults[kind] == null) {
-              processor.hasError("ERROR kind=" + kind + " method_id " + i + "\n");
+              reportError("ERROR kind=" + kind + " method_id " + i + "\n");
             }
             else {
-              m.optionalValues[k] = new Multiname(null, defaults[kind][index].toString());
+              m.optionalValues[k] = new Multiname(null, getDefault(kind, index).toString());
             }
           }
         }
@@ -660,7 +686,7 @@ class Abc {
           Set<String> usedNames = new THashSet<>(m.paramNames.length);
           for (int k = 0; k < param_count; ++k) {
             final int index = readU32();
-            final String name = strings[index];
+            final String name = string(index);
             m.paramNames[k] = StringUtil.isJavaIdentifier(name) && usedNames.add(name) ? name : "_" + k;
           }
         } else {
@@ -685,7 +711,7 @@ class Abc {
       }
     }
 
-    reportAboutPercentage("MethodInfo count " + method_count + " size ", data, start, processor);
+    reportAboutPercentage("MethodInfo count " + method_count + " size ", start);
   }
 
   void parseMetadataInfos() {
@@ -694,15 +720,15 @@ class Abc {
     for (int i = 0; i < count; i++) {
       // MetadataInfo
       MetaData m = metadata[i] = new MetaData();
-      m.name = strings[readU32()];
+      m.name = string(readU32());
       int values_count = readU32();
       String names[] = new String[values_count];
 
       for (int q = 0; q < values_count; ++q) {
-        names[q] = strings[readU32()]; // name
+        names[q] = string(readU32()); // name
       }
       for (int q = 0; q < values_count; ++q) {
-        m.put(names[q], strings[readU32()]); // value
+        m.put(names[q], string(readU32())); // value
       }
     }
   }
@@ -732,7 +758,7 @@ class Abc {
       parseTraits(t);
     }
 
-    reportAboutPercentage("InstanceInfo size ", data, start, processor);
+    reportAboutPercentage("InstanceInfo size ", start);
   }
 
   static final TraitType[] traitTypes = TraitType.values();
@@ -746,7 +772,7 @@ class Abc {
       TraitType kind;
 
       if (traitTypeTag >= traitTypes.length) {
-        processor.hasError("error trait kind " + traitTypeTag + "\n");
+        reportError("error trait kind " + traitTypeTag + "\n");
         kind = null;
       }
       else {
@@ -770,7 +796,7 @@ class Abc {
               slot.type = OpaqueAssetsType;
             }
             int index = readU32();
-            if (index > 0) slot.value = defaults[data.readByte()][index];
+            if (index > 0) slot.value = getDefault(data.readByte(), index);
           }
           else // (kind == Class)
           {
@@ -833,7 +859,7 @@ class Abc {
       t.init.kind = TraitType.Method;
       parseTraits(t);
     }
-    reportAboutPercentage("ClassInfo size ", data, start, processor);
+    reportAboutPercentage("ClassInfo size ", start);
   }
 
   void parseScriptInfos() {
@@ -853,7 +879,7 @@ class Abc {
       parseTraits(t);
     }
 
-    reportAboutPercentage("ScriptInfo size ", data, start, processor);
+    reportAboutPercentage("ScriptInfo size ", start);
   }
 
   void parseMethodBodies() {
@@ -868,10 +894,7 @@ class Abc {
       int maxScopeDepth = readU32();
       m.max_scope = maxScopeDepth - initScopeDepth;
       int code_length = readU32();
-      m.code = new ByteBuffer();
-      m.code.setLittleEndian();
-
-      if (code_length > 0) data.readBytes(m.code, code_length);
+      m.code = data.slice(code_length);
 
       int ex_count = readU32();
       for (int j = 0; j < ex_count; j++) {
@@ -886,11 +909,19 @@ class Abc {
       parseTraits(m.activation = new Traits());
     }
 
-    reportAboutPercentage("MethodBodies size ", data, start, processor);
+    reportAboutPercentage("MethodBodies size ", start);
+  }
+
+  private void reportAboutPercentage(String s, int start) {
+    reportStat(s + (data.getPosition() - start) + " " + (int)100f * (data.getPosition() - start) / data.bytesSize() + " %\n");
+  }
+
+  private void reportStat(@NonNls String stat) {
+    reports.add(() -> processor.dumpStat(stat));
   }
 
-  private static void reportAboutPercentage(String s, ByteBuffer data, int start, @NotNull FlexByteCodeInformationProcessor processor) {
-    processor.dumpStat(s + (data.getPosition() - start) + " " + (int)100f * (data.getPosition() - start) / data.bytesSize() + " %\n");
+  private void reportError(String error) {
+    reports.add(() -> processor.hasError(error));
   }
 
 }
@@ -2,41 +2,54 @@ package com.intellij.lang.javascript.flex.importer;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.InflaterInputStream;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
+ * Reader over a {@link java.nio.ByteBuffer}: a byte array, a memory-mapped file or a part of another {@code ByteBuffer}.
+ * Parts returned by {@link #slice(int)} share the content, so ABC blocks of a SWF and method bodies of an ABC block are not copied.
+ *
  * @author Maxim.Mossienko
 */
 class ByteBuffer {
-  private byte[] bytes;
+  // SWFs are rarely compressed better than that, the buffer grows if they are
+  private static final int MAX_INFLATE_RATIO = 8;
+
+  private final java.nio.ByteBuffer buffer;
   private int position;
-  private boolean littleEndian;
 
-  void read(@NotNull InputStream inputStream) throws IOException {
-    try {
-      bytes = readStream(inputStream);
-    }
-    finally {
-      inputStream.close();
+  private ByteBuffer(@NotNull java.nio.ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  static @NotNull ByteBuffer wrap(byte @NotNull [] bytes) {
+    return wrap(bytes, bytes.length);
+  }
+
+  private static @NotNull ByteBuffer wrap(byte @NotNull [] bytes, int length) {
+    return new ByteBuffer(java.nio.ByteBuffer.wrap(bytes, 0, length).slice());
+  }
+
+  static @NotNull ByteBuffer map(@NotNull File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return new ByteBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
     }
   }
 
   void setLittleEndian() {
-    littleEndian = true;
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
   }
 
   int readInt() {
-    int result;
-    if (littleEndian) {
-      result = (((bytes[position + 3] & 0xFF) << 8 | (bytes[position + 2] & 0xFF)) << 16) + ((bytes[position + 1] & 0xFF) << 8) | (bytes[position] & 0xFF);
-    }
-    else {
-      result = (((bytes[position] & 0xFF) << 8 | (bytes[position + 1] & 0xFF)) << 16) + ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
-    }
+    final int result = buffer.getInt(position);
     position += 4;
     return result;
   }
@@ -50,77 +63,99 @@ class ByteBuffer {
   }
 
   public int bytesSize() {
-    return bytes.length;
+    return buffer.limit();
   }
 
-  public void uncompress() throws IOException {
-    final InflaterInputStream zipInputStream = new InflaterInputStream(new ByteArrayInputStream(bytes));
-
-    bytes = readStream(zipInputStream);
-
-    zipInputStream.close();
-  }
-
-  private static byte[] readStream(final InputStream zipInputStream) throws IOException {
-    final byte[] buf = new byte[8192];
-    byte[] result = new byte[8192];
-    int total = 0;
-
-    while (true) {
-      int read = zipInputStream.read(buf);
-      if (read == -1) break;
-      if (total + read >= result.length) {
-        byte[] newresult = new byte[result.length * 2];
-        System.arraycopy(result, 0, newresult, 0, total);
-        result = newresult;
+  /**
+   * Inflates the zlib-compressed data that starts at the given offset.
+   *
+   * @param expectedLength size of the inflated data if known in advance (SWF header has it), or 0. It comes from the file, so the
+   *                       initial buffer is never larger than {@link #MAX_INFLATE_RATIO} times the compressed data
+   */
+  @NotNull ByteBuffer inflate(int offset, int expectedLength) throws IOException {
+    final Inflater inflater = new Inflater();
+    try {
+      final java.nio.ByteBuffer input = buffer.duplicate();
+      input.position(offset);
+      inflater.setInput(input);
+
+      final long maxInitialLength = Math.max(8192, (long)MAX_INFLATE_RATIO * (bytesSize() - offset));
+      final long initialLength = expectedLength > 0 ? Math.min(expectedLength, maxInitialLength)
+                                                    : Math.max(8192, 2L * (bytesSize() - offset));
+      byte[] result = new byte[(int)Math.min(initialLength, Integer.MAX_VALUE - 8)];
+      int total = 0;
+      while (!inflater.finished()) {
+        if (total == result.length) {
+          result = Arrays.copyOf(result, result.length * 2);
+        }
+        final int read = inflater.inflate(result, total, result.length - total);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        total += read;
       }
 
-      System.arraycopy(buf, 0, result, total, read);
-      total += read;
+      final ByteBuffer inflated = wrap(result, total);
+      inflated.buffer.order(buffer.order());
+      return inflated;
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+    finally {
+      inflater.end();
     }
-
-    final byte[] realResult = new byte[total];
-    System.arraycopy(result, 0, realResult, 0, total);
-    return realResult;
   }
 
   public int readUnsignedByte() {
-    return bytes[position++] & 0xFF;
+    return buffer.get(position++) & 0xFF;
   }
 
   public int readByte() {
-    return bytes[position++];
+    return buffer.get(position++);
   }
 
   public int readUnsignedShort() {
-    int result;
-    if (littleEndian) {
-      result = (bytes[position + 1] & 0xFF) << 8 | (bytes[position] & 0xFF);
-    }
-    else {
-      result = (bytes[position] & 0xFF) << 8 | (bytes[position + 1] & 0xFF);
-    }
+    final int result = buffer.getShort(position) & 0xFFFF;
     position += 2;
     return result;
   }
 
-  public void readBytes(ByteBuffer data2, int length) {
-    data2.bytes = new byte[length];
-    System.arraycopy(bytes, position, data2.bytes, 0, length);
+  /**
+   * @return the next {@code length} bytes as a buffer that shares the content with this one
+   */
+  public @NotNull ByteBuffer slice(int length) {
+    final java.nio.ByteBuffer slice = buffer.duplicate();
+    slice.position(position);
+    slice.limit(position + length);
     position += length;
+    final ByteBuffer result = new ByteBuffer(slice.slice());
+    result.buffer.order(buffer.order());
+    return result;
   }
 
   public boolean eof() {
-    return position >= bytes.length;
+    return position >= buffer.limit();
+  }
+
+  public String readUTFBytes(int length) {
+    final String result = getUTFBytes(position, length);
+    position += length;
+    return result;
   }
 
-  public String readUTFBytes(int i) {
-    final byte[] buf = new byte[i];
-    while (i > 0) {
-      buf[buf.length - i] = (byte)readByte();
-      --i;
+  /**
+   * Decodes the string at the given offset, doesn't change the position.
+   */
+  public String getUTFBytes(int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
     }
-    return new String(buf, StandardCharsets.UTF_8);
+    final byte[] bytes = new byte[length];
+    final java.nio.ByteBuffer source = buffer.duplicate();
+    source.position(offset);
+    source.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
   }
 
   public double readDouble() {
@@ -142,7 +177,7 @@ class ByteBuffer {
   }
 
   public byte getByte(int i) {
-    return bytes[i];
+    return buffer.get(i);
   }
 
   public int getPosition() {
@@ -27,7 +27,9 @@ public final class FlexImporter {
 
       for (String file : args) {
         try {
-          String result = dumpContentsFromStream(new BufferedInputStream(new FileInputStream(file)), true);
+          final AbstractDumpProcessor abcDumper = new AbcDumper(true);
+          processFlexByteCode(ByteBuffer.map(new File(file)), abcDumper);
+          String result = abcDumper.getResult();
 
           saveStringAsFile(result, file + ".il");
         }
@@ -51,9 +53,19 @@ public final class FlexImporter {
 
   @NonNls
   public static String buildInterfaceFromStream(final InputStream in) {
+    try {
+      return buildInterface(loadBytes(in));
+    }
+    catch (IOException ex) {
+      return "/* " + ex.getLocalizedMessage() + " */";
+    }
+  }
+
+  @NonNls
+  public static String buildInterface(final byte @NotNull [] content) {
     try {
       final AbstractDumpProcessor abcDumper = new AS3InterfaceDumper();
-      processFlexByteCode(in, abcDumper);
+      processFlexByteCode(ByteBuffer.wrap(content), abcDumper);
       final String s = abcDumper.getResult();
       //saveStringAsFile(s, File.createTempFile("fleximport", ".as").getPath());
       return s;
@@ -61,7 +73,7 @@ public final class FlexImporter {
     catch (IOException ex) {
       return "/* " + ex.getLocalizedMessage() + " */";
     }
-    catch (ArrayIndexOutOfBoundsException ex) {
+    catch (IndexOutOfBoundsException ex) {
       return "/* Invalid format */";
     }
   }
@@ -71,9 +83,24 @@ public final class FlexImporter {
     processFlexByteCode(in, new AS3InterfaceStubDumper(parent));
   }
 
+  public static void buildStubsInterface(final byte @NotNull [] content, final StubElement parent) throws Exception {
+    processFlexByteCode(ByteBuffer.wrap(content), new AS3InterfaceStubDumper(parent));
+  }
+
   private static void processFlexByteCode(@NotNull final InputStream in, @NotNull FlexByteCodeInformationProcessor processor) throws IOException {
-    ByteBuffer data = new ByteBuffer();
-    data.read(in);
+    processFlexByteCode(ByteBuffer.wrap(loadBytes(in)), processor);
+  }
+
+  private static byte @NotNull [] loadBytes(@NotNull final InputStream in) throws IOException {
+    try {
+      return FileUtil.loadBytes(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void processFlexByteCode(@NotNull final ByteBuffer data, @NotNull FlexByteCodeInformationProcessor processor) throws IOException {
     data.setLittleEndian();
     if (data.bytesSize() == 0) return;
     int version = data.readUnsignedInt();
@@ -84,14 +111,11 @@ public final class FlexImporter {
     }
     else if ((version & SWF_MAGIC) == SWF_MAGIC) {
       final int delta = 8;
-      data.setPosition(delta);
-      ByteBuffer udata = new ByteBuffer();
-      udata.setLittleEndian();
-      data.readBytes(udata, data.bytesSize() - delta);
-      int csize = udata.bytesSize();
-      udata.uncompress();
-      processor.dumpStat("decompressed swf " + csize + " -> " + udata.bytesSize() + "\n");
-      udata.setPosition(0);
+      // uncompressed length of the whole file, including the header
+      final int fileLength = data.readUnsignedInt();
+      final int expectedLength = fileLength > delta ? fileLength - delta : 0;
+      ByteBuffer udata = data.inflate(delta, expectedLength);
+      processor.dumpStat("decompressed swf " + (data.bytesSize() - delta) + " -> " + udata.bytesSize() + "\n");
       new Swf(udata, processor);
     }
     else if ((version & SWF_MAGIC2) == SWF_MAGIC2) {
@@ -1,6 +1,14 @@
 package com.intellij.lang.javascript.flex.importer;
 
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Ref;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * @author Maxim.Mossienko
@@ -25,6 +33,8 @@ class Swf {
   private static final int stagDoABC = 72;   // embedded .abc (AVM+) bytecode
   private static final int stagDoABC2 = 82;   // revised ABC version with a name
 
+  private static final int MAX_ABC_IN_FLIGHT = 4;
+
   private static final @NonNls String[] tagNames = {
     "End",                  // 00
     "ShowFrame",            // 01
@@ -163,38 +173,77 @@ class Swf {
 
   private void decodeTags() {
     int type, h, length;
+    // ABC blocks don't depend on each other, so a few of them are parsed concurrently ahead of the one being dumped;
+    // the output is passed to the processor in the order of the tags
+    final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    final Queue<Runnable> steps = new ArrayDeque<>();
+    final Queue<ForkJoinTask<Abc>> pendingAbcs = new ArrayDeque<>(); // forked and not dumped yet
+
+    try {
+      loop:
+      while (data.getPosition() < data.bytesSize()) {
+        type = (h = data.readUnsignedShort()) >> 6;
+
+        if (((length = h & 0x3F) == 0x3F)) length = data.readInt();
+
+        final String tagStat =
+          (type < tagNames.length ? tagNames[type] : "undefined") + " " + length + "b " + ((int)100f * length / data.bytesSize()) + "%\n";
+        steps.add(() -> processor.dumpStat(tagStat));
+
+        switch (type) {
+          case 0:
+            break loop;
+          case stagDoABC2:
+            int pos1 = data.getPosition();
+            data.readInt();
+            final String abcName = readString();
+            steps.add(() -> processor.dumpStat("\nabc name " + abcName + "\n"));
+            length -= (data.getPosition() - pos1);
+            // fall through
+          case stagDoABC:
+            while (pendingAbcs.size() >= MAX_ABC_IN_FLIGHT) {
+              steps.remove().run();
+            }
+            final ByteBuffer abcData = data.slice(length);
+            final ForkJoinTask<Abc> abc = ForkJoinTask.adapt(() -> parseAbc(abcData, indicator)).fork();
+            pendingAbcs.add(abc);
+            steps.add(() -> {
+              ProgressManager.checkCanceled();
+              final Abc parsed = abc.join();
+              pendingAbcs.remove();
+              parsed.dump(processor.getAbcInSwfIndent());
+              processor.append("\n");
+            });
+            break;
+          default:
+            data.incPosition(length);
+        }
+      }
 
-    while (data.getPosition() < data.bytesSize()) {
-      type = (h = data.readUnsignedShort()) >> 6;
-
-      if (((length = h & 0x3F) == 0x3F)) length = data.readInt();
-
-      processor.dumpStat(
-        (type < tagNames.length ? tagNames[type] : "undefined") + " " + length + "b " + ((int)100f * length / data.bytesSize()) + "%\n");
-
-      switch (type) {
-        case 0:
-          return;
-        case stagDoABC2:
-          int pos1 = data.getPosition();
-          data.readInt();
-          final String abcName = readString();
-          processor.dumpStat("\nabc name " + abcName + "\n");
-          length -= (data.getPosition() - pos1);
-          // fall through
-        case stagDoABC:
-          ByteBuffer data2 = new ByteBuffer();
-          data2.setLittleEndian();
-          data.readBytes(data2, length);
-          new Abc(data2, processor).dump(processor.getAbcInSwfIndent());
-          processor.append("\n");
-          break;
-        default:
-          data.incPosition(length);
+      Runnable step;
+      while ((step = steps.poll()) != null) {
+        step.run();
+      }
+    }
+    finally {
+      // after a failure or cancellation, blocks that haven't started yet are not needed
+      for (ForkJoinTask<Abc> task : pendingAbcs) {
+        task.cancel(false);
       }
     }
   }
 
+  private Abc parseAbc(final ByteBuffer abcData, final @Nullable ProgressIndicator indicator) {
+    if (indicator == null) return new Abc(abcData, processor);
+
+    final Ref<Abc> result = new Ref<>();
+    ProgressManager.getInstance().executeProcessUnderProgress(() -> {
+      ProgressManager.checkCanceled();
+      result.set(new Abc(abcData, processor));
+    }, indicator);
+    return result.get();
+  }
+
   private String readString() {
     String s = "";
     int c;
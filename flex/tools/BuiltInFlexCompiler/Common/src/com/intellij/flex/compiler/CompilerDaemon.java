@@ -0,0 +1,167 @@
+package com.intellij.flex.compiler;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+
+/**
+ * Keeps the compiler JVM running between build sessions, so that they don't pay for JVM start and SDK class loading. Nothing
+ * compiler-specific is kept between sessions. Listens on a local port, writes it to the info file together with a token that
+ * a client must send first, and serves one build session at a time. Exits when no session starts within the idle timeout,
+ * or when more than the given share of the heap is still used after a session.
+ */
+public class CompilerDaemon {
+
+  public static final String CONNECTION_SUCCESSFUL = "Connection successful";
+
+  public interface Session {
+    /**
+     * Serves the build session until the client finishes it or the connection drops.
+     */
+    void run(DataInputStream input, DataOutputStream output) throws IOException;
+
+    /**
+     * Called when the session is over, before its connection is closed. Stops the session's compilations and waits for them,
+     * so that the next session doesn't run concurrently with them.
+     */
+    void close();
+  }
+
+  public interface SessionFactory {
+    Session createSession();
+  }
+
+  private final File myInfoFile;
+  private final int myIdleTimeoutMillis;
+  private final int myMaxHeapUsagePercent;
+  private final SessionFactory mySessionFactory;
+
+  public CompilerDaemon(final File infoFile, final int idleTimeoutMillis, final int maxHeapUsagePercent,
+                        final SessionFactory sessionFactory) {
+    myInfoFile = infoFile;
+    myIdleTimeoutMillis = idleTimeoutMillis;
+    myMaxHeapUsagePercent = maxHeapUsagePercent;
+    mySessionFactory = sessionFactory;
+  }
+
+  public void run() throws IOException {
+    final String token = new BigInteger(130, new SecureRandom()).toString(32);
+    final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    final int port = serverSocket.getLocalPort();
+
+    try {
+      serverSocket.setSoTimeout(myIdleTimeoutMillis);
+      writeInfoFile(port, token);
+      System.out.println("Flex compiler daemon is listening on port " + port);
+
+      while (true) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        }
+        catch (SocketTimeoutException e) {
+          System.out.println("No build sessions for " + myIdleTimeoutMillis / 1000 + " seconds, exiting");
+          break;
+        }
+
+        if (serveSession(socket, token) && isHeapExhausted()) {
+          System.out.println("More than " + myMaxHeapUsagePercent + "% of heap is used, exiting");
+          break;
+        }
+      }
+    }
+    finally {
+      deleteInfoFile(port);
+      serverSocket.close();
+    }
+  }
+
+  /**
+   * @return {@code true} if the client has sent the right token and the session has been served
+   */
+  private boolean serveSession(final Socket socket, final String token) {
+    Session session = null;
+    try {
+      final DataInputStream input = new DataInputStream(socket.getInputStream());
+      final DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+
+      socket.setSoTimeout(10000);
+      if (!token.equals(input.readUTF())) {
+        return false;
+      }
+      socket.setSoTimeout(0);
+
+      session = mySessionFactory.createSession();
+      output.writeUTF(CONNECTION_SUCCESSFUL + "\n");
+      session.run(input, output);
+    }
+    catch (IOException e) {
+      // build session finished
+    }
+    finally {
+      if (session != null) {
+        session.close();
+      }
+      try {
+        socket.close();
+      }
+      catch (IOException ignored) {/**/}
+    }
+    return session != null;
+  }
+
+  protected boolean isHeapExhausted() {
+    System.gc();
+    final Runtime runtime = Runtime.getRuntime();
+    final long used = runtime.totalMemory() - runtime.freeMemory();
+    return used * 100 > runtime.maxMemory() * myMaxHeapUsagePercent;
+  }
+
+  private void writeInfoFile(final int port, final String token) throws IOException {
+    // the file appears at once, so a client never reads a half-written one
+    final File tempFile = new File(myInfoFile.getPath() + ".tmp");
+    tempFile.delete();
+    if (!tempFile.createNewFile()) {
+      throw new IOException("Failed to create " + tempFile);
+    }
+    // the token lets only the owner connect, so the file is made private before the token is written
+    tempFile.setReadable(false, false);
+    tempFile.setReadable(true, true);
+    tempFile.setWritable(false, false);
+    tempFile.setWritable(true, true);
+
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+    try {
+      writer.write(port + "\n" + token + "\n");
+    }
+    finally {
+      writer.close();
+    }
+
+    myInfoFile.delete();
+    if (!tempFile.renameTo(myInfoFile)) {
+      throw new IOException("Failed to create " + myInfoFile);
+    }
+  }
+
+  private void deleteInfoFile(final int port) {
+    // another daemon may have replaced the file already
+    try {
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(myInfoFile), "UTF-8"));
+      try {
+        if (!String.valueOf(port).equals(reader.readLine())) return;
+      }
+      finally {
+        reader.close();
+      }
+    }
+    catch (IOException e) {
+      return;
+    }
+    myInfoFile.delete();
+  }
+}
@@ -13,6 +13,7 @@ public class CompilationThread extends Thread {
   private final SdkSpecificHandler mySdkSpecificHandler;
   private final String[] myParams;
   private final OutputLogger myLogger;
+  private volatile boolean myCancelled;
 
   public CompilationThread(final boolean isSwf,
                            final SdkSpecificHandler sdkSpecificHandler,
@@ -38,10 +39,9 @@ public class CompilationThread extends Thread {
       mySdkSpecificHandler.initThreadLocals(myLogger);
 
       final boolean omitTrace = mySdkSpecificHandler.isOmitTrace(mySwf, myParams);
+      if (!acquire(omitTrace)) return;
 
       try {
-        acquire(omitTrace);
-
         mySdkSpecificHandler.setupOmitTraceOption(omitTrace);
 
         if (mySwf) {
@@ -87,17 +87,33 @@ public class CompilationThread extends Thread {
     }
   }
 
-  private static void acquire(final boolean omitTrace) throws InterruptedException {
+  /**
+   * The compilation doesn't start if it is cancelled before its turn.
+   */
+  public void cancel() {
+    myCancelled = true;
     synchronized (lock) {
-      while ((omitTrace && traceCompilationsCount > 0) || (!omitTrace && omitTraceCompilationsCount > 0)) {
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * @return {@code false} if the compilation was cancelled while waiting
+   */
+  private boolean acquire(final boolean omitTrace) throws InterruptedException {
+    synchronized (lock) {
+      while (!myCancelled && ((omitTrace && traceCompilationsCount > 0) || (!omitTrace && omitTraceCompilationsCount > 0))) {
         lock.wait();
       }
+      if (myCancelled) return false;
+
       if (omitTrace) {
         omitTraceCompilationsCount++;
       }
       else {
         traceCompilationsCount++;
       }
+      return true;
     }
   }
 
@@ -8,10 +8,13 @@ import flex2.tools.VersionInfo;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
-public class FlexCompiler implements MessageSender {
+public class FlexCompiler implements MessageSender, CompilerDaemon.Session {
 
   private static final String CONNECTION_SUCCESSFUL = "Connection successful";
+  private static final String DAEMON_OPTION = "-daemon";
 
   private static final String FINISH_COMMAND = "Finish";
   public static final String CANCEL_COMMAND = "Cancel";
@@ -24,6 +27,11 @@ public class FlexCompiler implements MessageSender {
   private DataInputStream myDataInputStream;
   private DataOutputStream myDataOutputStream;
 
+  // guarded by this
+  private final List<CompilationThread> myCompilationThreads = new ArrayList<CompilationThread>();
+  // not guarded by this, a thread that sends a message to a dropped session may hold the lock for long
+  private volatile boolean mySessionClosed;
+
   private void openSocket(int port) throws IOException {
     final int maxAttempts = 10;
     Socket socket;
@@ -49,6 +57,21 @@ public class FlexCompiler implements MessageSender {
   }
 
   public static void main(String[] args) {
+    if (args.length == 4 && DAEMON_OPTION.equals(args[0])) {
+      try {
+        final CompilerDaemon.SessionFactory sessionFactory = new CompilerDaemon.SessionFactory() {
+          public CompilerDaemon.Session createSession() {
+            return new FlexCompiler();
+          }
+        };
+        new CompilerDaemon(new File(args[1]), Integer.parseInt(args[2]) * 60 * 1000, Integer.parseInt(args[3]), sessionFactory).run();
+      }
+      catch (Exception e) {
+        e.printStackTrace();
+      }
+      return;
+    }
+
     if (args.length != 1) {
       System.out.println("Missing port parameter");
     }
@@ -70,6 +93,7 @@ public class FlexCompiler implements MessageSender {
   }
 
   public synchronized void sendMessage(final String message) {
+    if (mySessionClosed) return;
     try {
       //System.out.println("OUT: [" + message + "]");
       myDataOutputStream.writeUTF(message.replace('\n', ' ').replace('\r', ' ').trim() + "\n");
@@ -79,6 +103,21 @@ public class FlexCompiler implements MessageSender {
     }
   }
 
+  public void run(final DataInputStream input, final DataOutputStream output) throws IOException {
+    myDataInputStream = input;
+    myDataOutputStream = output;
+    processInput();
+  }
+
+  /**
+   * Cancels the compilations of a finished or dropped session and waits for them. Their output is not sent anymore.
+   */
+  public void close() {
+    mySessionClosed = true;
+    cancelAllCompilations();
+    waitForCompilations();
+  }
+
   private void processInput() throws IOException {
     final StringBuilder buffer = new StringBuilder();
     while (true) {
@@ -153,6 +192,9 @@ public class FlexCompiler implements MessageSender {
       new CompilationThread(isSwf, sdkSpecificHandler, getParams(compilationCommand), logger);
     compilationThread.setPriority(Thread.MAX_PRIORITY);
     compilationThread.setDaemon(true);
+    synchronized (this) {
+      myCompilationThreads.add(compilationThread);
+    }
     compilationThread.start();
   }
 
@@ -188,7 +230,32 @@ public class FlexCompiler implements MessageSender {
     }
   }
 
+  /**
+   * Compilations that are waiting for their turn don't start. Running ones can't be interrupted, they finish as usual.
+   */
   private void cancelAllCompilations() {
-    // todo implement
+    final List<CompilationThread> threads;
+    synchronized (this) {
+      threads = new ArrayList<CompilationThread>(myCompilationThreads);
+    }
+    for (CompilationThread thread : threads) {
+      thread.cancel();
+    }
+  }
+
+  private void waitForCompilations() {
+    final List<CompilationThread> threads;
+    synchronized (this) {
+      threads = new ArrayList<CompilationThread>(myCompilationThreads);
+    }
+    for (CompilationThread thread : threads) {
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
   }
 }
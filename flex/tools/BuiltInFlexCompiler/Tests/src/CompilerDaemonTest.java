@@ -0,0 +1,218 @@
+import com.intellij.flex.compiler.CompilerDaemon;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run with -ea
+ */
+public class CompilerDaemonTest {
+  private static final String FINISH = "Finish\n";
+
+  public static void main(String[] args) throws Exception {
+    testWrongTokenIsRejected();
+    testSessionsReuseDaemon();
+    testExitsWhenHeapIsExhausted();
+    testExitsWhenIdle();
+  }
+
+  private static void testWrongTokenIsRejected() throws Exception {
+    final EchoSessions sessions = new EchoSessions();
+    final File infoFile = createInfoFile();
+    final Thread daemon = startDaemon(new CompilerDaemon(infoFile, 60000, 100, sessions), infoFile);
+
+    final Socket socket = connect(infoFile);
+    new DataOutputStream(socket.getOutputStream()).writeUTF("wrong token");
+    try {
+      new DataInputStream(socket.getInputStream()).readUTF();
+      assert false : "connection with a wrong token is not closed";
+    }
+    catch (EOFException e) {
+      // ok
+    }
+    socket.close();
+    assert sessions.created.isEmpty();
+
+    // the daemon still serves the owner
+    final Client client = new Client(infoFile);
+    assert client.send("1:mxmlc").equals("1 1:mxmlc");
+    client.finish();
+    assert daemon.isAlive();
+  }
+
+  private static void testSessionsReuseDaemon() throws Exception {
+    final EchoSessions sessions = new EchoSessions();
+    final File infoFile = createInfoFile();
+    final Thread daemon = startDaemon(new CompilerDaemon(infoFile, 60000, 100, sessions), infoFile);
+
+    final Client first = new Client(infoFile);
+    assert first.send("1:mxmlc").equals("1 1:mxmlc");
+    first.finish();
+
+    // a dropped connection ends the session as well
+    final Client second = new Client(infoFile);
+    assert second.send("1:compc").equals("2 1:compc");
+    second.mySocket.close();
+
+    final Client third = new Client(infoFile);
+    assert third.send("1:mxmlc").equals("3 1:mxmlc");
+    // the previous sessions were closed before the next one started
+    assert sessions.closedBeforeCreated.equals(list(0, 1, 2));
+    third.finish();
+
+    assert daemon.isAlive();
+  }
+
+  private static void testExitsWhenHeapIsExhausted() throws Exception {
+    final EchoSessions sessions = new EchoSessions();
+    final File infoFile = createInfoFile();
+    final Thread daemon = startDaemon(new CompilerDaemon(infoFile, 60000, 100, sessions) {
+      @Override
+      protected boolean isHeapExhausted() {
+        return true;
+      }
+    }, infoFile);
+
+    // a rejected connection doesn't make the daemon check the heap
+    final Socket socket = connect(infoFile);
+    new DataOutputStream(socket.getOutputStream()).writeUTF("wrong token");
+    socket.close();
+
+    final Client client = new Client(infoFile);
+    assert client.send("1:mxmlc").equals("1 1:mxmlc");
+    client.finish();
+
+    daemon.join(10000);
+    assert !daemon.isAlive() : "daemon hasn't exited after the session";
+    assert !infoFile.exists();
+    assert sessions.closedBeforeCreated.size() == 1;
+  }
+
+  private static void testExitsWhenIdle() throws Exception {
+    final File infoFile = createInfoFile();
+    final Thread daemon = startDaemon(new CompilerDaemon(infoFile, 300, 100, new EchoSessions()), infoFile);
+
+    daemon.join(10000);
+    assert !daemon.isAlive() : "idle daemon hasn't exited";
+    assert !infoFile.exists();
+  }
+
+  private static File createInfoFile() throws IOException {
+    final File infoFile = File.createTempFile("flex-compiler-daemon", ".txt");
+    infoFile.delete();
+    infoFile.deleteOnExit();
+    return infoFile;
+  }
+
+  private static Thread startDaemon(final CompilerDaemon compilerDaemon, final File infoFile) throws InterruptedException {
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          compilerDaemon.run();
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+
+    for (int i = 0; i < 100 && !infoFile.isFile(); i++) {
+      Thread.sleep(50);
+    }
+    assert infoFile.isFile() : "daemon hasn't written " + infoFile;
+    return thread;
+  }
+
+  private static Socket connect(final File infoFile) throws IOException {
+    return new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(readLines(infoFile).get(0)));
+  }
+
+  private static List<String> readLines(final File file) throws IOException {
+    final List<String> lines = new ArrayList<String>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    finally {
+      reader.close();
+    }
+    return lines;
+  }
+
+  private static List<Integer> list(final Integer... values) {
+    final List<Integer> result = new ArrayList<Integer>();
+    Collections.addAll(result, values);
+    return result;
+  }
+
+  private static class Client {
+    private final Socket mySocket;
+    private final DataInputStream myInput;
+    private final DataOutputStream myOutput;
+
+    Client(final File infoFile) throws IOException {
+      mySocket = connect(infoFile);
+      mySocket.setSoTimeout(10000);
+      myInput = new DataInputStream(mySocket.getInputStream());
+      myOutput = new DataOutputStream(mySocket.getOutputStream());
+      myOutput.writeUTF(readLines(infoFile).get(1));
+      assert myInput.readUTF().equals(CompilerDaemon.CONNECTION_SUCCESSFUL + "\n");
+    }
+
+    String send(final String command) throws IOException {
+      myOutput.writeUTF(command + "\n");
+      return myInput.readUTF();
+    }
+
+    void finish() throws IOException {
+      myOutput.writeUTF(FINISH);
+      try {
+        myInput.readUTF();
+        assert false : "session is not finished";
+      }
+      catch (EOFException e) {
+        // ok
+      }
+      mySocket.close();
+    }
+  }
+
+  /**
+   * Answers each command with the number of the session and the command
+   */
+  private static class EchoSessions implements CompilerDaemon.SessionFactory {
+    final List<Integer> created = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> closedBeforeCreated = Collections.synchronizedList(new ArrayList<Integer>());
+    private int myClosed;
+
+    public synchronized CompilerDaemon.Session createSession() {
+      final int number = created.size() + 1;
+      created.add(number);
+      closedBeforeCreated.add(myClosed);
+
+      return new CompilerDaemon.Session() {
+        public void run(final DataInputStream input, final DataOutputStream output) throws IOException {
+          String command;
+          while (!(command = input.readUTF()).equals(FINISH)) {
+            output.writeUTF(number + " " + command.trim());
+          }
+        }
+
+        public void close() {
+          synchronized (EchoSessions.this) {
+            myClosed++;
+          }
+        }
+      };
+    }
+  }
+}